@@ -0,0 +1,104 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import java.io.IOException;
+
+/**
+ * Result of one request of a batch, either a value or the error of that request
+ *
+ * @param <T> result type
+ * @author RA
+ * @since 4.3
+ * @see HttpConnClient#executeAll(java.util.List, org.apache.http.client.ResponseHandler, int, int)
+ */
+public class BatchResult<T> {
+
+    // ~ Instance fields ==================================================
+
+    private final HttpConnRequest request;
+
+    private final T value;
+
+    private final Exception error;
+
+    private final long elapsed;
+
+    // ~ Constructors ==================================================
+
+    BatchResult(HttpConnRequest request, T value, Exception error, long elapsed) {
+        this.request = request;
+        this.value = value;
+        this.error = error;
+        this.elapsed = elapsed;
+    }
+
+    // ~ Methods ==================================================
+
+    public HttpConnRequest getRequest() {
+        return request;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    /**
+     * @return value,null if failed
+     */
+    public T getValue() {
+        return value;
+    }
+
+    /**
+     * @return error,null if succeeded
+     */
+    public Exception getError() {
+        return error;
+    }
+
+    /**
+     * @return milliseconds the request took
+     */
+    public long getElapsed() {
+        return elapsed;
+    }
+
+    /**
+     * Get the value or throw the error
+     *
+     * @return value
+     * @throws IOException the error of the request
+     */
+    public T get() throws IOException {
+        if (error instanceof IOException) {
+            throw (IOException) error;
+        }
+        if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        }
+        if (error != null) {
+            throw new IOException(error);
+        }
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return request + (error == null ? " OK" : " " + error);
+    }
+
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Callback writing the request body straight to the connection
+ *
+ * @author RA
+ * @see HttpConn#sendBody(String, BodyWriter, RequestMethod)
+ */
+public interface BodyWriter {
+
+    /**
+     * Write the request body,do not close the stream
+     *
+     * @param out connection output stream
+     * @throws IOException if an I/O error occurs
+     */
+    void writeTo(OutputStream out) throws IOException;
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.Args;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Streamed entity written by a {@link BodyWriter},sent chunked when the length is unknown
+ *
+ * @author RA
+ * @since 4.3
+ */
+public class BodyWriterEntity extends AbstractHttpEntity {
+
+    private final BodyWriter writer;
+
+    private final long length;
+
+    /**
+     * Create a chunked entity
+     *
+     * @param writer      body writer
+     * @param contentType content type (optional)
+     */
+    public BodyWriterEntity(BodyWriter writer, ContentType contentType) {
+        this(writer, -1, contentType);
+    }
+
+    /**
+     * Create an entity
+     *
+     * @param writer      body writer
+     * @param length      body length,negative if unknown
+     * @param contentType content type (optional)
+     */
+    public BodyWriterEntity(BodyWriter writer, long length, ContentType contentType) {
+        this.writer = Args.notNull(writer, "Body writer");
+        this.length = length;
+        if (contentType != null) {
+            setContentType(contentType.toString());
+        }
+        setChunked(length < 0);
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return false;
+    }
+
+    @Override
+    public long getContentLength() {
+        return length;
+    }
+
+    /**
+     * Not supported,the body only exists while it is written
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public InputStream getContent() throws IOException {
+        throw new UnsupportedOperationException("Body writer entity can only be written to a stream");
+    }
+
+    @Override
+    public void writeTo(OutputStream outstream) throws IOException {
+        Args.notNull(outstream, "Output stream");
+        writer.writeTo(outstream);
+        outstream.flush();
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return true;
+    }
+
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Handle the whole response body held in a pooled buffer
+ *
+ * @param <T> result type
+ * @author RA
+ * @since 4.3
+ * @see ResponseHandlers#toBuffer(ByteBufferPool, BufferHandler)
+ */
+public interface BufferHandler<T> {
+
+    /**
+     * Handle the body,the buffer goes back to the pool after this returns,
+     * do not keep a reference to it
+     *
+     * @param content read-only view of the body,positioned at 0
+     * @return result
+     * @throws IOException if an I/O error occurs
+     */
+    T handle(ByteBuffer content) throws IOException;
+
+}
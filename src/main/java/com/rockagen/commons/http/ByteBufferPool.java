@@ -0,0 +1,169 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Bounded pool of reusable {@link ByteBuffer}s, heap or direct.
+ * <p>
+ * A buffer outgrown by a response is replaced by one twice as large, up to
+ * <code>maxPooledCapacity</code>, so the pooled buffers settle at the size of
+ * the usual response. Larger buffers are used once and left to the GC.
+ * </p>
+ *
+ * @author RA
+ * @since 4.3
+ * @see HttpConn#getResponse(org.apache.http.HttpResponse, ByteBufferPool, BufferHandler)
+ */
+public class ByteBufferPool {
+
+    // ~ Instance fields ==================================================
+
+    public final static int DEFAULT_BUFFER_SIZE = 16 * 1024;
+
+    public final static int DEFAULT_MAX_BUFFERS = 64;
+
+    public final static int DEFAULT_MAX_POOLED_CAPACITY = 1024 * 1024;
+
+    private final static ByteBufferPool shared = new ByteBufferPool();
+
+    private final int bufferSize;
+
+    private final int maxPooledCapacity;
+
+    private final boolean direct;
+
+    private final BlockingQueue<ByteBuffer> buffers;
+
+    // ~ Constructors ==================================================
+
+    /**
+     * Heap buffers of default size
+     */
+    public ByteBufferPool() {
+        this(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_BUFFERS, DEFAULT_MAX_POOLED_CAPACITY, false);
+    }
+
+    /**
+     * Create
+     *
+     * @param bufferSize        capacity of new buffers
+     * @param maxBuffers        max idle buffers kept
+     * @param maxPooledCapacity max capacity of a buffer kept
+     * @param direct            direct or heap buffers
+     */
+    public ByteBufferPool(int bufferSize, int maxBuffers, int maxPooledCapacity, boolean direct) {
+        if (bufferSize <= 0 || maxBuffers <= 0) {
+            throw new IllegalArgumentException("Buffer size and max buffers must be positive");
+        }
+        this.bufferSize = bufferSize;
+        this.maxPooledCapacity = Math.max(maxPooledCapacity, bufferSize);
+        this.direct = direct;
+        this.buffers = new ArrayBlockingQueue<ByteBuffer>(maxBuffers);
+    }
+
+    // ~ Methods ==================================================
+
+    /**
+     * The pool of heap buffers shared by default
+     *
+     * @return {@link ByteBufferPool}
+     */
+    public static ByteBufferPool getShared() {
+        return shared;
+    }
+
+    /**
+     * Take a cleared buffer from the pool,or allocate one
+     *
+     * @return {@link ByteBuffer}
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            return allocate(bufferSize);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Take a cleared buffer of at least the capacity
+     *
+     * @param capacity min capacity
+     * @return {@link ByteBuffer}
+     */
+    public ByteBuffer acquire(int capacity) {
+        ByteBuffer buffer = acquire();
+        if (buffer.capacity() >= capacity) {
+            return buffer;
+        }
+        release(buffer);
+        return allocate(capacity);
+    }
+
+    /**
+     * Replace a full buffer by one twice as large holding the same content,the old one is released
+     * and must not be released again by the caller
+     *
+     * @param buffer full buffer in write mode
+     * @return larger buffer in write mode
+     */
+    public ByteBuffer grow(ByteBuffer buffer) {
+        int capacity = buffer.capacity() > Integer.MAX_VALUE / 2 ? Integer.MAX_VALUE : buffer.capacity() * 2;
+        ByteBuffer larger = allocate(capacity);
+        buffer.flip();
+        larger.put(buffer);
+        release(buffer);
+        return larger;
+    }
+
+    /**
+     * Return the buffer to the pool,it must not be used after
+     *
+     * @param buffer {@link ByteBuffer}
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer != null && !buffer.isReadOnly() && buffer.isDirect() == direct
+                && buffer.capacity() <= maxPooledCapacity) {
+            buffer.clear();
+            buffers.offer(buffer);
+        }
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    /**
+     * @return idle buffers in the pool
+     */
+    public int size() {
+        return buffers.size();
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+}
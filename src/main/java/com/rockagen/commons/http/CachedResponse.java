@@ -0,0 +1,39 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import org.apache.http.StatusLine;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.message.BasicHttpResponse;
+
+/**
+ * Response served from {@link HttpCache},holds no connection
+ *
+ * @author RA
+ * @since 4.3
+ */
+class CachedResponse extends BasicHttpResponse implements CloseableHttpResponse {
+
+    CachedResponse(StatusLine statusLine) {
+        super(statusLine);
+    }
+
+    @Override
+    public void close() {
+        // nothing to release
+    }
+
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link DnsResolver} caching the answers of another one.
+ * <p>
+ * Addresses are kept for <code>positiveTtl</code>, failures for
+ * <code>negativeTtl</code>. An address looked up in the last quarter of its
+ * TTL is refreshed by a background thread while the cached one is still
+ * returned, so a busy host never waits for the resolver. If the refresh
+ * fails, for any reason since a resolver timeout is reported as an unknown
+ * host too, the cached address is kept, at most one TTL past the expiry of
+ * the answer. Failures are cached only on a miss. Expired answers are purged
+ * on a miss, at most once a TTL.
+ * </p>
+ * <p>
+ * Overrides map a host to fixed addresses and win over the cache, handy
+ * for tests. {@link #preResolve(Collection)} warms the cache at startup.
+ * </p>
+ *
+ * @author RA
+ * @since 4.3
+ */
+public class CachingDnsResolver implements DnsResolver {
+
+    // ~ Instance fields ==================================================
+
+    /** */
+    private static final Logger log = LoggerFactory.getLogger(CachingDnsResolver.class);
+
+    public final static long DEFAULT_POSITIVE_TTL = 30000;
+
+    public final static long DEFAULT_NEGATIVE_TTL = 10000;
+
+    private final static CachingDnsResolver shared = new CachingDnsResolver();
+
+    private final static ExecutorService refresher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "http-dns-refresh");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private final DnsResolver delegate;
+
+    private final long positiveTtl;
+
+    private final long negativeTtl;
+
+    private final ConcurrentMap<String, Entry> cache = new ConcurrentHashMap<String, Entry>();
+
+    private final ConcurrentMap<String, InetAddress[]> overrides = new ConcurrentHashMap<String, InetAddress[]>();
+
+    private final AtomicLong nextPurge = new AtomicLong();
+
+    // ~ Constructors ==================================================
+
+    /**
+     * Cache the system resolver with default TTLs
+     */
+    public CachingDnsResolver() {
+        this(SystemDefaultDnsResolver.INSTANCE, DEFAULT_POSITIVE_TTL, DEFAULT_NEGATIVE_TTL);
+    }
+
+    /**
+     * Create
+     *
+     * @param delegate    resolver asked on a miss
+     * @param positiveTtl milliseconds addresses are kept
+     * @param negativeTtl milliseconds failures are kept,0 means not cached
+     */
+    public CachingDnsResolver(DnsResolver delegate, long positiveTtl, long negativeTtl) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("Delegate resolver must not be null");
+        }
+        this.delegate = delegate;
+        this.positiveTtl = positiveTtl;
+        this.negativeTtl = negativeTtl;
+    }
+
+    // ~ Methods ==================================================
+
+    /**
+     * The resolver of engines created without one
+     *
+     * @return {@link CachingDnsResolver}
+     */
+    public static CachingDnsResolver getShared() {
+        return shared;
+    }
+
+    @Override
+    public InetAddress[] resolve(String host) throws UnknownHostException {
+        String key = host.toLowerCase(Locale.US);
+        InetAddress[] fixed = overrides.get(key);
+        if (fixed != null) {
+            return fixed.clone();
+        }
+        long now = System.currentTimeMillis();
+        Entry entry = cache.get(key);
+        if (entry == null || now >= entry.expires) {
+            entry = lookup(host, key, now);
+        } else if (entry.addresses != null && now >= entry.refreshAt) {
+            refreshAsync(host, key, entry);
+        }
+        if (entry.addresses == null) {
+            throw new UnknownHostException(host);
+        }
+        return entry.addresses.clone();
+    }
+
+    private Entry lookup(String host, String key, long now) {
+        purge(now);
+        Entry entry;
+        try {
+            entry = new Entry(delegate.resolve(host), now, positiveTtl);
+        } catch (UnknownHostException e) {
+            entry = new Entry(null, now, negativeTtl);
+        }
+        cache.put(key, entry);
+        return entry;
+    }
+
+    private void refreshAsync(final String host, final String key, final Entry entry) {
+        if (!entry.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        refresher.execute(new Runnable() {
+            @Override
+            public void run() {
+                long now = System.currentTimeMillis();
+                try {
+                    cache.replace(key, entry, new Entry(delegate.resolve(host), now, positiveTtl));
+                } catch (Exception e) {
+                    // keep serving the last good answer,but not past one more TTL
+                    log.warn("Refresh {} failed: {}", host, e.getMessage());
+                    long staleUntil = entry.resolvedExpires + positiveTtl;
+                    if (now < staleUntil) {
+                        cache.replace(key, entry, new Entry(entry.addresses, now + positiveTtl / 4,
+                                Math.min(now + positiveTtl, staleUntil), entry.resolvedExpires));
+                    } else {
+                        cache.remove(key, entry);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Remove expired answers,at most once a TTL
+     */
+    private void purge(long now) {
+        long next = nextPurge.get();
+        if (now < next || !nextPurge.compareAndSet(next, now + Math.max(positiveTtl, negativeTtl))) {
+            return;
+        }
+        for (Map.Entry<String, Entry> e : cache.entrySet()) {
+            if (now >= e.getValue().expires) {
+                cache.remove(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    /**
+     * Resolve the hosts now,so the first requests do not wait
+     *
+     * @param hosts host names
+     * @return hosts resolved
+     */
+    public int preResolve(Collection<String> hosts) {
+        int resolved = 0;
+        for (String host : hosts) {
+            try {
+                resolve(host);
+                resolved++;
+            } catch (UnknownHostException e) {
+                log.warn("Pre-resolve {} failed", host);
+            }
+        }
+        return resolved;
+    }
+
+    /**
+     * @param hosts host names
+     * @return hosts resolved
+     * @see #preResolve(Collection)
+     */
+    public int preResolve(String... hosts) {
+        return preResolve(Arrays.asList(hosts));
+    }
+
+    /**
+     * Always answer the addresses for the host
+     *
+     * @param host      host name
+     * @param addresses addresses
+     */
+    public void override(String host, InetAddress... addresses) {
+        if (addresses == null || addresses.length == 0) {
+            throw new IllegalArgumentException("Addresses must not be empty");
+        }
+        overrides.put(host.toLowerCase(Locale.US), addresses.clone());
+    }
+
+    /**
+     * @param host host name
+     */
+    public void removeOverride(String host) {
+        overrides.remove(host.toLowerCase(Locale.US));
+    }
+
+    /**
+     * Forget the cached answer of the host
+     *
+     * @param host host name
+     */
+    public void invalidate(String host) {
+        cache.remove(host.toLowerCase(Locale.US));
+    }
+
+    /**
+     * Forget all cached answers,overrides are kept
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * @return cached answers,positive and negative
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    public long getPositiveTtl() {
+        return positiveTtl;
+    }
+
+    public long getNegativeTtl() {
+        return negativeTtl;
+    }
+
+    /**
+     * Cached answer,null addresses for a failure
+     */
+    private static class Entry {
+
+        private final InetAddress[] addresses;
+
+        private final long expires;
+
+        private final long refreshAt;
+
+        /**
+         * Expiry of the answer as resolved,a stale copy keeps it
+         */
+        private final long resolvedExpires;
+
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        Entry(InetAddress[] addresses, long now, long ttl) {
+            this(addresses, now + ttl - ttl / 4, now + ttl, now + ttl);
+        }
+
+        Entry(InetAddress[] addresses, long refreshAt, long expires, long resolvedExpires) {
+            this.addresses = addresses;
+            this.refreshAt = refreshAt;
+            this.expires = expires;
+            this.resolvedExpires = resolvedExpires;
+        }
+    }
+
+}
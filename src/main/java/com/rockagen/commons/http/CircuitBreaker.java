@@ -0,0 +1,195 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+/**
+ * Circuit breaker of one host.
+ * <p>
+ * The outcome of the last <code>windowSize</code> calls is kept in a ring.
+ * Once at least <code>minimumCalls</code> were recorded and the failure rate
+ * reaches the threshold the breaker opens and calls fail fast. After
+ * <code>openMillis</code> it turns half open and lets <code>halfOpenProbes</code>
+ * calls through: if they all succeed it closes, any failure opens it again.
+ * </p>
+ *
+ * @author RA
+ * @since 4.3
+ */
+public class CircuitBreaker {
+
+    // ~ Instance fields ==================================================
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int minimumCalls;
+
+    private final float failureRateThreshold;
+
+    private final long openMillis;
+
+    private final int halfOpenProbes;
+
+    private final boolean[] window;
+
+    private int calls;
+
+    private int failures;
+
+    private int next;
+
+    private State state = State.CLOSED;
+
+    private long openUntil;
+
+    private int probing;
+
+    private int probed;
+
+    // ~ Constructors ==================================================
+
+    /**
+     * Create a breaker
+     *
+     * @param windowSize           outcomes kept in the window
+     * @param minimumCalls         calls recorded before the failure rate is considered
+     * @param failureRateThreshold failure rate (0-1) which opens the breaker
+     * @param openMillis           milliseconds the breaker stays open
+     * @param halfOpenProbes       calls let through when half open
+     */
+    public CircuitBreaker(int windowSize, int minimumCalls, float failureRateThreshold, long openMillis,
+                          int halfOpenProbes) {
+        if (windowSize <= 0 || halfOpenProbes <= 0) {
+            throw new IllegalArgumentException("Window size and half open probes must be positive");
+        }
+        this.window = new boolean[windowSize];
+        this.minimumCalls = Math.min(Math.max(minimumCalls, 1), windowSize);
+        this.failureRateThreshold = failureRateThreshold;
+        this.openMillis = openMillis;
+        this.halfOpenProbes = halfOpenProbes;
+    }
+
+    // ~ Methods ==================================================
+
+    /**
+     * Ask permission to call
+     *
+     * @return false if the call should fail fast
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.OPEN) {
+            if (System.currentTimeMillis() < openUntil) {
+                return false;
+            }
+            state = State.HALF_OPEN;
+            probing = 0;
+            probed = 0;
+        }
+        if (probing + probed >= halfOpenProbes) {
+            return false;
+        }
+        probing++;
+        return true;
+    }
+
+    /**
+     * Record a successful call
+     */
+    public synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            probing--;
+            if (++probed >= halfOpenProbes) {
+                close();
+            }
+        } else if (state == State.CLOSED) {
+            record(false);
+        }
+    }
+
+    /**
+     * Record a failed call
+     */
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            open();
+        } else if (state == State.CLOSED) {
+            record(true);
+            if (calls >= minimumCalls && (float) failures / calls >= failureRateThreshold) {
+                open();
+            }
+        }
+    }
+
+    /**
+     * Give back the permission of a call cancelled before its outcome was known
+     */
+    public synchronized void onIgnored() {
+        if (state == State.HALF_OPEN && probing > 0) {
+            probing--;
+        }
+    }
+
+    private void record(boolean failure) {
+        if (calls == window.length) {
+            if (window[next]) {
+                failures--;
+            }
+        } else {
+            calls++;
+        }
+        window[next] = failure;
+        if (failure) {
+            failures++;
+        }
+        next = (next + 1) % window.length;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openUntil = System.currentTimeMillis() + openMillis;
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        calls = 0;
+        failures = 0;
+        next = 0;
+    }
+
+    public synchronized State getState() {
+        if (state == State.OPEN && System.currentTimeMillis() >= openUntil) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    /**
+     * @return failure rate of the window,0 if nothing recorded
+     */
+    public synchronized float getFailureRate() {
+        return calls == 0 ? 0 : (float) failures / calls;
+    }
+
+    @Override
+    public String toString() {
+        return getState() + " (" + getFailureRate() + ")";
+    }
+
+}
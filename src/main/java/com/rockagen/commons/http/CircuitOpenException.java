@@ -0,0 +1,41 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the {@link CircuitBreaker} of the host is open and the call fails fast
+ *
+ * @author RA
+ * @since 4.3
+ */
+public class CircuitOpenException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String host;
+
+    public CircuitOpenException(String host) {
+        super("Circuit of [" + host + "] is open");
+        this.host = host;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+}
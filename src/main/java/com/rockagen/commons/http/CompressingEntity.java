@@ -0,0 +1,112 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.message.BasicHeader;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Request body compressed with gzip or deflate while it is written
+ *
+ * @author RA
+ * @since 4.3
+ */
+class CompressingEntity extends HttpEntityWrapper {
+
+    private final static int BUFFER_SIZE = 8192;
+
+    private final String encoding;
+
+    private final HttpCompression stats;
+
+    CompressingEntity(HttpEntity entity, String encoding, HttpCompression stats) {
+        super(entity);
+        this.encoding = encoding;
+        this.stats = stats;
+    }
+
+    @Override
+    public Header getContentEncoding() {
+        return new BasicHeader("Content-Encoding", encoding);
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    @Override
+    public boolean isChunked() {
+        return true;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        throw new UnsupportedOperationException("Compressed body can only be written");
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        CountingOutputStream compressed = new CountingOutputStream(out) {
+            @Override
+            public void close() throws IOException {
+                // the connection stream is closed by the caller
+                flush();
+            }
+        };
+        DeflaterOutputStream zip = HttpCompression.GZIP.equals(encoding)
+                ? new GZIPOutputStream(compressed, BUFFER_SIZE) : new DeflaterOutputStream(compressed);
+        CountingOutputStream raw = new CountingOutputStream(zip);
+        try {
+            wrappedEntity.writeTo(raw);
+        } finally {
+            // finish the stream and release the deflater
+            zip.close();
+        }
+        stats.recordRequest(raw.count, compressed.count);
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+}
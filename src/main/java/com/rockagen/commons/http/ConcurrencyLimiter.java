@@ -0,0 +1,206 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+/**
+ * Adaptive limit of the requests in flight to one host.
+ * <p>
+ * The limit follows AIMD driven by latency: every call answered within
+ * <code>tolerance</code> times the lowest latency seen grows the limit by
+ * <code>1/limit</code> (about one per round trip), a slower call or a dropped
+ * one (I/O error, 429, 503, 504) cuts it by <code>backoffRatio</code>, at
+ * most once a round trip: a call started before the last cut was in flight
+ * when it was made and does not cut again. The lowest latency is forgotten every <code>probeInterval</code> samples so the
+ * limiter follows an upstream whose baseline moved.
+ * </p>
+ * <p>
+ * Calls over the limit wait in a queue of at most <code>maxQueue</code>,
+ * the rest are shed.
+ * </p>
+ *
+ * @author RA
+ * @since 4.3
+ */
+public class ConcurrencyLimiter {
+
+    // ~ Instance fields ==================================================
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final int maxQueue;
+
+    private final double tolerance;
+
+    private final double backoffRatio;
+
+    private final int probeInterval;
+
+    private double limit;
+
+    private int inFlight;
+
+    private int queued;
+
+    private long minRtt = Long.MAX_VALUE;
+
+    private int samples;
+
+    /**
+     * System.nanoTime() of the last cut,NONE if none yet
+     */
+    private long lastCut = NONE;
+
+    private static final long NONE = Long.MIN_VALUE;
+
+    // ~ Constructors ==================================================
+
+    /**
+     * Create a limiter
+     *
+     * @param initialLimit  limit to start with
+     * @param minLimit      lowest limit
+     * @param maxLimit      highest limit
+     * @param maxQueue      calls waiting over the limit,0 sheds at once
+     * @param tolerance     latency over the lowest one (ratio,above 1) still taken as unloaded
+     * @param backoffRatio  ratio (0-1) the limit is cut by on overload
+     * @param probeInterval samples after which the lowest latency is measured again
+     */
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, int maxQueue, double tolerance,
+                              double backoffRatio, int probeInterval) {
+        if (minLimit <= 0 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Limits must be positive and min <= max");
+        }
+        if (tolerance <= 1 || backoffRatio <= 0 || backoffRatio >= 1) {
+            throw new IllegalArgumentException("Tolerance must be above 1 and backoff ratio within (0,1)");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.maxQueue = Math.max(maxQueue, 0);
+        this.tolerance = tolerance;
+        this.backoffRatio = backoffRatio;
+        this.probeInterval = Math.max(probeInterval, 1);
+        this.limit = Math.min(Math.max(initialLimit, minLimit), maxLimit);
+    }
+
+    // ~ Methods ==================================================
+
+    /**
+     * Take a slot,waiting in the queue if the limit is reached
+     *
+     * @param waitMillis max milliseconds to wait
+     * @return false if the call is shed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized boolean acquire(long waitMillis) throws InterruptedException {
+        if (inFlight < (int) limit) {
+            inFlight++;
+            return true;
+        }
+        if (queued >= maxQueue || waitMillis <= 0) {
+            return false;
+        }
+        long until = System.currentTimeMillis() + waitMillis;
+        queued++;
+        try {
+            while (inFlight >= (int) limit) {
+                long left = until - System.currentTimeMillis();
+                if (left <= 0) {
+                    return false;
+                }
+                wait(left);
+            }
+            inFlight++;
+            return true;
+        } finally {
+            queued--;
+        }
+    }
+
+    /**
+     * Release the slot of a call answered in time
+     *
+     * @param rttNanos latency of the call
+     */
+    public synchronized void onSuccess(long rttNanos) {
+        if (++samples >= probeInterval) {
+            samples = 0;
+            minRtt = rttNanos;
+        } else if (rttNanos < minRtt) {
+            minRtt = rttNanos;
+        }
+        if (rttNanos > minRtt * tolerance) {
+            decrease(rttNanos);
+        } else if (inFlight * 2 >= limit) {
+            // only grow when the limit is actually used
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+        release();
+    }
+
+    /**
+     * Release the slot of a call dropped by the host
+     *
+     * @param rttNanos time from the start of the call to the drop
+     */
+    public synchronized void onDropped(long rttNanos) {
+        decrease(rttNanos);
+        release();
+    }
+
+    /**
+     * Release the slot without a sample,e.g. the call was cancelled
+     */
+    public synchronized void onIgnored() {
+        release();
+    }
+
+    private void decrease(long rttNanos) {
+        long now = System.nanoTime();
+        if (lastCut != NONE && now - rttNanos - lastCut < 0) {
+            // started before the last cut,already accounted
+            return;
+        }
+        lastCut = now;
+        limit = Math.max(minLimit, limit * backoffRatio);
+    }
+
+    private void release() {
+        if (inFlight > 0) {
+            inFlight--;
+        }
+        notifyAll();
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getQueued() {
+        return queued;
+    }
+
+    @Override
+    public String toString() {
+        return getInFlight() + "/" + getLimit();
+    }
+
+}
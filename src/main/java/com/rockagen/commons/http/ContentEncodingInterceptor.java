@@ -0,0 +1,118 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Accept-Encoding negotiation and streaming response decoding.
+ * <p>
+ * Replaces the built-in content compression of HttpClient so it can be
+ * turned off per call and report to the {@link HttpCompression} found in
+ * the context under {@link HttpCompression#CONTEXT_ATTRIBUTE}. Without one
+ * it behaves like the built-in: gzip and deflate are accepted and decoded.
+ * </p>
+ * <p>
+ * {@link HttpEngine} runs it as interceptors, {@link HttpConnClient} calls
+ * {@link #negotiate(HttpRequest, HttpCompression)} and
+ * {@link #decode(HttpResponse, HttpCompression)} itself so the same holds
+ * for any {@link HttpTransport}. A decoded response has no Content-Encoding
+ * left, decoding twice is not possible.
+ * </p>
+ *
+ * @author RA
+ * @since 4.3
+ */
+class ContentEncodingInterceptor implements HttpRequestInterceptor, HttpResponseInterceptor {
+
+    final static ContentEncodingInterceptor INSTANCE = new ContentEncodingInterceptor();
+
+    private ContentEncodingInterceptor() {
+    }
+
+    @Override
+    public void process(HttpRequest request, HttpContext context) throws HttpException, IOException {
+        negotiate(request, (HttpCompression) context.getAttribute(HttpCompression.CONTEXT_ATTRIBUTE));
+    }
+
+    @Override
+    public void process(HttpResponse response, HttpContext context) throws HttpException, IOException {
+        decode(response, (HttpCompression) context.getAttribute(HttpCompression.CONTEXT_ATTRIBUTE));
+    }
+
+    /**
+     * Ask for gzip and deflate unless turned off or asked by the caller
+     *
+     * @param request     request
+     * @param compression compression to follow,null means the default
+     */
+    static void negotiate(HttpRequest request, HttpCompression compression) {
+        if (compression != null && !compression.isAcceptEncoding()) {
+            return;
+        }
+        if (!request.containsHeader("Accept-Encoding")) {
+            request.addHeader("Accept-Encoding", "gzip,deflate");
+        }
+    }
+
+    /**
+     * Decode the response body while it is read
+     *
+     * @param response    response
+     * @param compression compression to follow and report to,null means the default
+     */
+    static void decode(HttpResponse response, HttpCompression compression) {
+        HttpEntity entity = response.getEntity();
+        if (entity == null || entity.getContentLength() == 0) {
+            return;
+        }
+        if (compression != null && !compression.isAcceptEncoding()) {
+            return;
+        }
+        Header ceheader = entity.getContentEncoding();
+        if (ceheader == null) {
+            return;
+        }
+        HeaderElement[] codecs = ceheader.getElements();
+        if (codecs.length == 0) {
+            return;
+        }
+        String codec = codecs[0].getName().toLowerCase(Locale.US);
+        if ("gzip".equals(codec) || "x-gzip".equals(codec)) {
+            response.setEntity(new DecodingEntity(entity, true, compression));
+        } else if ("deflate".equals(codec)) {
+            response.setEntity(new DecodingEntity(entity, false, compression));
+        } else {
+            // identity or unknown,leave as is
+            return;
+        }
+        response.removeHeaders("Content-Length");
+        response.removeHeaders("Content-Encoding");
+        response.removeHeaders("Content-MD5");
+    }
+
+}
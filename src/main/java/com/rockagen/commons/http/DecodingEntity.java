@@ -0,0 +1,228 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Response body decompressed from gzip or deflate while it is read,the
+ * decompressing stream is opened lazily and only once
+ *
+ * @author RA
+ * @since 4.3
+ */
+class DecodingEntity extends HttpEntityWrapper {
+
+    private final static int BUFFER_SIZE = 8192;
+
+    private final boolean gzip;
+
+    private final HttpCompression stats;
+
+    private InputStream content;
+
+    /**
+     * @param entity compressed entity
+     * @param gzip   gzip or deflate
+     * @param stats  compression to report to,may be null
+     */
+    DecodingEntity(HttpEntity entity, boolean gzip, HttpCompression stats) {
+        super(entity);
+        this.gzip = gzip;
+        this.stats = stats;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        if (content == null || !wrappedEntity.isStreaming()) {
+            content = new DecodingStream(wrappedEntity.getContent());
+        }
+        return content;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        InputStream in = getContent();
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public Header getContentEncoding() {
+        return null;
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    /**
+     * Decompressing stream counting compressed and decompressed bytes
+     */
+    private class DecodingStream extends FilterInputStream {
+
+        private final CountingInputStream compressed;
+
+        private InflaterInputStream decoder;
+
+        private long count;
+
+        private boolean reported;
+
+        DecodingStream(InputStream in) {
+            super(in);
+            this.compressed = new CountingInputStream(in);
+        }
+
+        private InputStream decoder() throws IOException {
+            if (decoder == null) {
+                if (gzip) {
+                    decoder = new GZIPInputStream(compressed, BUFFER_SIZE);
+                } else {
+                    // "deflate" is zlib wrapped by the spec but raw deflate in the wild
+                    PushbackInputStream pb = new PushbackInputStream(compressed, 2);
+                    int cmf = pb.read();
+                    int flg = cmf < 0 ? -1 : pb.read();
+                    if (flg >= 0) {
+                        pb.unread(flg);
+                    }
+                    if (cmf >= 0) {
+                        pb.unread(cmf);
+                    }
+                    boolean zlib = flg >= 0 && (cmf & 0x0F) == 8 && ((cmf << 8) | flg) % 31 == 0;
+                    decoder = new InflaterInputStream(pb, new Inflater(!zlib), BUFFER_SIZE) {
+                        @Override
+                        public void close() throws IOException {
+                            inf.end();
+                            super.close();
+                        }
+                    };
+                }
+            }
+            return decoder;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = decoder().read();
+            if (b >= 0) {
+                count++;
+            } else {
+                report();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = decoder().read(b, off, len);
+            if (n > 0) {
+                count += n;
+            } else if (n < 0) {
+                report();
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = decoder().skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return decoder().available();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            report();
+            if (decoder != null) {
+                decoder.close();
+            } else {
+                in.close();
+            }
+        }
+
+        private void report() {
+            if (!reported && stats != null) {
+                reported = true;
+                stats.recordResponse(count, compressed.count);
+            }
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+}
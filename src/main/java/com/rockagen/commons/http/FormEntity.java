@@ -0,0 +1,155 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.Args;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * <code>application/x-www-form-urlencoded</code> entity encoded while it is
+ * written.
+ * <p>
+ * Unlike {@link org.apache.http.client.entity.UrlEncodedFormEntity} the
+ * encoded form is never built as a whole: each name and value is percent
+ * encoded straight to the stream. The length is counted up front, so the
+ * body is not sent chunked.
+ * </p>
+ *
+ * @author RA
+ * @since 4.3
+ */
+public class FormEntity extends AbstractHttpEntity {
+
+    private final static byte[] HEX = "0123456789ABCDEF".getBytes();
+
+    private final static int BUFFER_SIZE = 8192;
+
+    private final List<? extends NameValuePair> params;
+
+    private final Charset charset;
+
+    private final long length;
+
+    /**
+     * Create
+     *
+     * @param params  parameters
+     * @param charset charset of names and values
+     */
+    public FormEntity(List<? extends NameValuePair> params, Charset charset) {
+        this.params = Args.notNull(params, "Parameters");
+        this.charset = Args.notNull(charset, "Charset");
+        setContentType(ContentType.create(ContentType.APPLICATION_FORM_URLENCODED.getMimeType(), charset)
+                .toString());
+        long len = 0;
+        boolean first = true;
+        for (NameValuePair param : params) {
+            if (!first) {
+                len++;
+            }
+            first = false;
+            len += encodedLength(param.getName());
+            if (param.getValue() != null) {
+                len += 1 + encodedLength(param.getValue());
+            }
+        }
+        this.length = len;
+    }
+
+    private long encodedLength(String s) {
+        long len = 0;
+        for (byte b : s.getBytes(charset)) {
+            len += isUnreserved(b) || b == ' ' ? 1 : 3;
+        }
+        return len;
+    }
+
+    private static boolean isUnreserved(byte b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9')
+                || b == '-' || b == '_' || b == '.' || b == '*';
+    }
+
+    private void encode(String s, OutputStream out) throws IOException {
+        for (byte b : s.getBytes(charset)) {
+            if (isUnreserved(b)) {
+                out.write(b);
+            } else if (b == ' ') {
+                out.write('+');
+            } else {
+                out.write('%');
+                out.write(HEX[(b >> 4) & 0x0F]);
+                out.write(HEX[b & 0x0F]);
+            }
+        }
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return length;
+    }
+
+    /**
+     * Encoded form in memory,prefer {@link #writeTo(OutputStream)}
+     */
+    @Override
+    public InputStream getContent() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(length, Integer.MAX_VALUE));
+        writeTo(out);
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+
+    @Override
+    public void writeTo(OutputStream outstream) throws IOException {
+        Args.notNull(outstream, "Output stream");
+        // single bytes go to a buffer,not to the connection
+        OutputStream out = new BufferedOutputStream(outstream, (int) Math.max(Math.min(length, BUFFER_SIZE), 1));
+        boolean first = true;
+        for (NameValuePair param : params) {
+            if (!first) {
+                out.write('&');
+            }
+            first = false;
+            encode(param.getName(), out);
+            if (param.getValue() != null) {
+                out.write('=');
+                encode(param.getValue(), out);
+            }
+        }
+        out.flush();
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+}
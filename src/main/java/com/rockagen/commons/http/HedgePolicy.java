@@ -0,0 +1,197 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import org.apache.http.HttpHost;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hedging of GET and HEAD calls of {@link HttpConnClient}.
+ * <p>
+ * When a call has not completed after the hedge delay a second identical
+ * request is sent, the first response head wins, the other request is
+ * aborted and the handler runs once, on the winner. The delay is fixed, or the <code>percentile</code> of the
+ * latencies observed for the host once <code>minSamples</code> were seen.
+ * </p>
+ * <p>
+ * Hedges are paid from a budget: every call earns <code>budgetRatio</code>
+ * of a token, a hedge costs one and at most <code>maxTokens</code> are saved,
+ * so hedges never exceed that ratio of the calls plus a small burst even
+ * when the host slows down for everyone.
+ * </p>
+ * <pre>
+ * HttpConnClient client = HttpConnClient.custom()
+ *         .hedging(new HedgePolicy(50, 95, 0.1, 10))
+ *         .build();
+ * </pre>
+ *
+ * @author RA
+ * @since 4.3
+ */
+public class HedgePolicy {
+
+    // ~ Instance fields ==================================================
+
+    public final static int DEFAULT_MIN_SAMPLES = 20;
+
+    public final static double DEFAULT_BUDGET_RATIO = 0.1;
+
+    public final static int DEFAULT_MAX_TOKENS = 10;
+
+    private final long delay;
+
+    private final double percentile;
+
+    private final double budgetRatio;
+
+    private final int maxTokens;
+
+    private double tokens;
+
+    private final ConcurrentMap<String, LatencyHistogram> latencies = new ConcurrentHashMap<String, LatencyHistogram>();
+
+    private final AtomicLong hedges = new AtomicLong();
+
+    private final AtomicLong wins = new AtomicLong();
+
+    // ~ Constructors ==================================================
+
+    /**
+     * Hedge after a fixed delay with the default budget
+     *
+     * @param delay milliseconds
+     */
+    public HedgePolicy(long delay) {
+        this(delay, 0, DEFAULT_BUDGET_RATIO, DEFAULT_MAX_TOKENS);
+    }
+
+    /**
+     * Create
+     *
+     * @param delay       milliseconds,used until enough latencies are observed if a percentile is given
+     * @param percentile  percentile (0-100) of observed latencies to hedge after,0 means fixed delay
+     * @param budgetRatio hedges allowed per call (0-1)
+     * @param maxTokens   max hedges saved up for a burst
+     */
+    public HedgePolicy(long delay, double percentile, double budgetRatio, int maxTokens) {
+        if (delay < 0 || percentile < 0 || percentile > 100 || budgetRatio < 0 || maxTokens < 0) {
+            throw new IllegalArgumentException("Invalid hedge policy");
+        }
+        this.delay = delay;
+        this.percentile = percentile;
+        this.budgetRatio = budgetRatio;
+        this.maxTokens = maxTokens;
+        this.tokens = maxTokens;
+    }
+
+    // ~ Methods ==================================================
+
+    /**
+     * Milliseconds to wait before hedging a call to the host
+     *
+     * @param host {@link HttpHost}
+     * @return delay
+     */
+    public long delayOf(HttpHost host) {
+        if (percentile <= 0) {
+            return delay;
+        }
+        LatencyHistogram histogram = latencies.get(host.toURI());
+        if (histogram == null || histogram.getCount() < DEFAULT_MIN_SAMPLES) {
+            return delay;
+        }
+        return TimeUnit.MICROSECONDS.toMillis(histogram.getPercentile(percentile));
+    }
+
+    /**
+     * Record the latency of a completed call
+     *
+     * @param host  {@link HttpHost}
+     * @param nanos latency
+     * @param hedge true if the hedge won
+     */
+    public void record(HttpHost host, long nanos, boolean hedge) {
+        if (hedge) {
+            wins.incrementAndGet();
+        }
+        if (percentile <= 0) {
+            return;
+        }
+        String key = host.toURI();
+        LatencyHistogram histogram = latencies.get(key);
+        if (histogram == null) {
+            LatencyHistogram created = new LatencyHistogram();
+            histogram = latencies.putIfAbsent(key, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        histogram.record(nanos);
+    }
+
+    /**
+     * Earn budget for a call
+     */
+    public synchronized void onCall() {
+        tokens = Math.min(maxTokens, tokens + budgetRatio);
+    }
+
+    /**
+     * Pay a hedge from the budget
+     *
+     * @return false if the budget is spent
+     */
+    public synchronized boolean tryHedge() {
+        if (tokens < 1) {
+            return false;
+        }
+        tokens -= 1;
+        hedges.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * @return hedges sent
+     */
+    public long getHedgeCount() {
+        return hedges.get();
+    }
+
+    /**
+     * @return hedges answered before the first request
+     */
+    public long getWinCount() {
+        return wins.get();
+    }
+
+    public long getDelay() {
+        return delay;
+    }
+
+    public double getPercentile() {
+        return percentile;
+    }
+
+    @Override
+    public String toString() {
+        return "hedges=" + getHedgeCount() + " wins=" + getWinCount();
+    }
+
+}
@@ -0,0 +1,467 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import org.apache.http.Consts;
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HPACK header compression of HTTP/2 (RFC 7541).
+ * <p>
+ * The {@link Encoder} never adds to the dynamic table of the peer: a header
+ * is sent as a static table index or as a literal, Huffman coded when that
+ * is shorter. The {@link Decoder} reads every representation a peer may
+ * send. Names and values are ISO-8859-1, octet for octet.
+ * </p>
+ *
+ * @author RA
+ * @since 4.3
+ */
+final class Hpack {
+
+    /**
+     * Dynamic table size of the decoder,the HTTP/2 default
+     */
+    final static int DEFAULT_TABLE_SIZE = 4096;
+
+    private final static String[][] STATIC_TABLE = {
+            {":authority", ""},
+            {":method", "GET"},
+            {":method", "POST"},
+            {":path", "/"},
+            {":path", "/index.html"},
+            {":scheme", "http"},
+            {":scheme", "https"},
+            {":status", "200"},
+            {":status", "204"},
+            {":status", "206"},
+            {":status", "304"},
+            {":status", "400"},
+            {":status", "404"},
+            {":status", "500"},
+            {"accept-charset", ""},
+            {"accept-encoding", "gzip, deflate"},
+            {"accept-language", ""},
+            {"accept-ranges", ""},
+            {"accept", ""},
+            {"access-control-allow-origin", ""},
+            {"age", ""},
+            {"allow", ""},
+            {"authorization", ""},
+            {"cache-control", ""},
+            {"content-disposition", ""},
+            {"content-encoding", ""},
+            {"content-language", ""},
+            {"content-length", ""},
+            {"content-location", ""},
+            {"content-range", ""},
+            {"content-type", ""},
+            {"cookie", ""},
+            {"date", ""},
+            {"etag", ""},
+            {"expect", ""},
+            {"expires", ""},
+            {"from", ""},
+            {"host", ""},
+            {"if-match", ""},
+            {"if-modified-since", ""},
+            {"if-none-match", ""},
+            {"if-range", ""},
+            {"if-unmodified-since", ""},
+            {"last-modified", ""},
+            {"link", ""},
+            {"location", ""},
+            {"max-forwards", ""},
+            {"proxy-authenticate", ""},
+            {"proxy-authorization", ""},
+            {"range", ""},
+            {"referer", ""},
+            {"refresh", ""},
+            {"retry-after", ""},
+            {"server", ""},
+            {"set-cookie", ""},
+            {"strict-transport-security", ""},
+            {"transfer-encoding", ""},
+            {"user-agent", ""},
+            {"vary", ""},
+            {"via", ""},
+            {"www-authenticate", ""}
+    };
+
+    /**
+     * First static index of a name
+     */
+    private final static Map<String, Integer> STATIC_NAMES = new HashMap<String, Integer>();
+
+    /**
+     * Static index of a name and value
+     */
+    private final static Map<String, Integer> STATIC_FIELDS = new HashMap<String, Integer>();
+
+    static {
+        for (int i = STATIC_TABLE.length - 1; i >= 0; i--) {
+            STATIC_NAMES.put(STATIC_TABLE[i][0], i + 1);
+            if (STATIC_TABLE[i][1].length() > 0) {
+                STATIC_FIELDS.put(STATIC_TABLE[i][0] + ':' + STATIC_TABLE[i][1], i + 1);
+            }
+        }
+    }
+
+    /**
+     * Huffman code length of each octet and of EOS (256),the codes are canonical
+     */
+    private final static int[] HUFFMAN_LENGTHS = {
+            13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+            28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+            6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+            5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+            13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+            7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+            15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+            6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+            20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+            24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+            22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+            21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+            26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+            19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+            20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+            26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+            30
+    };
+
+    private final static int EOS = 256;
+
+    private final static int MAX_CODE_LENGTH = 30;
+
+    private final static int[] HUFFMAN_CODES = new int[HUFFMAN_LENGTHS.length];
+
+    /**
+     * First code of each length
+     */
+    private final static int[] FIRST_CODE = new int[MAX_CODE_LENGTH + 1];
+
+    /**
+     * Symbols of each length start at this offset of SYMBOLS
+     */
+    private final static int[] FIRST_SYMBOL = new int[MAX_CODE_LENGTH + 1];
+
+    private final static int[] LENGTH_COUNT = new int[MAX_CODE_LENGTH + 1];
+
+    /**
+     * Symbols ordered by code
+     */
+    private final static int[] SYMBOLS = new int[HUFFMAN_LENGTHS.length];
+
+    static {
+        for (int length : HUFFMAN_LENGTHS) {
+            LENGTH_COUNT[length]++;
+        }
+        int code = 0;
+        int offset = 0;
+        for (int len = 1; len <= MAX_CODE_LENGTH; len++) {
+            FIRST_CODE[len] = code;
+            FIRST_SYMBOL[len] = offset;
+            code = (code + LENGTH_COUNT[len]) << 1;
+            offset += LENGTH_COUNT[len];
+        }
+        int[] next = FIRST_CODE.clone();
+        int[] slot = FIRST_SYMBOL.clone();
+        for (int sym = 0; sym < HUFFMAN_LENGTHS.length; sym++) {
+            int len = HUFFMAN_LENGTHS[sym];
+            HUFFMAN_CODES[sym] = next[len]++;
+            SYMBOLS[slot[len]++] = sym;
+        }
+    }
+
+    private Hpack() {
+    }
+
+    // ~ Primitives ==================================================
+
+    static void writeInt(ByteArrayOutputStream out, int prefixBits, int prefixMask, int value) {
+        int max = (1 << prefixBits) - 1;
+        if (value < max) {
+            out.write(prefixMask | value);
+            return;
+        }
+        out.write(prefixMask | max);
+        value -= max;
+        while (value >= 0x80) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    static void writeString(ByteArrayOutputStream out, String s) {
+        byte[] raw = s.getBytes(Consts.ISO_8859_1);
+        long bits = 0;
+        for (byte b : raw) {
+            bits += HUFFMAN_LENGTHS[b & 0xFF];
+        }
+        int huffmanLength = (int) ((bits + 7) >> 3);
+        if (huffmanLength >= raw.length) {
+            writeInt(out, 7, 0, raw.length);
+            out.write(raw, 0, raw.length);
+            return;
+        }
+        writeInt(out, 7, 0x80, huffmanLength);
+        long acc = 0;
+        int n = 0;
+        for (byte b : raw) {
+            int sym = b & 0xFF;
+            acc = (acc << HUFFMAN_LENGTHS[sym]) | HUFFMAN_CODES[sym];
+            n += HUFFMAN_LENGTHS[sym];
+            while (n >= 8) {
+                n -= 8;
+                out.write((int) (acc >> n));
+            }
+        }
+        if (n > 0) {
+            // padded with the most significant bits of EOS
+            out.write((int) ((acc << (8 - n)) | (0xFF >> n)));
+        }
+    }
+
+    static String decodeHuffman(byte[] b, int off, int len) throws IOException {
+        StringBuilder sb = new StringBuilder(len * 8 / 5);
+        int code = 0;
+        int codeLength = 0;
+        for (int i = off; i < off + len; i++) {
+            for (int bit = 7; bit >= 0; bit--) {
+                code = (code << 1) | ((b[i] >> bit) & 1);
+                codeLength++;
+                int index = code - FIRST_CODE[codeLength];
+                if (index >= 0 && index < LENGTH_COUNT[codeLength]) {
+                    int sym = SYMBOLS[FIRST_SYMBOL[codeLength] + index];
+                    if (sym == EOS) {
+                        throw new IOException("HPACK: EOS in Huffman string");
+                    }
+                    sb.append((char) sym);
+                    code = 0;
+                    codeLength = 0;
+                } else if (codeLength == MAX_CODE_LENGTH) {
+                    throw new IOException("HPACK: invalid Huffman code");
+                }
+            }
+        }
+        // padding must be shorter than a byte and all ones
+        if (codeLength > 7 || code != (1 << codeLength) - 1) {
+            throw new IOException("HPACK: invalid Huffman padding");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Header block encoder,stateless
+     */
+    static class Encoder {
+
+        /**
+         * Encode a header block
+         *
+         * @param headers lower case names,pseudo headers first
+         * @return header block
+         */
+        byte[] encode(List<Header> headers) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+            for (Header header : headers) {
+                String name = header.getName();
+                String value = header.getValue() == null ? "" : header.getValue();
+                Integer index = STATIC_FIELDS.get(name + ':' + value);
+                if (index != null) {
+                    // indexed header field
+                    writeInt(out, 7, 0x80, index);
+                    continue;
+                }
+                // literal without indexing,credentials never indexed by intermediaries
+                int mask = "authorization".equals(name) || "proxy-authorization".equals(name) ? 0x10 : 0x00;
+                Integer nameIndex = STATIC_NAMES.get(name);
+                if (nameIndex != null) {
+                    writeInt(out, 4, mask, nameIndex);
+                } else {
+                    out.write(mask);
+                    writeString(out, name);
+                }
+                writeString(out, value);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Header block decoder,keeps the dynamic table of the connection
+     */
+    static class Decoder {
+
+        private final int maxTableSize;
+
+        private int tableSize;
+
+        private int capacity;
+
+        /**
+         * Newest first
+         */
+        private final LinkedList<Header> table = new LinkedList<Header>();
+
+        private byte[] b;
+
+        private int pos;
+
+        private int end;
+
+        /**
+         * Create
+         *
+         * @param maxTableSize dynamic table size announced to the peer
+         */
+        Decoder(int maxTableSize) {
+            this.maxTableSize = maxTableSize;
+            this.capacity = maxTableSize;
+        }
+
+        /**
+         * Decode a header block
+         *
+         * @param block header block
+         * @param off   offset
+         * @param len   length
+         * @return headers in order
+         * @throws IOException if the block is invalid (a connection error)
+         */
+        List<Header> decode(byte[] block, int off, int len) throws IOException {
+            b = block;
+            pos = off;
+            end = off + len;
+            List<Header> headers = new ArrayList<Header>();
+            boolean first = true;
+            while (pos < end) {
+                int c = b[pos] & 0xFF;
+                if ((c & 0x80) != 0) {
+                    headers.add(entry(readInt(7)));
+                } else if ((c & 0xC0) == 0x40) {
+                    Header header = literal(6);
+                    headers.add(header);
+                    add(header);
+                } else if ((c & 0xE0) == 0x20) {
+                    if (!first) {
+                        throw new IOException("HPACK: table size update after a header");
+                    }
+                    int size = readInt(5);
+                    if (size > maxTableSize) {
+                        throw new IOException("HPACK: table size " + size + " over " + maxTableSize);
+                    }
+                    capacity = size;
+                    evict(0);
+                    continue;
+                } else {
+                    // without indexing or never indexed
+                    headers.add(literal(4));
+                }
+                first = false;
+            }
+            b = null;
+            return headers;
+        }
+
+        int getTableSize() {
+            return tableSize;
+        }
+
+        private Header literal(int prefixBits) throws IOException {
+            int index = readInt(prefixBits);
+            String name = index == 0 ? readString() : entry(index).getName();
+            return new BasicHeader(name, readString());
+        }
+
+        private Header entry(int index) throws IOException {
+            if (index <= 0) {
+                throw new IOException("HPACK: index 0");
+            }
+            if (index <= STATIC_TABLE.length) {
+                return new BasicHeader(STATIC_TABLE[index - 1][0], STATIC_TABLE[index - 1][1]);
+            }
+            int dynamic = index - STATIC_TABLE.length - 1;
+            if (dynamic >= table.size()) {
+                throw new IOException("HPACK: index " + index + " out of the table");
+            }
+            return table.get(dynamic);
+        }
+
+        private void add(Header header) {
+            int size = sizeOf(header);
+            evict(size);
+            if (size <= capacity) {
+                table.addFirst(header);
+                tableSize += size;
+            }
+        }
+
+        private void evict(int room) {
+            while (!table.isEmpty() && tableSize + room > capacity) {
+                tableSize -= sizeOf(table.removeLast());
+            }
+        }
+
+        private static int sizeOf(Header header) {
+            return header.getName().length() + header.getValue().length() + 32;
+        }
+
+        private int readInt(int prefixBits) throws IOException {
+            int max = (1 << prefixBits) - 1;
+            int value = b[pos++] & max;
+            if (value < max) {
+                return value;
+            }
+            for (int shift = 0; ; shift += 7) {
+                if (pos >= end || shift > 21) {
+                    throw new IOException("HPACK: invalid integer");
+                }
+                int c = b[pos++] & 0xFF;
+                value += (c & 0x7F) << shift;
+                if ((c & 0x80) == 0) {
+                    return value;
+                }
+            }
+        }
+
+        private String readString() throws IOException {
+            if (pos >= end) {
+                throw new IOException("HPACK: truncated string");
+            }
+            boolean huffman = (b[pos] & 0x80) != 0;
+            int len = readInt(7);
+            if (len > end - pos) {
+                throw new IOException("HPACK: truncated string");
+            }
+            String s = huffman ? decodeHuffman(b, pos, len) : new String(b, pos, len, Consts.ISO_8859_1);
+            pos += len;
+            return s;
+        }
+    }
+
+}
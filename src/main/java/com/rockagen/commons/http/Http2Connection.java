@@ -0,0 +1,1004 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import org.apache.http.Consts;
+import org.apache.http.Header;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One HTTP/2 connection of {@link Http2Transport},streams of many calls are
+ * multiplexed over it.
+ * <p>
+ * A reader thread reads every frame and hands headers and data to the
+ * streams, callers write their own frames under a write lock. Flow control
+ * is kept in both directions: a caller waits for window to send DATA, and
+ * window is given back to the peer as the response bodies are read.
+ * </p>
+ *
+ * @author RA
+ * @since 4.3
+ */
+class Http2Connection implements Closeable {
+
+    // ~ Instance fields ==================================================
+
+    /** */
+    private static final Logger log = LoggerFactory.getLogger(Http2Connection.class);
+
+    final static byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(Consts.ASCII);
+
+    final static int DATA = 0x0;
+    final static int HEADERS = 0x1;
+    final static int PRIORITY = 0x2;
+    final static int RST_STREAM = 0x3;
+    final static int SETTINGS = 0x4;
+    final static int PUSH_PROMISE = 0x5;
+    final static int PING = 0x6;
+    final static int GOAWAY = 0x7;
+    final static int WINDOW_UPDATE = 0x8;
+    final static int CONTINUATION = 0x9;
+
+    final static int FLAG_END_STREAM = 0x1;
+    final static int FLAG_ACK = 0x1;
+    final static int FLAG_END_HEADERS = 0x4;
+    final static int FLAG_PADDED = 0x8;
+    final static int FLAG_PRIORITY = 0x20;
+
+    final static int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    final static int SETTINGS_ENABLE_PUSH = 0x2;
+    final static int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    final static int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    final static int SETTINGS_MAX_FRAME_SIZE = 0x5;
+
+    final static int NO_ERROR = 0x0;
+    final static int PROTOCOL_ERROR = 0x1;
+    final static int FLOW_CONTROL_ERROR = 0x3;
+    final static int FRAME_SIZE_ERROR = 0x6;
+    final static int REFUSED_STREAM = 0x7;
+    final static int CANCEL = 0x8;
+    final static int COMPRESSION_ERROR = 0x9;
+
+    final static int DEFAULT_WINDOW = 65535;
+
+    final static int DEFAULT_FRAME_SIZE = 16384;
+
+    /**
+     * Receive window of a stream
+     */
+    final static int STREAM_WINDOW = 1 << 20;
+
+    /**
+     * Receive window of the connection
+     */
+    final static int CONNECTION_WINDOW = 16 << 20;
+
+    private final static int MAX_WINDOW = Integer.MAX_VALUE;
+
+    private final String name;
+
+    private final Socket socket;
+
+    private final InputStream in;
+
+    private final OutputStream out;
+
+    private final Object writeLock = new Object();
+
+    private final Hpack.Encoder encoder = new Hpack.Encoder();
+
+    private final Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+
+    private final Map<Integer, Stream> streams = new ConcurrentHashMap<Integer, Stream>();
+
+    // state below is guarded by this
+
+    private int nextStreamId = 1;
+
+    private int active;
+
+    private int maxConcurrentStreams = Integer.MAX_VALUE;
+
+    private int initialWindow = DEFAULT_WINDOW;
+
+    private int maxFrameSize = DEFAULT_FRAME_SIZE;
+
+    private long sendWindow = DEFAULT_WINDOW;
+
+    private int unacked;
+
+    private boolean shutdown;
+
+    private IOException failure;
+
+    // ~ Constructors ==================================================
+
+    /**
+     * Send the preface and start reading
+     *
+     * @param socket connected socket,h2c or TLS with h2 negotiated
+     * @param name   name of the reader thread
+     * @throws IOException if the preface can not be sent
+     */
+    Http2Connection(Socket socket, String name) throws IOException {
+        this.name = name;
+        this.socket = socket;
+        this.in = new BufferedInputStream(socket.getInputStream(), 16 * 1024);
+        this.out = new BufferedOutputStream(socket.getOutputStream(), 16 * 1024);
+        synchronized (writeLock) {
+            out.write(PREFACE);
+            writeSettings(out, false, SETTINGS_ENABLE_PUSH, 0, SETTINGS_INITIAL_WINDOW_SIZE, STREAM_WINDOW,
+                    SETTINGS_HEADER_TABLE_SIZE, Hpack.DEFAULT_TABLE_SIZE);
+            writeWindowUpdate(out, 0, CONNECTION_WINDOW - DEFAULT_WINDOW);
+            out.flush();
+        }
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                read();
+            }
+        }, name);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    // ~ Frames ==================================================
+
+    static void writeFrameHeader(OutputStream out, int length, int type, int flags, int streamId)
+            throws IOException {
+        out.write(length >>> 16);
+        out.write(length >>> 8);
+        out.write(length);
+        out.write(type);
+        out.write(flags);
+        out.write(streamId >>> 24);
+        out.write(streamId >>> 16);
+        out.write(streamId >>> 8);
+        out.write(streamId);
+    }
+
+    static void writeInt(OutputStream out, int value) throws IOException {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    static void writeSettings(OutputStream out, boolean ack, int... pairs) throws IOException {
+        writeFrameHeader(out, ack ? 0 : pairs.length * 3, SETTINGS, ack ? FLAG_ACK : 0, 0);
+        if (!ack) {
+            for (int i = 0; i < pairs.length; i += 2) {
+                out.write(pairs[i] >>> 8);
+                out.write(pairs[i]);
+                writeInt(out, pairs[i + 1]);
+            }
+        }
+    }
+
+    static void writeWindowUpdate(OutputStream out, int streamId, int increment) throws IOException {
+        writeFrameHeader(out, 4, WINDOW_UPDATE, 0, streamId);
+        writeInt(out, increment);
+    }
+
+    static void writeRstStream(OutputStream out, int streamId, int error) throws IOException {
+        writeFrameHeader(out, 4, RST_STREAM, 0, streamId);
+        writeInt(out, error);
+    }
+
+    /**
+     * Write a header block as HEADERS and CONTINUATION frames
+     */
+    static void writeHeaders(OutputStream out, int streamId, byte[] block, boolean endStream, int maxFrameSize)
+            throws IOException {
+        int off = 0;
+        int type = HEADERS;
+        do {
+            int len = Math.min(block.length - off, maxFrameSize);
+            boolean last = off + len == block.length;
+            int flags = (last ? FLAG_END_HEADERS : 0) | (type == HEADERS && endStream ? FLAG_END_STREAM : 0);
+            writeFrameHeader(out, len, type, flags, streamId);
+            out.write(block, off, len);
+            off += len;
+            type = CONTINUATION;
+        } while (off < block.length);
+    }
+
+    /**
+     * Read a frame header and its payload
+     *
+     * @param in           input
+     * @param header       9 bytes of frame header,filled
+     * @param maxFrameSize largest payload accepted
+     * @return payload
+     * @throws IOException if the stream ends or the frame is too large
+     */
+    static byte[] readFrame(InputStream in, byte[] header, int maxFrameSize) throws IOException {
+        readFully(in, header, 9);
+        int length = ((header[0] & 0xFF) << 16) | ((header[1] & 0xFF) << 8) | (header[2] & 0xFF);
+        if (length > maxFrameSize) {
+            throw new IOException("HTTP/2 frame of " + length + " bytes over " + maxFrameSize);
+        }
+        byte[] payload = new byte[length];
+        readFully(in, payload, length);
+        return payload;
+    }
+
+    private static void readFully(InputStream in, byte[] b, int len) throws IOException {
+        int off = 0;
+        while (off < len) {
+            int n = in.read(b, off, len - off);
+            if (n < 0) {
+                throw new EOFException("HTTP/2 connection closed");
+            }
+            off += n;
+        }
+    }
+
+    static int typeOf(byte[] header) {
+        return header[3] & 0xFF;
+    }
+
+    static int flagsOf(byte[] header) {
+        return header[4] & 0xFF;
+    }
+
+    static int streamIdOf(byte[] header) {
+        return readInt(header, 5) & 0x7FFFFFFF;
+    }
+
+    static int readInt(byte[] b, int off) {
+        return ((b[off] & 0xFF) << 24) | ((b[off + 1] & 0xFF) << 16) | ((b[off + 2] & 0xFF) << 8) | (b[off + 3] & 0xFF);
+    }
+
+    /**
+     * Offset and length of the content of a padded frame
+     *
+     * @return {offset,length}
+     */
+    static int[] unpad(byte[] payload, int flags, int skip) throws IOException {
+        int off = 0;
+        int pad = 0;
+        if ((flags & FLAG_PADDED) != 0) {
+            if (payload.length < 1) {
+                throw new IOException("HTTP/2 padded frame without padding length");
+            }
+            pad = payload[0] & 0xFF;
+            off = 1;
+        }
+        off += skip;
+        int len = payload.length - off - pad;
+        if (len < 0) {
+            throw new IOException("HTTP/2 padding over the frame");
+        }
+        return new int[]{off, len};
+    }
+
+    // ~ Streams ==================================================
+
+    /**
+     * Open a stream and send its headers,waits while the peer has its max
+     * concurrent streams
+     *
+     * @param headers   pseudo headers first,lower case names
+     * @param endStream true if no body follows
+     * @param timeout   milliseconds to wait for a stream,0 means no limit
+     * @return {@link Stream}
+     * @throws IOException if the connection can not take the stream,see {@link #isUsable()}
+     */
+    Stream newStream(List<Header> headers, boolean endStream, int timeout) throws IOException {
+        Stream stream;
+        synchronized (this) {
+            long until = timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+            while (active >= maxConcurrentStreams && !shutdown) {
+                await(until, "Timed out waiting for an HTTP/2 stream");
+            }
+            if (shutdown) {
+                throw new ConnectionShutdownException(failure == null ? "HTTP/2 connection shut down" :
+                        failure.getMessage());
+            }
+            active++;
+        }
+        byte[] block = encoder.encode(headers);
+        synchronized (writeLock) {
+            // ids must be sent in increasing order
+            synchronized (this) {
+                stream = new Stream(nextStreamId, initialWindow);
+                nextStreamId += 2;
+                if (nextStreamId < 0) {
+                    shutdown = true;
+                }
+                stream.localEnded = endStream;
+                streams.put(stream.id, stream);
+            }
+            try {
+                writeHeaders(out, stream.id, block, endStream, maxFrameSize);
+                out.flush();
+            } catch (IOException e) {
+                fail(e);
+                throw e;
+            }
+        }
+        return stream;
+    }
+
+    /**
+     * @return false if no new stream can be opened
+     */
+    synchronized boolean isUsable() {
+        return !shutdown;
+    }
+
+    synchronized int getActiveStreams() {
+        return active;
+    }
+
+    private void await(long until, String timeoutMessage) throws IOException {
+        long wait = 0;
+        if (until > 0) {
+            wait = until - System.currentTimeMillis();
+            if (wait <= 0) {
+                throw new SocketTimeoutException(timeoutMessage);
+            }
+        }
+        try {
+            wait(wait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting on HTTP/2 connection " + name);
+        }
+    }
+
+    private void writeWindowUpdateQuietly(int streamId, int increment) {
+        synchronized (writeLock) {
+            try {
+                writeWindowUpdate(out, streamId, increment);
+                out.flush();
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+    }
+
+    private void writeRstStreamQuietly(int streamId, int error) {
+        synchronized (writeLock) {
+            try {
+                writeRstStream(out, streamId, error);
+                out.flush();
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+    }
+
+    /**
+     * Stream closed on both sides or reset,gives its slot back
+     */
+    private void release(Stream stream) {
+        synchronized (this) {
+            if (streams.remove(stream.id) != null) {
+                active--;
+                notifyAll();
+            }
+            if (shutdown && active == 0) {
+                closeQuietly();
+            }
+        }
+    }
+
+    // ~ Reader ==================================================
+
+    private void read() {
+        byte[] header = new byte[9];
+        ByteArrayOutputStream block = null;
+        int blockStream = 0;
+        int blockFlags = 0;
+        try {
+            while (true) {
+                byte[] payload = readFrame(in, header, DEFAULT_FRAME_SIZE);
+                int type = typeOf(header);
+                int flags = flagsOf(header);
+                int streamId = streamIdOf(header);
+                if (block != null && (type != CONTINUATION || streamId != blockStream)) {
+                    throw new Http2Exception(PROTOCOL_ERROR, "HTTP/2 header block interrupted");
+                }
+                switch (type) {
+                    case DATA:
+                        onData(streamId, flags, payload);
+                        break;
+                    case HEADERS:
+                        int[] range = unpad(payload, flags, (flags & FLAG_PRIORITY) != 0 ? 5 : 0);
+                        block = new ByteArrayOutputStream(range[1]);
+                        block.write(payload, range[0], range[1]);
+                        blockStream = streamId;
+                        blockFlags = flags;
+                        break;
+                    case CONTINUATION:
+                        if (block == null) {
+                            throw new Http2Exception(PROTOCOL_ERROR, "HTTP/2 CONTINUATION without HEADERS");
+                        }
+                        block.write(payload, 0, payload.length);
+                        blockFlags |= flags & FLAG_END_HEADERS;
+                        break;
+                    case RST_STREAM:
+                        if (payload.length != 4) {
+                            throw new Http2Exception(FRAME_SIZE_ERROR, "HTTP/2 RST_STREAM of " + payload.length);
+                        }
+                        onReset(streamId, readInt(payload, 0));
+                        break;
+                    case SETTINGS:
+                        if ((flags & FLAG_ACK) == 0) {
+                            onSettings(payload);
+                        }
+                        break;
+                    case PUSH_PROMISE:
+                        throw new Http2Exception(PROTOCOL_ERROR, "HTTP/2 push is disabled");
+                    case PING:
+                        if ((flags & FLAG_ACK) == 0) {
+                            synchronized (writeLock) {
+                                writeFrameHeader(out, payload.length, PING, FLAG_ACK, 0);
+                                out.write(payload);
+                                out.flush();
+                            }
+                        }
+                        break;
+                    case GOAWAY:
+                        onGoaway(readInt(payload, 0) & 0x7FFFFFFF, readInt(payload, 4));
+                        break;
+                    case WINDOW_UPDATE:
+                        onWindowUpdate(streamId, readInt(payload, 0) & 0x7FFFFFFF);
+                        break;
+                    default:
+                        // PRIORITY and unknown frames are ignored
+                        break;
+                }
+                if (block != null && (blockFlags & FLAG_END_HEADERS) != 0) {
+                    List<Header> headers;
+                    try {
+                        byte[] b = block.toByteArray();
+                        headers = decoder.decode(b, 0, b.length);
+                    } catch (IOException e) {
+                        throw new Http2Exception(COMPRESSION_ERROR, e.getMessage());
+                    }
+                    onHeaders(blockStream, blockFlags, headers);
+                    block = null;
+                }
+            }
+        } catch (Http2Exception e) {
+            synchronized (writeLock) {
+                try {
+                    int last;
+                    synchronized (this) {
+                        last = nextStreamId - 2;
+                    }
+                    writeFrameHeader(out, 8, GOAWAY, 0, 0);
+                    writeInt(out, Math.max(last, 0));
+                    writeInt(out, e.getError());
+                    out.flush();
+                } catch (IOException ignored) {
+                    // closing anyway
+                }
+            }
+            fail(e);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void onData(int streamId, int flags, byte[] payload) throws IOException {
+        int[] range = unpad(payload, flags, 0);
+        Stream stream = streams.get(streamId);
+        int increment;
+        synchronized (this) {
+            if (stream == null) {
+                // reset by us,only the connection window is spent
+                increment = consumed(payload.length);
+            } else {
+                increment = onData(stream, flags, payload, range);
+            }
+        }
+        if (increment > 0) {
+            writeWindowUpdateQuietly(0, increment);
+        }
+        if (stream != null && (flags & FLAG_END_STREAM) != 0 && stream.isLocalEnded()) {
+            release(stream);
+        }
+    }
+
+    /**
+     * Must hold this
+     *
+     * @return window to give back to the connection
+     */
+    private int onData(Stream stream, int flags, byte[] payload, int[] range) throws IOException {
+        if (payload.length > stream.receiveWindow) {
+            throw new Http2Exception(FLOW_CONTROL_ERROR, "HTTP/2 stream " + stream.id + " over its window");
+        }
+        stream.receiveWindow -= payload.length;
+        if (range[1] > 0) {
+            byte[] data = new byte[range[1]];
+            System.arraycopy(payload, range[0], data, 0, range[1]);
+            stream.data.add(data);
+        }
+        if ((flags & FLAG_END_STREAM) != 0) {
+            stream.remoteEnded = true;
+        }
+        notifyAll();
+        // padding is not read by anyone
+        int padding = payload.length - range[1];
+        stream.unacked += padding;
+        return consumed(padding);
+    }
+
+    private void onHeaders(int streamId, int flags, List<Header> headers) throws IOException {
+        Stream stream = streams.get(streamId);
+        if (stream == null) {
+            return;
+        }
+        boolean end = (flags & FLAG_END_STREAM) != 0;
+        boolean malformed = false;
+        boolean done;
+        synchronized (this) {
+            if (stream.headers == null) {
+                String status = null;
+                for (Header h : headers) {
+                    if (":status".equals(h.getName())) {
+                        status = h.getValue();
+                    }
+                }
+                if (status == null) {
+                    stream.error = new IOException("HTTP/2 response without :status");
+                    malformed = true;
+                } else if (status.length() == 3 && status.charAt(0) == '1' && !end) {
+                    // informational,the final response follows
+                    return;
+                } else {
+                    stream.headers = headers;
+                }
+            }
+            // else trailers,ignored
+            if (end) {
+                stream.remoteEnded = true;
+            }
+            done = end && stream.localEnded;
+            notifyAll();
+        }
+        if (malformed) {
+            writeRstStreamQuietly(streamId, PROTOCOL_ERROR);
+            release(stream);
+        } else if (done) {
+            release(stream);
+        }
+    }
+
+    private void onReset(int streamId, int error) {
+        Stream stream = streams.get(streamId);
+        if (stream == null) {
+            return;
+        }
+        synchronized (this) {
+            String message = "HTTP/2 stream " + streamId + " reset by the peer,error " + error;
+            stream.error = error == REFUSED_STREAM ? new ConnectionShutdownException(message) : new IOException(message);
+            notifyAll();
+        }
+        release(stream);
+    }
+
+    private void onSettings(byte[] payload) throws IOException {
+        if (payload.length % 6 != 0) {
+            throw new Http2Exception(FRAME_SIZE_ERROR, "HTTP/2 SETTINGS of " + payload.length);
+        }
+        synchronized (this) {
+            for (int i = 0; i < payload.length; i += 6) {
+                int id = ((payload[i] & 0xFF) << 8) | (payload[i + 1] & 0xFF);
+                int value = readInt(payload, i + 2);
+                switch (id) {
+                    case SETTINGS_MAX_CONCURRENT_STREAMS:
+                        maxConcurrentStreams = value < 0 ? Integer.MAX_VALUE : value;
+                        break;
+                    case SETTINGS_INITIAL_WINDOW_SIZE:
+                        if (value < 0) {
+                            throw new Http2Exception(FLOW_CONTROL_ERROR, "HTTP/2 initial window " + value);
+                        }
+                        int delta = value - initialWindow;
+                        initialWindow = value;
+                        for (Stream stream : streams.values()) {
+                            stream.sendWindow += delta;
+                        }
+                        break;
+                    case SETTINGS_MAX_FRAME_SIZE:
+                        if (value < DEFAULT_FRAME_SIZE || value > 0xFFFFFF) {
+                            throw new Http2Exception(PROTOCOL_ERROR, "HTTP/2 max frame size " + value);
+                        }
+                        maxFrameSize = value;
+                        break;
+                    default:
+                        // the encoder never indexes,table size and the rest do not matter
+                        break;
+                }
+            }
+            notifyAll();
+        }
+        synchronized (writeLock) {
+            writeSettings(out, true);
+            out.flush();
+        }
+    }
+
+    private void onGoaway(int lastStreamId, int error) {
+        List<Stream> refused = new ArrayList<Stream>();
+        synchronized (this) {
+            shutdown = true;
+            for (Stream stream : streams.values()) {
+                if (stream.id > lastStreamId) {
+                    // never processed,safe to send again
+                    stream.error = new ConnectionShutdownException("HTTP/2 stream " + stream.id
+                            + " refused by GOAWAY,error " + error);
+                    refused.add(stream);
+                }
+            }
+            notifyAll();
+        }
+        for (Stream stream : refused) {
+            release(stream);
+        }
+        log.debug("GOAWAY from {}, last stream {} error {}", name, lastStreamId, error);
+        synchronized (this) {
+            if (active == 0) {
+                closeQuietly();
+            }
+        }
+    }
+
+    private void onWindowUpdate(int streamId, int increment) throws IOException {
+        synchronized (this) {
+            if (streamId == 0) {
+                if (increment == 0 || sendWindow + increment > MAX_WINDOW) {
+                    throw new Http2Exception(FLOW_CONTROL_ERROR, "HTTP/2 connection window update " + increment);
+                }
+                sendWindow += increment;
+            } else {
+                Stream stream = streams.get(streamId);
+                if (stream != null) {
+                    stream.sendWindow += increment;
+                }
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * Count bytes taken from the connection window,must hold this
+     *
+     * @return window to give back by WINDOW_UPDATE outside the lock,0 means not yet
+     */
+    private int consumed(int n) {
+        unacked += n;
+        if (unacked < CONNECTION_WINDOW / 2) {
+            return 0;
+        }
+        int increment = unacked;
+        unacked = 0;
+        return increment;
+    }
+
+    private void fail(IOException e) {
+        List<Stream> failed;
+        synchronized (this) {
+            if (failure == null) {
+                failure = e;
+                log.debug("HTTP/2 connection {} failed: {}", name, e.getMessage());
+            }
+            shutdown = true;
+            failed = new ArrayList<Stream>(streams.values());
+            for (Stream stream : failed) {
+                if (stream.error == null) {
+                    stream.error = new IOException(e.getMessage(), e);
+                }
+            }
+            streams.clear();
+            active = 0;
+            notifyAll();
+        }
+        closeQuietly();
+    }
+
+    private void closeQuietly() {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // closed
+        }
+    }
+
+    /**
+     * Close the connection,streams in flight fail
+     */
+    @Override
+    public void close() {
+        fail(new IOException("HTTP/2 connection closed"));
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * A connection error of the peer
+     */
+    private static class Http2Exception extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int error;
+
+        Http2Exception(int error, String message) {
+            super(message);
+            this.error = error;
+        }
+
+        int getError() {
+            return error;
+        }
+    }
+
+    /**
+     * The request was not processed by the peer and can be sent on another connection
+     */
+    static class ConnectionShutdownException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        ConnectionShutdownException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * One request and its response
+     */
+    class Stream {
+
+        final int id;
+
+        // guarded by the connection
+
+        private long sendWindow;
+
+        private int receiveWindow = STREAM_WINDOW;
+
+        private int unacked;
+
+        private final LinkedList<byte[]> data = new LinkedList<byte[]>();
+
+        private int dataOffset;
+
+        private List<Header> headers;
+
+        private boolean localEnded;
+
+        private boolean remoteEnded;
+
+        private boolean cancelled;
+
+        private IOException error;
+
+        Stream(int id, int sendWindow) {
+            this.id = id;
+            this.sendWindow = sendWindow;
+        }
+
+        /**
+         * Send body bytes as DATA frames,waits for window
+         *
+         * @param b         bytes
+         * @param off       offset
+         * @param len       length
+         * @param endStream true for the last bytes of the body
+         * @param timeout   milliseconds to wait for window,0 means no limit
+         * @throws IOException if the stream failed or the window did not open in time
+         */
+        void write(byte[] b, int off, int len, boolean endStream, int timeout) throws IOException {
+            long until = timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+            do {
+                int n;
+                synchronized (Http2Connection.this) {
+                    while (len > 0 && (sendWindow <= 0 || Http2Connection.this.sendWindow <= 0)
+                            && error == null && !cancelled && !remoteEnded) {
+                        await(until, "Timed out waiting for HTTP/2 window");
+                    }
+                    check();
+                    if (remoteEnded) {
+                        // the peer answered before the whole body,the rest is not wanted
+                        return;
+                    }
+                    n = (int) Math.min(len, Math.min(maxFrameSize,
+                            Math.min(sendWindow, Http2Connection.this.sendWindow)));
+                    sendWindow -= n;
+                    Http2Connection.this.sendWindow -= n;
+                }
+                boolean last = endStream && n == len;
+                synchronized (writeLock) {
+                    try {
+                        writeFrameHeader(out, n, DATA, last ? FLAG_END_STREAM : 0, id);
+                        out.write(b, off, n);
+                        if (last || n == len) {
+                            out.flush();
+                        }
+                    } catch (IOException e) {
+                        fail(e);
+                        throw e;
+                    }
+                }
+                off += n;
+                len -= n;
+            } while (len > 0);
+            if (endStream) {
+                boolean done;
+                synchronized (Http2Connection.this) {
+                    localEnded = true;
+                    done = remoteEnded;
+                }
+                if (done) {
+                    release(this);
+                }
+            }
+        }
+
+        /**
+         * Wait for the response headers
+         *
+         * @param timeout milliseconds,0 means no limit
+         * @return headers of the final response
+         * @throws IOException if the stream failed or timed out
+         */
+        List<Header> awaitHeaders(int timeout) throws IOException {
+            long until = timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+            synchronized (Http2Connection.this) {
+                while (headers == null && error == null && !cancelled) {
+                    await(until, "Timed out waiting for the HTTP/2 response");
+                }
+                check();
+                return headers;
+            }
+        }
+
+        /**
+         * Read body bytes
+         *
+         * @return bytes read,-1 at the end of the body
+         */
+        int read(byte[] b, int off, int len, int timeout) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            long until = timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+            int n;
+            int increment = 0;
+            int connectionIncrement;
+            synchronized (Http2Connection.this) {
+                while (data.isEmpty() && !remoteEnded && error == null && !cancelled) {
+                    await(until, "Read timed out on the HTTP/2 stream");
+                }
+                if (data.isEmpty()) {
+                    check();
+                    return -1;
+                }
+                byte[] chunk = data.getFirst();
+                n = Math.min(len, chunk.length - dataOffset);
+                System.arraycopy(chunk, dataOffset, b, off, n);
+                dataOffset += n;
+                if (dataOffset == chunk.length) {
+                    data.removeFirst();
+                    dataOffset = 0;
+                }
+                connectionIncrement = consumed(n);
+                unacked += n;
+                if (!remoteEnded && unacked >= STREAM_WINDOW / 2) {
+                    increment = unacked;
+                    unacked = 0;
+                    receiveWindow += increment;
+                }
+            }
+            if (connectionIncrement > 0) {
+                writeWindowUpdateQuietly(0, connectionIncrement);
+            }
+            if (increment > 0) {
+                writeWindowUpdateQuietly(id, increment);
+            }
+            return n;
+        }
+
+        boolean isLocalEnded() {
+            synchronized (Http2Connection.this) {
+                return localEnded;
+            }
+        }
+
+        /**
+         * @return true once the whole body arrived
+         */
+        boolean isRemoteEnded() {
+            synchronized (Http2Connection.this) {
+                return remoteEnded;
+            }
+        }
+
+        /**
+         * Give the stream up,the peer is told to stop if it is still sending
+         */
+        void cancel() {
+            boolean reset;
+            int connectionIncrement = 0;
+            synchronized (Http2Connection.this) {
+                if (cancelled) {
+                    return;
+                }
+                cancelled = true;
+                reset = error == null && !(remoteEnded && localEnded) && streams.containsKey(id);
+                // unread bytes go back to the connection window
+                int unread = -dataOffset;
+                for (byte[] chunk : data) {
+                    unread += chunk.length;
+                }
+                data.clear();
+                dataOffset = 0;
+                if (unread > 0) {
+                    connectionIncrement = consumed(unread);
+                }
+                Http2Connection.this.notifyAll();
+            }
+            if (connectionIncrement > 0) {
+                writeWindowUpdateQuietly(0, connectionIncrement);
+            }
+            if (reset) {
+                writeRstStreamQuietly(id, CANCEL);
+            }
+            release(this);
+        }
+
+        /**
+         * Must hold the connection
+         */
+        private void check() throws IOException {
+            if (error != null) {
+                throw error;
+            }
+            if (cancelled) {
+                throw new InterruptedIOException("HTTP/2 stream " + id + " cancelled");
+            }
+        }
+    }
+
+}
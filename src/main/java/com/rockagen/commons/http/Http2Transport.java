@@ -0,0 +1,540 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.http.Consts;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.Credentials;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.concurrent.Cancellable;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.impl.EnglishReasonPhraseCatalog;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Multiplexed HTTP/2 {@link HttpTransport}.
+ * <p>
+ * Keeps one connection per target host and runs the calls of that host as
+ * concurrent streams over it, up to the max concurrent streams of the
+ * server, instead of one pooled connection per call in flight. Plain
+ * <tt>http</tt> targets are spoken to with prior knowledge (h2c, RFC 7540
+ * section 3.4), <tt>https</tt> targets need h2 negotiated by ALPN, which
+ * is found on Java 9 and later and on Java 8u252 and later, otherwise the
+ * call fails.
+ * </p>
+ * <p>
+ * Header compression never indexes the request headers, so nothing is kept
+ * between calls but the connection. Proxies are not supported, Basic
+ * credentials of the context are sent preemptively. A stream is reset
+ * when its request is aborted (e.g. a hedge lost) or its response is closed
+ * before the body was read.
+ * </p>
+ *
+ * @author RA
+ * @since 4.3
+ */
+public class Http2Transport implements HttpTransport {
+
+    // ~ Instance fields ==================================================
+
+    /** */
+    private static final Logger log = LoggerFactory.getLogger(Http2Transport.class);
+
+    public final static ProtocolVersion HTTP_2 = new ProtocolVersion("HTTP", 2, 0);
+
+    private final static AtomicInteger COUNT = new AtomicInteger();
+
+    private final SSLRegistry sslRegistry;
+
+    private final DnsResolver dnsResolver;
+
+    private final ConcurrentMap<String, Http2Connection> connections =
+            new ConcurrentHashMap<String, Http2Connection>();
+
+    private final ConcurrentMap<String, Object> locks = new ConcurrentHashMap<String, Object>();
+
+    private final AtomicInteger opened = new AtomicInteger();
+
+    private volatile boolean closed;
+
+    // ~ Constructors ==================================================
+
+    /**
+     * Create a transport with the shared {@link SSLRegistry} and {@link CachingDnsResolver}
+     */
+    public Http2Transport() {
+        this(SSLRegistry.getShared(), CachingDnsResolver.getShared());
+    }
+
+    /**
+     * Create a transport
+     *
+     * @param sslRegistry registry of keystores
+     * @param dnsResolver resolver of the target hosts
+     */
+    public Http2Transport(SSLRegistry sslRegistry, DnsResolver dnsResolver) {
+        this.sslRegistry = sslRegistry;
+        this.dnsResolver = dnsResolver;
+    }
+
+    // ~ Methods ==================================================
+
+    /**
+     * Execute the request as a stream of the connection to the target host
+     *
+     * @param targetHost target {@link HttpHost}
+     * @param request    request
+     * @param context    execution context
+     * @param keystore   keystore identity of the {@link SSLRegistry}
+     * @return response,closing it resets the stream if the body was not read
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public CloseableHttpResponse execute(HttpHost targetHost, HttpRequest request, HttpClientContext context,
+                                         String keystore) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Http2 transport was closed");
+        }
+        RequestConfig config = context.getRequestConfig();
+        if (config != null && config.getProxy() != null) {
+            throw new IOException("Proxy is not supported by the HTTP/2 transport: " + config.getProxy());
+        }
+        int timeout = config == null ? 0 : Math.max(config.getSocketTimeout(), 0);
+        HttpEntity entity = request instanceof HttpEntityEnclosingRequest ?
+                ((HttpEntityEnclosingRequest) request).getEntity() : null;
+        List<Header> headers = headersOf(targetHost, request, context, entity);
+
+        // a connection going away refuses the streams it did not process,they are safe on a new one
+        for (int attempt = 0; ; attempt++) {
+            Http2Connection conn = connectionOf(targetHost, config, keystore);
+            try {
+                return exchange(conn, request, headers, entity, timeout);
+            } catch (Http2Connection.ConnectionShutdownException e) {
+                connections.remove(keyOf(targetHost, keystore), conn);
+                if (attempt > 0 || (entity != null && !entity.isRepeatable())) {
+                    throw e;
+                }
+                log.debug("Send again on a new connection: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Send the request as a stream of the connection and wait for the response headers
+     */
+    private static CloseableHttpResponse exchange(Http2Connection conn, HttpRequest request, List<Header> headers,
+                                                  HttpEntity entity, int timeout) throws IOException {
+        final Http2Connection.Stream stream = conn.newStream(headers, entity == null, timeout);
+        if (request instanceof HttpRequestBase) {
+            HttpRequestBase hrb = (HttpRequestBase) request;
+            hrb.setCancellable(new Cancellable() {
+                @Override
+                public boolean cancel() {
+                    stream.cancel();
+                    return true;
+                }
+            });
+            if (hrb.isAborted()) {
+                stream.cancel();
+            }
+        }
+        try {
+            if (entity != null) {
+                StreamOutputStream out = new StreamOutputStream(stream, timeout);
+                entity.writeTo(out);
+                out.close();
+            }
+            return responseOf(request, stream, stream.awaitHeaders(timeout), timeout);
+        } catch (IOException e) {
+            stream.cancel();
+            throw e;
+        } catch (RuntimeException e) {
+            stream.cancel();
+            throw e;
+        }
+    }
+
+    /**
+     * Request headers of HTTP/2,pseudo headers first and names in lower case
+     */
+    private static List<Header> headersOf(HttpHost targetHost, HttpRequest request, HttpClientContext context,
+                                          HttpEntity entity) {
+        List<Header> headers = new ArrayList<Header>();
+        String uri = request.getRequestLine().getUri();
+        String path = uri;
+        String authority = null;
+        if (!uri.startsWith("/") && !"*".equals(uri)) {
+            URI u = URI.create(uri);
+            path = u.getRawPath() == null || u.getRawPath().length() == 0 ? "/" : u.getRawPath();
+            if (u.getRawQuery() != null) {
+                path += "?" + u.getRawQuery();
+            }
+            authority = u.getRawAuthority();
+        }
+        Header host = request.getFirstHeader("Host");
+        if (host != null) {
+            authority = host.getValue();
+        } else if (authority == null) {
+            authority = targetHost.toHostString();
+        }
+        headers.add(new BasicHeader(":method", request.getRequestLine().getMethod()));
+        headers.add(new BasicHeader(":scheme", targetHost.getSchemeName()));
+        headers.add(new BasicHeader(":authority", authority));
+        headers.add(new BasicHeader(":path", path));
+        for (Header h : request.getAllHeaders()) {
+            String name = h.getName().toLowerCase(Locale.ENGLISH);
+            if ("connection".equals(name) || "keep-alive".equals(name) || "proxy-connection".equals(name)
+                    || "transfer-encoding".equals(name) || "upgrade".equals(name) || "host".equals(name)
+                    || ("te".equals(name) && !"trailers".equalsIgnoreCase(h.getValue()))) {
+                // connection specific,not allowed in HTTP/2
+                continue;
+            }
+            headers.add(new BasicHeader(name, h.getValue()));
+        }
+        if (entity != null) {
+            if (entity.getContentType() != null && !request.containsHeader("Content-Type")) {
+                headers.add(new BasicHeader("content-type", entity.getContentType().getValue()));
+            }
+            if (entity.getContentEncoding() != null && !request.containsHeader("Content-Encoding")) {
+                headers.add(new BasicHeader("content-encoding", entity.getContentEncoding().getValue()));
+            }
+            if (entity.getContentLength() >= 0 && !request.containsHeader("Content-Length")) {
+                headers.add(new BasicHeader("content-length", Long.toString(entity.getContentLength())));
+            }
+        }
+        if (!request.containsHeader("Authorization")) {
+            CredentialsProvider cp = context.getCredentialsProvider();
+            Credentials credentials = cp == null ? null : cp.getCredentials(new AuthScope(targetHost));
+            if (credentials != null) {
+                String pair = credentials.getUserPrincipal().getName() + ":"
+                        + (credentials.getPassword() == null ? "" : credentials.getPassword());
+                headers.add(new BasicHeader("authorization",
+                        "Basic " + new String(Base64.encodeBase64(pair.getBytes(Consts.UTF_8), false), Consts.ASCII)));
+            }
+        }
+        return headers;
+    }
+
+    private static CloseableHttpResponse responseOf(HttpRequest request, Http2Connection.Stream stream,
+                                                    List<Header> headers, int timeout) {
+        int status = 0;
+        for (Header h : headers) {
+            if (":status".equals(h.getName())) {
+                status = Integer.parseInt(h.getValue());
+            }
+        }
+        Http2Response response = new Http2Response(stream, status);
+        for (Header h : headers) {
+            if (!h.getName().startsWith(":")) {
+                response.addHeader(h);
+            }
+        }
+        if (!"HEAD".equals(request.getRequestLine().getMethod()) && status != 204 && status != 304) {
+            BasicHttpEntity entity = new BasicHttpEntity();
+            entity.setContent(new StreamInputStream(stream, timeout));
+            Header length = response.getFirstHeader("content-length");
+            entity.setContentLength(length == null ? -1 : Long.parseLong(length.getValue().trim()));
+            entity.setContentType(response.getFirstHeader("content-type"));
+            entity.setContentEncoding(response.getFirstHeader("content-encoding"));
+            response.setEntity(entity);
+        }
+        return response;
+    }
+
+    /**
+     * Usable connection to the host,one is opened if there is none
+     */
+    private Http2Connection connectionOf(HttpHost targetHost, RequestConfig config, String keystore)
+            throws IOException {
+        String key = keyOf(targetHost, keystore);
+        Http2Connection conn = connections.get(key);
+        if (conn != null && conn.isUsable()) {
+            return conn;
+        }
+        Object lock = locks.get(key);
+        if (lock == null) {
+            Object created = new Object();
+            lock = locks.putIfAbsent(key, created);
+            if (lock == null) {
+                lock = created;
+            }
+        }
+        synchronized (lock) {
+            conn = connections.get(key);
+            if (conn != null && conn.isUsable()) {
+                return conn;
+            }
+            conn = connect(targetHost, config, keystore);
+            connections.put(key, conn);
+            if (closed) {
+                conn.close();
+                throw new IllegalStateException("Http2 transport was closed");
+            }
+            return conn;
+        }
+    }
+
+    private static String keyOf(HttpHost targetHost, String keystore) {
+        return "https".equals(targetHost.getSchemeName()) ? targetHost.toURI() + "#" + keystore : targetHost.toURI();
+    }
+
+    /**
+     * Open a connection,h2c by prior knowledge or h2 negotiated by ALPN
+     */
+    protected Http2Connection connect(HttpHost targetHost, RequestConfig config, String keystore)
+            throws IOException {
+        boolean tls = "https".equals(targetHost.getSchemeName());
+        int port = targetHost.getPort() > 0 ? targetHost.getPort() : (tls ? 443 : 80);
+        InetAddress[] addresses = targetHost.getAddress() != null ?
+                new InetAddress[]{targetHost.getAddress()} : dnsResolver.resolve(targetHost.getHostName());
+        int connectTimeout = config == null ? 0 : Math.max(config.getConnectTimeout(), 0);
+        Socket socket = null;
+        IOException last = null;
+        for (InetAddress address : addresses) {
+            Socket candidate = new Socket();
+            try {
+                candidate.setTcpNoDelay(true);
+                candidate.connect(new InetSocketAddress(address, port), connectTimeout);
+                socket = candidate;
+                break;
+            } catch (IOException e) {
+                candidate.close();
+                last = e;
+            }
+        }
+        if (socket == null) {
+            throw last != null ? last : new IOException("No address of " + targetHost);
+        }
+        try {
+            if (tls) {
+                socket = negotiate(socket, targetHost.getHostName(), port, keystore);
+            }
+            Http2Connection conn = new Http2Connection(socket, "http2-" + targetHost.toHostString() + "-"
+                    + COUNT.incrementAndGet());
+            opened.incrementAndGet();
+            log.debug("HTTP/2 connection {} opened", conn);
+            return conn;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * TLS handshake offering only h2 by ALPN
+     */
+    private SSLSocket negotiate(Socket socket, String host, int port, String keystore) throws IOException {
+        SSLSocket ssl = (SSLSocket) sslRegistry.getSSLContext(keystore).getSocketFactory()
+                .createSocket(socket, host, port, true);
+        try {
+            SSLParameters params = ssl.getSSLParameters();
+            // ALPN api of Java 9 and 8u252,not in the Java 6 api
+            Method set = SSLParameters.class.getMethod("setApplicationProtocols", String[].class);
+            set.invoke(params, (Object) new String[]{"h2"});
+            ssl.setSSLParameters(params);
+            ssl.startHandshake();
+            Object protocol = SSLSocket.class.getMethod("getApplicationProtocol").invoke(ssl);
+            if (!"h2".equals(protocol)) {
+                throw new IOException("Server " + host + " did not negotiate h2 by ALPN");
+            }
+        } catch (NoSuchMethodException e) {
+            throw new IOException("ALPN is not available on this Java, HTTP/2 over TLS needs it");
+        } catch (IllegalAccessException e) {
+            throw new IOException("ALPN is not available: " + e.getMessage(), e);
+        } catch (java.lang.reflect.InvocationTargetException e) {
+            throw new IOException("ALPN is not available: " + e.getCause(), e.getCause());
+        }
+        SSLConnectionSocketFactory.BROWSER_COMPATIBLE_HOSTNAME_VERIFIER.verify(host, ssl);
+        return ssl;
+    }
+
+    /**
+     * Connections opened so far,a measure of the reuse
+     *
+     * @return count
+     */
+    public int getOpenedConnections() {
+        return opened.get();
+    }
+
+    @Override
+    public SSLRegistry getSSLRegistry() {
+        return sslRegistry;
+    }
+
+    /**
+     * Close all connections,streams in flight fail
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Map.Entry<String, Http2Connection> entry : connections.entrySet()) {
+            entry.getValue().close();
+        }
+        connections.clear();
+    }
+
+    /**
+     * Response of a stream,closing it gives the stream up
+     */
+    private static class Http2Response extends BasicHttpResponse implements CloseableHttpResponse {
+
+        private final Http2Connection.Stream stream;
+
+        Http2Response(Http2Connection.Stream stream, int status) {
+            super(new BasicStatusLine(HTTP_2, status, EnglishReasonPhraseCatalog.INSTANCE.getReason(status, null)));
+            this.stream = stream;
+        }
+
+        @Override
+        public void close() {
+            stream.cancel();
+        }
+    }
+
+    /**
+     * Request body as DATA frames of the stream
+     */
+    private static class StreamOutputStream extends OutputStream {
+
+        private final Http2Connection.Stream stream;
+
+        private final int timeout;
+
+        private final byte[] buffer = new byte[Http2Connection.DEFAULT_FRAME_SIZE];
+
+        private int count;
+
+        private boolean closed;
+
+        StreamOutputStream(Http2Connection.Stream stream, int timeout) {
+            this.stream = stream;
+            this.timeout = timeout;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                flushBuffer();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len >= buffer.length) {
+                flushBuffer();
+                stream.write(b, off, len, false, timeout);
+                return;
+            }
+            if (len > buffer.length - count) {
+                flushBuffer();
+            }
+            System.arraycopy(b, off, buffer, count, len);
+            count += len;
+        }
+
+        private void flushBuffer() throws IOException {
+            if (count > 0) {
+                stream.write(buffer, 0, count, false, timeout);
+                count = 0;
+            }
+        }
+
+        /**
+         * Send the rest and end the stream
+         */
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                stream.write(buffer, 0, count, true, timeout);
+                count = 0;
+            }
+        }
+    }
+
+    /**
+     * Response body of the stream
+     */
+    private static class StreamInputStream extends InputStream {
+
+        private final Http2Connection.Stream stream;
+
+        private final int timeout;
+
+        StreamInputStream(Http2Connection.Stream stream, int timeout) {
+            this.stream = stream;
+            this.timeout = timeout;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int n = read(b, 0, 1);
+            return n < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return stream.read(b, off, len, timeout);
+        }
+
+        /**
+         * Gives the rest of the body up,the stream is reset if it is not ended
+         */
+        @Override
+        public void close() {
+            stream.cancel();
+        }
+    }
+
+}
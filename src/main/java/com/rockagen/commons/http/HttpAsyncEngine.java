@@ -0,0 +1,375 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import com.rockagen.commons.util.IOUtil;
+import org.apache.http.HttpResponse;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared non-blocking http client engine.
+ * <p>
+ * A few I/O dispatch threads drive every request. Each keystore identity of
+ * the {@link SSLRegistry} gets one {@link CloseableHttpAsyncClient} on a
+ * {@link PoolingNHttpClientConnectionManager},
+ * <code>maxTotal</code> caps the connections in use at the same time and
+ * requests over <code>maxPerRoute</code> wait in the queue of their host.
+ * At most <code>maxRequests</code> requests are accepted (running plus queued),
+ * more are rejected with a {@link RejectedExecutionException} on the returned future.
+ * </p>
+ *
+ * @author RA
+ * @since 4.3
+ */
+public class HttpAsyncEngine implements Closeable {
+
+    // ~ Instance fields ==================================================
+
+    /** */
+    private static final Logger log = LoggerFactory.getLogger(HttpAsyncEngine.class);
+
+    public final static int DEFAULT_IO_THREADS = Runtime.getRuntime().availableProcessors();
+
+    public final static int DEFAULT_MAX_TOTAL = 1000;
+
+    public final static int DEFAULT_MAX_PER_ROUTE = 100;
+
+    public final static int DEFAULT_MAX_REQUESTS = 10000;
+
+    private final int ioThreads;
+
+    private final int maxTotal;
+
+    private final int maxPerRoute;
+
+    private final int maxRequests;
+
+    private final Semaphore requests;
+
+    private final SSLRegistry sslRegistry;
+
+    private final ConcurrentMap<String, PooledClient> clients = new ConcurrentHashMap<String, PooledClient>();
+
+    private final ScheduledExecutorService evictor;
+
+    private volatile boolean closed;
+
+    // ~ Constructors ==================================================
+
+    /**
+     * Create an engine with default limits
+     */
+    public HttpAsyncEngine() {
+        this(DEFAULT_IO_THREADS, DEFAULT_MAX_TOTAL, DEFAULT_MAX_PER_ROUTE, DEFAULT_MAX_REQUESTS);
+    }
+
+    /**
+     * Create an engine
+     *
+     * @param ioThreads   I/O dispatch threads of each client
+     * @param maxTotal    max concurrent connections of each pool
+     * @param maxPerRoute max concurrent connections per route (host),others are queued
+     * @param maxRequests max accepted requests (running plus queued) of the engine
+     */
+    public HttpAsyncEngine(int ioThreads, int maxTotal, int maxPerRoute, int maxRequests) {
+        this(ioThreads, maxTotal, maxPerRoute, maxRequests, SSLRegistry.getShared());
+    }
+
+    /**
+     * Create an engine
+     *
+     * @param ioThreads   I/O dispatch threads of each client
+     * @param maxTotal    max concurrent connections of each pool
+     * @param maxPerRoute max concurrent connections per route (host),others are queued
+     * @param maxRequests max accepted requests (running plus queued) of the engine
+     * @param sslRegistry registry of keystores
+     */
+    public HttpAsyncEngine(int ioThreads, int maxTotal, int maxPerRoute, int maxRequests,
+                           SSLRegistry sslRegistry) {
+        if (ioThreads <= 0 || maxTotal <= 0 || maxPerRoute <= 0 || maxRequests <= 0) {
+            throw new IllegalArgumentException("Engine limits must be positive");
+        }
+        this.ioThreads = ioThreads;
+        this.maxTotal = maxTotal;
+        this.maxPerRoute = maxPerRoute;
+        this.maxRequests = maxRequests;
+        this.requests = new Semaphore(maxRequests);
+        this.sslRegistry = sslRegistry;
+        this.evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "http-async-engine-evictor");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.evictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                evict();
+            }
+        }, 5000, 5000, TimeUnit.MILLISECONDS);
+    }
+
+    // ~ Methods ==================================================
+
+    /**
+     * Get the started client of the keystore, the keystore stream is read and closed.
+     *
+     * @param keystore keyStore InputStream (Custom SSL),null to use default trust material
+     * @param password keyStore password
+     * @return started {@link CloseableHttpAsyncClient}
+     * @throws IOException if an I/O error occurs
+     */
+    public CloseableHttpAsyncClient getClient(InputStream keystore, char[] password) throws IOException {
+        return clientOf(sslRegistry.register(keystore, password));
+    }
+
+    /**
+     * Get the started client of a registered keystore identity
+     *
+     * @param key identity from {@link SSLRegistry#register(InputStream, char[])}
+     * @return started {@link CloseableHttpAsyncClient}
+     * @throws IOException if the I/O reactor can not be created
+     */
+    public CloseableHttpAsyncClient clientOf(String key) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Http async engine was closed");
+        }
+        PooledClient pc = clients.get(key);
+        if (pc == null) {
+            PooledClient created = createClient(sslRegistry.getIOSessionStrategy(key));
+            created.client.start();
+            pc = clients.putIfAbsent(key, created);
+            if (pc == null) {
+                pc = created;
+                // the key is not logged,it is derived from the keystore password
+                log.debug("New async pooled client of {} trust material",
+                        SSLRegistry.DEFAULT_KEY.equals(key) ? "default" : "custom");
+            } else {
+                IOUtil.closeQuietly(created.client);
+            }
+        }
+        return pc.client;
+    }
+
+    /**
+     * Create a pooled client
+     *
+     * @param sslStrategy ssl session strategy
+     * @return PooledClient
+     * @throws IOException if the I/O reactor can not be created
+     */
+    private PooledClient createClient(SSLIOSessionStrategy sslStrategy) throws IOException {
+        Registry<SchemeIOSessionStrategy> registry = RegistryBuilder.<SchemeIOSessionStrategy>create()
+                .register("http", NoopIOSessionStrategy.INSTANCE)
+                .register("https", sslStrategy)
+                .build();
+        IOReactorConfig ioConfig = IOReactorConfig.custom()
+                .setIoThreadCount(ioThreads)
+                .build();
+        PoolingNHttpClientConnectionManager cm = new PoolingNHttpClientConnectionManager(
+                new DefaultConnectingIOReactor(ioConfig), registry);
+        cm.setMaxTotal(maxTotal);
+        cm.setDefaultMaxPerRoute(maxPerRoute);
+
+        CloseableHttpAsyncClient client = HttpAsyncClients.custom()
+                .setConnectionManager(cm)
+                .setKeepAliveStrategy(new ConnectionKeepAliveStrategy() {
+                    @Override
+                    public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                        long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                        return duration > 0 ? duration : HttpEngine.DEFAULT_KEEP_ALIVE;
+                    }
+                })
+                .setDefaultRequestConfig(HttpConn.getRequestConfig())
+                .build();
+        return new PooledClient(cm, client);
+    }
+
+    /**
+     * Execute the request on the client if the engine accepts one more request
+     *
+     * @param client   client from {@link #getClient(InputStream, char[])}
+     * @param producer request producer
+     * @param consumer response consumer
+     * @param context  http context
+     * @param callback callback (optional)
+     * @param <T>      result type
+     * @return future of the result
+     */
+    public <T> Future<T> execute(CloseableHttpAsyncClient client, HttpAsyncRequestProducer producer,
+                                 HttpAsyncResponseConsumer<T> consumer, HttpContext context,
+                                 final FutureCallback<T> callback) {
+        if (!requests.tryAcquire()) {
+            BasicFuture<T> rejected = new BasicFuture<T>(callback);
+            rejected.failed(new RejectedExecutionException("Too many requests, limit is " + maxRequests));
+            return rejected;
+        }
+        try {
+            return client.execute(producer, consumer, context, new FutureCallback<T>() {
+                @Override
+                public void completed(T result) {
+                    requests.release();
+                    if (callback != null) {
+                        callback.completed(result);
+                    }
+                }
+
+                @Override
+                public void failed(Exception ex) {
+                    requests.release();
+                    if (callback != null) {
+                        callback.failed(ex);
+                    }
+                }
+
+                @Override
+                public void cancelled() {
+                    requests.release();
+                    if (callback != null) {
+                        callback.cancelled();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            requests.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Close expired connections and connections idle longer than {@link HttpEngine#DEFAULT_IDLE_TIMEOUT}
+     */
+    protected void evict() {
+        for (PooledClient pc : clients.values()) {
+            try {
+                pc.manager.closeExpiredConnections();
+                pc.manager.closeIdleConnections(HttpEngine.DEFAULT_IDLE_TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (Exception e) {
+                log.warn("Evict connections failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Requests running or queued now
+     *
+     * @return accepted requests not completed yet
+     */
+    public int getInFlight() {
+        return maxRequests - requests.availablePermits();
+    }
+
+    /**
+     * Total statistics of all pools
+     *
+     * @return {@link PoolStats}
+     */
+    public PoolStats getTotalStats() {
+        int leased = 0, pending = 0, available = 0, max = 0;
+        for (PooledClient pc : clients.values()) {
+            PoolStats ps = pc.manager.getTotalStats();
+            leased += ps.getLeased();
+            pending += ps.getPending();
+            available += ps.getAvailable();
+            max += ps.getMax();
+        }
+        return new PoolStats(leased, pending, available, max);
+    }
+
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    public int getMaxTotal() {
+        return maxTotal;
+    }
+
+    public int getMaxPerRoute() {
+        return maxPerRoute;
+    }
+
+    public int getMaxRequests() {
+        return maxRequests;
+    }
+
+    public SSLRegistry getSSLRegistry() {
+        return sslRegistry;
+    }
+
+    /**
+     * Close all clients and stop the evictor
+     */
+    @Override
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+        for (Map.Entry<String, PooledClient> entry : clients.entrySet()) {
+            IOUtil.closeQuietly(entry.getValue().client);
+        }
+        clients.clear();
+    }
+
+    /**
+     * Pooled client holder
+     */
+    private static class PooledClient {
+
+        private final PoolingNHttpClientConnectionManager manager;
+
+        private final CloseableHttpAsyncClient client;
+
+        PooledClient(PoolingNHttpClientConnectionManager manager, CloseableHttpAsyncClient client) {
+            this.manager = manager;
+            this.client = client;
+        }
+    }
+
+}
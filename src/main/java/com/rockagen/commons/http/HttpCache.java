@@ -0,0 +1,559 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import org.apache.http.Consts;
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.StatusLine;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.Credentials;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.message.BasicHeader;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process cache of GET and HEAD responses of {@link HttpConnClient}.
+ * <p>
+ * Follows the HTTP caching rules of a private cache: a response is fresh
+ * for its <code>Cache-Control: max-age</code> (or <code>Expires</code>, or
+ * a tenth of its age since <code>Last-Modified</code>), a stale one with an
+ * <code>ETag</code> or <code>Last-Modified</code> is revalidated by a
+ * conditional request and served again on 304. <code>no-store</code> is
+ * never cached and <code>no-cache</code> is always revalidated. Requests
+ * with <code>Authorization</code> or their own conditional headers bypass
+ * the cache, unsafe methods invalidate the entries of their target.
+ * </p>
+ * <p>
+ * Responses to credentials or to a client keystore are cached apart, under
+ * a keyed digest of the credentials and the keystore identity, so they are
+ * only served to callers of the same identity.
+ * </p>
+ * <p>
+ * Entries are evicted least recently used first once the entry count or
+ * the total body bytes exceed the bounds.
+ * </p>
+ * <pre>
+ * HttpCache cache = new HttpCache();
+ * HttpConnClient client = HttpConnClient.custom().cache(cache).build();
+ * ...
+ * log.info("cache {}", cache);
+ * </pre>
+ *
+ * @author RA
+ * @since 4.3
+ */
+public class HttpCache {
+
+    // ~ Instance fields ==================================================
+
+    public final static int DEFAULT_MAX_ENTRIES = 1000;
+
+    public final static long DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+
+    public final static int DEFAULT_MAX_ENTRY_BYTES = 1024 * 1024;
+
+    /**
+     * Longest heuristic freshness,milliseconds
+     */
+    private final static long MAX_HEURISTIC = 24 * 60 * 60 * 1000L;
+
+    private final int maxEntries;
+
+    private final long maxBytes;
+
+    private final int maxEntryBytes;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    private long bytes;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong revalidations = new AtomicLong();
+
+    // ~ Constructors ==================================================
+
+    /**
+     * Create with default bounds
+     */
+    public HttpCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES, DEFAULT_MAX_ENTRY_BYTES);
+    }
+
+    /**
+     * Create
+     *
+     * @param maxEntries    max entries kept
+     * @param maxBytes      max body bytes of all entries
+     * @param maxEntryBytes max body bytes of one entry,larger responses are not cached
+     */
+    public HttpCache(int maxEntries, long maxBytes, int maxEntryBytes) {
+        if (maxEntries <= 0 || maxBytes <= 0 || maxEntryBytes <= 0) {
+            throw new IllegalArgumentException("Cache bounds must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxEntryBytes;
+    }
+
+    // ~ Methods ==================================================
+
+    /**
+     * Key of the request
+     *
+     * @param host     target host
+     * @param request  request
+     * @param context  execution context,its credentials are part of the key
+     * @param keystore keystore identity of the {@link SSLRegistry}
+     * @return key,null if the request must bypass the cache
+     */
+    String keyOf(HttpHost host, HttpRequest request, HttpClientContext context, String keystore) {
+        String method = request.getRequestLine().getMethod();
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            return null;
+        }
+        if (request.containsHeader("Authorization") || request.containsHeader("If-None-Match")
+                || request.containsHeader("If-Modified-Since") || request.containsHeader("Range")
+                || hasDirective(request.getHeaders("Cache-Control"), "no-store")) {
+            return null;
+        }
+        String key = method + " " + host.toURI() + request.getRequestLine().getUri();
+        CredentialsProvider cp = context.getCredentialsProvider();
+        Credentials credentials = cp == null ? null : cp.getCredentials(new AuthScope(host));
+        if (credentials == null && (keystore == null || SSLRegistry.DEFAULT_KEY.equals(keystore))) {
+            return key;
+        }
+        String user = credentials == null ? "" : credentials.getUserPrincipal().getName();
+        String password = credentials == null || credentials.getPassword() == null ? "" : credentials.getPassword();
+        // a space never occurs in the uri
+        return key + " " + SSLRegistry.identity(user.getBytes(Consts.UTF_8), password.getBytes(Consts.UTF_8),
+                (keystore == null ? "" : keystore).getBytes(Consts.UTF_8));
+    }
+
+    /**
+     * Invalidate the entries of the target of an unsafe request
+     *
+     * @param host    target host
+     * @param request request
+     */
+    void invalidate(HttpHost host, HttpRequest request) {
+        String uri = host.toURI() + request.getRequestLine().getUri();
+        synchronized (this) {
+            remove("GET " + uri);
+            remove("HEAD " + uri);
+            // and the entries of every identity
+            Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Entry> e = it.next();
+                String key = e.getKey();
+                if (key.startsWith("GET " + uri + " ") || key.startsWith("HEAD " + uri + " ")) {
+                    bytes -= e.getValue().body.length;
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the entry of the key,fresh or stale
+     *
+     * @param key     key
+     * @param request request,to check if it forbids a fresh entry
+     * @return entry,null if none
+     */
+    synchronized Entry lookup(String key, HttpRequest request) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.expires > 0 && hasDirective(request.getHeaders("Cache-Control"), "no-cache")) {
+            // force revalidation
+            return entry.stale();
+        }
+        return entry;
+    }
+
+    /**
+     * Serve a fresh entry
+     *
+     * @param entry fresh entry
+     * @return response
+     */
+    CloseableHttpResponse hit(Entry entry) {
+        hits.incrementAndGet();
+        return entry.toResponse();
+    }
+
+    /**
+     * Make the request conditional on the validators of the stale entry
+     *
+     * @param entry   stale entry
+     * @param request request
+     * @return true if the request was made conditional
+     */
+    boolean addValidators(Entry entry, HttpRequest request) {
+        if (entry.etag == null && entry.lastModified == null) {
+            return false;
+        }
+        if (entry.etag != null) {
+            request.setHeader("If-None-Match", entry.etag);
+        }
+        if (entry.lastModified != null) {
+            request.setHeader("If-Modified-Since", entry.lastModified);
+        }
+        return true;
+    }
+
+    /**
+     * Handle the response from the network
+     *
+     * @param key      key
+     * @param stale    stale entry the request was conditional on,may be null
+     * @param response response
+     * @return response to hand on
+     * @throws IOException if an I/O error occurs while reading the body
+     */
+    CloseableHttpResponse update(String key, Entry stale, CloseableHttpResponse response) throws IOException {
+        int status = response.getStatusLine().getStatusCode();
+        long now = System.currentTimeMillis();
+        if (status == 304 && stale != null) {
+            revalidations.incrementAndGet();
+            response.close();
+            Entry entry = stale.revalidated(response.getAllHeaders(), now);
+            put(key, entry);
+            return entry.toResponse();
+        }
+        misses.incrementAndGet();
+        if (status != 200 && status != 203 && status != 300 && status != 301 && status != 410) {
+            return response;
+        }
+        long expires = expiresOf(response, now);
+        String etag = value(response.getFirstHeader("ETag"));
+        String lastModified = value(response.getFirstHeader("Last-Modified"));
+        if (expires < 0 || (expires <= now && etag == null && lastModified == null) || varies(response)) {
+            return response;
+        }
+        HttpEntity entity = response.getEntity();
+        byte[] body;
+        if (entity == null) {
+            body = new byte[0];
+        } else {
+            if (entity.getContentLength() > maxEntryBytes) {
+                return response;
+            }
+            body = read(response, entity);
+            if (body == null) {
+                return response;
+            }
+        }
+        Header contentType = entity == null ? null : entity.getContentType();
+        List<Header> headers = new ArrayList<Header>();
+        for (Header h : response.getAllHeaders()) {
+            headers.add(h);
+        }
+        if (contentType != null && !response.containsHeader("Content-Type")) {
+            headers.add(contentType);
+        }
+        Entry entry = new Entry(response.getStatusLine(), headers.toArray(new Header[headers.size()]), body,
+                entity != null, expires, etag, lastModified);
+        put(key, entry);
+        return entry.toResponse();
+    }
+
+    /**
+     * Read the body up to max entry bytes
+     *
+     * @return body,null if too large in which case the entity of the response is restored
+     */
+    private byte[] read(CloseableHttpResponse response, HttpEntity entity) throws IOException {
+        InputStream in = entity.getContent();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(
+                entity.getContentLength() > 0 ? (int) entity.getContentLength() : 4096);
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+            if (out.size() > maxEntryBytes) {
+                // too large,hand the rest on unbuffered
+                InputStreamEntity rest = new InputStreamEntity(
+                        new SequenceInputStream(new ByteArrayInputStream(out.toByteArray()), in), -1);
+                rest.setContentType(entity.getContentType());
+                response.setEntity(rest);
+                return null;
+            }
+        }
+        response.close();
+        return out.toByteArray();
+    }
+
+    private static boolean varies(HttpResponse response) {
+        for (Header h : response.getHeaders("Vary")) {
+            for (HeaderElement e : h.getElements()) {
+                // bodies are decoded already
+                if (!"accept-encoding".equals(e.getName().toLowerCase(Locale.US))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Absolute time in milliseconds the response goes stale
+     *
+     * @return expiry,-1 if it must not be stored
+     */
+    private static long expiresOf(HttpResponse response, long now) {
+        Header[] cc = response.getHeaders("Cache-Control");
+        if (hasDirective(cc, "no-store")) {
+            return -1;
+        }
+        if (hasDirective(cc, "no-cache")) {
+            return 0;
+        }
+        long age = seconds(value(response.getFirstHeader("Age")));
+        long maxAge = -1;
+        for (Header h : cc) {
+            for (HeaderElement e : h.getElements()) {
+                if ("max-age".equals(e.getName().toLowerCase(Locale.US))) {
+                    maxAge = seconds(e.getValue());
+                }
+            }
+        }
+        if (maxAge >= 0) {
+            return now + (maxAge - Math.max(age, 0)) * 1000;
+        }
+        Date date = date(response.getFirstHeader("Date"));
+        Date expires = date(response.getFirstHeader("Expires"));
+        if (response.containsHeader("Expires")) {
+            // invalid means already expired
+            return expires == null || date == null ? 0 : now + expires.getTime() - date.getTime();
+        }
+        Date lastModified = date(response.getFirstHeader("Last-Modified"));
+        if (lastModified != null && date != null && date.after(lastModified)) {
+            return now + Math.min((date.getTime() - lastModified.getTime()) / 10, MAX_HEURISTIC);
+        }
+        return 0;
+    }
+
+    private static boolean hasDirective(Header[] headers, String name) {
+        for (Header h : headers) {
+            for (HeaderElement e : h.getElements()) {
+                if (name.equals(e.getName().toLowerCase(Locale.US))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static long seconds(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static Date date(Header header) {
+        return header == null ? null : DateUtils.parseDate(header.getValue());
+    }
+
+    private static String value(Header header) {
+        return header == null ? null : header.getValue();
+    }
+
+    private synchronized void put(String key, Entry entry) {
+        remove(key);
+        entries.put(key, entry);
+        bytes += entry.body.length;
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || bytes > maxBytes) && it.hasNext()) {
+            bytes -= it.next().getValue().body.length;
+            it.remove();
+        }
+    }
+
+    private void remove(String key) {
+        Entry old = entries.remove(key);
+        if (old != null) {
+            bytes -= old.body.length;
+        }
+    }
+
+    /**
+     * Remove all entries
+     */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * @return entries
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return body bytes of all entries
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return responses served fresh from the cache
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return cacheable requests sent to the network and fully answered
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return responses served from the cache after a 304
+     */
+    public long getRevalidationCount() {
+        return revalidations.get();
+    }
+
+    @Override
+    public String toString() {
+        return "hits=" + getHitCount() + " misses=" + getMissCount() + " revalidations=" + getRevalidationCount()
+                + " entries=" + size() + " bytes=" + getBytes();
+    }
+
+    /**
+     * Cached response
+     */
+    static class Entry {
+
+        private final StatusLine statusLine;
+
+        private final Header[] headers;
+
+        private final byte[] body;
+
+        private final boolean hasEntity;
+
+        private final long expires;
+
+        private final String etag;
+
+        private final String lastModified;
+
+        Entry(StatusLine statusLine, Header[] headers, byte[] body, boolean hasEntity, long expires, String etag,
+              String lastModified) {
+            this.statusLine = statusLine;
+            this.headers = headers;
+            this.body = body;
+            this.hasEntity = hasEntity;
+            this.expires = expires;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        boolean isFresh() {
+            return System.currentTimeMillis() < expires;
+        }
+
+        Entry stale() {
+            return new Entry(statusLine, headers, body, hasEntity, 0, etag, lastModified);
+        }
+
+        /**
+         * Merge the headers of a 304 in
+         */
+        Entry revalidated(Header[] updates, long now) {
+            List<Header> merged = new ArrayList<Header>();
+            for (Header h : headers) {
+                if (!contains(updates, h.getName())) {
+                    merged.add(h);
+                }
+            }
+            for (Header h : updates) {
+                // a 304 does not describe the body
+                if (!"Content-Length".equalsIgnoreCase(h.getName())
+                        && !"Transfer-Encoding".equalsIgnoreCase(h.getName())) {
+                    merged.add(new BasicHeader(h.getName(), h.getValue()));
+                }
+            }
+            Header[] all = merged.toArray(new Header[merged.size()]);
+            CachedResponse probe = new CachedResponse(statusLine);
+            probe.setHeaders(all);
+            long expiry = Math.max(expiresOf(probe, now), 0);
+            String et = value(probe.getFirstHeader("ETag"));
+            String lm = value(probe.getFirstHeader("Last-Modified"));
+            return new Entry(statusLine, all, body, hasEntity, expiry, et, lm);
+        }
+
+        private static boolean contains(Header[] headers, String name) {
+            for (Header h : headers) {
+                if (h.getName().equalsIgnoreCase(name)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        CloseableHttpResponse toResponse() {
+            CachedResponse response = new CachedResponse(statusLine);
+            response.setHeaders(headers);
+            if (hasEntity) {
+                ByteArrayEntity entity = new ByteArrayEntity(body);
+                Header ct = response.getFirstHeader("Content-Type");
+                if (ct != null) {
+                    entity.setContentType(ct);
+                }
+                response.setEntity(entity);
+            }
+            return response;
+        }
+    }
+
+}
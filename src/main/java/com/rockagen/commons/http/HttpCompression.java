@@ -0,0 +1,182 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import org.apache.http.HttpEntity;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content compression of {@link HttpConnClient}.
+ * <p>
+ * Request bodies of at least <code>threshold</code> bytes (or of unknown
+ * length) are compressed with gzip or deflate while they are written.
+ * Compressed responses are decompressed while they are read, neither side
+ * buffers a whole copy. Raw and compressed byte counts of both directions
+ * are kept to report the ratios.
+ * </p>
+ * <pre>
+ * HttpCompression compression = new HttpCompression(HttpCompression.GZIP, 2048, true);
+ * HttpConnClient client = HttpConnClient.custom().compression(compression).build();
+ * ...
+ * log.info("request ratio {}", compression.getRequestRatio());
+ * </pre>
+ *
+ * @author RA
+ * @since 4.3
+ */
+public class HttpCompression {
+
+    // ~ Instance fields ==================================================
+
+    public final static String GZIP = "gzip";
+
+    public final static String DEFLATE = "deflate";
+
+    public final static int DEFAULT_THRESHOLD = 1024;
+
+    /**
+     * Context attribute of the compression in use
+     */
+    public final static String CONTEXT_ATTRIBUTE = "http.compression";
+
+    private final String requestEncoding;
+
+    private final int threshold;
+
+    private final boolean acceptEncoding;
+
+    private final AtomicLong requestBytes = new AtomicLong();
+
+    private final AtomicLong requestCompressedBytes = new AtomicLong();
+
+    private final AtomicLong responseBytes = new AtomicLong();
+
+    private final AtomicLong responseCompressedBytes = new AtomicLong();
+
+    // ~ Constructors ==================================================
+
+    /**
+     * Gzip request bodies from 1KB,accept compressed responses
+     */
+    public HttpCompression() {
+        this(GZIP, DEFAULT_THRESHOLD, true);
+    }
+
+    /**
+     * Create
+     *
+     * @param requestEncoding {@link #GZIP} or {@link #DEFLATE},null to send bodies as is
+     * @param threshold       min body bytes to compress
+     * @param acceptEncoding  advertise and decode compressed responses
+     */
+    public HttpCompression(String requestEncoding, int threshold, boolean acceptEncoding) {
+        if (requestEncoding != null && !GZIP.equals(requestEncoding) && !DEFLATE.equals(requestEncoding)) {
+            throw new IllegalArgumentException("Unsupported encoding [" + requestEncoding + "]");
+        }
+        this.requestEncoding = requestEncoding;
+        this.threshold = threshold;
+        this.acceptEncoding = acceptEncoding;
+    }
+
+    // ~ Methods ==================================================
+
+    /**
+     * Compress the request body if it is worth
+     *
+     * @param entity request body
+     * @return compressing entity,or the entity itself
+     */
+    public HttpEntity compress(HttpEntity entity) {
+        if (requestEncoding == null || entity == null || entity.getContentEncoding() != null) {
+            return entity;
+        }
+        long length = entity.getContentLength();
+        if (length >= 0 && length < threshold) {
+            return entity;
+        }
+        return new CompressingEntity(entity, requestEncoding, this);
+    }
+
+    void recordRequest(long raw, long compressed) {
+        requestBytes.addAndGet(raw);
+        requestCompressedBytes.addAndGet(compressed);
+    }
+
+    void recordResponse(long raw, long compressed) {
+        responseBytes.addAndGet(raw);
+        responseCompressedBytes.addAndGet(compressed);
+    }
+
+    public String getRequestEncoding() {
+        return requestEncoding;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public boolean isAcceptEncoding() {
+        return acceptEncoding;
+    }
+
+    /**
+     * @return uncompressed bytes of compressed request bodies
+     */
+    public long getRequestBytes() {
+        return requestBytes.get();
+    }
+
+    public long getRequestCompressedBytes() {
+        return requestCompressedBytes.get();
+    }
+
+    /**
+     * @return decompressed bytes of compressed responses
+     */
+    public long getResponseBytes() {
+        return responseBytes.get();
+    }
+
+    public long getResponseCompressedBytes() {
+        return responseCompressedBytes.get();
+    }
+
+    /**
+     * @return raw / compressed of request bodies,0 if none
+     */
+    public double getRequestRatio() {
+        return ratio(requestBytes.get(), requestCompressedBytes.get());
+    }
+
+    /**
+     * @return raw / compressed of responses,0 if none
+     */
+    public double getResponseRatio() {
+        return ratio(responseBytes.get(), responseCompressedBytes.get());
+    }
+
+    private static double ratio(long raw, long compressed) {
+        return compressed == 0 ? 0 : (double) raw / compressed;
+    }
+
+    @Override
+    public String toString() {
+        return "request " + requestBytes + "/" + requestCompressedBytes + ", response " + responseBytes + "/"
+                + responseCompressedBytes;
+    }
+
+}
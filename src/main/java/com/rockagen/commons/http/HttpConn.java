@@ -15,7 +15,6 @@
  */
 package com.rockagen.commons.http;
 
-import com.rockagen.commons.util.ArrayUtil;
 import com.rockagen.commons.util.CharsetUtil;
 import com.rockagen.commons.util.CommUtil;
 import com.rockagen.commons.util.IOUtil;
@@ -23,35 +22,35 @@ import org.apache.http.*;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.config.RequestConfig;
-import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.*;
-import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
-import org.apache.http.conn.ssl.SSLContexts;
-import org.apache.http.conn.ssl.TrustSelfSignedStrategy;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.FileEntity;
+import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.impl.client.BasicCredentialsProvider;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
 import org.apache.http.message.BasicHeader;
 import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.client.methods.ZeroCopyPost;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
 import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.net.ssl.SSLContext;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.security.KeyManagementException;
-import java.security.KeyStore;
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
-import java.security.cert.CertificateException;
+import java.nio.ByteBuffer;
+import java.net.URI;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 
 /**
  * Http Connecter Utils
@@ -72,6 +71,32 @@ public class HttpConn {
 
     private final static String ENCODING = CharsetUtil.UTF_8.name();
 
+    /**
+     * Immutable default config,per host and per call timeouts are set on {@link HttpConnClient}
+     */
+    private final static RequestConfig REQUEST_CONFIG = RequestConfig.custom()
+            .setConnectTimeout(CONNECT_TIMEOUT).setSocketTimeout(SO_TIMEOUT).build();
+
+    /**
+     * Shared client of the static methods,see {@link #getDefaultClient()}
+     */
+    private static volatile HttpConnClient defaultClient;
+
+    /**
+     * Shared non-blocking engine,see {@link #getAsyncEngine()}
+     */
+    private static volatile HttpAsyncEngine asyncEngine;
+
+    /**
+     * Copy buffer of direct buffers,one per thread
+     */
+    private final static ThreadLocal<byte[]> SCRATCH = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[8192];
+        }
+    };
+
 
     // ~ Constructors ==================================================
 
@@ -478,27 +503,14 @@ public class HttpConn {
                               String proxy, String encoding, Map<String, String> headers, RequestMethod method)
             throws IOException {
 
-        // TargetHost
-        Object[] tmp = resolveUrl(target);
-        HttpHost targetHost = (HttpHost) tmp[0];
-        // URI
-        String uri = (String) tmp[1];
+        HttpTarget ht = HttpTarget.of(target);
+        HttpHost targetHost = ht.getHttpHost();
+        String uri = ht.getUri();
 
         // ProxyHost
-        HttpHost proxyHost = null;
-        if (!CommUtil.isBlank(proxy)) {
-            Object[] tmp1 = resolveUrl(proxy);
-            proxyHost = (HttpHost) tmp1[0];
-        }
+        HttpHost proxyHost = resolveProxy(proxy);
 
-        Header[] _headers = null;
-        if (headers != null && headers.size() > 0) {
-            _headers = new Header[headers.size()];
-            for (Map.Entry<String, String> header : headers.entrySet()) {
-                Header h = new BasicHeader(header.getKey(), header.getValue());
-                ArrayUtil.add(_headers, h);
-            }
-        }
+        Header[] _headers = toHeaders(headers);
 
         return send(upc, keystore, password, targetHost, uri,
                 proxyHost, encoding, method, _headers);
@@ -537,6 +549,82 @@ public class HttpConn {
                 keystore, password);
     }
 
+    /**
+     * Send a http request and handle the response with the handler
+     *
+     * @param target  target address
+     * @param handler {@link ResponseHandler}, see {@link ResponseHandlers}
+     * @param <T>     result type
+     * @return result of the handler
+     * @throws IOException if an I/O error occurs
+     */
+    public static <T> T send(String target, ResponseHandler<? extends T> handler) throws IOException {
+        return send(target, RequestMethod.GET, handler);
+    }
+
+    /**
+     * Send a http request and handle the response with the handler
+     *
+     * @param target  target address
+     * @param method  {@link com.rockagen.commons.http.RequestMethod}
+     * @param handler {@link ResponseHandler}, see {@link ResponseHandlers}
+     * @param <T>     result type
+     * @return result of the handler
+     * @throws IOException if an I/O error occurs
+     */
+    public static <T> T send(String target, RequestMethod method, ResponseHandler<? extends T> handler)
+            throws IOException {
+        return send(target, (Map<String, String>) null, method, handler);
+    }
+
+    /**
+     * Send a http request and handle the response with the handler
+     *
+     * @param target  target address
+     * @param headers headers
+     * @param method  {@link com.rockagen.commons.http.RequestMethod}
+     * @param handler {@link ResponseHandler}, see {@link ResponseHandlers}
+     * @param <T>     result type
+     * @return result of the handler
+     * @throws IOException if an I/O error occurs
+     */
+    public static <T> T send(String target, Map<String, String> headers, RequestMethod method,
+                             ResponseHandler<? extends T> handler) throws IOException {
+        return send(null, null, null, target, "", headers, method, handler);
+    }
+
+    /**
+     * Send a http request and handle the response with the handler
+     *
+     * @param upc      basic auth {@link UsernamePasswordCredentials}
+     * @param keystore keyStore InputStream (Custom SSL)
+     * @param password keyStore password
+     * @param target   target address
+     * @param proxy    proxy address
+     * @param headers  headers
+     * @param method   {@link com.rockagen.commons.http.RequestMethod}
+     * @param handler  {@link ResponseHandler}, see {@link ResponseHandlers}
+     * @param <T>      result type
+     * @return result of the handler
+     * @throws IOException if an I/O error occurs
+     */
+    public static <T> T send(UsernamePasswordCredentials upc,
+                             InputStream keystore, char[] password, String target,
+                             String proxy, Map<String, String> headers, RequestMethod method,
+                             ResponseHandler<? extends T> handler) throws IOException {
+        HttpTarget ht = HttpTarget.of(target);
+        HttpHost targetHost = ht.getHttpHost();
+        String uri = ht.getUri();
+
+        HttpRequestBase hm = getHttpMethod(method, uri);
+        Header[] _headers = toHeaders(headers);
+        if (_headers != null) {
+            hm.setHeaders(_headers);
+        }
+        log.debug("url: {} method: {}", getURL(targetHost, uri), method);
+        return execute(targetHost, resolveProxy(proxy), hm, handler, upc, keystore, password);
+    }
+
     /**
      * Send a http request with implicit params
      *
@@ -568,6 +656,68 @@ public class HttpConn {
 
     }
 
+    /**
+     * Send a http request with a streamed body,the body is not held in memory
+     *
+     * @param target target address
+     * @param body   request body stream,closed after sent
+     * @param length body length,negative to send chunked
+     * @param method {@link com.rockagen.commons.http.RequestMethod}
+     * @return result String
+     * @throws IOException if an I/O error occurs
+     */
+    public static String sendBody(String target, InputStream body, long length, RequestMethod method)
+            throws IOException {
+        try {
+            return sendBody(null, null, null, target, new InputStreamEntity(body, length), "", null, method,
+                    ResponseHandlers.toString(ENCODING));
+        } finally {
+            body.close();
+        }
+    }
+
+    /**
+     * Send a http request with a file body,the file is streamed with its known length
+     *
+     * @param target target address
+     * @param body   request body file
+     * @param method {@link com.rockagen.commons.http.RequestMethod}
+     * @return result String
+     * @throws IOException if an I/O error occurs
+     * @see #sendFileAsync(String, File, RequestMethod, FutureCallback)
+     */
+    public static String sendBody(String target, File body, RequestMethod method) throws IOException {
+        return sendBody(null, null, null, target, new FileEntity(body, ContentType.DEFAULT_BINARY), "", null,
+                method, ResponseHandlers.toString(ENCODING));
+    }
+
+    /**
+     * Send a multipart/form-data request,files and streams are copied to the connection as it is written
+     *
+     * @param target target address
+     * @param body   parts
+     * @param method {@link com.rockagen.commons.http.RequestMethod}
+     * @return result String
+     * @throws IOException if an I/O error occurs
+     */
+    public static String sendBody(String target, MultipartEntity body, RequestMethod method) throws IOException {
+        return sendBody(null, null, null, target, body, "", null, method, ResponseHandlers.toString(ENCODING));
+    }
+
+    /**
+     * Send a http request with a body written by the callback,sent chunked
+     *
+     * @param target target address
+     * @param body   request body writer
+     * @param method {@link com.rockagen.commons.http.RequestMethod}
+     * @return result String
+     * @throws IOException if an I/O error occurs
+     */
+    public static String sendBody(String target, BodyWriter body, RequestMethod method) throws IOException {
+        return sendBody(null, null, null, target, new BodyWriterEntity(body, ContentType.DEFAULT_BINARY), "", null,
+                method, ResponseHandlers.toString(ENCODING));
+    }
+
     /**
      * Send a http request with implicit params
      *
@@ -1189,43 +1339,21 @@ public class HttpConn {
                                    Map<String, String> params, byte[] body, String proxy,
                                    String encoding, Map<String, String> headers, RequestMethod method) throws IOException {
 
-        // TargetHost
-        Object[] tmp = resolveUrl(target);
-        HttpHost targetHost = (HttpHost) tmp[0];
-        // URI
-        String uri = (String) tmp[1];
+        HttpTarget ht = HttpTarget.of(target);
+        HttpHost targetHost = ht.getHttpHost();
+        String uri = ht.getUri();
 
         // ProxyHost
-        HttpHost proxyHost = null;
-        if (!CommUtil.isBlank(proxy)) {
-            Object[] tmp1 = resolveUrl(proxy);
-            proxyHost = (HttpHost) tmp1[0];
-        }
+        HttpHost proxyHost = resolveProxy(proxy);
 
-        Header[] _headers = null;
-        if (headers != null && headers.size() > 0) {
-            _headers = new Header[headers.size()];
-            for (Map.Entry<String, String> header : headers.entrySet()) {
-                Header h = new BasicHeader(header.getKey(), header.getValue());
-                ArrayUtil.add(_headers, h);
-            }
-        }
+        Header[] _headers = toHeaders(headers);
 
         if (body != null && body.length > 0) {
             return sendBody(upc, keystore, password, targetHost,
                     uri, body, proxyHost, encoding, method, _headers);
         } else {
-            List<NameValuePair> _params = new ArrayList<NameValuePair>();
-
-            if (params != null && params.size() > 0) {
-                for (Map.Entry<String, String> param : params.entrySet()) {
-                    NameValuePair nvPair = new BasicNameValuePair(
-                            param.getKey(), param.getValue());
-                    _params.add(nvPair);
-                }
-            }
             return sendBody(upc, keystore, password, targetHost,
-                    uri, _params, proxyHost, encoding, method, _headers);
+                    uri, toNameValuePairs(params), proxyHost, encoding, method, _headers);
         }
     }
 
@@ -1252,7 +1380,7 @@ public class HttpConn {
             throws IOException {
 
         return sendBody(upc, keystore, password, targetHost, uri,
-                new UrlEncodedFormEntity(params), proxyHost, encoding, method, headers);
+                new FormEntity(params, Consts.ISO_8859_1), proxyHost, encoding, method, headers);
     }
 
     /**
@@ -1295,6 +1423,58 @@ public class HttpConn {
 
     }
 
+    /**
+     * Send a http request with implicit params and handle the response with the handler
+     *
+     * @param target  target address
+     * @param body    request body
+     * @param method  {@link com.rockagen.commons.http.RequestMethod}
+     * @param handler {@link ResponseHandler}, see {@link ResponseHandlers}
+     * @param <T>     result type
+     * @return result of the handler
+     * @throws IOException if an I/O error occurs
+     */
+    public static <T> T sendBody(String target, byte[] body, RequestMethod method,
+                                 ResponseHandler<? extends T> handler) throws IOException {
+        return sendBody(null, null, null, target, new ByteArrayEntity(body), "", null, method, handler);
+    }
+
+    /**
+     * Send a http request with implicit params and handle the response with the handler
+     *
+     * @param upc      basic auth {@link UsernamePasswordCredentials}
+     * @param keystore keyStore InputStream
+     * @param password keyStore password
+     * @param target   target address
+     * @param entity   request {@link HttpEntity}
+     * @param proxy    proxy address
+     * @param headers  headers
+     * @param method   {@link com.rockagen.commons.http.RequestMethod}
+     * @param handler  {@link ResponseHandler}, see {@link ResponseHandlers}
+     * @param <T>      result type
+     * @return result of the handler
+     * @throws IOException if an I/O error occurs
+     */
+    public static <T> T sendBody(UsernamePasswordCredentials upc,
+                                 InputStream keystore, char[] password, String target,
+                                 HttpEntity entity, String proxy, Map<String, String> headers,
+                                 RequestMethod method, ResponseHandler<? extends T> handler) throws IOException {
+        HttpTarget ht = HttpTarget.of(target);
+        HttpHost targetHost = ht.getHttpHost();
+        String uri = ht.getUri();
+
+        HttpEntityEnclosingRequestBase hm = getHttpEntityMethod(method, uri);
+        Header[] _headers = toHeaders(headers);
+        if (_headers != null) {
+            hm.setHeaders(_headers);
+        }
+        if (entity != null) {
+            hm.setEntity(entity);
+        }
+        log.debug("url: {} method: {}", getURL(targetHost, uri), method);
+        return execute(targetHost, resolveProxy(proxy), hm, handler, upc, keystore, password);
+    }
+
     /**
      * Get Http method instance by {@link com.rockagen.commons.http.RequestMethod}
      *
@@ -1302,7 +1482,7 @@ public class HttpConn {
      * @param uri  the uri
      * @return {@link HttpRequestBase}
      */
-    private static HttpRequestBase getHttpMethod(RequestMethod method, String uri) {
+    static HttpRequestBase getHttpMethod(RequestMethod method, String uri) {
         HttpRequestBase hm;
         if (method != null) {
             switch (method) {
@@ -1345,7 +1525,7 @@ public class HttpConn {
      * @param uri the uri
      * @return {@link HttpEntityEnclosingRequestBase}
      */
-    private static HttpEntityEnclosingRequestBase getHttpEntityMethod(RequestMethod method, String uri) {
+    static HttpEntityEnclosingRequestBase getHttpEntityMethod(RequestMethod method, String uri) {
         HttpEntityEnclosingRequestBase hm;
         if (method != null) {
             switch (method) {
@@ -1384,55 +1564,418 @@ public class HttpConn {
                                     UsernamePasswordCredentials upc, InputStream keystore,
                                     char[] password) throws IOException {
 
-        HttpClientBuilder hcb = HttpClients.custom();
-        hcb.setDefaultRequestConfig(getRequestConfig());
-        if (proxyHost != null) {
-            hcb.setProxy(proxyHost);
+        return execute(targetHost, proxyHost, httpRequestMethod, ResponseHandlers.toString(encoding), upc,
+                keystore, password);
+    }
+
+    /**
+     * Handler main,the response is handed to the {@link ResponseHandler} and
+     * the connection is released back to the pool after
+     *
+     * @param targetHost        target {@link HttpHost}
+     * @param proxyHost         proxy {@link HttpHost}
+     * @param httpRequestMethod HttpGet or HttpPost...
+     * @param handler           {@link ResponseHandler}, see {@link ResponseHandlers}
+     * @param upc               {@link UsernamePasswordCredentials}
+     * @param keystore          keystore stream
+     * @param password          keystore password
+     * @param <T>               result type
+     * @return result of the handler
+     * @throws IOException if an I/O error occurs
+     */
+    protected static <T> T execute(HttpHost targetHost, HttpHost proxyHost,
+                                   HttpRequest httpRequestMethod, ResponseHandler<? extends T> handler,
+                                   UsernamePasswordCredentials upc, InputStream keystore,
+                                   char[] password) throws IOException {
+
+        return getDefaultClient().execute(targetHost, proxyHost, httpRequestMethod, handler, upc, keystore,
+                password);
+    }
+
+    /**
+     * Send the requests concurrently over the pooled connections of the default client
+     *
+     * @param requests    requests,e.g. HttpConnRequest.post(target).params(params)
+     * @param parallelism max requests in flight
+     * @return results in submission order,with the error of each failed request
+     * @throws IOException if interrupted while waiting
+     * @see HttpConnClient#executeAll(List, ResponseHandler, int, int)
+     */
+    public static List<BatchResult<String>> sendAll(List<HttpConnRequest> requests, int parallelism)
+            throws IOException {
+        return getDefaultClient().executeAll(requests, parallelism, 0);
+    }
+
+    /**
+     * Execute the request on the executor of the default client,the calling thread does not wait
+     *
+     * @param request  request,e.g. HttpConnRequest.get(target)
+     * @param callback {@link FutureCallback},may be null
+     * @return future of the result String
+     * @see HttpConnClient#submit(HttpConnRequest, ResponseHandler, FutureCallback)
+     */
+    public static Future<String> submit(HttpConnRequest request, FutureCallback<String> callback) {
+        HttpConnClient client = getDefaultClient();
+        return client.submit(request, ResponseHandlers.toString(request.getEncoding() != null
+                ? request.getEncoding() : client.getEncoding()), callback);
+    }
+
+    /**
+     * Send a http request asynchronously with explicit params
+     *
+     * @param target   target address
+     * @param callback callback (optional)
+     * @return future of the result String
+     * @throws IOException if an I/O error occurs
+     */
+    public static Future<String> sendAsync(String target, FutureCallback<String> callback) throws IOException {
+        return sendAsync(target, RequestMethod.GET, callback);
+    }
+
+    /**
+     * Send a http request asynchronously with explicit params
+     *
+     * @param target   target address
+     * @param method   {@link com.rockagen.commons.http.RequestMethod}
+     * @param callback callback (optional)
+     * @return future of the result String
+     * @throws IOException if an I/O error occurs
+     */
+    public static Future<String> sendAsync(String target, RequestMethod method,
+                                           FutureCallback<String> callback) throws IOException {
+        return sendAsync(target, null, method, callback);
+    }
+
+    /**
+     * Send a http request asynchronously with explicit params
+     *
+     * @param target   target address
+     * @param headers  headers
+     * @param method   {@link com.rockagen.commons.http.RequestMethod}
+     * @param callback callback (optional)
+     * @return future of the result String
+     * @throws IOException if an I/O error occurs
+     */
+    public static Future<String> sendAsync(String target, Map<String, String> headers, RequestMethod method,
+                                           FutureCallback<String> callback) throws IOException {
+        return sendAsync(null, null, null, target, "", ENCODING, headers, method, callback);
+    }
+
+    /**
+     * Send a http request asynchronously with explicit params
+     *
+     * @param upc      basic auth {@link UsernamePasswordCredentials}
+     * @param keystore keyStore InputStream (Custom SSL)
+     * @param password keyStore password
+     * @param target   target address
+     * @param proxy    proxy address
+     * @param encoding (default UTF-8)
+     * @param headers  headers
+     * @param method   {@link com.rockagen.commons.http.RequestMethod}
+     * @param callback callback (optional)
+     * @return future of the result String
+     * @throws IOException if an I/O error occurs
+     */
+    public static Future<String> sendAsync(UsernamePasswordCredentials upc,
+                                           InputStream keystore, char[] password, String target,
+                                           String proxy, String encoding, Map<String, String> headers,
+                                           RequestMethod method, FutureCallback<String> callback) throws IOException {
+        HttpTarget ht = HttpTarget.of(target);
+        HttpHost targetHost = ht.getHttpHost();
+        String uri = ht.getUri();
+
+        HttpRequestBase hm = getHttpMethod(method, uri);
+        Header[] _headers = toHeaders(headers);
+        if (_headers != null) {
+            hm.setHeaders(_headers);
         }
-        if (keystore != null) {
+        log.debug("url: {} method: {} (async)", getURL(targetHost, uri), method);
+        return executeAsync(targetHost, resolveProxy(proxy), hm, encoding, upc, keystore, password, callback);
+    }
 
-            try {
-                KeyStore trustStore = KeyStore.getInstance(KeyStore
-                        .getDefaultType());
-                trustStore.load(keystore, password);
-                SSLContext sslcontext = SSLContexts.custom()
-                        .loadTrustMaterial(trustStore, new TrustSelfSignedStrategy())
-                        .build();
-                SSLConnectionSocketFactory ssf = new SSLConnectionSocketFactory(
-                        sslcontext);
-                hcb.setSSLSocketFactory(ssf);
-            } catch (KeyStoreException e) {
-                log.error("{}", e.getMessage(), e);
-            } catch (CertificateException e) {
-                log.error("{}", e.getMessage(), e);
-            } catch (NoSuchAlgorithmException e) {
-                log.error("{}", e.getMessage(), e);
-            } catch (KeyManagementException e) {
-                log.error("{}", e.getMessage(), e);
-            } finally {
-                keystore.close();
-            }
+    /**
+     * Send a http request asynchronously with implicit params
+     *
+     * @param target   target address
+     * @param body     request body
+     * @param method   {@link com.rockagen.commons.http.RequestMethod}
+     * @param callback callback (optional)
+     * @return future of the result String
+     * @throws IOException if an I/O error occurs
+     */
+    public static Future<String> sendBodyAsync(String target, byte[] body, RequestMethod method,
+                                               FutureCallback<String> callback) throws IOException {
+        return sendBodyAsync(null, null, null, target, new ByteArrayEntity(body), "", ENCODING, null,
+                method, callback);
+    }
+
+    /**
+     * Send a http request asynchronously with implicit params
+     *
+     * @param target   target address
+     * @param params   parameters
+     * @param method   {@link com.rockagen.commons.http.RequestMethod}
+     * @param callback callback (optional)
+     * @return future of the result String
+     * @throws IOException if an I/O error occurs
+     */
+    public static Future<String> sendBodyAsync(String target, Map<String, String> params, RequestMethod method,
+                                               FutureCallback<String> callback) throws IOException {
+        return sendBodyAsync(null, null, null, target, new FormEntity(toNameValuePairs(params), Consts.ISO_8859_1), "",
+                ENCODING, null, method, callback);
+    }
+
+    /**
+     * Send a http request asynchronously with implicit params
+     *
+     * @param upc      basic auth {@link UsernamePasswordCredentials}
+     * @param keystore keyStore InputStream
+     * @param password keyStore password
+     * @param target   target address
+     * @param entity   request {@link HttpEntity}
+     * @param proxy    proxy address
+     * @param encoding (default UTF-8)
+     * @param headers  headers
+     * @param method   {@link com.rockagen.commons.http.RequestMethod}
+     * @param callback callback (optional)
+     * @return future of the result String
+     * @throws IOException if an I/O error occurs
+     */
+    public static Future<String> sendBodyAsync(UsernamePasswordCredentials upc,
+                                               InputStream keystore, char[] password, String target,
+                                               HttpEntity entity, String proxy, String encoding,
+                                               Map<String, String> headers, RequestMethod method,
+                                               FutureCallback<String> callback) throws IOException {
+        HttpTarget ht = HttpTarget.of(target);
+        HttpHost targetHost = ht.getHttpHost();
+        String uri = ht.getUri();
 
+        HttpEntityEnclosingRequestBase hm = getHttpEntityMethod(method, uri);
+        Header[] _headers = toHeaders(headers);
+        if (_headers != null) {
+            hm.setHeaders(_headers);
         }
+        if (entity != null) {
+            hm.setEntity(entity);
+        }
+        log.debug("url: {} method: {} (async)", getURL(targetHost, uri), method);
+        return executeAsync(targetHost, resolveProxy(proxy), hm, encoding, upc, keystore, password, callback);
+    }
+
+    /**
+     * Send a file asynchronously,the file is transferred from its {@link java.nio.channels.FileChannel}
+     * straight to the socket (zero-copy) on plain http connections
+     *
+     * @param target   target address
+     * @param body     request body file
+     * @param method   POST,PUT or PATCH (default POST)
+     * @param callback callback (optional)
+     * @return future of the result String
+     * @throws IOException if an I/O error occurs
+     */
+    public static Future<String> sendFileAsync(String target, File body, RequestMethod method,
+                                               FutureCallback<String> callback) throws IOException {
+        return sendFileAsync(null, null, null, target, body, ContentType.DEFAULT_BINARY, "", ENCODING, null, method,
+                callback);
+    }
+
+    /**
+     * Send a file asynchronously,the file is transferred from its {@link java.nio.channels.FileChannel}
+     * straight to the socket (zero-copy) on plain http connections
+     *
+     * @param upc         basic auth {@link UsernamePasswordCredentials}
+     * @param keystore    keyStore InputStream
+     * @param password    keyStore password
+     * @param target      target address
+     * @param body        request body file
+     * @param contentType content type of the file
+     * @param proxy       proxy address
+     * @param encoding    (default UTF-8)
+     * @param headers     headers
+     * @param method      POST,PUT or PATCH (default POST)
+     * @param callback    callback (optional)
+     * @return future of the result String
+     * @throws IOException if an I/O error occurs
+     */
+    public static Future<String> sendFileAsync(UsernamePasswordCredentials upc,
+                                               InputStream keystore, char[] password, String target,
+                                               File body, ContentType contentType, String proxy, String encoding,
+                                               Map<String, String> headers, final RequestMethod method,
+                                               FutureCallback<String> callback) throws IOException {
+        HttpTarget ht = HttpTarget.of(target);
+        HttpHost targetHost = ht.getHttpHost();
+        String uri = ht.getUri();
+
+        final Header[] _headers = toHeaders(headers);
+        String url = getURL(targetHost, uri);
+        log.debug("url: {} method: {} (zero-copy)", url, method);
+
+        HttpAsyncRequestProducer producer = new ZeroCopyPost(URI.create(url), body, contentType) {
+            @Override
+            protected HttpEntityEnclosingRequest createRequest(URI requestURI, HttpEntity entity) {
+                HttpEntityEnclosingRequestBase hm = getHttpEntityMethod(method, requestURI.toString());
+                if (_headers != null) {
+                    hm.setHeaders(_headers);
+                }
+                hm.setEntity(entity);
+                return hm;
+            }
+        };
+        HttpAsyncEngine e = getAsyncEngine();
+        CloseableHttpAsyncClient client = e.getClient(keystore, password);
+        return e.execute(client, producer, new StringAsyncResponseConsumer(encoding),
+                createContext(targetHost, resolveProxy(proxy), upc), callback);
+    }
 
+    /**
+     * Async handler main,the response is read by I/O threads of {@link HttpAsyncEngine}
+     *
+     * @param targetHost        target {@link HttpHost}
+     * @param proxyHost         proxy {@link HttpHost}
+     * @param httpRequestMethod HttpGet or HttpPost...
+     * @param encoding          encoding
+     * @param upc               {@link UsernamePasswordCredentials}
+     * @param keystore          keystore stream
+     * @param password          keystore password
+     * @param callback          callback (optional)
+     * @return future of the result String
+     * @throws IOException if an I/O error occurs
+     */
+    protected static Future<String> executeAsync(HttpHost targetHost, HttpHost proxyHost,
+                                                 HttpRequest httpRequestMethod, String encoding,
+                                                 UsernamePasswordCredentials upc, InputStream keystore,
+                                                 char[] password, FutureCallback<String> callback) throws IOException {
+        HttpAsyncEngine e = getAsyncEngine();
+        CloseableHttpAsyncClient client = e.getClient(keystore, password);
+        return e.execute(client, HttpAsyncMethods.create(targetHost, httpRequestMethod),
+                new StringAsyncResponseConsumer(encoding), createContext(targetHost, proxyHost, upc), callback);
+    }
 
+    /**
+     * Create execution context with the per request proxy and credentials
+     *
+     * @param targetHost target {@link HttpHost}
+     * @param proxyHost  proxy {@link HttpHost}
+     * @param upc        {@link UsernamePasswordCredentials}
+     * @return {@link HttpClientContext}
+     */
+    private static HttpClientContext createContext(HttpHost targetHost, HttpHost proxyHost,
+                                                   UsernamePasswordCredentials upc) {
+        HttpClientContext context = HttpClientContext.create();
+        if (proxyHost != null) {
+            context.setRequestConfig(RequestConfig.copy(getRequestConfig()).setProxy(proxyHost).build());
+        }
         if (upc != null) {
             CredentialsProvider cp = new BasicCredentialsProvider();
 
             AuthScope as = new AuthScope(targetHost);
 
             cp.setCredentials(as, upc);
-            hcb.setDefaultCredentialsProvider(cp);
+            context.setCredentialsProvider(cp);
+        }
+        return context;
+    }
+
+    /**
+     * Get the shared {@link HttpConnClient} of the static methods,create it with defaults at first call
+     *
+     * @return {@link HttpConnClient}
+     */
+    public static HttpConnClient getDefaultClient() {
+        HttpConnClient c = defaultClient;
+        if (c == null) {
+            synchronized (HttpConn.class) {
+                c = defaultClient;
+                if (c == null) {
+                    try {
+                        c = HttpConnClient.custom().build();
+                    } catch (IOException e) {
+                        // no keystore to load
+                        throw new IllegalStateException(e);
+                    }
+                    defaultClient = c;
+                }
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Replace the shared {@link HttpConnClient} (e.g. with other timeouts or default headers),the old one is closed
+     *
+     * @param client {@link HttpConnClient}
+     */
+    public static void setDefaultClient(HttpConnClient client) {
+        HttpConnClient old;
+        synchronized (HttpConn.class) {
+            old = defaultClient;
+            defaultClient = client;
+        }
+        if (old != null && old != client) {
+            old.close();
         }
+    }
+
+    /**
+     * Get the {@link HttpEngine} of the default client
+     *
+     * @return {@link HttpEngine}
+     */
+    public static HttpEngine getEngine() {
+        return getDefaultClient().getEngine();
+    }
 
-        CloseableHttpClient chc = hcb.build();
+    /**
+     * Replace the shared {@link HttpEngine} (e.g. with other pool limits),the old one is closed
+     *
+     * @param newEngine {@link HttpEngine}
+     */
+    public static void setEngine(HttpEngine newEngine) {
+        HttpEngine old = defaultClient == null ? null : defaultClient.getEngine();
         try {
-            CloseableHttpResponse response = chc.execute(targetHost, httpRequestMethod);
-            return getResponse(response, encoding);
-        } finally {
-            chc.close();
+            setDefaultClient(HttpConnClient.custom().engine(newEngine).build());
+        } catch (IOException e) {
+            // no keystore to load
+            throw new IllegalStateException(e);
         }
+        if (old != null && old != newEngine) {
+            old.close();
+        }
+    }
 
+    /**
+     * Get the shared {@link HttpAsyncEngine},create it with default limits at first call
+     *
+     * @return {@link HttpAsyncEngine}
+     */
+    public static HttpAsyncEngine getAsyncEngine() {
+        HttpAsyncEngine e = asyncEngine;
+        if (e == null) {
+            synchronized (HttpConn.class) {
+                e = asyncEngine;
+                if (e == null) {
+                    e = new HttpAsyncEngine();
+                    asyncEngine = e;
+                }
+            }
+        }
+        return e;
+    }
+
+    /**
+     * Replace the shared {@link HttpAsyncEngine},the old one is closed
+     *
+     * @param newEngine {@link HttpAsyncEngine}
+     */
+    public static void setAsyncEngine(HttpAsyncEngine newEngine) {
+        HttpAsyncEngine old;
+        synchronized (HttpConn.class) {
+            old = asyncEngine;
+            asyncEngine = newEngine;
+        }
+        if (old != null && old != newEngine) {
+            old.close();
+        }
     }
 
     /**
@@ -1462,6 +2005,97 @@ public class HttpConn {
         return retval;
     }
 
+    /**
+     * Handle response without building a String: the body is read into a
+     * pooled {@link ByteBuffer} and a read-only view is passed to the handler,
+     * the buffer goes back to the pool after.
+     *
+     * @param response {@link HttpResponse}
+     * @param pool     {@link ByteBufferPool}
+     * @param handler  {@link BufferHandler}
+     * @param <T>      result type
+     * @return result of the handler
+     * @throws IOException if an I/O error occurs
+     */
+    public static <T> T getResponse(HttpResponse response, ByteBufferPool pool, BufferHandler<T> handler)
+            throws IOException {
+        log.debug("status: {}", response.getStatusLine().getStatusCode());
+        HttpEntity entity = response.getEntity();
+        long length = entity == null ? 0 : entity.getContentLength();
+        ByteBuffer buffer = length > 0 && length <= Integer.MAX_VALUE ? pool.acquire((int) length) : pool.acquire();
+        try {
+            if (entity != null) {
+                InputStream in = entity.getContent();
+                if (in != null) {
+                    try {
+                        // readFully owns the buffer until it returns,it releases it on failure
+                        ByteBuffer filling = buffer;
+                        buffer = null;
+                        buffer = readFully(in, filling, pool);
+                    } finally {
+                        in.close();
+                    }
+                }
+            }
+            buffer.flip();
+            return handler.handle(buffer.asReadOnlyBuffer());
+        } finally {
+            pool.release(buffer);
+        }
+    }
+
+    /**
+     * Read the stream to the end into the buffer,growing it if needed.
+     * On failure the buffer in hand,grown or not,is released here and the
+     * caller must not release the one it passed
+     *
+     * @param in     stream
+     * @param buffer buffer in write mode
+     * @param pool   pool to grow from
+     * @return the buffer or its larger replacement
+     * @throws IOException if an I/O error occurs
+     */
+    private static ByteBuffer readFully(InputStream in, ByteBuffer buffer, ByteBufferPool pool) throws IOException {
+        boolean read = false;
+        try {
+            byte[] scratch = buffer.hasArray() ? null : SCRATCH.get();
+            while (true) {
+                if (!buffer.hasRemaining()) {
+                    // full,grow only if there is more
+                    int b = in.read();
+                    if (b < 0) {
+                        break;
+                    }
+                    buffer = pool.grow(buffer);
+                    buffer.put((byte) b);
+                    scratch = buffer.hasArray() ? null : SCRATCH.get();
+                }
+                int n;
+                if (scratch == null) {
+                    n = in.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                    if (n > 0) {
+                        buffer.position(buffer.position() + n);
+                    }
+                } else {
+                    n = in.read(scratch, 0, Math.min(scratch.length, buffer.remaining()));
+                    if (n > 0) {
+                        buffer.put(scratch, 0, n);
+                    }
+                }
+                if (n < 0) {
+                    break;
+                }
+            }
+            read = true;
+            return buffer;
+        } finally {
+            if (!read) {
+                // the caller only knows the buffer it passed,which grow may have released already
+                pool.release(buffer);
+            }
+        }
+    }
+
     /**
      * Get UsernamePasswordCredentials
      *
@@ -1507,95 +2141,63 @@ public class HttpConn {
     }
 
     /**
-     * <p>
-     * Resolve String to Object Array
-     * </p>
-     * <p>
-     * Array length is 2,by default return http://localhost:80/
-     * </p>
-     * <li>[0]--> HttpHost</li> <li>[1]--> URI</li>
+     * Resolve proxy address
      *
-     * @param str the http url
-     * @return object array [0]= HttpHost [1]=String(uri)
+     * @param proxy proxy address
+     * @return proxy {@link HttpHost} or null if blank
      */
-    private static Object[] resolveUrl(String str) {
-
-        String scheme = "http", host = "localhost", uri = "/";
-        int port = 80;
-
-        Object[] obj = new Object[2];
+    static HttpHost resolveProxy(String proxy) {
+        if (CommUtil.isBlank(proxy)) {
+            return null;
+        }
+        return HttpTarget.of(proxy).getHttpHost();
+    }
 
-        try {
-            if (str.length() >= 10) {
-                String temp = str.substring(0, str.indexOf(":"));
-                if (!CommUtil.isBlank(temp)) {
-                    if (temp.equalsIgnoreCase("HTTP")
-                            || temp.equalsIgnoreCase("HTTPS")) {
-                        scheme = temp;
-                        String temp1 = str.substring(temp.length() + 3);
-                        if (temp1.indexOf("/") > 0) {
-                            String temp2 = temp1.substring(0,
-                                    temp1.indexOf("/"));
-                            if (temp2.indexOf(":") > 0) {
-                                String[] temp3 = temp2.split(":");
-                                if (temp3.length > 1
-                                        && temp3[1].matches("[0-9]*")) {
-                                    port = Integer.parseInt(temp3[1]);
-                                    host = temp3[0];
-                                }
-
-                            } else {
-                                host = temp2;
-                                if (temp.equalsIgnoreCase("HTTP")) {
-                                    port = 80;
-                                } else if (temp.equalsIgnoreCase("HTTPS")) {
-                                    port = 443;
-                                }
-                            }
-                            uri = temp1.substring(temp2.length());
-                        } else {
-
-                            if (temp1.indexOf(":") > 0) {
-                                String[] temp3 = temp1.split(":");
-                                if (temp3[1].matches("[0-9]*")) {
-                                    port = Integer.parseInt(temp3[1]);
-                                    host = temp3[0];
-
-                                }
-
-                            } else {
-                                host = temp1;
-                                if (temp.equalsIgnoreCase("HTTP")) {
-                                    port = 80;
-                                } else if (temp.equalsIgnoreCase("HTTPS")) {
-                                    port = 443;
-                                }
-                            }
-                            uri = "/";
-                        }
-                    }
+    /**
+     * Map to header array
+     *
+     * @param headers headers
+     * @return header array or null if empty
+     */
+    static Header[] toHeaders(Map<String, String> headers) {
+        if (headers == null || headers.size() == 0) {
+            return null;
+        }
+        Header[] _headers = new Header[headers.size()];
+        int i = 0;
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            _headers[i++] = new BasicHeader(header.getKey(), header.getValue());
+        }
+        return _headers;
+    }
 
-                }
+    /**
+     * Map to NameValuePair list
+     *
+     * @param params parameters
+     * @return NameValuePair list
+     */
+    static List<NameValuePair> toNameValuePairs(Map<String, String> params) {
+        List<NameValuePair> _params = new ArrayList<NameValuePair>();
 
+        if (params != null && params.size() > 0) {
+            for (Map.Entry<String, String> param : params.entrySet()) {
+                NameValuePair nvPair = new BasicNameValuePair(
+                        param.getKey(), param.getValue());
+                _params.add(nvPair);
             }
-        } catch (Exception e) {
-            log.error("{}", e.getMessage(), e);
         }
-
-        HttpHost targetHost = new HttpHost(host, port, scheme);
-        obj[0] = targetHost;
-        obj[1] = uri;
-        log.debug("The parsed Object Array {}", Arrays.toString(obj));
-        return obj;
+        return _params;
     }
 
     /**
-     * Overrid this method if you want configure http connection parameters
+     * Default http connection parameters,cached and immutable.
+     * Configure per host and per call timeouts on {@link HttpConnClient.Builder} and {@link HttpConnRequest}
      *
      * @return {@link org.apache.http.client.config.RequestConfig}
      */
     protected static RequestConfig getRequestConfig() {
-        return RequestConfig.custom().setConnectTimeout(CONNECT_TIMEOUT).setSocketTimeout(SO_TIMEOUT).build();
+        return REQUEST_CONFIG;
     }
 
 }
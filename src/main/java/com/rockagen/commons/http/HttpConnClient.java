@@ -0,0 +1,1504 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import com.rockagen.commons.util.CharsetUtil;
+import com.rockagen.commons.util.CommUtil;
+import com.rockagen.commons.util.FileUtil;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reusable, thread-safe http client.
+ * <p>
+ * Everything known up front (base url, proxy, keystore, credentials,
+ * timeouts, encoding, default headers, pool) is resolved once by the
+ * {@link Builder}, a request only carries what differs.
+ * </p>
+ * <pre>
+ * HttpConnClient client = HttpConnClient.custom()
+ *         .baseUrl("https://api.rockagen.com/v1")
+ *         .keystore(new File("/etc/cacerts"), "changeit".toCharArray())
+ *         .credentials("admin", "secret")
+ *         .socketTimeout(5000)
+ *         .defaultHeader("Accept", "application/json")
+ *         .maxPerRoute(50)
+ *         .build();
+ *
+ * String users = client.send("/users");
+ * User user = client.execute(HttpConnRequest.get("/users/1"), ResponseHandlers.toJson(User.class));
+ * </pre>
+ * The static methods of {@link HttpConn} delegate to {@link HttpConn#getDefaultClient()}.
+ *
+ * @author RA
+ * @since 4.3
+ */
+public class HttpConnClient implements Closeable {
+
+    // ~ Instance fields ==================================================
+
+    /** */
+    private static final Logger log = LoggerFactory.getLogger(HttpConnClient.class);
+
+    /**
+     * Max cached configs of call timeouts per host
+     */
+    private final static int CALL_CONFIG_CACHE_SIZE = 64;
+
+    private final HttpTransport transport;
+
+    private final boolean ownTransport;
+
+    private final HttpHost baseHost;
+
+    private final String basePath;
+
+    private final String keystoreKey;
+
+    private final UsernamePasswordCredentials credentials;
+
+    private final RequestConfig requestConfig;
+
+    private final String encoding;
+
+    private final Header[] defaultHeaders;
+
+    private final HttpResilience resilience;
+
+    private final HttpLimits limits;
+
+    private final HttpCache cache;
+
+    private final HedgePolicy hedging;
+
+    private volatile ExecutorService hedgeExecutor;
+
+    private volatile ExecutorService executor;
+
+    private final boolean ownExecutor;
+
+    private final int maxThreads;
+
+    private final HttpMetrics metrics;
+
+    private final HttpCompression compression;
+
+    private final long deadline;
+
+    private final Map<String, HostConfig> hostConfigs;
+
+    /**
+     * Configs of call timeouts,by base config (identity) then timeouts
+     */
+    private final ConcurrentMap<RequestConfig, ConcurrentMap<HttpTimeouts, RequestConfig>> callConfigs =
+            new ConcurrentHashMap<RequestConfig, ConcurrentMap<HttpTimeouts, RequestConfig>>();
+
+    // ~ Constructors ==================================================
+
+    /**
+     * Use {@link #custom()}
+     *
+     * @param builder builder
+     * @throws IOException if the keystore can not be loaded
+     */
+    protected HttpConnClient(Builder builder) throws IOException {
+        if (builder.transport != null) {
+            this.transport = builder.transport;
+            this.ownTransport = false;
+        } else {
+            this.transport = new HttpEngine(builder.maxTotal, builder.maxPerRoute, builder.idleTimeout,
+                    builder.keepAlive, builder.sslRegistry, builder.dnsResolver);
+            this.ownTransport = true;
+        }
+        if (CommUtil.isBlank(builder.baseUrl)) {
+            this.baseHost = null;
+            this.basePath = "";
+        } else {
+            HttpTarget base = HttpTarget.parse(builder.baseUrl);
+            this.baseHost = base.getHttpHost();
+            String path = base.getPath();
+            this.basePath = path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+        }
+        HttpHost proxyHost = HttpConn.resolveProxy(builder.proxy);
+        this.keystoreKey = transport.getSSLRegistry().register(builder.keystore, builder.password);
+        this.credentials = builder.credentials;
+        this.requestConfig = new HttpTimeouts(builder.connectTimeout, builder.socketTimeout, builder.leaseTimeout, -1)
+                .applyTo(RequestConfig.copy(HttpConn.getRequestConfig()).setProxy(proxyHost).build());
+        this.encoding = builder.encoding;
+        this.resilience = builder.resilience;
+        this.limits = builder.limits;
+        this.cache = builder.cache;
+        this.hedging = builder.hedging;
+        this.executor = builder.executor;
+        this.ownExecutor = builder.executor == null;
+        this.maxThreads = builder.maxTotal;
+        this.metrics = builder.metrics;
+        this.compression = builder.compression;
+        if (metrics != null && ownTransport) {
+            ((HttpEngine) transport).setMetrics(metrics);
+        }
+        this.deadline = builder.deadline;
+        Map<String, HostConfig> hcs = new HashMap<String, HostConfig>();
+        for (Map.Entry<String, HttpTimeouts> entry : builder.hostTimeouts.entrySet()) {
+            HttpTimeouts ht = entry.getValue();
+            hcs.put(entry.getKey(), new HostConfig(ht.applyTo(requestConfig),
+                    ht.getDeadline() >= 0 ? ht.getDeadline() : deadline));
+        }
+        this.hostConfigs = hcs;
+        Header[] headers = HttpConn.toHeaders(builder.defaultHeaders);
+        this.defaultHeaders = headers == null ? new Header[0] : headers;
+    }
+
+    // ~ Methods ==================================================
+
+    /**
+     * Create a builder
+     *
+     * @return {@link Builder}
+     */
+    public static Builder custom() {
+        return new Builder();
+    }
+
+    /**
+     * Send a GET request
+     *
+     * @param target target address,absolute or relative to the base url
+     * @return result String
+     * @throws IOException if an I/O error occurs
+     */
+    public String send(String target) throws IOException {
+        return execute(HttpConnRequest.get(target));
+    }
+
+    /**
+     * Send a request
+     *
+     * @param target target address,absolute or relative to the base url
+     * @param method {@link RequestMethod}
+     * @return result String
+     * @throws IOException if an I/O error occurs
+     */
+    public String send(String target, RequestMethod method) throws IOException {
+        return execute(HttpConnRequest.create(method, target));
+    }
+
+    /**
+     * Send a request with body
+     *
+     * @param target target address,absolute or relative to the base url
+     * @param body   request body
+     * @param method {@link RequestMethod}
+     * @return result String
+     * @throws IOException if an I/O error occurs
+     */
+    public String sendBody(String target, byte[] body, RequestMethod method) throws IOException {
+        return execute(HttpConnRequest.create(method, target).body(body));
+    }
+
+    /**
+     * Send a request with url encoded form parameters
+     *
+     * @param target target address,absolute or relative to the base url
+     * @param params parameters
+     * @param method {@link RequestMethod}
+     * @return result String
+     * @throws IOException if an I/O error occurs
+     */
+    public String sendBody(String target, Map<String, String> params, RequestMethod method) throws IOException {
+        return execute(HttpConnRequest.create(method, target).params(params));
+    }
+
+    /**
+     * Execute the request
+     *
+     * @param request {@link HttpConnRequest}
+     * @return result String
+     * @throws IOException if an I/O error occurs
+     */
+    public String execute(HttpConnRequest request) throws IOException {
+        return execute(request, ResponseHandlers.toString(encodingOf(request)));
+    }
+
+    /**
+     * Execute the request and handle the response with the handler
+     *
+     * @param request {@link HttpConnRequest}
+     * @param handler {@link ResponseHandler}, see {@link ResponseHandlers}
+     * @param <T>     result type
+     * @return result of the handler
+     * @throws IOException if an I/O error occurs
+     */
+    public <T> T execute(HttpConnRequest request, ResponseHandler<? extends T> handler) throws IOException {
+        HttpHost targetHost;
+        String uri;
+        if (baseHost != null && !isAbsolute(request.getTarget())) {
+            targetHost = baseHost;
+            String path = request.getTarget();
+            uri = basePath + (path.startsWith("/") ? path : "/" + path);
+        } else {
+            HttpTarget ht = HttpTarget.of(request.getTarget());
+            targetHost = ht.getHttpHost();
+            uri = ht.getUri();
+        }
+
+        HttpRequestBase hm;
+        HttpEntity entity = request.getEntity();
+        if (entity == null && request.getParams() != null) {
+            entity = new FormEntity(HttpConn.toNameValuePairs(request.getParams()),
+                    Charset.forName(encodingOf(request)));
+        }
+        if (entity != null) {
+            HttpEntityEnclosingRequestBase ehm = HttpConn.getHttpEntityMethod(request.getMethod(), uri);
+            ehm.setEntity(entity);
+            hm = ehm;
+        } else {
+            hm = HttpConn.getHttpMethod(request.getMethod(), uri);
+        }
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            hm.setHeader(header.getKey(), header.getValue());
+        }
+
+        HostConfig hc = hostConfigs.get(targetHost.toURI());
+        RequestConfig config = configOf(hc == null ? requestConfig : hc.config, request.getTimeouts());
+        if (!CommUtil.isBlank(request.getProxy())) {
+            config = RequestConfig.copy(config).setProxy(HttpConn.resolveProxy(request.getProxy())).build();
+        }
+        UsernamePasswordCredentials upc = request.getCredentials() != null ? request.getCredentials() : credentials;
+
+        log.debug("url: {} method: {}", HttpConn.getURL(targetHost, uri), request.getMethod());
+        long budget = request.getDeadline() >= 0 ? request.getDeadline() : hc == null ? deadline : hc.deadline;
+        long until = budget > 0 ? System.currentTimeMillis() + budget : 0;
+        HedgePolicy hedge = request.getHedge() != null ? request.getHedge() : hedging;
+        if (hedge != null && (request.getMethod() == null || request.getMethod() == RequestMethod.GET
+                || request.getMethod() == RequestMethod.HEAD)) {
+            return doHedged(hedge, targetHost, hm, handler, config, upc, until);
+        }
+        return doExecute(targetHost, hm, handler, createContext(targetHost, config, upc), keystoreKey, until);
+    }
+
+    /**
+     * Execute the request,send a copy if it is late and take the first response.
+     * <p>
+     * The attempts race on the response head: the first one to get it aborts
+     * the other and runs the handler, so the handler runs once.
+     * </p>
+     *
+     * @param hedge      {@link HedgePolicy}
+     * @param targetHost target host
+     * @param request    request
+     * @param handler    handler
+     * @param config     request config
+     * @param upc        credentials
+     * @param deadline   absolute time in milliseconds,0 means none
+     * @param <T>        result type
+     * @return result of the handler
+     * @throws IOException if all requests sent failed
+     */
+    private <T> T doHedged(HedgePolicy hedge, HttpHost targetHost, HttpRequestBase request,
+                           ResponseHandler<? extends T> handler, RequestConfig config,
+                           UsernamePasswordCredentials upc, long deadline) throws IOException {
+        // built anew before the first one is touched,clone() shares the abort state of the original
+        HttpRequestBase copy = "HEAD".equals(request.getMethod()) ? new HttpHead(request.getURI())
+                : new HttpGet(request.getURI());
+        copy.setHeaders(request.getAllHeaders());
+        copy.setConfig(request.getConfig());
+        hedge.onCall();
+        HedgeRace race = new HedgeRace(request, copy);
+        CompletionService<T> cs = new ExecutorCompletionService<T>(hedgeExecutor());
+        long start = System.nanoTime();
+        Future<T> first = cs.submit(attempt(targetHost, request, race.handlerOf(0, handler), config, upc, deadline));
+        Future<T> second = null;
+        try {
+            int pending = 1;
+            Future<T> done = cs.poll(hedge.delayOf(targetHost), TimeUnit.MILLISECONDS);
+            // not late once the head arrived,the body may take its time
+            if (done == null && race.winner() < 0 && hedge.tryHedge()) {
+                log.debug("Hedge {} {}", targetHost, request.getRequestLine());
+                second = cs.submit(attempt(targetHost, copy, race.handlerOf(1, handler), config, upc, deadline));
+                pending++;
+            }
+            if (done == null) {
+                done = cs.take();
+            }
+            ExecutionException error = null;
+            while (true) {
+                pending--;
+                int winner = race.winner();
+                if (winner >= 0 && done != (winner == 0 ? first : second)) {
+                    // the aborted loser,wait for the winner
+                    done = cs.take();
+                    continue;
+                }
+                try {
+                    T value = done.get();
+                    hedge.record(targetHost, race.headNanos() - start, done == second);
+                    return value;
+                } catch (ExecutionException e) {
+                    if (error == null || winner >= 0) {
+                        error = e;
+                    }
+                    if (pending == 0 || winner >= 0) {
+                        Throwable cause = error.getCause();
+                        if (cause instanceof IOException) {
+                            throw (IOException) cause;
+                        }
+                        if (cause instanceof RuntimeException) {
+                            throw (RuntimeException) cause;
+                        }
+                        throw new IOException(cause);
+                    }
+                    done = cs.take();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the response");
+        } finally {
+            // abort the loser,or both if the caller gave up
+            cancel(first, request);
+            if (second != null) {
+                cancel(second, copy);
+            }
+        }
+    }
+
+    private <T> Callable<T> attempt(final HttpHost targetHost, final HttpRequestBase request,
+                                    final ResponseHandler<? extends T> handler, final RequestConfig config,
+                                    final UsernamePasswordCredentials upc, final long deadline) {
+        return new Callable<T>() {
+            @Override
+            public T call() throws IOException {
+                return doExecute(targetHost, request, handler, createContext(targetHost, config, upc),
+                        keystoreKey, deadline);
+            }
+        };
+    }
+
+    private static void cancel(Future<?> future, HttpRequestBase request) {
+        if (!future.isDone()) {
+            request.abort();
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * Executor of hedged attempts,bounded like {@link #executor()} but apart from it:
+     * a call run by {@link #submit(HttpConnRequest)} waits on its attempts and
+     * must not starve them of threads
+     */
+    private ExecutorService hedgeExecutor() {
+        ExecutorService es = hedgeExecutor;
+        if (es == null) {
+            synchronized (this) {
+                es = hedgeExecutor;
+                if (es == null) {
+                    es = HttpExecutors.newDefault(maxThreads);
+                    hedgeExecutor = es;
+                }
+            }
+        }
+        return es;
+    }
+
+    /**
+     * Execute the request on the executor of the client
+     *
+     * @param request {@link HttpConnRequest}
+     * @return future of the result String
+     * @see #submit(HttpConnRequest, ResponseHandler, FutureCallback)
+     */
+    public Future<String> submit(HttpConnRequest request) {
+        return submit(request, ResponseHandlers.toString(encodingOf(request)), null);
+    }
+
+    /**
+     * Execute the request on the executor of the client
+     *
+     * @param request {@link HttpConnRequest}
+     * @param handler {@link ResponseHandler}
+     * @param <T>     result type
+     * @return future of the result of the handler
+     * @see #submit(HttpConnRequest, ResponseHandler, FutureCallback)
+     */
+    public <T> Future<T> submit(HttpConnRequest request, ResponseHandler<? extends T> handler) {
+        return submit(request, handler, null);
+    }
+
+    /**
+     * Execute the request on the executor of the client,the calling thread
+     * does not wait.
+     * <p>
+     * The executor runs a virtual thread per call when the runtime has them,
+     * else a pool of up to maxTotal threads, see {@link Builder#executor(ExecutorService)}.
+     * </p>
+     *
+     * @param request  {@link HttpConnRequest}
+     * @param handler  {@link ResponseHandler}
+     * @param callback {@link FutureCallback} run on the executor when done,may be null
+     * @param <T>      result type
+     * @return future of the result of the handler
+     */
+    public <T> Future<T> submit(final HttpConnRequest request, final ResponseHandler<? extends T> handler,
+                                FutureCallback<T> callback) {
+        CallbackTask<T> task = new CallbackTask<T>(new Callable<T>() {
+            @Override
+            public T call() throws IOException {
+                return execute(request, handler);
+            }
+        }, callback);
+        executor().execute(task);
+        return task;
+    }
+
+    private ExecutorService executor() {
+        ExecutorService es = executor;
+        if (es == null) {
+            synchronized (this) {
+                es = executor;
+                if (es == null) {
+                    es = HttpExecutors.newDefault(maxThreads);
+                    executor = es;
+                }
+            }
+        }
+        return es;
+    }
+
+    /**
+     * Execute the requests concurrently,see {@link #executeAll(List, ResponseHandler, int, int)}
+     *
+     * @param requests    requests
+     * @param parallelism max requests in flight
+     * @param perHost     max requests in flight to one host,0 means parallelism
+     * @return results of String in submission order
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    public List<BatchResult<String>> executeAll(List<HttpConnRequest> requests, int parallelism, int perHost)
+            throws InterruptedIOException {
+        return doExecuteAll(requests, null, parallelism, perHost);
+    }
+
+    /**
+     * Execute the requests concurrently over the pooled connections.
+     * <p>
+     * At most <code>parallelism</code> requests are in flight, and at most
+     * <code>perHost</code> to the same host (keep it within the max connections
+     * per route of the engine). The calling thread dispatches the requests to
+     * the executor of the client, a request waiting for its host holds no
+     * thread, so a busy host does not stall the others. Results are in
+     * submission order, a failed request gives a failed {@link BatchResult}
+     * and does not fail the batch.
+     * </p>
+     *
+     * @param requests    requests
+     * @param handler     {@link ResponseHandler} of every response
+     * @param parallelism max requests in flight
+     * @param perHost     max requests in flight to one host,0 means parallelism
+     * @param <T>         result type
+     * @return results in submission order
+     * @throws InterruptedIOException if interrupted while waiting,pending requests are cancelled
+     */
+    public <T> List<BatchResult<T>> executeAll(List<HttpConnRequest> requests, ResponseHandler<? extends T> handler,
+                                               int parallelism, int perHost) throws InterruptedIOException {
+        if (handler == null) {
+            throw new IllegalArgumentException("Handler must not be null");
+        }
+        return doExecuteAll(requests, handler, parallelism, perHost);
+    }
+
+    private <T> List<BatchResult<T>> doExecuteAll(List<HttpConnRequest> requests,
+                                                  final ResponseHandler<? extends T> handler, int parallelism,
+                                                  int perHost) throws InterruptedIOException {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism must be positive");
+        }
+        int size = requests.size();
+        List<BatchResult<T>> results = new ArrayList<BatchResult<T>>(Collections.<BatchResult<T>>nCopies(size, null));
+        if (size == 0) {
+            return results;
+        }
+        int hostLimit = perHost > 0 ? Math.min(perHost, parallelism) : parallelism;
+        String[] hosts = new String[size];
+        // requests wait here,not in a worker,so a host at its limit holds no thread
+        Map<String, LinkedList<Integer>> queues = new LinkedHashMap<String, LinkedList<Integer>>();
+        for (int i = 0; i < size; i++) {
+            HttpConnRequest request = requests.get(i);
+            try {
+                hosts[i] = targetHostOf(request.getTarget()).toURI();
+            } catch (Exception e) {
+                log.debug("Batch request {} failed: {}", request, e.getMessage());
+                results.set(i, new BatchResult<T>(request, null, e, 0));
+                continue;
+            }
+            LinkedList<Integer> queue = queues.get(hosts[i]);
+            if (queue == null) {
+                queue = new LinkedList<Integer>();
+                queues.put(hosts[i], queue);
+            }
+            queue.add(i);
+        }
+        Map<String, Integer> hostsInFlight = new HashMap<String, Integer>();
+        Map<Future<BatchResult<T>>, Integer> running = new HashMap<Future<BatchResult<T>>, Integer>();
+        CompletionService<BatchResult<T>> cs = new ExecutorCompletionService<BatchResult<T>>(executor());
+        try {
+            while (true) {
+                // start the earliest waiting request of any host below its limit
+                while (running.size() < parallelism) {
+                    String next = null;
+                    for (Map.Entry<String, LinkedList<Integer>> entry : queues.entrySet()) {
+                        Integer n = hostsInFlight.get(entry.getKey());
+                        if (!entry.getValue().isEmpty() && (n == null || n < hostLimit)
+                                && (next == null || entry.getValue().getFirst() < queues.get(next).getFirst())) {
+                            next = entry.getKey();
+                        }
+                    }
+                    if (next == null) {
+                        break;
+                    }
+                    int index = queues.get(next).removeFirst();
+                    Integer n = hostsInFlight.get(next);
+                    hostsInFlight.put(next, n == null ? 1 : n + 1);
+                    running.put(cs.submit(batchTask(requests.get(index), handler)), index);
+                }
+                if (running.isEmpty()) {
+                    break;
+                }
+                Future<BatchResult<T>> future = cs.take();
+                int index = running.remove(future);
+                hostsInFlight.put(hosts[index], hostsInFlight.get(hosts[index]) - 1);
+                try {
+                    results.set(index, future.get());
+                } catch (ExecutionException e) {
+                    // call() catches everything
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the batch");
+        } finally {
+            for (Future<BatchResult<T>> future : running.keySet()) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * One request of a batch,failures become failed results
+     */
+    private <T> Callable<BatchResult<T>> batchTask(final HttpConnRequest request,
+                                                   final ResponseHandler<? extends T> handler) {
+        return new Callable<BatchResult<T>>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public BatchResult<T> call() {
+                long start = System.currentTimeMillis();
+                try {
+                    T value = handler == null ? (T) execute(request) : execute(request, handler);
+                    return new BatchResult<T>(request, value, null, System.currentTimeMillis() - start);
+                } catch (Exception e) {
+                    log.debug("Batch request {} failed: {}", request, e.getMessage());
+                    return new BatchResult<T>(request, null, e, System.currentTimeMillis() - start);
+                }
+            }
+        };
+    }
+
+    /**
+     * Target host of a target,relative targets resolve to the base url
+     */
+    private HttpHost targetHostOf(String target) {
+        return baseHost != null && !isAbsolute(target) ? baseHost : HttpTarget.of(target).getHttpHost();
+    }
+
+    /**
+     * Execute a prepared request,null arguments fall back to the client defaults
+     *
+     * @param targetHost target {@link HttpHost}
+     * @param proxyHost  proxy {@link HttpHost}
+     * @param request    HttpGet or HttpPost...
+     * @param handler    {@link ResponseHandler}, see {@link ResponseHandlers}
+     * @param upc        {@link UsernamePasswordCredentials}
+     * @param keystore   keystore stream
+     * @param password   keystore password
+     * @param <T>        result type
+     * @return result of the handler
+     * @throws IOException if an I/O error occurs
+     */
+    public <T> T execute(HttpHost targetHost, HttpHost proxyHost, HttpRequest request,
+                         ResponseHandler<? extends T> handler, UsernamePasswordCredentials upc,
+                         InputStream keystore, char[] password) throws IOException {
+        String key = keystore == null ? keystoreKey : transport.getSSLRegistry().register(keystore, password);
+        HostConfig hc = hostConfigs.get(targetHost.toURI());
+        RequestConfig config = hc == null ? requestConfig : hc.config;
+        if (proxyHost != null) {
+            config = RequestConfig.copy(config).setProxy(proxyHost).build();
+        }
+        long budget = hc == null ? deadline : hc.deadline;
+        return doExecute(targetHost, request, handler,
+                createContext(targetHost, config, upc != null ? upc : credentials), key,
+                budget > 0 ? System.currentTimeMillis() + budget : 0);
+    }
+
+    /**
+     * Resolve the config of call timeouts,built once and cached
+     *
+     * @param base     config of the client or host
+     * @param timeouts call timeouts
+     * @return {@link RequestConfig}
+     */
+    private RequestConfig configOf(RequestConfig base, HttpTimeouts timeouts) {
+        if (timeouts.getConnectTimeout() < 0 && timeouts.getSocketTimeout() < 0 && timeouts.getLeaseTimeout() < 0) {
+            return base;
+        }
+        ConcurrentMap<HttpTimeouts, RequestConfig> configs = callConfigs.get(base);
+        if (configs == null) {
+            ConcurrentMap<HttpTimeouts, RequestConfig> created = new ConcurrentHashMap<HttpTimeouts, RequestConfig>();
+            configs = callConfigs.putIfAbsent(base, created);
+            if (configs == null) {
+                configs = created;
+            }
+        }
+        RequestConfig config = configs.get(timeouts);
+        if (config == null) {
+            if (configs.size() >= CALL_CONFIG_CACHE_SIZE) {
+                // timeouts computed per call,do not grow forever
+                configs.clear();
+            }
+            config = timeouts.applyTo(base);
+            configs.put(timeouts, config);
+        }
+        return config;
+    }
+
+    /**
+     * Handler main,the response is handed to the {@link ResponseHandler} and
+     * the connection is released back to the pool after.
+     * <p>
+     * With {@link HttpResilience} the call fails fast if the circuit of the host
+     * is open, transient failures are retried with backoff, and no attempt or
+     * backoff runs past the deadline.
+     * </p>
+     *
+     * @param targetHost target {@link HttpHost}
+     * @param request    HttpGet or HttpPost...
+     * @param handler    {@link ResponseHandler}
+     * @param context    execution context
+     * @param keystore   keystore identity of the {@link SSLRegistry}
+     * @param deadline   absolute time in milliseconds the call must end by,0 means none
+     * @param <T>        result type
+     * @return result of the handler
+     * @throws IOException if an I/O error occurs
+     */
+    protected <T> T doExecute(HttpHost targetHost, HttpRequest request, ResponseHandler<? extends T> handler,
+                              HttpClientContext context, String keystore, long deadline) throws IOException {
+        for (Header header : defaultHeaders) {
+            if (!request.containsHeader(header.getName())) {
+                request.addHeader(header);
+            }
+        }
+        String cacheKey = null;
+        HttpCache.Entry stale = null;
+        if (cache != null) {
+            cacheKey = cache.keyOf(targetHost, request, context, keystore);
+            if (cacheKey == null) {
+                if (!"GET".equals(request.getRequestLine().getMethod())
+                        && !"HEAD".equals(request.getRequestLine().getMethod())) {
+                    cache.invalidate(targetHost, request);
+                }
+            } else {
+                HttpCache.Entry entry = cache.lookup(cacheKey, request);
+                if (entry != null && entry.isFresh()) {
+                    return handler.handleResponse(cache.hit(entry));
+                }
+                if (entry != null && cache.addValidators(entry, request)) {
+                    stale = entry;
+                }
+            }
+        }
+        RequestConfig config = context.getRequestConfig();
+        CircuitBreaker breaker = resilience == null ? null : resilience.breakerOf(targetHost);
+        RetryPolicy retryPolicy = resilience == null ? null : resilience.getRetryPolicy();
+        ConcurrencyLimiter limiter = limits == null ? null : limits.limiterOf(targetHost);
+        boolean retryable = retryPolicy != null && retryPolicy.isRetryable(request);
+        String method = request.getRequestLine().getMethod();
+        CountingEntity sent = null;
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntityEnclosingRequest eer = (HttpEntityEnclosingRequest) request;
+            if (compression != null && eer.getEntity() != null) {
+                eer.setEntity(compression.compress(eer.getEntity()));
+            }
+            if (metrics != null && eer.getEntity() != null) {
+                // counts the bytes on the wire
+                sent = new CountingEntity(eer.getEntity());
+                eer.setEntity(sent);
+            }
+        }
+        if (compression != null) {
+            context.setAttribute(HttpCompression.CONTEXT_ATTRIBUTE, compression);
+        }
+        // content coding here and not in the transport,so it holds for any transport
+        ContentEncodingInterceptor.negotiate(request, compression);
+
+        for (int retry = 0; ; retry++) {
+            if (deadline > 0) {
+                context.setRequestConfig(withDeadline(config, deadline));
+            }
+            if (limiter != null) {
+                acquire(limiter, targetHost, deadline);
+            }
+            if (breaker != null && !breaker.tryAcquire()) {
+                if (limiter != null) {
+                    limiter.onIgnored();
+                }
+                throw new CircuitOpenException(targetHost.toURI());
+            }
+            long start = System.nanoTime();
+            CloseableHttpResponse response;
+            try {
+                response = transport.execute(targetHost, request, context, keystore);
+            } catch (IOException e) {
+                if (request instanceof HttpRequestBase && ((HttpRequestBase) request).isAborted()) {
+                    // cancelled by the caller,e.g. a hedge lost,says nothing about the host
+                    if (limiter != null) {
+                        limiter.onIgnored();
+                    }
+                    if (breaker != null) {
+                        breaker.onIgnored();
+                    }
+                    throw e;
+                }
+                if (limiter != null) {
+                    limiter.onDropped(System.nanoTime() - start);
+                }
+                if (metrics != null) {
+                    metrics.failed(targetHost, method, e, System.nanoTime() - start);
+                }
+                if (breaker != null) {
+                    breaker.onFailure();
+                }
+                if (retryable && retry < retryPolicy.getMaxRetries() && retryPolicy.isRetryable(e)
+                        && backoff(retryPolicy.backoff(retry), deadline)) {
+                    log.debug("Retry {} of {} after: {}", retry + 1, targetHost, e.getMessage());
+                    continue;
+                }
+                throw e;
+            } catch (RuntimeException e) {
+                // e.g. a shut down pool,not an answer of the host,but the permits must come back
+                if (limiter != null) {
+                    limiter.onIgnored();
+                }
+                if (breaker != null) {
+                    breaker.onIgnored();
+                }
+                throw e;
+            }
+            long ttfb = System.nanoTime() - start;
+            int status = response.getStatusLine().getStatusCode();
+            CountingEntity received = null;
+            if (metrics != null && response.getEntity() != null) {
+                received = new CountingEntity(response.getEntity());
+                response.setEntity(received);
+            }
+            if (breaker != null) {
+                if (status >= 500) {
+                    breaker.onFailure();
+                } else {
+                    breaker.onSuccess();
+                }
+            }
+            // overload signals of the host
+            boolean dropped = status == 429 || status == 503 || status == 504;
+            if (retryable && retry < retryPolicy.getMaxRetries() && retryPolicy.isRetryable(status)
+                    && backoff(retryPolicy.backoff(retry), deadline)) {
+                log.debug("Retry {} of {} after status {}", retry + 1, targetHost, status);
+                EntityUtils.consumeQuietly(response.getEntity());
+                response.close();
+                release(limiter, dropped, ttfb);
+                if (metrics != null) {
+                    metrics.completed(targetHost, method, status, ttfb, 0, sent == null ? -1 : sent.getCount(),
+                            received == null ? 0 : received.getCount());
+                }
+                continue;
+            }
+            ContentEncodingInterceptor.decode(response, compression);
+            long bodyStart = System.nanoTime();
+            try {
+                if (cacheKey != null) {
+                    response = cache.update(cacheKey, stale, response);
+                }
+                return handler.handleResponse(response);
+            } finally {
+                // release the connection back to the pool
+                response.close();
+                release(limiter, dropped, ttfb);
+                if (metrics != null) {
+                    metrics.completed(targetHost, method, status, ttfb, System.nanoTime() - bodyStart,
+                            sent == null ? -1 : sent.getCount(), received == null ? 0 : received.getCount());
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait for a slot of the limiter,at most the queue timeout or the time left
+     *
+     * @param limiter  {@link ConcurrencyLimiter}
+     * @param host     target host
+     * @param deadline absolute time in milliseconds,0 means none
+     * @throws IOException if the call is shed or the deadline is exceeded
+     */
+    private void acquire(ConcurrencyLimiter limiter, HttpHost host, long deadline) throws IOException {
+        long wait = limits.getQueueTimeout();
+        if (deadline > 0) {
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0) {
+                throw new SocketTimeoutException("Deadline exceeded");
+            }
+            wait = Math.min(wait, left);
+        }
+        try {
+            if (!limiter.acquire(wait)) {
+                throw new LimitExceededException(host.toURI());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the limiter");
+        }
+    }
+
+    private static void release(ConcurrencyLimiter limiter, boolean dropped, long rttNanos) {
+        if (limiter == null) {
+            return;
+        }
+        if (dropped) {
+            limiter.onDropped(rttNanos);
+        } else {
+            limiter.onSuccess(rttNanos);
+        }
+    }
+
+    /**
+     * Cap the timeouts by the time left
+     *
+     * @param config   request config
+     * @param deadline absolute time in milliseconds
+     * @return request config
+     * @throws SocketTimeoutException if the deadline is exceeded
+     */
+    private static RequestConfig withDeadline(RequestConfig config, long deadline) throws SocketTimeoutException {
+        long left = deadline - System.currentTimeMillis();
+        if (left <= 0) {
+            throw new SocketTimeoutException("Deadline exceeded");
+        }
+        int ms = (int) Math.min(left, Integer.MAX_VALUE);
+        return RequestConfig.copy(config)
+                .setConnectTimeout(cap(config.getConnectTimeout(), ms))
+                .setSocketTimeout(cap(config.getSocketTimeout(), ms))
+                .setConnectionRequestTimeout(cap(config.getConnectionRequestTimeout(), ms))
+                .build();
+    }
+
+    private static int cap(int timeout, int max) {
+        return timeout > 0 && timeout < max ? timeout : max;
+    }
+
+    /**
+     * Wait before a retry
+     *
+     * @param millis   backoff
+     * @param deadline absolute time in milliseconds,0 means none
+     * @return false if the retry would pass the deadline
+     * @throws InterruptedIOException if interrupted
+     */
+    private static boolean backoff(long millis, long deadline) throws InterruptedIOException {
+        if (deadline > 0 && System.currentTimeMillis() + millis >= deadline) {
+            return false;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry");
+        }
+        return true;
+    }
+
+    /**
+     * Create execution context
+     *
+     * @param targetHost target {@link HttpHost}
+     * @param config     request config
+     * @param upc        {@link UsernamePasswordCredentials}
+     * @return {@link HttpClientContext}
+     */
+    private static HttpClientContext createContext(HttpHost targetHost, RequestConfig config,
+                                                   UsernamePasswordCredentials upc) {
+        HttpClientContext context = HttpClientContext.create();
+        context.setRequestConfig(config);
+        if (upc != null) {
+            CredentialsProvider cp = new BasicCredentialsProvider();
+            cp.setCredentials(new AuthScope(targetHost), upc);
+            context.setCredentialsProvider(cp);
+        }
+        return context;
+    }
+
+    private String encodingOf(HttpConnRequest request) {
+        return CommUtil.isBlank(request.getEncoding()) ? encoding : request.getEncoding();
+    }
+
+    private static boolean isAbsolute(String target) {
+        return target.regionMatches(true, 0, "http://", 0, 7) || target.regionMatches(true, 0, "https://", 0, 8);
+    }
+
+    /**
+     * @return the {@link HttpEngine},or null if the transport is not an engine
+     */
+    public HttpEngine getEngine() {
+        return transport instanceof HttpEngine ? (HttpEngine) transport : null;
+    }
+
+    public HttpTransport getTransport() {
+        return transport;
+    }
+
+    public RequestConfig getRequestConfig() {
+        return requestConfig;
+    }
+
+    public String getEncoding() {
+        return encoding;
+    }
+
+    public HttpResilience getResilience() {
+        return resilience;
+    }
+
+    public HttpLimits getLimits() {
+        return limits;
+    }
+
+    public HttpCache getCache() {
+        return cache;
+    }
+
+    public HedgePolicy getHedging() {
+        return hedging;
+    }
+
+    public HttpMetrics getMetrics() {
+        return metrics;
+    }
+
+    public HttpCompression getCompression() {
+        return compression;
+    }
+
+    /**
+     * Close the client,the transport is closed only if it was created by the builder
+     */
+    @Override
+    public void close() {
+        if (hedgeExecutor != null) {
+            hedgeExecutor.shutdownNow();
+        }
+        if (ownExecutor && executor != null) {
+            executor.shutdownNow();
+        }
+        if (ownTransport) {
+            transport.close();
+        }
+    }
+
+    /**
+     * Race of the attempts of a hedged call on the response head
+     */
+    private static class HedgeRace {
+
+        private final HttpRequestBase[] requests;
+
+        // guarded by this
+        private int winner = -1;
+
+        private long headNanos;
+
+        HedgeRace(HttpRequestBase first, HttpRequestBase second) {
+            this.requests = new HttpRequestBase[]{first, second};
+        }
+
+        <T> ResponseHandler<T> handlerOf(final int attempt, final ResponseHandler<? extends T> handler) {
+            return new ResponseHandler<T>() {
+                @Override
+                public T handleResponse(HttpResponse response) throws IOException {
+                    if (!claim(attempt)) {
+                        // lost,the response is closed unread
+                        return null;
+                    }
+                    return handler.handleResponse(response);
+                }
+            };
+        }
+
+        private boolean claim(int attempt) {
+            synchronized (this) {
+                if (winner >= 0) {
+                    return false;
+                }
+                winner = attempt;
+                headNanos = System.nanoTime();
+            }
+            requests[1 - attempt].abort();
+            return true;
+        }
+
+        synchronized int winner() {
+            return winner;
+        }
+
+        synchronized long headNanos() {
+            return headNanos;
+        }
+    }
+
+    /**
+     * Task reporting to a callback
+     */
+    private static class CallbackTask<T> extends FutureTask<T> {
+
+        private final FutureCallback<T> callback;
+
+        CallbackTask(Callable<T> callable, FutureCallback<T> callback) {
+            super(callable);
+            this.callback = callback;
+        }
+
+        @Override
+        protected void done() {
+            if (callback == null) {
+                return;
+            }
+            if (isCancelled()) {
+                callback.cancelled();
+                return;
+            }
+            try {
+                callback.completed(get());
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                callback.failed(cause instanceof Exception ? (Exception) cause : e);
+            } catch (InterruptedException e) {
+                // done,get() does not wait
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Resolved config of a host
+     */
+    private static class HostConfig {
+
+        private final RequestConfig config;
+
+        private final long deadline;
+
+        HostConfig(RequestConfig config, long deadline) {
+            this.config = config;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * Builder of {@link HttpConnClient}
+     */
+    public static class Builder {
+
+        private String baseUrl;
+
+        private String proxy;
+
+        private InputStream keystore;
+
+        private char[] password;
+
+        private UsernamePasswordCredentials credentials;
+
+        private int connectTimeout = HttpConn.CONNECT_TIMEOUT;
+
+        private int socketTimeout = HttpConn.SO_TIMEOUT;
+
+        private int leaseTimeout = -1;
+
+        private final Map<String, HttpTimeouts> hostTimeouts = new HashMap<String, HttpTimeouts>();
+
+        private String encoding = CharsetUtil.UTF_8.name();
+
+        private final Map<String, String> defaultHeaders = new LinkedHashMap<String, String>();
+
+        private int maxTotal = HttpEngine.DEFAULT_MAX_TOTAL;
+
+        private int maxPerRoute = HttpEngine.DEFAULT_MAX_PER_ROUTE;
+
+        private long idleTimeout = HttpEngine.DEFAULT_IDLE_TIMEOUT;
+
+        private long keepAlive = HttpEngine.DEFAULT_KEEP_ALIVE;
+
+        private SSLRegistry sslRegistry = SSLRegistry.getShared();
+
+        private DnsResolver dnsResolver = CachingDnsResolver.getShared();
+
+        private HttpTransport transport;
+
+        private HttpResilience resilience;
+
+        private HttpLimits limits;
+
+        private HttpCache cache;
+
+        private HedgePolicy hedging;
+
+        private ExecutorService executor;
+
+        private long deadline;
+
+        private HttpMetrics metrics;
+
+        private HttpCompression compression;
+
+        protected Builder() {
+        }
+
+        /**
+         * Base url of relative targets, e.g. https://api.rockagen.com/v1
+         *
+         * @param baseUrl base url
+         * @return this
+         */
+        public Builder baseUrl(String baseUrl) {
+            this.baseUrl = baseUrl;
+            return this;
+        }
+
+        public Builder proxy(String proxy) {
+            this.proxy = proxy;
+            return this;
+        }
+
+        /**
+         * Custom SSL keystore,the stream is read and closed by {@link #build()}
+         *
+         * @param keystore keystore stream
+         * @param password keystore password
+         * @return this
+         */
+        public Builder keystore(InputStream keystore, char[] password) {
+            this.keystore = keystore;
+            this.password = password;
+            return this;
+        }
+
+        /**
+         * Custom SSL keystore
+         *
+         * @param keystore keystore file
+         * @param password keystore password
+         * @return this
+         * @throws IOException if the file can not be opened
+         */
+        public Builder keystore(File keystore, char[] password) throws IOException {
+            return keystore(FileUtil.openInputStream(keystore), password);
+        }
+
+        public Builder credentials(UsernamePasswordCredentials credentials) {
+            this.credentials = credentials;
+            return this;
+        }
+
+        public Builder credentials(String username, String password) {
+            return credentials(HttpConn.getUPC(username, password));
+        }
+
+        public Builder connectTimeout(int connectTimeout) {
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        public Builder socketTimeout(int socketTimeout) {
+            this.socketTimeout = socketTimeout;
+            return this;
+        }
+
+        /**
+         * Timeout to lease a connection from the pool,0 means no timeout
+         *
+         * @param leaseTimeout milliseconds
+         * @return this
+         */
+        public Builder leaseTimeout(int leaseTimeout) {
+            this.leaseTimeout = leaseTimeout;
+            return this;
+        }
+
+        /**
+         * Timeouts of one host,unset values inherit the client timeouts
+         *
+         * @param host     host address, e.g. https://api.rockagen.com
+         * @param timeouts {@link HttpTimeouts}
+         * @return this
+         */
+        public Builder hostTimeouts(String host, HttpTimeouts timeouts) {
+            this.hostTimeouts.put(HttpTarget.parse(host).getHttpHost().toURI(), timeouts);
+            return this;
+        }
+
+        public Builder encoding(String encoding) {
+            this.encoding = encoding;
+            return this;
+        }
+
+        /**
+         * Header sent with every request unless the request sets its own
+         *
+         * @param name  header name
+         * @param value header value
+         * @return this
+         */
+        public Builder defaultHeader(String name, String value) {
+            this.defaultHeaders.put(name, value);
+            return this;
+        }
+
+        public Builder defaultHeaders(Map<String, String> headers) {
+            if (headers != null) {
+                this.defaultHeaders.putAll(headers);
+            }
+            return this;
+        }
+
+        public Builder maxTotal(int maxTotal) {
+            this.maxTotal = maxTotal;
+            return this;
+        }
+
+        public Builder maxPerRoute(int maxPerRoute) {
+            this.maxPerRoute = maxPerRoute;
+            return this;
+        }
+
+        public Builder idleTimeout(long idleTimeout) {
+            this.idleTimeout = idleTimeout;
+            return this;
+        }
+
+        public Builder keepAlive(long keepAlive) {
+            this.keepAlive = keepAlive;
+            return this;
+        }
+
+        public Builder sslRegistry(SSLRegistry sslRegistry) {
+            this.sslRegistry = sslRegistry;
+            return this;
+        }
+
+        /**
+         * Resolver of target hosts,ignored when a transport is given
+         *
+         * @param dnsResolver {@link DnsResolver},default {@link CachingDnsResolver#getShared()}
+         * @return this
+         */
+        public Builder dnsResolver(DnsResolver dnsResolver) {
+            this.dnsResolver = dnsResolver;
+            return this;
+        }
+
+        /**
+         * Share an existing engine instead of creating one,pool settings
+         * of this builder are ignored and the engine is not closed by the client
+         *
+         * @param engine {@link HttpEngine}
+         * @return this
+         */
+        public Builder engine(HttpEngine engine) {
+            return transport(engine);
+        }
+
+        /**
+         * Use the transport instead of creating an {@link HttpEngine},pool settings
+         * of this builder are ignored and the transport is not closed by the client
+         *
+         * @param transport {@link HttpTransport}
+         * @return this
+         */
+        public Builder transport(HttpTransport transport) {
+            this.transport = transport;
+            return this;
+        }
+
+        /**
+         * Circuit breakers and retries,none by default
+         *
+         * @param resilience {@link HttpResilience}
+         * @return this
+         */
+        public Builder resilience(HttpResilience resilience) {
+            this.resilience = resilience;
+            return this;
+        }
+
+        /**
+         * Adaptive concurrency limits per host,none by default
+         *
+         * @param limits {@link HttpLimits}
+         * @return this
+         */
+        public Builder limits(HttpLimits limits) {
+            this.limits = limits;
+            return this;
+        }
+
+        /**
+         * Cache of GET and HEAD responses,none by default
+         *
+         * @param cache {@link HttpCache}
+         * @return this
+         */
+        public Builder cache(HttpCache cache) {
+            this.cache = cache;
+            return this;
+        }
+
+        /**
+         * Hedging of GET and HEAD calls,none by default
+         *
+         * @param hedging {@link HedgePolicy}
+         * @return this
+         * @see HttpConnRequest#hedge(HedgePolicy)
+         */
+        public Builder hedging(HedgePolicy hedging) {
+            this.hedging = hedging;
+            return this;
+        }
+
+        /**
+         * Executor of {@link HttpConnClient#submit(HttpConnRequest, ResponseHandler)},
+         * it is not shut down by the client
+         *
+         * @param executor {@link ExecutorService},default {@link HttpExecutors#newDefault(int)}
+         *                 of maxTotal threads
+         * @return this
+         */
+        public Builder executor(ExecutorService executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Default time budget of a call including retries,0 means none
+         *
+         * @param deadline milliseconds
+         * @return this
+         */
+        public Builder deadline(long deadline) {
+            this.deadline = deadline;
+            return this;
+        }
+
+        /**
+         * Instrumentation of the calls,e.g. {@link HttpStats}.
+         * Connect and handshake times are reported too unless a shared engine
+         * is used,see {@link HttpEngine#setMetrics(HttpMetrics)}
+         *
+         * @param metrics {@link HttpMetrics}
+         * @return this
+         */
+        public Builder metrics(HttpMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * Compress request bodies and negotiate compressed responses whatever
+         * the transport,without it responses are still decoded but bodies are sent as is
+         *
+         * @param compression {@link HttpCompression}
+         * @return this
+         */
+        public Builder compression(HttpCompression compression) {
+            this.compression = compression;
+            return this;
+        }
+
+        /**
+         * Build the client
+         *
+         * @return {@link HttpConnClient}
+         * @throws IOException if the keystore can not be loaded
+         */
+        public HttpConnClient build() throws IOException {
+            return new HttpConnClient(this);
+        }
+    }
+
+}
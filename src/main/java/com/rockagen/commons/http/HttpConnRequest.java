@@ -0,0 +1,328 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.entity.ByteArrayEntity;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Request of {@link HttpConnClient}, per request options override the client defaults
+ * <pre>
+ * client.execute(HttpConnRequest.get("/users").header("Accept", "application/json"));
+ *
+ * client.execute(HttpConnRequest.post("/users").body(bytes).socketTimeout(2000));
+ * </pre>
+ * A request is a plain value holder, build one per call and do not share it between threads.
+ *
+ * @author RA
+ * @since 4.3
+ */
+public class HttpConnRequest {
+
+    // ~ Instance fields ==================================================
+
+    private final RequestMethod method;
+
+    private final String target;
+
+    private final Map<String, String> headers = new LinkedHashMap<String, String>();
+
+    private HttpEntity entity;
+
+    private Map<String, String> params;
+
+    private String encoding;
+
+    private UsernamePasswordCredentials credentials;
+
+    private String proxy;
+
+    private int connectTimeout = -1;
+
+    private int socketTimeout = -1;
+
+    private int leaseTimeout = -1;
+
+    private long deadline = -1;
+
+    private HedgePolicy hedge;
+
+    // ~ Constructors ==================================================
+
+    /**
+     * @param method {@link RequestMethod},null means GET
+     * @param target target address,absolute or relative to the base url of the client
+     */
+    public HttpConnRequest(RequestMethod method, String target) {
+        if (target == null) {
+            throw new IllegalArgumentException("Target must not be null");
+        }
+        this.method = method == null ? RequestMethod.GET : method;
+        this.target = target;
+    }
+
+    // ~ Methods ==================================================
+
+    public static HttpConnRequest create(RequestMethod method, String target) {
+        return new HttpConnRequest(method, target);
+    }
+
+    public static HttpConnRequest get(String target) {
+        return new HttpConnRequest(RequestMethod.GET, target);
+    }
+
+    public static HttpConnRequest post(String target) {
+        return new HttpConnRequest(RequestMethod.POST, target);
+    }
+
+    public static HttpConnRequest put(String target) {
+        return new HttpConnRequest(RequestMethod.PUT, target);
+    }
+
+    public static HttpConnRequest delete(String target) {
+        return new HttpConnRequest(RequestMethod.DELETE, target);
+    }
+
+    /**
+     * Set a header,it replaces the default header of the client with the same name
+     *
+     * @param name  header name
+     * @param value header value
+     * @return this
+     */
+    public HttpConnRequest header(String name, String value) {
+        headers.put(name, value);
+        return this;
+    }
+
+    /**
+     * Set headers
+     *
+     * @param headers headers
+     * @return this
+     * @see #header(String, String)
+     */
+    public HttpConnRequest headers(Map<String, String> headers) {
+        if (headers != null) {
+            this.headers.putAll(headers);
+        }
+        return this;
+    }
+
+    /**
+     * Request body
+     *
+     * @param body body bytes
+     * @return this
+     */
+    public HttpConnRequest body(byte[] body) {
+        return entity(body == null ? null : new ByteArrayEntity(body));
+    }
+
+    /**
+     * Request body
+     *
+     * @param entity request {@link HttpEntity}
+     * @return this
+     */
+    public HttpConnRequest entity(HttpEntity entity) {
+        this.entity = entity;
+        return this;
+    }
+
+    /**
+     * Form parameters,sent url encoded if no body is set
+     *
+     * @param params parameters
+     * @return this
+     */
+    public HttpConnRequest params(Map<String, String> params) {
+        this.params = params;
+        return this;
+    }
+
+    /**
+     * Encoding of form parameters and response
+     *
+     * @param encoding encoding
+     * @return this
+     */
+    public HttpConnRequest encoding(String encoding) {
+        this.encoding = encoding;
+        return this;
+    }
+
+    /**
+     * Basic auth
+     *
+     * @param credentials {@link UsernamePasswordCredentials}
+     * @return this
+     */
+    public HttpConnRequest credentials(UsernamePasswordCredentials credentials) {
+        this.credentials = credentials;
+        return this;
+    }
+
+    /**
+     * Proxy address
+     *
+     * @param proxy proxy address
+     * @return this
+     */
+    public HttpConnRequest proxy(String proxy) {
+        this.proxy = proxy;
+        return this;
+    }
+
+    /**
+     * Connect timeout
+     *
+     * @param connectTimeout milliseconds
+     * @return this
+     */
+    public HttpConnRequest connectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+        return this;
+    }
+
+    /**
+     * Socket (read) timeout
+     *
+     * @param socketTimeout milliseconds
+     * @return this
+     */
+    public HttpConnRequest socketTimeout(int socketTimeout) {
+        this.socketTimeout = socketTimeout;
+        return this;
+    }
+
+    /**
+     * Timeout to lease a connection from the pool
+     *
+     * @param leaseTimeout milliseconds
+     * @return this
+     */
+    public HttpConnRequest leaseTimeout(int leaseTimeout) {
+        this.leaseTimeout = leaseTimeout;
+        return this;
+    }
+
+    /**
+     * Set all timeouts
+     *
+     * @param timeouts {@link HttpTimeouts}
+     * @return this
+     */
+    public HttpConnRequest timeouts(HttpTimeouts timeouts) {
+        this.connectTimeout = timeouts.getConnectTimeout();
+        this.socketTimeout = timeouts.getSocketTimeout();
+        this.leaseTimeout = timeouts.getLeaseTimeout();
+        this.deadline = timeouts.getDeadline();
+        return this;
+    }
+
+    /**
+     * Time budget of the call including retries,0 means none
+     *
+     * @param deadline milliseconds
+     * @return this
+     */
+    public HttpConnRequest deadline(long deadline) {
+        this.deadline = deadline;
+        return this;
+    }
+
+    /**
+     * Hedge this call,overrides the policy of the client,GET and HEAD only
+     *
+     * @param hedge {@link HedgePolicy}
+     * @return this
+     */
+    public HttpConnRequest hedge(HedgePolicy hedge) {
+        this.hedge = hedge;
+        return this;
+    }
+
+    public RequestMethod getMethod() {
+        return method;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public Map<String, String> getHeaders() {
+        return Collections.unmodifiableMap(headers);
+    }
+
+    public HttpEntity getEntity() {
+        return entity;
+    }
+
+    public Map<String, String> getParams() {
+        return params;
+    }
+
+    public String getEncoding() {
+        return encoding;
+    }
+
+    public UsernamePasswordCredentials getCredentials() {
+        return credentials;
+    }
+
+    public String getProxy() {
+        return proxy;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public int getSocketTimeout() {
+        return socketTimeout;
+    }
+
+    public int getLeaseTimeout() {
+        return leaseTimeout;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    public HedgePolicy getHedge() {
+        return hedge;
+    }
+
+    /**
+     * @return timeouts of the call,negative values are unset
+     */
+    public HttpTimeouts getTimeouts() {
+        return new HttpTimeouts(connectTimeout, socketTimeout, leaseTimeout, deadline);
+    }
+
+    @Override
+    public String toString() {
+        return method + " " + target;
+    }
+
+}
@@ -0,0 +1,393 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import com.rockagen.commons.util.IOUtil;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared, long-lived http client engine.
+ * <p>
+ * Keeps one {@link PoolingHttpClientConnectionManager} backed client per
+ * keystore identity of the {@link SSLRegistry} (the default trust material is
+ * one more identity), so
+ * connections, TLS sessions and keep-alive are reused across calls instead of
+ * being rebuilt and closed on every request. Proxy and credentials are per
+ * request settings and travel in the execution context, they do not need a
+ * client of their own.
+ * </p>
+ * <p>
+ * Idle and expired connections are evicted by a single daemon thread.
+ * Target hosts are resolved through a {@link CachingDnsResolver}, shared by
+ * default.
+ * </p>
+ * <p>
+ * This is the default HTTP/1.1 {@link HttpTransport} of {@link HttpConnClient}.
+ * </p>
+ *
+ * @author RA
+ * @since 4.3
+ */
+public class HttpEngine implements HttpTransport {
+
+    // ~ Instance fields ==================================================
+
+    /** */
+    private static final Logger log = LoggerFactory.getLogger(HttpEngine.class);
+
+    public final static int DEFAULT_MAX_TOTAL = 200;
+
+    public final static int DEFAULT_MAX_PER_ROUTE = 20;
+
+    public final static long DEFAULT_IDLE_TIMEOUT = 60000;
+
+    public final static long DEFAULT_KEEP_ALIVE = 30000;
+
+    private final int maxTotal;
+
+    private final int maxPerRoute;
+
+    private final long idleTimeout;
+
+    private final long keepAlive;
+
+    private final SSLRegistry sslRegistry;
+
+    private final DnsResolver dnsResolver;
+
+    private final ConcurrentMap<String, PooledClient> clients = new ConcurrentHashMap<String, PooledClient>();
+
+    private final ScheduledExecutorService evictor;
+
+    private volatile HttpMetrics metrics;
+
+    private volatile boolean closed;
+
+    // ~ Constructors ==================================================
+
+    /**
+     * Create an engine with default limits
+     */
+    public HttpEngine() {
+        this(DEFAULT_MAX_TOTAL, DEFAULT_MAX_PER_ROUTE, DEFAULT_IDLE_TIMEOUT, DEFAULT_KEEP_ALIVE);
+    }
+
+    /**
+     * Create an engine
+     *
+     * @param maxTotal    max connections of each pool
+     * @param maxPerRoute max connections per route (host) of each pool
+     * @param idleTimeout milliseconds an idle connection is kept in the pool
+     * @param keepAlive   milliseconds a connection is kept alive when the server does not say
+     */
+    public HttpEngine(int maxTotal, int maxPerRoute, long idleTimeout, long keepAlive) {
+        this(maxTotal, maxPerRoute, idleTimeout, keepAlive, SSLRegistry.getShared());
+    }
+
+    /**
+     * Create an engine
+     *
+     * @param maxTotal    max connections of each pool
+     * @param maxPerRoute max connections per route (host) of each pool
+     * @param idleTimeout milliseconds an idle connection is kept in the pool
+     * @param keepAlive   milliseconds a connection is kept alive when the server does not say
+     * @param sslRegistry registry of keystores
+     */
+    public HttpEngine(int maxTotal, int maxPerRoute, long idleTimeout, long keepAlive, SSLRegistry sslRegistry) {
+        this(maxTotal, maxPerRoute, idleTimeout, keepAlive, sslRegistry, CachingDnsResolver.getShared());
+    }
+
+    /**
+     * Create an engine
+     *
+     * @param maxTotal    max connections of each pool
+     * @param maxPerRoute max connections per route (host) of each pool
+     * @param idleTimeout milliseconds an idle connection is kept in the pool
+     * @param keepAlive   milliseconds a connection is kept alive when the server does not say
+     * @param sslRegistry registry of keystores
+     * @param dnsResolver resolver of target hosts
+     */
+    public HttpEngine(int maxTotal, int maxPerRoute, long idleTimeout, long keepAlive, SSLRegistry sslRegistry,
+                      DnsResolver dnsResolver) {
+        if (maxTotal <= 0 || maxPerRoute <= 0) {
+            throw new IllegalArgumentException("Pool limits must be positive");
+        }
+        this.maxTotal = maxTotal;
+        this.maxPerRoute = maxPerRoute;
+        this.idleTimeout = idleTimeout;
+        this.keepAlive = keepAlive;
+        this.sslRegistry = sslRegistry;
+        this.dnsResolver = dnsResolver;
+        this.evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "http-engine-evictor");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        long period = Math.max(1000, Math.min(idleTimeout, 5000));
+        this.evictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                evict();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    // ~ Methods ==================================================
+
+    /**
+     * Get the pooled client of default trust material
+     *
+     * @return {@link CloseableHttpClient}
+     */
+    public CloseableHttpClient getClient() {
+        return clientOf(SSLRegistry.DEFAULT_KEY);
+    }
+
+    /**
+     * Get the pooled client of the keystore, the keystore stream is read and closed.
+     * <p>
+     * Clients are cached by keystore identity (see {@link SSLRegistry}), the same keystore
+     * always resolve to the same client.
+     * </p>
+     *
+     * @param keystore keyStore InputStream (Custom SSL),null to use default trust material
+     * @param password keyStore password
+     * @return {@link CloseableHttpClient}
+     * @throws IOException if an I/O error occurs
+     */
+    public CloseableHttpClient getClient(InputStream keystore, char[] password) throws IOException {
+        return clientOf(sslRegistry.register(keystore, password));
+    }
+
+    /**
+     * Get the pooled client of a registered keystore identity
+     *
+     * @param key identity from {@link SSLRegistry#register(InputStream, char[])}
+     * @return {@link CloseableHttpClient}
+     */
+    public CloseableHttpClient clientOf(String key) {
+        if (closed) {
+            throw new IllegalStateException("Http engine was closed");
+        }
+        PooledClient pc = clients.get(key);
+        if (pc == null) {
+            PooledClient created = createClient(sslRegistry.getSocketFactory(key));
+            pc = clients.putIfAbsent(key, created);
+            if (pc == null) {
+                pc = created;
+                // the key is not logged,it is derived from the keystore password
+                log.debug("New pooled client of {} trust material",
+                        SSLRegistry.DEFAULT_KEY.equals(key) ? "default" : "custom");
+            } else {
+                IOUtil.closeQuietly(created.client);
+            }
+        }
+        return pc.client;
+    }
+
+    /**
+     * Execute the request on the pooled client of the keystore identity
+     *
+     * @param targetHost target {@link HttpHost}
+     * @param request    request
+     * @param context    execution context
+     * @param keystore   keystore identity of the {@link SSLRegistry}
+     * @return response
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public CloseableHttpResponse execute(HttpHost targetHost, HttpRequest request, HttpClientContext context,
+                                         String keystore) throws IOException {
+        return clientOf(keystore).execute(targetHost, request, context);
+    }
+
+    /**
+     * Create a pooled client
+     *
+     * @param ssf ssl socket factory
+     * @return PooledClient
+     */
+    private PooledClient createClient(SSLConnectionSocketFactory ssf) {
+        Registry<ConnectionSocketFactory> registry = RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", new InstrumentedSocketFactory(this, null))
+                .register("https", new InstrumentedSocketFactory(this, ssf))
+                .build();
+
+        PoolingHttpClientConnectionManager cm = new PoolingHttpClientConnectionManager(registry, dnsResolver);
+        cm.setMaxTotal(maxTotal);
+        cm.setDefaultMaxPerRoute(maxPerRoute);
+
+        CloseableHttpClient client = HttpClients.custom()
+                .setConnectionManager(cm)
+                .setKeepAliveStrategy(new KeepAliveStrategy(keepAlive))
+                // content coding per call, see ContentEncodingInterceptor
+                .disableContentCompression()
+                .addInterceptorLast((HttpRequestInterceptor) ContentEncodingInterceptor.INSTANCE)
+                .addInterceptorLast((HttpResponseInterceptor) ContentEncodingInterceptor.INSTANCE)
+                .setDefaultRequestConfig(HttpConn.getRequestConfig())
+                .build();
+        return new PooledClient(cm, client);
+    }
+
+    /**
+     * Close expired connections and connections idle longer than idleTimeout
+     */
+    protected void evict() {
+        for (PooledClient pc : clients.values()) {
+            try {
+                pc.manager.closeExpiredConnections();
+                pc.manager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+            } catch (Exception e) {
+                log.warn("Evict connections failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Total statistics of all pools
+     *
+     * @return {@link PoolStats}
+     */
+    public PoolStats getTotalStats() {
+        int leased = 0, pending = 0, available = 0, max = 0;
+        for (PooledClient pc : clients.values()) {
+            PoolStats ps = pc.manager.getTotalStats();
+            leased += ps.getLeased();
+            pending += ps.getPending();
+            available += ps.getAvailable();
+            max += ps.getMax();
+        }
+        return new PoolStats(leased, pending, available, max);
+    }
+
+    public int getMaxTotal() {
+        return maxTotal;
+    }
+
+    public int getMaxPerRoute() {
+        return maxPerRoute;
+    }
+
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public long getKeepAlive() {
+        return keepAlive;
+    }
+
+    public DnsResolver getDnsResolver() {
+        return dnsResolver;
+    }
+
+    @Override
+    public SSLRegistry getSSLRegistry() {
+        return sslRegistry;
+    }
+
+    public HttpMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Report connect and TLS handshake times of new connections
+     *
+     * @param metrics {@link HttpMetrics},null to stop
+     */
+    public void setMetrics(HttpMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Close all pooled clients and stop the evictor
+     */
+    @Override
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+        for (Map.Entry<String, PooledClient> entry : clients.entrySet()) {
+            IOUtil.closeQuietly(entry.getValue().client);
+        }
+        clients.clear();
+    }
+
+    /**
+     * Pooled client holder
+     */
+    private static class PooledClient {
+
+        private final PoolingHttpClientConnectionManager manager;
+
+        private final CloseableHttpClient client;
+
+        PooledClient(PoolingHttpClientConnectionManager manager, CloseableHttpClient client) {
+            this.manager = manager;
+            this.client = client;
+        }
+    }
+
+    /**
+     * Honour the Keep-Alive header,fall back to a fixed time instead of keeping the connection forever
+     */
+    private static class KeepAliveStrategy implements ConnectionKeepAliveStrategy {
+
+        private final long keepAlive;
+
+        KeepAliveStrategy(long keepAlive) {
+            this.keepAlive = keepAlive;
+        }
+
+        @Override
+        public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+            long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return duration > 0 ? duration : keepAlive;
+        }
+    }
+
+}
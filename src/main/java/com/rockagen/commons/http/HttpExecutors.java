@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors of blocking calls of {@link HttpConnClient}.
+ * <p>
+ * On a runtime with virtual threads every call gets a virtual thread, a
+ * call waiting on its socket then does not hold a platform thread. Older
+ * runtimes get a bounded pool of daemon threads.
+ * </p>
+ *
+ * @author RA
+ * @since 4.3
+ * @see HttpConnClient#submit(HttpConnRequest, org.apache.http.client.ResponseHandler)
+ */
+public class HttpExecutors {
+
+    // ~ Instance fields ==================================================
+
+    /** */
+    private static final Logger log = LoggerFactory.getLogger(HttpExecutors.class);
+
+    private final static Method VIRTUAL = virtualThreadFactory();
+
+    // ~ Constructors ==================================================
+
+    private HttpExecutors() {
+    }
+
+    // ~ Methods ==================================================
+
+    private static Method virtualThreadFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the runtime has virtual threads
+     */
+    public static boolean isVirtualThreadsSupported() {
+        return VIRTUAL != null;
+    }
+
+    /**
+     * A virtual thread per task if supported,else a bounded pool
+     *
+     * @param maxThreads max threads of the pool fallback
+     * @return {@link ExecutorService}
+     */
+    public static ExecutorService newDefault(int maxThreads) {
+        if (VIRTUAL != null) {
+            try {
+                return (ExecutorService) VIRTUAL.invoke(null);
+            } catch (Exception e) {
+                log.warn("Virtual threads unavailable: {}", e.getMessage());
+            }
+        }
+        return newBounded(maxThreads);
+    }
+
+    /**
+     * Pool of at most maxThreads daemon threads,idle ones end after a minute,
+     * calls over that wait in the queue
+     *
+     * @param maxThreads max threads
+     * @return {@link ExecutorService}
+     */
+    public static ExecutorService newBounded(int maxThreads) {
+        if (maxThreads <= 0) {
+            throw new IllegalArgumentException("Max threads must be positive");
+        }
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "http-exec-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+}
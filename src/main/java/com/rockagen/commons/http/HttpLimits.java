@@ -0,0 +1,124 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import org.apache.http.HttpHost;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Adaptive concurrency limits of {@link HttpConnClient}: a
+ * {@link ConcurrencyLimiter} per host.
+ * <pre>
+ * HttpConnClient client = HttpConnClient.custom()
+ *         .limits(new HttpLimits())
+ *         .build();
+ * </pre>
+ * Each host gets as many requests in flight as it answers without slowing
+ * down, calls over that wait up to <code>queueTimeout</code> (capped by the
+ * deadline of the call) and are then failed with {@link LimitExceededException}.
+ *
+ * @author RA
+ * @since 4.3
+ */
+public class HttpLimits {
+
+    // ~ Instance fields ==================================================
+
+    public final static int DEFAULT_INITIAL_LIMIT = 20;
+
+    public final static int DEFAULT_MIN_LIMIT = 1;
+
+    public final static int DEFAULT_MAX_LIMIT = 200;
+
+    public final static int DEFAULT_MAX_QUEUE = 100;
+
+    public final static long DEFAULT_QUEUE_TIMEOUT = 1000;
+
+    public final static double DEFAULT_TOLERANCE = 2.0;
+
+    public final static double DEFAULT_BACKOFF_RATIO = 0.9;
+
+    public final static int DEFAULT_PROBE_INTERVAL = 500;
+
+    private final int initialLimit;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final int maxQueue;
+
+    private final long queueTimeout;
+
+    private final ConcurrentMap<String, ConcurrencyLimiter> limiters =
+            new ConcurrentHashMap<String, ConcurrencyLimiter>();
+
+    // ~ Constructors ==================================================
+
+    /**
+     * Create with default limits
+     */
+    public HttpLimits() {
+        this(DEFAULT_INITIAL_LIMIT, DEFAULT_MIN_LIMIT, DEFAULT_MAX_LIMIT, DEFAULT_MAX_QUEUE, DEFAULT_QUEUE_TIMEOUT);
+    }
+
+    /**
+     * Create
+     *
+     * @param initialLimit limit a host starts with
+     * @param minLimit     lowest limit
+     * @param maxLimit     highest limit,keep it within the max connections per route
+     * @param maxQueue     calls waiting over the limit per host
+     * @param queueTimeout max milliseconds a call waits
+     * @see ConcurrencyLimiter
+     */
+    public HttpLimits(int initialLimit, int minLimit, int maxLimit, int maxQueue, long queueTimeout) {
+        this.initialLimit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.maxQueue = maxQueue;
+        this.queueTimeout = queueTimeout;
+    }
+
+    // ~ Methods ==================================================
+
+    /**
+     * Get the limiter of the host,create it at first call
+     *
+     * @param host {@link HttpHost}
+     * @return {@link ConcurrencyLimiter}
+     */
+    public ConcurrencyLimiter limiterOf(HttpHost host) {
+        String key = host.toURI();
+        ConcurrencyLimiter cl = limiters.get(key);
+        if (cl == null) {
+            ConcurrencyLimiter created = new ConcurrencyLimiter(initialLimit, minLimit, maxLimit, maxQueue,
+                    DEFAULT_TOLERANCE, DEFAULT_BACKOFF_RATIO, DEFAULT_PROBE_INTERVAL);
+            cl = limiters.putIfAbsent(key, created);
+            if (cl == null) {
+                cl = created;
+            }
+        }
+        return cl;
+    }
+
+    public long getQueueTimeout() {
+        return queueTimeout;
+    }
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import org.apache.http.HttpHost;
+
+/**
+ * Instrumentation SPI of {@link HttpConnClient} and {@link HttpEngine}.
+ * <p>
+ * Callbacks run on the calling thread, implementations must be thread-safe
+ * and cheap. {@link HttpStats} is the built-in implementation.
+ * </p>
+ *
+ * @author RA
+ * @since 4.3
+ */
+public interface HttpMetrics {
+
+    /**
+     * A new connection was opened
+     *
+     * @param host           target host
+     * @param connectNanos   TCP connect time
+     * @param handshakeNanos TLS handshake time,-1 if plain
+     */
+    void connected(HttpHost host, long connectNanos, long handshakeNanos);
+
+    /**
+     * An exchange completed
+     *
+     * @param host          target host
+     * @param method        request method
+     * @param status        response status code
+     * @param ttfbNanos     time from sending the request to the response head,including lease and connect
+     * @param bodyNanos     time the response body was read and handled
+     * @param bytesSent     request body bytes,-1 if unknown
+     * @param bytesReceived response body bytes read
+     */
+    void completed(HttpHost host, String method, int status, long ttfbNanos, long bodyNanos, long bytesSent,
+                   long bytesReceived);
+
+    /**
+     * An exchange failed before a response
+     *
+     * @param host   target host
+     * @param method request method
+     * @param e      error
+     * @param nanos  time until the error
+     */
+    void failed(HttpHost host, String method, Exception e, long nanos);
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import org.apache.http.HttpHost;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Resilience settings of {@link HttpConnClient}: a {@link CircuitBreaker} per
+ * host and a {@link RetryPolicy}.
+ * <pre>
+ * HttpConnClient client = HttpConnClient.custom()
+ *         .resilience(new HttpResilience())
+ *         .deadline(3000)
+ *         .build();
+ * </pre>
+ * When a host goes bad its breaker opens and calls fail fast with
+ * {@link CircuitOpenException} instead of waiting out the timeouts, transient
+ * failures of idempotent calls are retried with jittered backoff, and every
+ * attempt and backoff is bounded by the deadline of the call.
+ *
+ * @author RA
+ * @since 4.3
+ */
+public class HttpResilience {
+
+    // ~ Instance fields ==================================================
+
+    public final static int DEFAULT_WINDOW_SIZE = 50;
+
+    public final static int DEFAULT_MINIMUM_CALLS = 10;
+
+    public final static float DEFAULT_FAILURE_RATE = 0.5f;
+
+    public final static long DEFAULT_OPEN_MILLIS = 10000;
+
+    public final static int DEFAULT_HALF_OPEN_PROBES = 3;
+
+    private final RetryPolicy retryPolicy;
+
+    private final int windowSize;
+
+    private final int minimumCalls;
+
+    private final float failureRateThreshold;
+
+    private final long openMillis;
+
+    private final int halfOpenProbes;
+
+    private final ConcurrentMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<String, CircuitBreaker>();
+
+    // ~ Constructors ==================================================
+
+    /**
+     * Create with default retry policy and breakers
+     */
+    public HttpResilience() {
+        this(new RetryPolicy());
+    }
+
+    /**
+     * Create with default breakers
+     *
+     * @param retryPolicy {@link RetryPolicy}
+     */
+    public HttpResilience(RetryPolicy retryPolicy) {
+        this(retryPolicy, DEFAULT_WINDOW_SIZE, DEFAULT_MINIMUM_CALLS, DEFAULT_FAILURE_RATE, DEFAULT_OPEN_MILLIS,
+                DEFAULT_HALF_OPEN_PROBES);
+    }
+
+    /**
+     * Create
+     *
+     * @param retryPolicy          {@link RetryPolicy}
+     * @param windowSize           outcomes kept in the window of a breaker
+     * @param minimumCalls         calls recorded before the failure rate is considered
+     * @param failureRateThreshold failure rate (0-1) which opens a breaker
+     * @param openMillis           milliseconds a breaker stays open
+     * @param halfOpenProbes       calls let through when half open
+     * @see CircuitBreaker
+     */
+    public HttpResilience(RetryPolicy retryPolicy, int windowSize, int minimumCalls, float failureRateThreshold,
+                          long openMillis, int halfOpenProbes) {
+        this.retryPolicy = retryPolicy;
+        this.windowSize = windowSize;
+        this.minimumCalls = minimumCalls;
+        this.failureRateThreshold = failureRateThreshold;
+        this.openMillis = openMillis;
+        this.halfOpenProbes = halfOpenProbes;
+    }
+
+    // ~ Methods ==================================================
+
+    /**
+     * Get the breaker of the host,create it at first call
+     *
+     * @param host {@link HttpHost}
+     * @return {@link CircuitBreaker}
+     */
+    public CircuitBreaker breakerOf(HttpHost host) {
+        String key = host.toURI();
+        CircuitBreaker cb = breakers.get(key);
+        if (cb == null) {
+            CircuitBreaker created = new CircuitBreaker(windowSize, minimumCalls, failureRateThreshold, openMillis,
+                    halfOpenProbes);
+            cb = breakers.putIfAbsent(key, created);
+            if (cb == null) {
+                cb = created;
+            }
+        }
+        return cb;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import org.apache.http.HttpHost;
+import org.apache.http.pool.PoolStats;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Built-in {@link HttpMetrics}, per host counters and {@link LatencyHistogram}s.
+ * <pre>
+ * HttpStats stats = new HttpStats();
+ * HttpConnClient client = HttpConnClient.custom().metrics(stats).build();
+ * ...
+ * String json = JsonUtil.toJson(stats.snapshot(client.getEngine()));
+ * </pre>
+ *
+ * @author RA
+ * @since 4.3
+ */
+public class HttpStats implements HttpMetrics {
+
+    // ~ Instance fields ==================================================
+
+    private final ConcurrentMap<String, HostStats> hosts = new ConcurrentHashMap<String, HostStats>();
+
+    // ~ Methods ==================================================
+
+    @Override
+    public void connected(HttpHost host, long connectNanos, long handshakeNanos) {
+        HostStats hs = statsOf(host);
+        hs.connect.record(connectNanos);
+        if (handshakeNanos >= 0) {
+            hs.handshake.record(handshakeNanos);
+        }
+    }
+
+    @Override
+    public void completed(HttpHost host, String method, int status, long ttfbNanos, long bodyNanos,
+                          long bytesSent, long bytesReceived) {
+        HostStats hs = statsOf(host);
+        hs.ttfb.record(ttfbNanos);
+        hs.body.record(bodyNanos);
+        hs.total.record(ttfbNanos + bodyNanos);
+        int statusClass = status / 100;
+        hs.status.incrementAndGet(statusClass > 0 && statusClass < 6 ? statusClass : 0);
+        if (bytesSent > 0) {
+            hs.bytesSent.addAndGet(bytesSent);
+        }
+        if (bytesReceived > 0) {
+            hs.bytesReceived.addAndGet(bytesReceived);
+        }
+    }
+
+    @Override
+    public void failed(HttpHost host, String method, Exception e, long nanos) {
+        HostStats hs = statsOf(host);
+        hs.failures.incrementAndGet();
+        hs.total.record(nanos);
+    }
+
+    /**
+     * Get the stats of the host,create it at first call
+     *
+     * @param host {@link HttpHost}
+     * @return {@link HostStats}
+     */
+    public HostStats statsOf(HttpHost host) {
+        String key = host.toURI();
+        HostStats hs = hosts.get(key);
+        if (hs == null) {
+            HostStats created = new HostStats();
+            hs = hosts.putIfAbsent(key, created);
+            if (hs == null) {
+                hs = created;
+            }
+        }
+        return hs;
+    }
+
+    /**
+     * Snapshot of all hosts,plain maps ready to export (e.g. as json)
+     *
+     * @return host to stats
+     */
+    public Map<String, Map<String, Object>> snapshot() {
+        Map<String, Map<String, Object>> snapshot = new TreeMap<String, Map<String, Object>>();
+        for (Map.Entry<String, HostStats> entry : hosts.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return snapshot;
+    }
+
+    /**
+     * Snapshot of all hosts plus the pool of the engine
+     *
+     * @param engine {@link HttpEngine}
+     * @return snapshot,the pool is under key "pool"
+     */
+    public Map<String, Object> snapshot(HttpEngine engine) {
+        Map<String, Object> snapshot = new LinkedHashMap<String, Object>();
+        PoolStats ps = engine.getTotalStats();
+        Map<String, Object> pool = new LinkedHashMap<String, Object>();
+        pool.put("leased", ps.getLeased());
+        pool.put("pending", ps.getPending());
+        pool.put("available", ps.getAvailable());
+        pool.put("max", ps.getMax());
+        snapshot.put("pool", pool);
+        snapshot.put("hosts", snapshot());
+        return snapshot;
+    }
+
+    /**
+     * Clear all hosts
+     */
+    public void reset() {
+        hosts.clear();
+    }
+
+    /**
+     * Stats of one host
+     */
+    public static class HostStats {
+
+        private final LatencyHistogram connect = new LatencyHistogram();
+
+        private final LatencyHistogram handshake = new LatencyHistogram();
+
+        private final LatencyHistogram ttfb = new LatencyHistogram();
+
+        private final LatencyHistogram body = new LatencyHistogram();
+
+        private final LatencyHistogram total = new LatencyHistogram();
+
+        /**
+         * [0] other, [1] 1xx ... [5] 5xx
+         */
+        private final AtomicLongArray status = new AtomicLongArray(6);
+
+        private final AtomicLong failures = new AtomicLong();
+
+        private final AtomicLong bytesSent = new AtomicLong();
+
+        private final AtomicLong bytesReceived = new AtomicLong();
+
+        public LatencyHistogram getConnect() {
+            return connect;
+        }
+
+        public LatencyHistogram getHandshake() {
+            return handshake;
+        }
+
+        public LatencyHistogram getTtfb() {
+            return ttfb;
+        }
+
+        public LatencyHistogram getBody() {
+            return body;
+        }
+
+        public LatencyHistogram getTotal() {
+            return total;
+        }
+
+        /**
+         * @param statusClass 1 to 5,0 for others
+         * @return responses of the class
+         */
+        public long getStatus(int statusClass) {
+            return status.get(statusClass);
+        }
+
+        public long getRequests() {
+            return ttfb.getCount();
+        }
+
+        public long getFailures() {
+            return failures.get();
+        }
+
+        public long getBytesSent() {
+            return bytesSent.get();
+        }
+
+        public long getBytesReceived() {
+            return bytesReceived.get();
+        }
+
+        Map<String, Object> snapshot() {
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            map.put("requests", getRequests());
+            map.put("failures", getFailures());
+            Map<String, Object> statuses = new LinkedHashMap<String, Object>();
+            for (int i = 1; i < 6; i++) {
+                statuses.put(i + "xx", status.get(i));
+            }
+            statuses.put("other", status.get(0));
+            map.put("status", statuses);
+            map.put("bytesSent", getBytesSent());
+            map.put("bytesReceived", getBytesReceived());
+            map.put("connects", connect.getCount());
+            map.put("handshakes", handshake.getCount());
+            map.put("connect", toMap(connect));
+            map.put("handshake", toMap(handshake));
+            map.put("ttfb", toMap(ttfb));
+            map.put("body", toMap(body));
+            map.put("total", toMap(total));
+            return map;
+        }
+
+        private static Map<String, Object> toMap(LatencyHistogram h) {
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            map.put("count", h.getCount());
+            map.put("meanMicros", (long) h.getMean());
+            map.put("p50Micros", h.getPercentile(50));
+            map.put("p90Micros", h.getPercentile(90));
+            map.put("p99Micros", h.getPercentile(99));
+            map.put("maxMicros", h.getMax());
+            return map;
+        }
+    }
+
+}
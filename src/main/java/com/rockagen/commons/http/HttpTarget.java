@@ -0,0 +1,330 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import org.apache.http.HttpHost;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Parsed target address, e.g. https://api.rockagen.com:8443/v1/users?id=1
+ * <p>
+ * A target is parsed in a single pass without regex or intermediate
+ * strings, and parsed targets are kept in a bounded cache so hot
+ * endpoints are parsed only once, see {@link #of(String)}. The cache is
+ * split in segments by the hash of the target, each one least recently
+ * used first and locked on its own, so lookups do not contend on one lock.
+ * </p>
+ * <p>
+ * The scheme is optional (defaults to http), only http and https are
+ * supported. The fragment and user info are dropped.
+ * </p>
+ *
+ * @author RA
+ * @since 4.3
+ */
+public final class HttpTarget {
+
+    // ~ Instance fields ==================================================
+
+    /**
+     * Max cached targets
+     */
+    public final static int CACHE_SIZE = 1024;
+
+    /**
+     * Segments of the cache,a power of two
+     */
+    private final static int SEGMENTS = 16;
+
+    private final static Segment[] cache = new Segment[SEGMENTS];
+
+    static {
+        for (int i = 0; i < SEGMENTS; i++) {
+            cache[i] = new Segment(CACHE_SIZE / SEGMENTS);
+        }
+    }
+
+    private final String scheme;
+
+    private final String host;
+
+    private final int port;
+
+    private final String path;
+
+    private final String query;
+
+    private final HttpHost httpHost;
+
+    private final String uri;
+
+    // ~ Constructors ==================================================
+
+    private HttpTarget(String scheme, String host, int port, String path, String query) {
+        this.scheme = scheme;
+        this.host = host;
+        this.port = port;
+        this.path = path;
+        this.query = query;
+        this.httpHost = new HttpHost(host, port, scheme);
+        this.uri = query == null ? path : path + "?" + query;
+    }
+
+    // ~ Methods ==================================================
+
+    /**
+     * Get the parsed target from the cache,parse it if absent
+     *
+     * @param target target address
+     * @return {@link HttpTarget}
+     * @throws IllegalArgumentException if the target is invalid
+     */
+    public static HttpTarget of(String target) {
+        if (target == null) {
+            throw new IllegalArgumentException("Target must not be null");
+        }
+        Segment segment = segmentOf(target);
+        HttpTarget ht;
+        synchronized (segment) {
+            ht = segment.get(target);
+        }
+        if (ht == null) {
+            // parsed out of the lock
+            HttpTarget parsed = parse(target);
+            synchronized (segment) {
+                ht = segment.get(target);
+                if (ht == null) {
+                    ht = parsed;
+                    segment.put(target, ht);
+                }
+            }
+        }
+        return ht;
+    }
+
+    private static Segment segmentOf(String target) {
+        int h = target.hashCode();
+        return cache[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    /**
+     * Parse the target,bypass the cache
+     *
+     * @param target target address
+     * @return {@link HttpTarget}
+     * @throws IllegalArgumentException if the target is invalid
+     */
+    public static HttpTarget parse(String target) {
+        if (target == null) {
+            throw new IllegalArgumentException("Target must not be null");
+        }
+        int len = target.length();
+        int start = 0;
+        while (start < len && target.charAt(start) <= ' ') {
+            start++;
+        }
+        while (len > start && target.charAt(len - 1) <= ' ') {
+            len--;
+        }
+
+        // scheme
+        String scheme = "http";
+        int i = start;
+        while (i < len && isSchemeChar(target.charAt(i))) {
+            i++;
+        }
+        if (i + 2 < len && target.charAt(i) == ':' && target.charAt(i + 1) == '/' && target.charAt(i + 2) == '/') {
+            if (i - start == 4 && target.regionMatches(true, start, "http", 0, 4)) {
+                scheme = "http";
+            } else if (i - start == 5 && target.regionMatches(true, start, "https", 0, 5)) {
+                scheme = "https";
+            } else {
+                throw new IllegalArgumentException("Unsupported scheme of target [" + target + "]");
+            }
+            start = i + 3;
+        }
+
+        // authority: [userinfo@]host[:port]
+        int authEnd = start;
+        int at = -1;
+        while (authEnd < len) {
+            char c = target.charAt(authEnd);
+            if (c == '/' || c == '?' || c == '#') {
+                break;
+            }
+            if (c == '@') {
+                at = authEnd;
+            }
+            authEnd++;
+        }
+        int hostStart = at < 0 ? start : at + 1;
+        int hostEnd;
+        int colon = -1;
+        if (hostStart < authEnd && target.charAt(hostStart) == '[') {
+            // IPv6 literal
+            int close = target.indexOf(']', hostStart);
+            if (close < 0 || close >= authEnd) {
+                throw new IllegalArgumentException("Invalid host of target [" + target + "]");
+            }
+            hostEnd = close + 1;
+            if (hostEnd < authEnd) {
+                if (target.charAt(hostEnd) != ':') {
+                    throw new IllegalArgumentException("Invalid host of target [" + target + "]");
+                }
+                colon = hostEnd;
+            }
+        } else {
+            hostEnd = authEnd;
+            for (int j = hostStart; j < authEnd; j++) {
+                if (target.charAt(j) == ':') {
+                    colon = j;
+                    hostEnd = j;
+                    break;
+                }
+            }
+        }
+        if (hostEnd == hostStart) {
+            throw new IllegalArgumentException("Missing host of target [" + target + "]");
+        }
+        int port = "https".equals(scheme) ? 443 : 80;
+        if (colon >= 0 && colon + 1 < authEnd) {
+            port = 0;
+            for (int j = colon + 1; j < authEnd; j++) {
+                char c = target.charAt(j);
+                if (c < '0' || c > '9' || port > 0xFFFF) {
+                    throw new IllegalArgumentException("Invalid port of target [" + target + "]");
+                }
+                port = port * 10 + (c - '0');
+            }
+            if (port > 0xFFFF) {
+                throw new IllegalArgumentException("Invalid port of target [" + target + "]");
+            }
+        }
+        String host = target.substring(hostStart, hostEnd);
+
+        // path?query#fragment
+        int pathEnd = authEnd;
+        while (pathEnd < len && target.charAt(pathEnd) != '?' && target.charAt(pathEnd) != '#') {
+            pathEnd++;
+        }
+        String path = pathEnd > authEnd ? target.substring(authEnd, pathEnd) : "/";
+        String query = null;
+        if (pathEnd < len && target.charAt(pathEnd) == '?') {
+            int queryEnd = target.indexOf('#', pathEnd + 1);
+            if (queryEnd < 0 || queryEnd > len) {
+                queryEnd = len;
+            }
+            query = target.substring(pathEnd + 1, queryEnd);
+        }
+        return new HttpTarget(scheme, host, port, path, query);
+    }
+
+    private static boolean isSchemeChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '+' || c == '-' || c == '.';
+    }
+
+    /**
+     * Remove all cached targets
+     */
+    public static void clearCache() {
+        for (Segment segment : cache) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * Count of cached targets
+     *
+     * @return size
+     */
+    public static int cacheSize() {
+        int size = 0;
+        for (Segment segment : cache) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public String getScheme() {
+        return scheme;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return query without '?',or null if none
+     */
+    public String getQuery() {
+        return query;
+    }
+
+    /**
+     * @return {@link HttpHost} of scheme, host and port
+     */
+    public HttpHost getHttpHost() {
+        return httpHost;
+    }
+
+    /**
+     * @return path plus query,the request uri
+     */
+    public String getUri() {
+        return uri;
+    }
+
+    @Override
+    public String toString() {
+        return httpHost.toURI() + uri;
+    }
+
+    /**
+     * Segment of the cache,least recently used first,guarded by itself
+     */
+    private static class Segment extends LinkedHashMap<String, HttpTarget> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, HttpTarget> eldest) {
+            return size() > capacity;
+        }
+    }
+
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import org.apache.http.client.config.RequestConfig;
+
+/**
+ * Immutable timeouts of a host or a call, in milliseconds.
+ * <p>
+ * A negative value inherits the value of the level below (call, host,
+ * client), 0 means no timeout.
+ * </p>
+ * <pre>
+ * HttpConnClient client = HttpConnClient.custom()
+ *         .hostTimeouts("https://quote.rockagen.com", new HttpTimeouts(200, 500, 50, 800))
+ *         .hostTimeouts("https://report.rockagen.com", HttpTimeouts.of(10000, 120000))
+ *         .build();
+ * </pre>
+ *
+ * @author RA
+ * @since 4.3
+ */
+public final class HttpTimeouts {
+
+    // ~ Instance fields ==================================================
+
+    private final int connectTimeout;
+
+    private final int socketTimeout;
+
+    private final int leaseTimeout;
+
+    private final long deadline;
+
+    // ~ Constructors ==================================================
+
+    /**
+     * @param connectTimeout TCP connect timeout
+     * @param socketTimeout  socket (read) timeout
+     * @param leaseTimeout   timeout to lease a connection from the pool
+     * @param deadline       time budget of the call including retries
+     */
+    public HttpTimeouts(int connectTimeout, int socketTimeout, int leaseTimeout, long deadline) {
+        this.connectTimeout = connectTimeout;
+        this.socketTimeout = socketTimeout;
+        this.leaseTimeout = leaseTimeout;
+        this.deadline = deadline;
+    }
+
+    // ~ Methods ==================================================
+
+    /**
+     * Connect and socket timeouts,others inherited
+     *
+     * @param connectTimeout TCP connect timeout
+     * @param socketTimeout  socket (read) timeout
+     * @return {@link HttpTimeouts}
+     */
+    public static HttpTimeouts of(int connectTimeout, int socketTimeout) {
+        return new HttpTimeouts(connectTimeout, socketTimeout, -1, -1);
+    }
+
+    /**
+     * Apply the timeouts which are set
+     *
+     * @param config base config
+     * @return new config,or the base if nothing differs
+     */
+    public RequestConfig applyTo(RequestConfig config) {
+        if ((connectTimeout < 0 || connectTimeout == config.getConnectTimeout())
+                && (socketTimeout < 0 || socketTimeout == config.getSocketTimeout())
+                && (leaseTimeout < 0 || leaseTimeout == config.getConnectionRequestTimeout())) {
+            return config;
+        }
+        RequestConfig.Builder rcb = RequestConfig.copy(config);
+        if (connectTimeout >= 0) {
+            rcb.setConnectTimeout(connectTimeout);
+        }
+        if (socketTimeout >= 0) {
+            rcb.setSocketTimeout(socketTimeout);
+        }
+        if (leaseTimeout >= 0) {
+            rcb.setConnectionRequestTimeout(leaseTimeout);
+        }
+        return rcb.build();
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public int getSocketTimeout() {
+        return socketTimeout;
+    }
+
+    public int getLeaseTimeout() {
+        return leaseTimeout;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof HttpTimeouts)) {
+            return false;
+        }
+        HttpTimeouts that = (HttpTimeouts) o;
+        return connectTimeout == that.connectTimeout && socketTimeout == that.socketTimeout
+                && leaseTimeout == that.leaseTimeout && deadline == that.deadline;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = connectTimeout;
+        result = 31 * result + socketTimeout;
+        result = 31 * result + leaseTimeout;
+        result = 31 * result + (int) (deadline ^ (deadline >>> 32));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "connect=" + connectTimeout + ", socket=" + socketTimeout + ", lease=" + leaseTimeout
+                + ", deadline=" + deadline;
+    }
+
+}
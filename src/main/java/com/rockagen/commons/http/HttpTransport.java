@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.protocol.HttpClientContext;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Transport SPI under {@link HttpConnClient}.
+ * <p>
+ * The client builds the request and the execution context (timeouts,
+ * proxy, credentials), applies resilience and metrics, and hands the wire
+ * exchange to the transport. {@link HttpEngine} is the default HTTP/1.1
+ * pooled transport, {@link Http2Transport} multiplexes the calls of a host
+ * over one HTTP/2 connection, a decorator can be plugged the same way with
+ * {@link HttpConnClient.Builder#transport(HttpTransport)}.
+ * </p>
+ * <p>
+ * The exchange is in HttpClient 4 terms (requests, responses and context),
+ * a transport over another client library adapts to them.
+ * </p>
+ *
+ * @author RA
+ * @since 4.3
+ */
+public interface HttpTransport extends Closeable {
+
+    /**
+     * Execute the request,the caller closes the response
+     *
+     * @param targetHost target {@link HttpHost}
+     * @param request    request
+     * @param context    execution context
+     * @param keystore   keystore identity of {@link #getSSLRegistry()}
+     * @return response
+     * @throws IOException if an I/O error occurs
+     */
+    CloseableHttpResponse execute(HttpHost targetHost, HttpRequest request, HttpClientContext context,
+                                  String keystore) throws IOException;
+
+    /**
+     * Registry resolving the keystores of the transport
+     *
+     * @return {@link SSLRegistry}
+     */
+    SSLRegistry getSSLRegistry();
+
+    /**
+     * Release the connections of the transport
+     */
+    @Override
+    void close();
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.socket.LayeredConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * Socket factory of {@link HttpEngine} reporting connect and TLS handshake
+ * times to the {@link HttpMetrics} of the engine.
+ * <p>
+ * For https the TCP connect and the handshake are done in two steps (as
+ * {@link org.apache.http.conn.ssl.SSLConnectionSocketFactory} does) so they
+ * can be timed apart.
+ * </p>
+ *
+ * @author RA
+ * @since 4.3
+ */
+class InstrumentedSocketFactory implements LayeredConnectionSocketFactory {
+
+    private final static PlainConnectionSocketFactory PLAIN = PlainConnectionSocketFactory.getSocketFactory();
+
+    private final HttpEngine engine;
+
+    private final LayeredConnectionSocketFactory tls;
+
+    /**
+     * @param engine engine of the metrics
+     * @param tls    tls factory,null for plain connections
+     */
+    InstrumentedSocketFactory(HttpEngine engine, LayeredConnectionSocketFactory tls) {
+        this.engine = engine;
+        this.tls = tls;
+    }
+
+    @Override
+    public Socket createSocket(HttpContext context) throws IOException {
+        return tls == null ? PLAIN.createSocket(context) : tls.createSocket(context);
+    }
+
+    @Override
+    public Socket connectSocket(int connectTimeout, Socket sock, HttpHost host, InetSocketAddress remoteAddress,
+                                InetSocketAddress localAddress, HttpContext context) throws IOException {
+        HttpMetrics metrics = engine.getMetrics();
+        if (metrics == null) {
+            return tls == null ? PLAIN.connectSocket(connectTimeout, sock, host, remoteAddress, localAddress, context)
+                    : tls.connectSocket(connectTimeout, sock, host, remoteAddress, localAddress, context);
+        }
+        long start = System.nanoTime();
+        if (tls != null && connectTimeout > 0 && sock != null && sock.getSoTimeout() == 0) {
+            // bound the handshake like SSLConnectionSocketFactory does
+            sock.setSoTimeout(connectTimeout);
+        }
+        Socket connected = PLAIN.connectSocket(connectTimeout, sock, host, remoteAddress, localAddress, context);
+        long connectNanos = System.nanoTime() - start;
+        if (tls == null) {
+            metrics.connected(host, connectNanos, -1);
+            return connected;
+        }
+        start = System.nanoTime();
+        Socket secured;
+        try {
+            secured = tls.createLayeredSocket(connected, host.getHostName(), remoteAddress.getPort(), context);
+        } catch (IOException e) {
+            connected.close();
+            throw e;
+        }
+        metrics.connected(host, connectNanos, System.nanoTime() - start);
+        return secured;
+    }
+
+    @Override
+    public Socket createLayeredSocket(Socket socket, String target, int port, HttpContext context)
+            throws IOException {
+        // tunnelled through a proxy,the connect was to the proxy
+        HttpMetrics metrics = engine.getMetrics();
+        long start = System.nanoTime();
+        Socket secured = tls.createLayeredSocket(socket, target, port, context);
+        if (metrics != null) {
+            metrics.connected(new HttpHost(target, port, "https"), 0, System.nanoTime() - start);
+        }
+        return secured;
+    }
+
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import org.apache.http.Consts;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.Args;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * <code>multipart/form-data</code> entity streamed part by part.
+ * <pre>
+ * MultipartEntity body = new MultipartEntity()
+ *         .addText("name", "ROCKAGEN")
+ *         .addFile("avatar", new File("avatar.png"), ContentType.create("image/png"))
+ *         .addBytes("data", "data.bin", bytes, null);
+ * HttpConn.sendBody(url, body, RequestMethod.POST);
+ * </pre>
+ * Files and streams are copied to the connection while the body is written,
+ * the assembled body is never held in memory. The length is sent when all
+ * parts have one, else the body is sent chunked. A body with stream parts can
+ * be written only once, so it is not retried.
+ *
+ * @author RA
+ * @since 4.3
+ */
+public class MultipartEntity extends AbstractHttpEntity {
+
+    private final static byte[] CRLF = {'\r', '\n'};
+
+    private final static byte[] DASHES = {'-', '-'};
+
+    private final static char[] BOUNDARY_CHARS =
+            "-_1234567890abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ".toCharArray();
+
+    private final static Random RANDOM = new SecureRandom();
+
+    private final static int BUFFER_SIZE = 8192;
+
+    private final byte[] boundary;
+
+    private final Charset charset;
+
+    private final List<Part> parts = new ArrayList<Part>();
+
+    /**
+     * Random boundary,UTF-8 names and text
+     */
+    public MultipartEntity() {
+        this(null, Consts.UTF_8);
+    }
+
+    /**
+     * Create
+     *
+     * @param boundary boundary,null means random
+     * @param charset  charset of names,file names and text parts
+     */
+    public MultipartEntity(String boundary, Charset charset) {
+        this.charset = Args.notNull(charset, "Charset");
+        String b = boundary == null ? randomBoundary() : boundary;
+        this.boundary = b.getBytes(Consts.ASCII);
+        setContentType("multipart/form-data; boundary=" + b);
+        setChunked(false);
+    }
+
+    private static String randomBoundary() {
+        StringBuilder sb = new StringBuilder(36);
+        for (int i = 0; i < 36; i++) {
+            sb.append(BOUNDARY_CHARS[RANDOM.nextInt(BOUNDARY_CHARS.length)]);
+        }
+        return sb.toString();
+    }
+
+    // ~ Parts ==================================================
+
+    /**
+     * Add a text field
+     *
+     * @param name  field name
+     * @param value value
+     * @return this
+     */
+    public MultipartEntity addText(String name, String value) {
+        byte[] body = Args.notNull(value, "Value").getBytes(charset);
+        parts.add(new Part(name, null, null, body, null, null, body.length));
+        return this;
+    }
+
+    /**
+     * Add a file,read while the body is written
+     *
+     * @param name        field name
+     * @param file        file,its name is sent as the file name
+     * @param contentType content type,null means application/octet-stream
+     * @return this
+     */
+    public MultipartEntity addFile(String name, File file, ContentType contentType) {
+        Args.notNull(file, "File");
+        parts.add(new Part(name, file.getName(), contentType, null, file, null, file.length()));
+        return this;
+    }
+
+    /**
+     * @param name field name
+     * @param file file
+     * @return this
+     * @see #addFile(String, File, ContentType)
+     */
+    public MultipartEntity addFile(String name, File file) {
+        return addFile(name, file, null);
+    }
+
+    /**
+     * Add bytes as a file
+     *
+     * @param name        field name
+     * @param fileName    file name
+     * @param bytes       content
+     * @param contentType content type,null means application/octet-stream
+     * @return this
+     */
+    public MultipartEntity addBytes(String name, String fileName, byte[] bytes, ContentType contentType) {
+        Args.notNull(bytes, "Bytes");
+        parts.add(new Part(name, fileName, contentType, bytes, null, null, bytes.length));
+        return this;
+    }
+
+    /**
+     * Add a stream as a file,copied while the body is written and closed after
+     *
+     * @param name        field name
+     * @param fileName    file name
+     * @param in          content
+     * @param length      content length,negative if unknown (the body is then sent chunked)
+     * @param contentType content type,null means application/octet-stream
+     * @return this
+     */
+    public MultipartEntity addStream(String name, String fileName, InputStream in, long length,
+                                     ContentType contentType) {
+        Args.notNull(in, "Input stream");
+        parts.add(new Part(name, fileName, contentType, null, null, in, length));
+        return this;
+    }
+
+    // ~ Entity ==================================================
+
+    @Override
+    public boolean isRepeatable() {
+        for (Part part : parts) {
+            if (part.stream != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isChunked() {
+        return getContentLength() < 0;
+    }
+
+    @Override
+    public long getContentLength() {
+        long len = 0;
+        for (Part part : parts) {
+            if (part.length < 0) {
+                return -1;
+            }
+            len += DASHES.length + boundary.length + CRLF.length + part.header.length + part.length + CRLF.length;
+        }
+        return len + DASHES.length + boundary.length + DASHES.length + CRLF.length;
+    }
+
+    /**
+     * Not supported,the body only exists while it is written
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public InputStream getContent() throws IOException {
+        throw new UnsupportedOperationException("Multipart entity can only be written to a stream");
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        Args.notNull(out, "Output stream");
+        byte[] buffer = null;
+        for (Part part : parts) {
+            out.write(DASHES);
+            out.write(boundary);
+            out.write(CRLF);
+            out.write(part.header);
+            if (part.bytes != null) {
+                out.write(part.bytes);
+            } else {
+                if (buffer == null) {
+                    buffer = new byte[BUFFER_SIZE];
+                }
+                InputStream in = part.file != null ? new FileInputStream(part.file) : part.stream;
+                try {
+                    int n;
+                    while ((n = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, n);
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+            out.write(CRLF);
+        }
+        out.write(DASHES);
+        out.write(boundary);
+        out.write(DASHES);
+        out.write(CRLF);
+        out.flush();
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return !isRepeatable();
+    }
+
+    /**
+     * One part,exactly one of bytes,file and stream is set
+     */
+    private class Part {
+
+        private final byte[] header;
+
+        private final byte[] bytes;
+
+        private final File file;
+
+        private final InputStream stream;
+
+        private final long length;
+
+        Part(String name, String fileName, ContentType contentType, byte[] bytes, File file, InputStream stream,
+             long length) {
+            StringBuilder sb = new StringBuilder("Content-Disposition: form-data; name=\"")
+                    .append(quote(Args.notNull(name, "Name"))).append('"');
+            if (fileName != null) {
+                sb.append("; filename=\"").append(quote(fileName)).append('"');
+                sb.append("\r\nContent-Type: ")
+                        .append(contentType == null ? ContentType.DEFAULT_BINARY.getMimeType() : contentType);
+            }
+            sb.append("\r\n\r\n");
+            this.header = sb.toString().getBytes(charset);
+            this.bytes = bytes;
+            this.file = file;
+            this.stream = stream;
+            this.length = length;
+        }
+
+        private String quote(String s) {
+            // as browsers do
+            return s.replace("\"", "%22").replace("\r", "%0D").replace("\n", "%0A");
+        }
+    }
+
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.rockagen.commons.util.FileUtil;
+import com.rockagen.commons.util.IOUtil;
+import com.rockagen.commons.util.JsonUtil;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ResponseHandler;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Factory of {@link ResponseHandler}s.
+ * <p>
+ * Except {@link #toString(String)}, the handlers read the response entity as
+ * it arrives from the socket, so a large response never sits on the heap.
+ * Like {@link HttpConn#getResponse(HttpResponse, String)}, the status code is
+ * not checked, the entity is handled whatever the status.
+ * </p>
+ *
+ * @author RA
+ * @since 4.3
+ */
+public class ResponseHandlers {
+
+    // ~ Instance fields ==================================================
+
+    /**
+     * Copy buffer size
+     */
+    private final static int BUFFER_SIZE = 8192;
+
+    // ~ Constructors ==================================================
+
+    /**
+     */
+    private ResponseHandlers() {
+
+    }
+
+    // ~ Methods ==================================================
+
+    /**
+     * Resolve response to String
+     *
+     * @param encoding the encoding,default is UTF-8
+     * @return handler
+     * @see HttpConn#getResponse(HttpResponse, String)
+     */
+    public static ResponseHandler<String> toString(final String encoding) {
+        return new ResponseHandler<String>() {
+            @Override
+            public String handleResponse(HttpResponse response) throws IOException {
+                return HttpConn.getResponse(response, encoding);
+            }
+        };
+    }
+
+    /**
+     * Read the response into a pooled buffer and pass a read-only view to the handler,
+     * nothing is allocated per response once the pool is warm
+     *
+     * @param pool    {@link ByteBufferPool}
+     * @param handler {@link BufferHandler}
+     * @param <T>     result type
+     * @return handler
+     * @see HttpConn#getResponse(HttpResponse, ByteBufferPool, BufferHandler)
+     */
+    public static <T> ResponseHandler<T> toBuffer(final ByteBufferPool pool, final BufferHandler<T> handler) {
+        return new ResponseHandler<T>() {
+            @Override
+            public T handleResponse(HttpResponse response) throws IOException {
+                return HttpConn.getResponse(response, pool, handler);
+            }
+        };
+    }
+
+    /**
+     * Copy response content to the stream,the stream is not closed
+     *
+     * @param out output stream
+     * @return handler,result is the count of bytes copied
+     */
+    public static ResponseHandler<Long> toOutputStream(final OutputStream out) {
+        return toStream(new StreamHandler<Long>() {
+            @Override
+            public Long handle(InputStream content) throws IOException {
+                long count = IOUtil.copyLarge(content, out, new byte[BUFFER_SIZE]);
+                out.flush();
+                return count;
+            }
+        });
+    }
+
+    /**
+     * Copy response content to the file,the file is created or overwritten
+     *
+     * @param file file
+     * @return handler,result is the count of bytes copied
+     */
+    public static ResponseHandler<Long> toFile(final File file) {
+        return toStream(new StreamHandler<Long>() {
+            @Override
+            public Long handle(InputStream content) throws IOException {
+                OutputStream out = FileUtil.openOutputStream(file);
+                try {
+                    return IOUtil.copyLarge(content, out, new byte[BUFFER_SIZE]);
+                } finally {
+                    out.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Copy response content to the channel,the channel is not closed
+     *
+     * @param channel channel
+     * @return handler,result is the count of bytes copied
+     */
+    public static ResponseHandler<Long> toChannel(final WritableByteChannel channel) {
+        return toStream(new StreamHandler<Long>() {
+            @Override
+            public Long handle(InputStream content) throws IOException {
+                ReadableByteChannel in = Channels.newChannel(content);
+                ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+                long count = 0;
+                while (in.read(buf) != -1) {
+                    buf.flip();
+                    while (buf.hasRemaining()) {
+                        count += channel.write(buf);
+                    }
+                    buf.clear();
+                }
+                return count;
+            }
+        });
+    }
+
+    /**
+     * Decode JSON response straight from the stream
+     *
+     * @param clazz class
+     * @param <T>   t
+     * @return handler,result is null if the content can not be decoded
+     * @see JsonUtil#toBean(InputStream, Class)
+     */
+    public static <T> ResponseHandler<T> toJson(final Class<T> clazz) {
+        return toStream(new StreamHandler<T>() {
+            @Override
+            public T handle(InputStream content) throws IOException {
+                return JsonUtil.toBean(content, clazz);
+            }
+        });
+    }
+
+    /**
+     * Decode JSON response straight from the stream
+     *
+     * @param valueTypeRef value type ref
+     * @param <T>          t
+     * @return handler,result is null if the content can not be decoded
+     * @see JsonUtil#toBean(InputStream, TypeReference)
+     */
+    public static <T> ResponseHandler<T> toJson(final TypeReference<T> valueTypeRef) {
+        return toStream(new StreamHandler<T>() {
+            @Override
+            public T handle(InputStream content) throws IOException {
+                return JsonUtil.toBean(content, valueTypeRef);
+            }
+        });
+    }
+
+    /**
+     * Hand response content stream to the callback,the stream is closed after
+     *
+     * @param handler {@link StreamHandler}
+     * @param <T>     t
+     * @return handler
+     */
+    public static <T> ResponseHandler<T> toStream(final StreamHandler<T> handler) {
+        return new ResponseHandler<T>() {
+            @Override
+            public T handleResponse(HttpResponse response) throws IOException {
+                HttpEntity entity = response.getEntity();
+                InputStream content = entity == null ? null : entity.getContent();
+                if (content == null) {
+                    content = new ByteArrayInputStream(new byte[0]);
+                }
+                try {
+                    return handler.handle(content);
+                } finally {
+                    content.close();
+                }
+            }
+        };
+    }
+
+}
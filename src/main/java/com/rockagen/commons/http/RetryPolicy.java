@@ -0,0 +1,173 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpStatus;
+import org.apache.http.conn.ConnectTimeoutException;
+
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Random;
+
+/**
+ * Retry policy of {@link HttpResilience}.
+ * <p>
+ * Only idempotent requests (GET, HEAD, OPTIONS, TRACE, PUT, DELETE) with a
+ * repeatable body are retried, unless <code>retryNonIdempotent</code>.
+ * Retries happen on I/O errors (but not on unknown hosts, SSL failures or an
+ * open circuit) and on 502, 503 and 504. The wait before retry <i>n</i> is
+ * "full jitter": random between 0 and min(maxBackoff, baseBackoff * 2^n),
+ * so retries of many callers do not hit the host at the same moment.
+ * </p>
+ *
+ * @author RA
+ * @since 4.3
+ */
+public class RetryPolicy {
+
+    // ~ Instance fields ==================================================
+
+    public final static int DEFAULT_MAX_RETRIES = 2;
+
+    public final static long DEFAULT_BASE_BACKOFF = 100;
+
+    public final static long DEFAULT_MAX_BACKOFF = 2000;
+
+    private final int maxRetries;
+
+    private final long baseBackoff;
+
+    private final long maxBackoff;
+
+    private final boolean retryNonIdempotent;
+
+    private final Random random = new Random();
+
+    // ~ Constructors ==================================================
+
+    /**
+     * Create a policy with default retries and backoff
+     */
+    public RetryPolicy() {
+        this(DEFAULT_MAX_RETRIES, DEFAULT_BASE_BACKOFF, DEFAULT_MAX_BACKOFF, false);
+    }
+
+    /**
+     * Create a policy
+     *
+     * @param maxRetries         max retries,0 means no retry
+     * @param baseBackoff        milliseconds of the first backoff
+     * @param maxBackoff         max milliseconds of a backoff
+     * @param retryNonIdempotent retry POST and PATCH too
+     */
+    public RetryPolicy(int maxRetries, long baseBackoff, long maxBackoff, boolean retryNonIdempotent) {
+        this.maxRetries = maxRetries;
+        this.baseBackoff = baseBackoff;
+        this.maxBackoff = maxBackoff;
+        this.retryNonIdempotent = retryNonIdempotent;
+    }
+
+    // ~ Methods ==================================================
+
+    /**
+     * Can the request be sent again
+     *
+     * @param request request
+     * @return true if idempotent (or allowed) and the body is repeatable
+     */
+    public boolean isRetryable(HttpRequest request) {
+        if (maxRetries <= 0) {
+            return false;
+        }
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+            if (entity != null && !entity.isRepeatable()) {
+                return false;
+            }
+        }
+        if (retryNonIdempotent) {
+            return true;
+        }
+        String method = request.getRequestLine().getMethod();
+        return !"POST".equalsIgnoreCase(method) && !"PATCH".equalsIgnoreCase(method);
+    }
+
+    /**
+     * Is the error worth a retry
+     *
+     * @param e error
+     * @return true if transient
+     */
+    public boolean isRetryable(IOException e) {
+        if (e instanceof CircuitOpenException || e instanceof UnknownHostException || e instanceof SSLException) {
+            return false;
+        }
+        // connect timeout and read timeout are transient,a plain interrupt is not
+        return !(e instanceof InterruptedIOException) || e instanceof SocketTimeoutException
+                || e instanceof ConnectTimeoutException;
+    }
+
+    /**
+     * Is the status worth a retry
+     *
+     * @param status http status code
+     * @return true for 502, 503 and 504
+     */
+    public boolean isRetryable(int status) {
+        return status == HttpStatus.SC_BAD_GATEWAY || status == HttpStatus.SC_SERVICE_UNAVAILABLE
+                || status == HttpStatus.SC_GATEWAY_TIMEOUT;
+    }
+
+    /**
+     * Jittered wait before the retry
+     *
+     * @param retry retry count,from 0
+     * @return milliseconds
+     */
+    public long backoff(int retry) {
+        long cap = baseBackoff << Math.min(retry, 20);
+        if (cap <= 0 || cap > maxBackoff) {
+            cap = maxBackoff;
+        }
+        if (cap <= 0) {
+            return 0;
+        }
+        return (long) (random.nextDouble() * cap);
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public long getBaseBackoff() {
+        return baseBackoff;
+    }
+
+    public long getMaxBackoff() {
+        return maxBackoff;
+    }
+
+    public boolean isRetryNonIdempotent() {
+        return retryNonIdempotent;
+    }
+
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import com.rockagen.commons.util.FileUtil;
+import com.rockagen.commons.util.IOUtil;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.http.Consts;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLContexts;
+import org.apache.http.conn.ssl.TrustSelfSignedStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyManagementException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.cert.CertificateException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of {@link SSLContext}s by keystore identity.
+ * <p>
+ * The identity of a keystore is one HMAC over its content and password,
+ * keyed by a random secret of the process, so it tells nothing of the
+ * password and is not logged. A keystore is parsed and its {@link SSLContext},
+ * {@link SSLConnectionSocketFactory} and {@link SSLIOSessionStrategy} are
+ * built only once, the first time the identity is seen (or at startup by
+ * {@link #preload(File, char[])}). Every client using the same identity
+ * shares the same {@link SSLContext}, so its client session cache lets
+ * repeated connections resume TLS sessions instead of full handshakes.
+ * </p>
+ *
+ * @author RA
+ * @since 4.3
+ */
+public class SSLRegistry {
+
+    // ~ Instance fields ==================================================
+
+    /** */
+    private static final Logger log = LoggerFactory.getLogger(SSLRegistry.class);
+
+    /**
+     * Identity of the default trust material
+     */
+    public final static String DEFAULT_KEY = "default";
+
+    public final static int DEFAULT_SESSION_CACHE_SIZE = 1000;
+
+    /**
+     * Seconds
+     */
+    public final static int DEFAULT_SESSION_TIMEOUT = 24 * 60 * 60;
+
+    private final static SSLRegistry shared = new SSLRegistry();
+
+    /**
+     * Random secret of the process keying the identities
+     */
+    private final static byte[] SECRET = new byte[32];
+
+    static {
+        new SecureRandom().nextBytes(SECRET);
+    }
+
+    private final int sessionCacheSize;
+
+    private final int sessionTimeout;
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    // ~ Constructors ==================================================
+
+    /**
+     * Create a registry with default session cache
+     */
+    public SSLRegistry() {
+        this(DEFAULT_SESSION_CACHE_SIZE, DEFAULT_SESSION_TIMEOUT);
+    }
+
+    /**
+     * Create a registry
+     *
+     * @param sessionCacheSize max cached TLS sessions of each context,0 means no limit
+     * @param sessionTimeout   seconds a cached TLS session can be resumed,0 means no limit
+     */
+    public SSLRegistry(int sessionCacheSize, int sessionTimeout) {
+        this.sessionCacheSize = sessionCacheSize;
+        this.sessionTimeout = sessionTimeout;
+    }
+
+    // ~ Methods ==================================================
+
+    /**
+     * The registry shared by {@link HttpEngine}s and {@link HttpAsyncEngine}s by default
+     *
+     * @return {@link SSLRegistry}
+     */
+    public static SSLRegistry getShared() {
+        return shared;
+    }
+
+    /**
+     * Load the keystore file at startup
+     *
+     * @param keystore keystore file
+     * @param password keystore password
+     * @return identity of the keystore
+     * @throws IOException if an I/O error occurs
+     */
+    public String preload(File keystore, char[] password) throws IOException {
+        return register(FileUtil.openInputStream(keystore), password);
+    }
+
+    /**
+     * Register the keystore,the keystore stream is read and closed.
+     * <p>
+     * The {@link SSLContext} is built only if the identity is not registered yet.
+     * </p>
+     *
+     * @param keystore keystore stream,null for the default trust material
+     * @param password keystore password
+     * @return identity of the keystore
+     * @throws IOException if the keystore can not be read or the password is wrong
+     */
+    public String register(InputStream keystore, char[] password) throws IOException {
+        if (keystore == null) {
+            return DEFAULT_KEY;
+        }
+        byte[] content;
+        try {
+            content = IOUtil.toByteArray(keystore);
+        } finally {
+            keystore.close();
+        }
+        String key = keystoreKey(content, password);
+        if (!entries.containsKey(key)) {
+            entries.putIfAbsent(key, new Entry(createSSLContext(content, password)));
+            log.debug("Registered keystore");
+        }
+        return key;
+    }
+
+    /**
+     * Get the {@link SSLContext} of the identity
+     *
+     * @param key identity from {@link #register(InputStream, char[])}
+     * @return {@link SSLContext}
+     */
+    public SSLContext getSSLContext(String key) {
+        return getEntry(key).sslContext;
+    }
+
+    /**
+     * Get the blocking socket factory of the identity
+     *
+     * @param key identity from {@link #register(InputStream, char[])}
+     * @return {@link SSLConnectionSocketFactory}
+     */
+    public SSLConnectionSocketFactory getSocketFactory(String key) {
+        return getEntry(key).socketFactory;
+    }
+
+    /**
+     * Get the non-blocking session strategy of the identity
+     *
+     * @param key identity from {@link #register(InputStream, char[])}
+     * @return {@link SSLIOSessionStrategy}
+     */
+    public SSLIOSessionStrategy getIOSessionStrategy(String key) {
+        return getEntry(key).ioSessionStrategy;
+    }
+
+    /**
+     * Is the identity registered
+     *
+     * @param key identity
+     * @return true if registered
+     */
+    public boolean contains(String key) {
+        return DEFAULT_KEY.equals(key) || entries.containsKey(key);
+    }
+
+    /**
+     * Remove all registered keystores
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    private Entry getEntry(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            if (!DEFAULT_KEY.equals(key)) {
+                throw new IllegalArgumentException("Keystore is not registered");
+            }
+            entries.putIfAbsent(DEFAULT_KEY, new Entry(SSLContexts.createDefault()));
+            entry = entries.get(key);
+        }
+        return entry;
+    }
+
+    /**
+     * Build ssl context,trust self signed certificates of the keystore
+     *
+     * @param content  keystore content
+     * @param password keystore password
+     * @return {@link SSLContext}
+     * @throws IOException if the keystore data is invalid or the password is wrong
+     */
+    private static SSLContext createSSLContext(byte[] content, char[] password) throws IOException {
+        try {
+            KeyStore trustStore = KeyStore.getInstance(KeyStore
+                    .getDefaultType());
+            trustStore.load(new ByteArrayInputStream(content), password);
+            return SSLContexts.custom()
+                    .loadTrustMaterial(trustStore, new TrustSelfSignedStrategy())
+                    .build();
+        } catch (KeyStoreException e) {
+            throw new IOException("Invalid keystore: " + e.getMessage(), e);
+        } catch (CertificateException e) {
+            throw new IOException("Invalid keystore: " + e.getMessage(), e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("Invalid keystore: " + e.getMessage(), e);
+        } catch (KeyManagementException e) {
+            throw new IOException("Invalid keystore: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Identity of keystore,one HMAC over content and password
+     *
+     * @param content  keystore content
+     * @param password keystore password
+     * @return key
+     */
+    private static String keystoreKey(byte[] content, char[] password) {
+        return identity(content, (password == null ? "" : new String(password)).getBytes(Consts.UTF_8));
+    }
+
+    /**
+     * Keyed digest of the parts,nothing of a secret part can be told from it
+     *
+     * @param parts parts,each length prefixed
+     * @return hex HMAC-SHA256 under the secret of the process
+     */
+    static String identity(byte[]... parts) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(SECRET, "HmacSHA256"));
+            for (byte[] part : parts) {
+                int n = part.length;
+                mac.update(new byte[]{(byte) (n >>> 24), (byte) (n >>> 16), (byte) (n >>> 8), (byte) n});
+                mac.update(part);
+            }
+            return Hex.encodeHexString(mac.doFinal());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 unavailable", e);
+        }
+    }
+
+    /**
+     * Registered ssl context and the factories built on it
+     */
+    private class Entry {
+
+        private final SSLContext sslContext;
+
+        private final SSLConnectionSocketFactory socketFactory;
+
+        private final SSLIOSessionStrategy ioSessionStrategy;
+
+        Entry(SSLContext sslContext) {
+            SSLSessionContext sessions = sslContext.getClientSessionContext();
+            if (sessions != null) {
+                sessions.setSessionCacheSize(sessionCacheSize);
+                sessions.setSessionTimeout(sessionTimeout);
+            }
+            this.sslContext = sslContext;
+            this.socketFactory = new SSLConnectionSocketFactory(sslContext);
+            this.ioSessionStrategy = new SSLIOSessionStrategy(sslContext);
+        }
+    }
+
+}
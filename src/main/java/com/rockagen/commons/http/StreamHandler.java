@@ -0,0 +1,37 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Callback of the response content stream
+ *
+ * @author RA
+ * @see ResponseHandlers#toStream(StreamHandler)
+ */
+public interface StreamHandler<T> {
+
+    /**
+     * Handle the response content,the stream is closed by caller
+     *
+     * @param content response content,empty stream if the response has no entity
+     * @return result
+     * @throws IOException if an I/O error occurs
+     */
+    T handle(InputStream content) throws IOException;
+}
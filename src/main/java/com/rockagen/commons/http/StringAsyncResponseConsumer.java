@@ -0,0 +1,85 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import org.apache.http.ContentTooLongException;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.ContentBufferEntity;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.nio.util.HeapByteBufferAllocator;
+import org.apache.http.nio.util.SimpleInputBuffer;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+
+/**
+ * Buffer the response content as it arrives and resolve it to String
+ * with {@link HttpConn#getResponse(HttpResponse, String)} once complete
+ *
+ * @author RA
+ * @since 4.3
+ */
+class StringAsyncResponseConsumer extends AbstractAsyncResponseConsumer<String> {
+
+    private final String encoding;
+
+    private volatile HttpResponse response;
+
+    private volatile SimpleInputBuffer buf;
+
+    StringAsyncResponseConsumer(String encoding) {
+        this.encoding = encoding;
+    }
+
+    @Override
+    protected void onResponseReceived(HttpResponse response) throws IOException {
+        this.response = response;
+    }
+
+    @Override
+    protected void onEntityEnclosed(HttpEntity entity, ContentType contentType) throws IOException {
+        long len = entity.getContentLength();
+        if (len > Integer.MAX_VALUE) {
+            throw new ContentTooLongException("Entity content is too long: " + len);
+        }
+        if (len < 0) {
+            len = 4096;
+        }
+        this.buf = new SimpleInputBuffer((int) len, HeapByteBufferAllocator.INSTANCE);
+        this.response.setEntity(new ContentBufferEntity(entity, this.buf));
+    }
+
+    @Override
+    protected void onContentReceived(ContentDecoder decoder, IOControl ioctrl) throws IOException {
+        this.buf.consumeContent(decoder);
+    }
+
+    @Override
+    protected String buildResult(HttpContext context) throws Exception {
+        return HttpConn.getResponse(this.response, this.encoding);
+    }
+
+    @Override
+    protected void releaseResources() {
+        this.response = null;
+        this.buf = null;
+    }
+
+}
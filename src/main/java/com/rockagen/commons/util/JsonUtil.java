@@ -15,30 +15,69 @@
  */
 package com.rockagen.commons.util;
 
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
 import java.io.File;
+import java.io.Flushable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Reader;
-import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.reflect.Type;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.core.JsonEncoding;
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.SerializationFeature;
 
 /**
  * JSON UTILS
+ * <p>
+ * Mappers are configured by {@link Profile}: {@link Profile#COMPACT} for the
+ * wire, {@link Profile#PRETTY} for humans (the default, as before) and
+ * {@link Profile#LENIENT} to read hand written JSON. Every method without a
+ * profile uses {@link #getDefaultProfile()}.
+ * </p>
+ * <pre>
+ * // once at startup
+ * JsonUtil.setDefaultProfile(JsonUtil.Profile.COMPACT);
+ * // or per call
+ * JsonUtil.toJson(bean, JsonUtil.Profile.PRETTY);
+ * </pre>
  * 
  * @author RA
  * @since JDK1.6
@@ -53,13 +92,36 @@ public class JsonUtil {
 	 */
 	private static final Logger log = LoggerFactory.getLogger(JsonUtil.class);
 	/**
-	 * ObjectMapper
+	 * Max readers or writers cached per profile
 	 */
-	private static final ThreadLocal<ObjectMapper> threadMapper = new ThreadLocal<ObjectMapper>();
+	private static final int CACHE_SIZE = 1024;
 	/**
-	 * JsonFactory
+	 * Mappers by profile,shared by all threads
 	 */
-	private static final ThreadLocal<JsonFactory> threadJsonFactory = new ThreadLocal<JsonFactory>();
+	private static final Map<Profile, Codec> codecs = initCodecs();
+	/**
+	 * Profile of methods without one
+	 */
+	private static volatile Profile defaultProfile = Profile.PRETTY;
+
+	/**
+	 * Mapper configurations
+	 */
+	public enum Profile {
+		/**
+		 * No indentation,no flush per value,the fast path for the wire
+		 */
+		COMPACT,
+		/**
+		 * Indented output flushed after each value,for logs and debugging
+		 */
+		PRETTY,
+		/**
+		 * Compact output,reads unquoted field names,single quotes,control
+		 * characters in strings,NaN and a single value as an array
+		 */
+		LENIENT
+	}
 
 	// ~ Constructors ==================================================
 
@@ -72,36 +134,152 @@ public class JsonUtil {
 	// ~ Methods ==================================================
 
 	/**
-	 * return a ObjectMapper if exist,else new ObjectMapper
+	 * return the profile of methods without one
+	 * 
+	 * @return Profile
+	 */
+	public static Profile getDefaultProfile() {
+		return defaultProfile;
+	}
+
+	/**
+	 * Set the profile of methods without one,for the whole process
+	 * 
+	 * @param profile profile
+	 */
+	public static void setDefaultProfile(Profile profile) {
+		if (profile == null) {
+			throw new IllegalArgumentException("Profile must not be null");
+		}
+		defaultProfile = profile;
+	}
+
+	private static Codec codecOf(Profile profile) {
+		return codecs.get(profile == null ? defaultProfile : profile);
+	}
+
+	/**
+	 * return the shared ObjectMapper of the default profile
+	 * <p>
+	 * It is thread-safe and keeps its serializer and deserializer caches
+	 * warm for every thread, do not reconfigure it, use
+	 * {@link ObjectMapper#copy()} for other settings
+	 * </p>
 	 * 
 	 * @return ObjectMapper
 	 */
 	public static ObjectMapper getMapper() {
+		return getMapper(null);
+	}
+
+	/**
+	 * return the shared ObjectMapper of the profile
+	 * 
+	 * @param profile profile,null means the default
+	 * @return ObjectMapper
+	 * @see #getMapper()
+	 */
+	public static ObjectMapper getMapper(Profile profile) {
+		return codecOf(profile).mapper;
+	}
+
+	/**
+	 * return the shared ObjectReader of the type,built once
+	 * 
+	 * @param type value type
+	 * @return ObjectReader
+	 */
+	public static ObjectReader readerFor(Class<?> type) {
+		return codecOf(null).readerOf(type);
+	}
+
+	/**
+	 * return the shared ObjectReader of the type and profile,built once
+	 * 
+	 * @param type value type
+	 * @param profile profile,null means the default
+	 * @return ObjectReader
+	 */
+	public static ObjectReader readerFor(Class<?> type, Profile profile) {
+		return codecOf(profile).readerOf(type);
+	}
+
+	/**
+	 * return the shared ObjectReader of the type,built once
+	 * 
+	 * @param valueTypeRef value type ref
+	 * @return ObjectReader
+	 */
+	public static ObjectReader readerFor(TypeReference<?> valueTypeRef) {
+		return codecOf(null).readerOf(valueTypeRef.getType());
+	}
+
+	/**
+	 * return the shared ObjectReader of the type and profile,built once
+	 * 
+	 * @param valueTypeRef value type ref
+	 * @param profile profile,null means the default
+	 * @return ObjectReader
+	 */
+	public static ObjectReader readerFor(TypeReference<?> valueTypeRef, Profile profile) {
+		return codecOf(profile).readerOf(valueTypeRef.getType());
+	}
 
-		ObjectMapper mapper = threadMapper.get();
-		if (mapper == null) {
-			mapper = initMapper();
-			threadMapper.set(mapper);
+	/**
+	 * return the shared ObjectWriter of the class,built once
+	 * 
+	 * @param type value class
+	 * @return ObjectWriter
+	 */
+	public static ObjectWriter writerFor(Class<?> type) {
+		return codecOf(null).writerOf(type);
+	}
+
+	/**
+	 * return the shared ObjectWriter of the class and profile,built once
+	 * 
+	 * @param type value class
+	 * @param profile profile,null means the default
+	 * @return ObjectWriter
+	 */
+	public static ObjectWriter writerFor(Class<?> type, Profile profile) {
+		return codecOf(profile).writerOf(type);
+	}
 
+	/**
+	 * Initialize a mapper of every profile
+	 * 
+	 * @return mappers
+	 */
+	private static Map<Profile, Codec> initCodecs() {
+		Map<Profile, Codec> map = new EnumMap<Profile, Codec>(Profile.class);
+		for (Profile profile : Profile.values()) {
+			map.put(profile, new Codec(initMapper(initJsonFactory(profile), profile)));
 		}
-		return mapper;
+		return map;
 	}
 
 	/**
 	 * Initialize mapper
 	 * 
+	 * @param jsonFactory json factory of the mapper
+	 * @param profile profile
 	 * @return initialized {@link ObjectMapper}
 	 */
-	private static ObjectMapper initMapper() {
-
-		ObjectMapper mapper = new ObjectMapper();
-		// to enable standard indentation ("pretty-printing"):
-		mapper.enable(SerializationFeature.INDENT_OUTPUT);
+	private static ObjectMapper initMapper(JsonFactory jsonFactory, Profile profile) {
+
+		ObjectMapper mapper = new ObjectMapper(jsonFactory);
+		if (profile == Profile.PRETTY) {
+			// to enable standard indentation ("pretty-printing"):
+			mapper.enable(SerializationFeature.INDENT_OUTPUT);
+			// set writer flush after writer value
+			mapper.enable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+		} else {
+			mapper.disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+		}
 		// to allow serialization of "empty" POJOs (no properties to serialize)
 		// (without this setting, an exception is thrown in those cases)
 		mapper.disable(SerializationFeature.FAIL_ON_EMPTY_BEANS);
-		// set writer flush after writer value
-		mapper.enable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
 		// ObjectMapper will call close() and root values that implement
 		// java.io.Closeable;
 		// including cases where exception is thrown and serialization does not
@@ -120,6 +298,10 @@ public class JsonUtil {
 		mapper.disable(DeserializationFeature.READ_DATE_TIMESTAMPS_AS_NANOSECONDS);
 		// to allow coercion of JSON empty String ("") to null Object value:
 		mapper.enable(DeserializationFeature.ACCEPT_EMPTY_STRING_AS_NULL_OBJECT);
+		if (profile == Profile.LENIENT) {
+			// to read "value" as ["value"]
+			mapper.enable(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY);
+		}
 		DateFormat df = new SimpleDateFormat("yyyyMMddHHmmssSSS");
 		// Set Default date fromat
 		mapper.setDateFormat(df);
@@ -129,31 +311,49 @@ public class JsonUtil {
 	}
 
 	/**
-	 * return a JsonFactory if exist,else new JsonFactory
+	 * return the shared JsonFactory of the default profile
 	 * 
 	 * @return JsonFactory
 	 */
 	public static JsonFactory getJsonFactory() {
+		return getJsonFactory(null);
+	}
 
-		JsonFactory jsonFactory = threadJsonFactory.get();
-		if (jsonFactory == null) {
-			jsonFactory = new JsonFactory();
-			// JsonParser.Feature for configuring parsing settings:
-			// to allow C/C++ style comments in JSON (non-standard, disabled by
-			// default)
-			jsonFactory.enable(JsonParser.Feature.ALLOW_COMMENTS);
-			// to allow (non-standard) unquoted field names in JSON:
-			jsonFactory.disable(JsonParser.Feature.ALLOW_UNQUOTED_FIELD_NAMES);
-			// to allow use of apostrophes (single quotes), non standard
-			jsonFactory.disable(JsonParser.Feature.ALLOW_SINGLE_QUOTES);
-
-			// JsonGenerator.Feature for configuring low-level JSON generation:
-
-			// no escaping of non-ASCII characters:
-			jsonFactory.disable(JsonGenerator.Feature.ESCAPE_NON_ASCII);
-			threadJsonFactory.set(jsonFactory);
+	/**
+	 * return the shared JsonFactory of the profile
+	 * 
+	 * @param profile profile,null means the default
+	 * @return JsonFactory
+	 */
+	public static JsonFactory getJsonFactory(Profile profile) {
+		return codecOf(profile).mapper.getFactory();
+	}
 
-		}
+	/**
+	 * Initialize json factory
+	 * 
+	 * @param profile profile
+	 * @return initialized {@link JsonFactory}
+	 */
+	private static JsonFactory initJsonFactory(Profile profile) {
+		JsonFactory jsonFactory = new JsonFactory();
+		boolean lenient = profile == Profile.LENIENT;
+		// JsonParser.Feature for configuring parsing settings:
+		// to allow C/C++ style comments in JSON (non-standard, disabled by
+		// default)
+		jsonFactory.enable(JsonParser.Feature.ALLOW_COMMENTS);
+		// to allow (non-standard) unquoted field names in JSON:
+		jsonFactory.configure(JsonParser.Feature.ALLOW_UNQUOTED_FIELD_NAMES, lenient);
+		// to allow use of apostrophes (single quotes), non standard
+		jsonFactory.configure(JsonParser.Feature.ALLOW_SINGLE_QUOTES, lenient);
+		// to allow raw tabs and new lines in strings, NaN and Infinity
+		jsonFactory.configure(JsonParser.Feature.ALLOW_UNQUOTED_CONTROL_CHARS, lenient);
+		jsonFactory.configure(JsonParser.Feature.ALLOW_NON_NUMERIC_NUMBERS, lenient);
+
+		// JsonGenerator.Feature for configuring low-level JSON generation:
+
+		// no escaping of non-ASCII characters:
+		jsonFactory.disable(JsonGenerator.Feature.ESCAPE_NON_ASCII);
 		return jsonFactory;
 	}
 
@@ -297,6 +497,37 @@ public class JsonUtil {
 
 	}
 
+	/**
+	 * Json string to java bean <br>
+	 * <p>
+	 * List,Array,Map
+	 * </p>
+	 * <pre>
+	 * clazz= new TypeReference&lt;List&lt;MyBean&gt;&gt;(){};
+	 * 
+	 * e.g:
+	 * toBean(jsonStream,new TypeReference&lt;List&lt;MyBean&gt;&gt;(){})
+	 * 
+	 * toBean(jsonStream, MyBean[])
+	 * 
+	 * toBean(jsonStream, new TypeReference&lt;Map&lt;String, Map&lt;String, MyBean&gt;&gt;(){})
+	 * </pre>
+	 * <p>
+	 * The stream is decoded as it is read, it is closed when done
+	 * </p>
+	 * 
+	 * @param jsonStream json input stream
+	 * @param valueTypeRef value type ref
+	 * @param <T> t                        
+	 * @return bean
+	 */
+	public static <T> T toBean(InputStream jsonStream, TypeReference<T> valueTypeRef) {
+		if (valueTypeRef == null || jsonStream == null)
+			return null;
+		return toBean(new MyJsonParser(jsonStream), valueTypeRef);
+
+	}
+
 	/**
 	 * Json string to java bean <br>
 	 * <p>
@@ -344,7 +575,7 @@ public class JsonUtil {
 
 		T obj = null;
 		try {
-			obj = getMapper().readValue(jsonParser, valueTypeRef);
+			obj = readerFor(valueTypeRef).readValue(jsonParser);
 		} catch (JsonParseException e) {
 			log.error("{}", e.getMessage(), e);
 		} catch (JsonMappingException e) {
@@ -480,6 +711,30 @@ public class JsonUtil {
 
 	}
 
+	/**
+	 * Json string to java bean <br>
+	 * <p>
+	 * e.g:
+	 * </p>
+	 * <pre>
+	 * {"id" : idValue, "name" : nameValue, "aBean" : {"aBeanId" : aBeanIdValue, ...}} 
+	 * </pre>
+	 * <p>
+	 * List,Array,Map... see {@link #toBean(InputStream, TypeReference)}
+	 * </p>
+	 * 
+	 * @param jsonStream json input stream
+	 * @param clazz class
+	 * @param <T> t                  
+	 * @return bean
+	 */
+	public static <T> T toBean(InputStream jsonStream, Class<T> clazz) {
+		if (clazz == null || jsonStream == null)
+			return null;
+		return toBean(new MyJsonParser(jsonStream), clazz);
+
+	}
+
 	/**
 	 * Json string to java bean <br>
 	 * <p>
@@ -521,7 +776,7 @@ public class JsonUtil {
 
 		T obj = null;
 		try {
-			obj = getMapper().readValue(jsonParser, clazz);
+			obj = readerFor(clazz).readValue(jsonParser);
 		} catch (JsonParseException e) {
 			log.error("{}", e.getMessage(), e);
 		} catch (JsonMappingException e) {
@@ -538,6 +793,100 @@ public class JsonUtil {
 
 	}
 
+	/**
+	 * Json string to java bean with the mapper of the profile
+	 * 
+	 * @param jsonStr json String
+	 * @param clazz class
+	 * @param profile profile,null means the default
+	 * @param <T> t
+	 * @return bean
+	 * @see #toBean(String, Class)
+	 */
+	public static <T> T toBean(String jsonStr, Class<T> clazz, Profile profile) {
+		if (clazz == null || jsonStr == null)
+			return null;
+		return toBean(createParser(jsonStr, profile), readerFor(clazz, profile));
+	}
+
+	/**
+	 * Json string to java bean with the mapper of the profile
+	 * 
+	 * @param jsonStr json String
+	 * @param valueTypeRef value type ref
+	 * @param profile profile,null means the default
+	 * @param <T> t
+	 * @return bean
+	 * @see #toBean(String, TypeReference)
+	 */
+	public static <T> T toBean(String jsonStr, TypeReference<T> valueTypeRef, Profile profile) {
+		if (valueTypeRef == null || jsonStr == null)
+			return null;
+		return toBean(createParser(jsonStr, profile), readerFor(valueTypeRef, profile));
+	}
+
+	/**
+	 * Json bytes to java bean with the mapper of the profile
+	 * 
+	 * @param jsonBytes json bytes
+	 * @param clazz class
+	 * @param profile profile,null means the default
+	 * @param <T> t
+	 * @return bean
+	 * @see #toBean(byte[], Class)
+	 */
+	public static <T> T toBean(byte[] jsonBytes, Class<T> clazz, Profile profile) {
+		if (clazz == null || jsonBytes == null)
+			return null;
+		return toBean(createParser(jsonBytes, profile), readerFor(clazz, profile));
+	}
+
+	/**
+	 * Json bytes to java bean with the mapper of the profile
+	 * 
+	 * @param jsonBytes json bytes
+	 * @param valueTypeRef value type ref
+	 * @param profile profile,null means the default
+	 * @param <T> t
+	 * @return bean
+	 * @see #toBean(byte[], TypeReference)
+	 */
+	public static <T> T toBean(byte[] jsonBytes, TypeReference<T> valueTypeRef, Profile profile) {
+		if (valueTypeRef == null || jsonBytes == null)
+			return null;
+		return toBean(createParser(jsonBytes, profile), readerFor(valueTypeRef, profile));
+	}
+
+	private static JsonParser createParser(Object json, Profile profile) {
+		try {
+			if (json instanceof String) {
+				return getJsonFactory(profile).createParser((String) json);
+			}
+			return getJsonFactory(profile).createParser((byte[]) json);
+		} catch (IOException e) {
+			log.error("{}", e.getMessage(), e);
+			return null;
+		}
+	}
+
+	private static <T> T toBean(JsonParser jsonParser, ObjectReader reader) {
+		if (jsonParser == null)
+			return null;
+
+		T obj = null;
+		try {
+			obj = reader.readValue(jsonParser);
+		} catch (IOException e) {
+			log.error("{}", e.getMessage(), e);
+		} finally {
+			try {
+				jsonParser.close();
+			} catch (IOException e) {
+			}
+		}
+		return obj;
+	}
+
 	/**
 	 * Bean to json string
 	 * 
@@ -547,68 +896,435 @@ public class JsonUtil {
 	 * @return json string
 	 */
 	public static <T> String toJson(T obj) {
-		StringWriter writer = new StringWriter();
-		String jsonStr = "";
-		JsonGenerator gen = null;
-		try {
-			gen = getJsonFactory().createGenerator(writer);
-			getMapper().writeValue(gen, obj);
-			writer.flush();
-			jsonStr = writer.toString();
+		return toJson(obj, (Profile) null);
+	}
 
+	/**
+	 * Bean to json string with the mapper of the profile
+	 * 
+	 * @param obj obj
+	 *            bean object
+	 * @param profile profile,null means the default
+	 * @param <T> t
+	 * @return json string
+	 */
+	public static <T> String toJson(T obj, Profile profile) {
+		Codec codec = codecOf(profile);
+		try {
+			if (obj == null) {
+				return codec.mapper.writeValueAsString(obj);
+			}
+			return codec.writerOf(obj.getClass()).writeValueAsString(obj);
 		} catch (IOException e) {
 			log.error("{}", e.getMessage(), e);
-		} finally {
-			if (gen != null) {
-				try {
-					gen.close();
-				} catch (IOException e) {
-				}
-			}
-
 		}
-		return jsonStr;
+		return "";
 	}
 
 	/**
-	 * JsonParser Helper<br> provide to
-	 * {@link JsonUtil#toBean(MyJsonParser, Class)} and
-	 * {@link JsonUtil#toBean(MyJsonParser, TypeReference)}
+	 * Bean to UTF-8 json bytes,no intermediate String
+	 * 
+	 * @param obj obj
+	 *            bean object
+	 * @param <T> t
+	 * @return json bytes,empty if the bean can not be written
 	 */
-	protected static class MyJsonParser {
-
-		// ~ Instance fields ==================================================
-
-		/**
-		 * JsonParser
-		 */
-		private JsonParser jsonParser;
-
-		// ~ Constructors ==================================================
+	public static <T> byte[] toJsonBytes(T obj) {
+		return toJsonBytes(obj, null);
+	}
 
-		/**
-		 * Set jsonParser from {@link JsonFactory#createParser(File)}
-		 * 
-		 * @param obj obj
-		 */
-		public MyJsonParser(File obj) {
-			try {
-				this.jsonParser = getJsonFactory().createParser(obj);
-			} catch (JsonParseException e) {
-				log.error("{}", e.getMessage(), e);
-			} catch (IOException e) {
-				log.error("{}", e.getMessage(), e);
+	/**
+	 * Bean to UTF-8 json bytes with the mapper of the profile
+	 * 
+	 * @param obj obj
+	 *            bean object
+	 * @param profile profile,null means the default
+	 * @param <T> t
+	 * @return json bytes,empty if the bean can not be written
+	 */
+	public static <T> byte[] toJsonBytes(T obj, Profile profile) {
+		Codec codec = codecOf(profile);
+		try {
+			if (obj == null) {
+				return codec.mapper.writeValueAsBytes(obj);
 			}
+			return codec.writerOf(obj.getClass()).writeValueAsBytes(obj);
+		} catch (IOException e) {
+			log.error("{}", e.getMessage(), e);
 		}
+		return new byte[0];
+	}
 
-		/**
-		 * Set jsonParser from {@link JsonFactory#createParser(Reader)}
-		 * 
-		 * @param obj obj
-		 */
-		public MyJsonParser(Reader obj) {
-			try {
-				this.jsonParser = getJsonFactory().createParser(obj);
+	/**
+	 * Write bean as UTF-8 json to the stream
+	 * <p>
+	 * Bytes are encoded straight into the stream through the recycled
+	 * buffer of the generator, the stream is flushed but not closed
+	 * </p>
+	 * 
+	 * @param obj obj
+	 *            bean object
+	 * @param out output stream
+	 * @param <T> t
+	 * @throws IOException if the bean can not be written
+	 */
+	public static <T> void toJson(T obj, OutputStream out) throws IOException {
+		toJson(obj, out, null);
+	}
+
+	/**
+	 * Write bean as UTF-8 json to the stream with the mapper of the profile
+	 * 
+	 * @param obj obj
+	 *            bean object
+	 * @param out output stream
+	 * @param profile profile,null means the default
+	 * @param <T> t
+	 * @throws IOException if the bean can not be written
+	 * @see #toJson(Object, OutputStream)
+	 */
+	public static <T> void toJson(T obj, OutputStream out, Profile profile) throws IOException {
+		writeValue(getJsonFactory(profile).createGenerator(out, JsonEncoding.UTF8), obj, profile);
+	}
+
+	/**
+	 * Write bean as json to the writer,flushed but not closed
+	 * 
+	 * @param obj obj
+	 *            bean object
+	 * @param out writer
+	 * @param <T> t
+	 * @throws IOException if the bean can not be written
+	 */
+	public static <T> void toJson(T obj, Writer out) throws IOException {
+		toJson(obj, out, null);
+	}
+
+	/**
+	 * Write bean as json to the writer with the mapper of the profile
+	 * 
+	 * @param obj obj
+	 *            bean object
+	 * @param out writer
+	 * @param profile profile,null means the default
+	 * @param <T> t
+	 * @throws IOException if the bean can not be written
+	 * @see #toJson(Object, Writer)
+	 */
+	public static <T> void toJson(T obj, Writer out, Profile profile) throws IOException {
+		writeValue(getJsonFactory(profile).createGenerator(out), obj, profile);
+	}
+
+	/**
+	 * Write bean as UTF-8 json into the buffer from its position
+	 * 
+	 * @param obj obj
+	 *            bean object
+	 * @param buffer buffer,its position is moved past the json
+	 * @param <T> t
+	 * @return bytes written
+	 * @throws IOException if the bean can not be written or does not fit,the
+	 *             position is then left unchanged
+	 */
+	public static <T> int toJson(T obj, ByteBuffer buffer) throws IOException {
+		return toJson(obj, buffer, null);
+	}
+
+	/**
+	 * Write bean as UTF-8 json into the buffer with the mapper of the profile
+	 * 
+	 * @param obj obj
+	 *            bean object
+	 * @param buffer buffer,its position is moved past the json
+	 * @param profile profile,null means the default
+	 * @param <T> t
+	 * @return bytes written
+	 * @throws IOException if the bean can not be written or does not fit,the
+	 *             position is then left unchanged
+	 * @see #toJson(Object, ByteBuffer)
+	 */
+	public static <T> int toJson(T obj, final ByteBuffer buffer, Profile profile) throws IOException {
+		int start = buffer.position();
+		OutputStream out = new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				if (!buffer.hasRemaining()) {
+					throw new IOException("Json exceeds the buffer");
+				}
+				buffer.put((byte) b);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				if (buffer.remaining() < len) {
+					throw new IOException("Json exceeds the buffer");
+				}
+				buffer.put(b, off, len);
+			}
+		};
+		try {
+			toJson(obj, out, profile);
+		} catch (IOException e) {
+			buffer.position(start);
+			throw e;
+		}
+		return buffer.position() - start;
+	}
+
+	private static void writeValue(JsonGenerator gen, Object obj, Profile profile) throws IOException {
+		// the target belongs to the caller
+		gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+		try {
+			if (obj == null) {
+				codecOf(profile).mapper.writeValue(gen, obj);
+			} else {
+				codecOf(profile).writerOf(obj.getClass()).writeValue(gen, obj);
+			}
+		} finally {
+			gen.close();
+		}
+	}
+
+	/**
+	 * Iterate the elements of a json array file,one bound at a time
+	 * <pre>
+	 * JsonUtil.ArrayIterator&lt;MyBean&gt; it = JsonUtil.streamArray(file, MyBean.class);
+	 * try {
+	 *     while (it.hasNext()) {
+	 *         save(it.next());
+	 *     }
+	 * } finally {
+	 *     it.close();
+	 * }
+	 * </pre>
+	 * <p>
+	 * Only the current element is held in memory, whatever the size of the
+	 * file
+	 * </p>
+	 * 
+	 * @param jsonFile json file,its root must be an array
+	 * @param clazz element class
+	 * @param <T> t
+	 * @return {@link ArrayIterator},close it if not read to the end
+	 * @throws IOException if the file can not be read or is not an array
+	 */
+	public static <T> ArrayIterator<T> streamArray(File jsonFile, Class<T> clazz) throws IOException {
+		return new ArrayIterator<T>(getJsonFactory().createParser(jsonFile), readerFor(clazz));
+	}
+
+	/**
+	 * Iterate the elements of a json array file,one bound at a time
+	 * 
+	 * @param jsonFile json file,its root must be an array
+	 * @param valueTypeRef element type ref
+	 * @param <T> t
+	 * @return {@link ArrayIterator},close it if not read to the end
+	 * @throws IOException if the file can not be read or is not an array
+	 * @see #streamArray(File, Class)
+	 */
+	public static <T> ArrayIterator<T> streamArray(File jsonFile, TypeReference<T> valueTypeRef)
+			throws IOException {
+		return new ArrayIterator<T>(getJsonFactory().createParser(jsonFile), readerFor(valueTypeRef));
+	}
+
+	/**
+	 * Iterate the elements of a json array stream,one bound at a time,the
+	 * stream is closed with the iterator
+	 * 
+	 * @param jsonStream json input stream,its root must be an array
+	 * @param clazz element class
+	 * @param <T> t
+	 * @return {@link ArrayIterator},close it if not read to the end
+	 * @throws IOException if the stream can not be read or is not an array
+	 * @see #streamArray(File, Class)
+	 */
+	public static <T> ArrayIterator<T> streamArray(InputStream jsonStream, Class<T> clazz) throws IOException {
+		return new ArrayIterator<T>(getJsonFactory().createParser(jsonStream), readerFor(clazz));
+	}
+
+	/**
+	 * Iterate the elements of a json array stream,one bound at a time,the
+	 * stream is closed with the iterator
+	 * 
+	 * @param jsonStream json input stream,its root must be an array
+	 * @param valueTypeRef element type ref
+	 * @param <T> t
+	 * @return {@link ArrayIterator},close it if not read to the end
+	 * @throws IOException if the stream can not be read or is not an array
+	 * @see #streamArray(File, Class)
+	 */
+	public static <T> ArrayIterator<T> streamArray(InputStream jsonStream, TypeReference<T> valueTypeRef)
+			throws IOException {
+		return new ArrayIterator<T>(getJsonFactory().createParser(jsonStream), readerFor(valueTypeRef));
+	}
+
+	/**
+	 * Read json lines (NDJSON),one record per line,on the calling thread
+	 * 
+	 * @param jsonStream json lines input stream,closed with the iterator
+	 * @param clazz record class
+	 * @param <T> t
+	 * @return {@link LinesIterator},close it if not read to the end
+	 * @see #readLines(InputStream, Class, ExecutorService, boolean)
+	 */
+	public static <T> LinesIterator<T> readLines(InputStream jsonStream, Class<T> clazz) {
+		return readLines(jsonStream, clazz, null, true);
+	}
+
+	/**
+	 * Read json lines (NDJSON),one record per line
+	 * <p>
+	 * The stream is cut into chunks at line ends and the chunks are decoded
+	 * on the executor, a few chunks ahead of the reader. Records keep the
+	 * order of the lines if ordered, else chunks are returned as soon as
+	 * they are decoded. Blank lines are skipped.
+	 * </p>
+	 * <pre>
+	 * ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+	 * JsonUtil.LinesIterator&lt;Event&gt; it = JsonUtil.readLines(in, Event.class, pool, false);
+	 * try {
+	 *     while (it.hasNext()) {
+	 *         ingest(it.next());
+	 *     }
+	 * } finally {
+	 *     it.close();
+	 * }
+	 * </pre>
+	 * 
+	 * @param jsonStream json lines input stream,closed with the iterator
+	 * @param clazz record class
+	 * @param executor executor of the decoding,null means the calling thread
+	 * @param ordered true to keep the order of the lines
+	 * @param <T> t
+	 * @return {@link LinesIterator},close it if not read to the end
+	 */
+	public static <T> LinesIterator<T> readLines(InputStream jsonStream, Class<T> clazz, ExecutorService executor,
+			boolean ordered) {
+		return new LinesIterator<T>(jsonStream, readerFor(clazz), executor, ordered, LinesIterator.DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Read json lines (NDJSON),one record per line,on the calling thread
+	 * 
+	 * @param jsonStream json lines input stream,closed with the iterator
+	 * @param valueTypeRef record type ref
+	 * @param <T> t
+	 * @return {@link LinesIterator},close it if not read to the end
+	 * @see #readLines(InputStream, Class, ExecutorService, boolean)
+	 */
+	public static <T> LinesIterator<T> readLines(InputStream jsonStream, TypeReference<T> valueTypeRef) {
+		return readLines(jsonStream, valueTypeRef, null, true);
+	}
+
+	/**
+	 * Read json lines (NDJSON),one record per line
+	 * 
+	 * @param jsonStream json lines input stream,closed with the iterator
+	 * @param valueTypeRef record type ref
+	 * @param executor executor of the decoding,null means the calling thread
+	 * @param ordered true to keep the order of the lines
+	 * @param <T> t
+	 * @return {@link LinesIterator},close it if not read to the end
+	 * @see #readLines(InputStream, Class, ExecutorService, boolean)
+	 */
+	public static <T> LinesIterator<T> readLines(InputStream jsonStream, TypeReference<T> valueTypeRef,
+			ExecutorService executor, boolean ordered) {
+		return new LinesIterator<T>(jsonStream, readerFor(valueTypeRef), executor, ordered,
+				LinesIterator.DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Write json lines (NDJSON) to the stream,see {@link LinesWriter}
+	 * 
+	 * @param out output stream,closed with the writer
+	 * @return {@link LinesWriter}
+	 * @throws IOException if the stream can not be written
+	 */
+	public static LinesWriter writeLines(OutputStream out) throws IOException {
+		return new LinesWriter(out);
+	}
+
+	/**
+	 * Mapper of a profile with its readers and writers
+	 */
+	private static class Codec {
+
+		private final ObjectMapper mapper;
+		/**
+		 * ObjectReader by value type
+		 */
+		private final ConcurrentMap<Type, ObjectReader> readers = new ConcurrentHashMap<Type, ObjectReader>();
+		/**
+		 * ObjectWriter by value class
+		 */
+		private final ConcurrentMap<Class<?>, ObjectWriter> writers = new ConcurrentHashMap<Class<?>, ObjectWriter>();
+
+		Codec(ObjectMapper mapper) {
+			this.mapper = mapper;
+		}
+
+		ObjectReader readerOf(Type type) {
+			ObjectReader reader = readers.get(type);
+			if (reader == null) {
+				reader = mapper.reader(mapper.getTypeFactory().constructType(type));
+				if (readers.size() < CACHE_SIZE) {
+					readers.putIfAbsent(type, reader);
+				}
+			}
+			return reader;
+		}
+
+		ObjectWriter writerOf(Class<?> type) {
+			ObjectWriter writer = writers.get(type);
+			if (writer == null) {
+				writer = mapper.writerFor(type);
+				if (writers.size() < CACHE_SIZE) {
+					writers.putIfAbsent(type, writer);
+				}
+			}
+			return writer;
+		}
+	}
+
+	/**
+	 * JsonParser Helper<br> provide to
+	 * {@link JsonUtil#toBean(MyJsonParser, Class)} and
+	 * {@link JsonUtil#toBean(MyJsonParser, TypeReference)}
+	 */
+	protected static class MyJsonParser {
+
+		// ~ Instance fields ==================================================
+
+		/**
+		 * JsonParser
+		 */
+		private JsonParser jsonParser;
+
+		// ~ Constructors ==================================================
+
+		/**
+		 * Set jsonParser from {@link JsonFactory#createParser(File)}
+		 * 
+		 * @param obj obj
+		 */
+		public MyJsonParser(File obj) {
+			try {
+				this.jsonParser = getJsonFactory().createParser(obj);
+			} catch (JsonParseException e) {
+				log.error("{}", e.getMessage(), e);
+			} catch (IOException e) {
+				log.error("{}", e.getMessage(), e);
+			}
+		}
+
+		/**
+		 * Set jsonParser from {@link JsonFactory#createParser(Reader)}
+		 * 
+		 * @param obj obj
+		 */
+		public MyJsonParser(Reader obj) {
+			try {
+				this.jsonParser = getJsonFactory().createParser(obj);
 			} catch (JsonParseException e) {
 				log.error("{}", e.getMessage(), e);
 			} catch (IOException e) {
@@ -689,4 +1405,428 @@ public class JsonUtil {
 
 	}
 
+	/**
+	 * Elements of a json array bound one at a time,see
+	 * {@link JsonUtil#streamArray(File, Class)}
+	 * <p>
+	 * The parser is closed at the end of the array,on an error or by
+	 * {@link #close()}. Errors while reading are thrown as
+	 * {@link IllegalStateException}.
+	 * </p>
+	 * 
+	 * @param <T> element type
+	 */
+	public static class ArrayIterator<T> implements Iterator<T>, Closeable {
+
+		// ~ Instance fields ==================================================
+
+		private final JsonParser jsonParser;
+
+		private final ObjectReader reader;
+
+		private T next;
+
+		private boolean ready;
+
+		private boolean done;
+
+		// ~ Constructors ==================================================
+
+		/**
+		 * Create
+		 * 
+		 * @param jsonParser parser before the array
+		 * @param reader reader of the elements
+		 * @throws IOException if the root is not an array
+		 */
+		public ArrayIterator(JsonParser jsonParser, ObjectReader reader) throws IOException {
+			this.jsonParser = jsonParser;
+			this.reader = reader;
+			try {
+				if (jsonParser.nextToken() != JsonToken.START_ARRAY) {
+					throw new JsonParseException("Expected a json array", jsonParser.getCurrentLocation());
+				}
+			} catch (IOException e) {
+				close();
+				throw e;
+			}
+		}
+
+		// ~ Methods ==================================================
+
+		@Override
+		public boolean hasNext() {
+			if (ready) {
+				return true;
+			}
+			if (done) {
+				return false;
+			}
+			try {
+				JsonToken token = jsonParser.nextToken();
+				if (token == null || token == JsonToken.END_ARRAY) {
+					close();
+					return false;
+				}
+				next = reader.readValue(jsonParser);
+				ready = true;
+				return true;
+			} catch (IOException e) {
+				closeQuietly();
+				throw new IllegalStateException(e.getMessage(), e);
+			}
+		}
+
+		@Override
+		public T next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			T value = next;
+			next = null;
+			ready = false;
+			return value;
+		}
+
+		/**
+		 * Not supported
+		 */
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void close() throws IOException {
+			done = true;
+			ready = false;
+			next = null;
+			jsonParser.close();
+		}
+
+		private void closeQuietly() {
+			try {
+				close();
+			} catch (IOException e) {
+			}
+		}
+
+	}
+
+	/**
+	 * Records of json lines,see
+	 * {@link JsonUtil#readLines(InputStream, Class, ExecutorService, boolean)}
+	 * <p>
+	 * At most two chunks per processor are read ahead. The stream is closed
+	 * at its end,on an error or by {@link #close()}, which also cancels the
+	 * chunks not yet decoded. Errors are thrown as
+	 * {@link IllegalStateException}.
+	 * </p>
+	 * 
+	 * @param <T> record type
+	 */
+	public static class LinesIterator<T> implements Iterator<T>, Closeable {
+
+		// ~ Instance fields ==================================================
+
+		/**
+		 * Bytes read per chunk,a longer line grows its chunk
+		 */
+		public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+		private final InputStream in;
+
+		private final ObjectReader reader;
+
+		private final ExecutorService executor;
+
+		private final CompletionService<List<T>> completion;
+
+		private final LinkedList<Future<List<T>>> futures = new LinkedList<Future<List<T>>>();
+
+		private final int maxChunks = Runtime.getRuntime().availableProcessors() * 2;
+
+		private byte[] buf;
+
+		private int len;
+
+		private boolean eof;
+
+		private boolean closed;
+
+		private Iterator<T> current = Collections.<T> emptyList().iterator();
+
+		// ~ Constructors ==================================================
+
+		/**
+		 * Create
+		 * 
+		 * @param in json lines input stream
+		 * @param reader reader of the records
+		 * @param executor executor of the decoding,null means the calling thread
+		 * @param ordered true to keep the order of the lines
+		 * @param chunkSize bytes read per chunk
+		 */
+		public LinesIterator(InputStream in, ObjectReader reader, ExecutorService executor, boolean ordered,
+				int chunkSize) {
+			if (chunkSize <= 0) {
+				throw new IllegalArgumentException("Chunk size must be positive");
+			}
+			this.in = in;
+			this.reader = reader;
+			this.executor = executor;
+			this.completion = executor == null || ordered ? null : new ExecutorCompletionService<List<T>>(executor);
+			this.buf = new byte[chunkSize];
+		}
+
+		// ~ Methods ==================================================
+
+		@Override
+		public boolean hasNext() {
+			try {
+				while (!current.hasNext()) {
+					if (closed) {
+						return false;
+					}
+					if (executor == null) {
+						Callable<List<T>> task = nextChunk();
+						if (task == null) {
+							close();
+							return false;
+						}
+						current = task.call().iterator();
+						continue;
+					}
+					Callable<List<T>> task;
+					while (futures.size() < maxChunks && (task = nextChunk()) != null) {
+						futures.add(completion == null ? executor.submit(task) : completion.submit(task));
+					}
+					if (futures.isEmpty()) {
+						close();
+						return false;
+					}
+					Future<List<T>> future;
+					if (completion == null) {
+						future = futures.removeFirst();
+					} else {
+						future = completion.take();
+						futures.remove(future);
+					}
+					current = future.get().iterator();
+				}
+				return true;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				closeQuietly();
+				throw new IllegalStateException("Interrupted", e);
+			} catch (ExecutionException e) {
+				closeQuietly();
+				throw new IllegalStateException(e.getCause().getMessage(), e.getCause());
+			} catch (Exception e) {
+				closeQuietly();
+				throw new IllegalStateException(e.getMessage(), e);
+			}
+		}
+
+		@Override
+		public T next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return current.next();
+		}
+
+		/**
+		 * Not supported
+		 */
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		/**
+		 * Read up to the last line end of a full buffer
+		 * 
+		 * @return decoding of the chunk,null at the end
+		 * @throws IOException if the stream can not be read
+		 */
+		private Callable<List<T>> nextChunk() throws IOException {
+			while (true) {
+				while (!eof && len < buf.length) {
+					int n = in.read(buf, len, buf.length - len);
+					if (n < 0) {
+						eof = true;
+					} else {
+						len += n;
+					}
+				}
+				if (len == 0) {
+					return null;
+				}
+				int end = len;
+				if (!eof) {
+					end = lastLineEnd(buf, len);
+					if (end == 0) {
+						// a line longer than the buffer
+						buf = Arrays.copyOf(buf, buf.length * 2);
+						continue;
+					}
+				}
+				final byte[] chunk = buf;
+				final int size = end;
+				buf = new byte[chunk.length];
+				System.arraycopy(chunk, end, buf, 0, len - end);
+				len -= end;
+				return new Callable<List<T>>() {
+					@Override
+					public List<T> call() throws IOException {
+						return decode(chunk, size);
+					}
+				};
+			}
+		}
+
+		private static int lastLineEnd(byte[] b, int size) {
+			for (int i = size - 1; i >= 0; i--) {
+				if (b[i] == '\n') {
+					return i + 1;
+				}
+			}
+			return 0;
+		}
+
+		private List<T> decode(byte[] b, int size) throws IOException {
+			List<T> records = new ArrayList<T>();
+			int start = 0;
+			for (int i = 0; i <= size; i++) {
+				if (i == size || b[i] == '\n') {
+					if (!isBlank(b, start, i)) {
+						records.add(reader.<T> readValue(b, start, i - start));
+					}
+					start = i + 1;
+				}
+			}
+			return records;
+		}
+
+		private static boolean isBlank(byte[] b, int start, int end) {
+			for (int i = start; i < end; i++) {
+				if (b[i] != ' ' && b[i] != '\t' && b[i] != '\r') {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			for (Future<List<T>> future : futures) {
+				future.cancel(true);
+			}
+			futures.clear();
+			current = Collections.<T> emptyList().iterator();
+			buf = null;
+			in.close();
+		}
+
+		private void closeQuietly() {
+			try {
+				close();
+			} catch (IOException e) {
+			}
+		}
+
+	}
+
+	/**
+	 * Writer of json lines (NDJSON)
+	 * <p>
+	 * Each record is written as compact json and a line end. Records are
+	 * batched in a buffer and reach the stream when it is full, on
+	 * {@link #flush()} or {@link #close()}. Not thread-safe.
+	 * </p>
+	 */
+	public static class LinesWriter implements Closeable, Flushable {
+
+		// ~ Instance fields ==================================================
+
+		/**
+		 * Bytes batched before a write to the stream
+		 */
+		public static final int BUFFER_SIZE = 64 * 1024;
+
+		private final JsonGenerator gen;
+
+		private final Codec codec = codecOf(Profile.COMPACT);
+
+		private long count;
+
+		// ~ Constructors ==================================================
+
+		/**
+		 * Create
+		 * 
+		 * @param out output stream,closed with the writer
+		 * @throws IOException if the stream can not be written
+		 */
+		public LinesWriter(OutputStream out) throws IOException {
+			this.gen = codec.mapper.getFactory().createGenerator(new BufferedOutputStream(out, BUFFER_SIZE),
+					JsonEncoding.UTF8);
+			// lines are ended by write,not separated by the generator
+			gen.setRootValueSeparator(null);
+		}
+
+		// ~ Methods ==================================================
+
+		/**
+		 * Write a record as one line
+		 * 
+		 * @param record record
+		 * @throws IOException if the record can not be written
+		 */
+		public void write(Object record) throws IOException {
+			if (record == null) {
+				codec.mapper.writeValue(gen, record);
+			} else {
+				codec.writerOf(record.getClass()).writeValue(gen, record);
+			}
+			gen.writeRaw('\n');
+			count++;
+		}
+
+		/**
+		 * Write every record,one line each
+		 * 
+		 * @param records records
+		 * @throws IOException if a record can not be written
+		 */
+		public void writeAll(Iterable<?> records) throws IOException {
+			for (Object record : records) {
+				write(record);
+			}
+		}
+
+		/**
+		 * @return records written
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			gen.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			gen.close();
+		}
+
+	}
+
 }
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.conn.DnsResolver;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author RA
+ * @since JDK1.6
+ */
+public class CachingDnsResolverTest {
+
+	private static class CountingResolver implements DnsResolver {
+		
+		final AtomicInteger calls=new AtomicInteger();
+		
+		@Override
+		public InetAddress[] resolve(String host) throws UnknownHostException {
+			calls.incrementAndGet();
+			if(host.startsWith("bad")){
+				throw new UnknownHostException(host);
+			}
+			return new InetAddress[]{InetAddress.getByAddress(host, new byte[]{10,0,0,(byte)calls.get()})};
+		}
+	}
+
+	@Test
+	public void testCache() throws Exception{
+		CountingResolver delegate=new CountingResolver();
+		CachingDnsResolver dns=new CachingDnsResolver(delegate, 200, 100);
+		InetAddress first=dns.resolve("rockagen.com")[0];
+		Assert.assertEquals(first, dns.resolve("ROCKAGEN.com")[0]);
+		Assert.assertEquals(1, delegate.calls.get());
+		for(int i=0;i<2;i++){
+			try{
+				dns.resolve("bad.rockagen.com");
+				Assert.fail();
+			}catch(UnknownHostException e){
+				// cached failure
+			}
+		}
+		Assert.assertEquals(2, delegate.calls.get());
+		Assert.assertEquals(2, dns.size());
+		// refresh ahead,the cached answer is served meanwhile
+		Thread.sleep(160);
+		Assert.assertEquals(first, dns.resolve("rockagen.com")[0]);
+		for(int i=0;i<50 && delegate.calls.get()<3;i++){
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(3, delegate.calls.get());
+		Assert.assertFalse(first.equals(dns.resolve("rockagen.com")[0]));
+		dns.invalidate("rockagen.com");
+		dns.resolve("rockagen.com");
+		Assert.assertEquals(4, delegate.calls.get());
+	}
+	
+	private static class FlakyResolver implements DnsResolver {
+		
+		final AtomicInteger calls=new AtomicInteger();
+		
+		// 0 answers,1 resolver outage,2 unknown host
+		final AtomicInteger mode=new AtomicInteger();
+		
+		@Override
+		public InetAddress[] resolve(String host) throws UnknownHostException {
+			calls.incrementAndGet();
+			if(mode.get()==1){
+				throw new IllegalStateException("outage");
+			}
+			if(mode.get()==2){
+				throw new UnknownHostException(host);
+			}
+			return new InetAddress[]{InetAddress.getByAddress(host, new byte[]{10,0,0,1})};
+		}
+	}
+	
+	@Test
+	public void testStale() throws Exception{
+		// what the system resolver throws on a timeout too
+		assertStale(2, UnknownHostException.class);
+		assertStale(1, IllegalStateException.class);
+	}
+	
+	private void assertStale(int mode, Class<? extends Exception> failure) throws Exception{
+		FlakyResolver delegate=new FlakyResolver();
+		CachingDnsResolver dns=new CachingDnsResolver(delegate, 200, 1000);
+		long start=System.currentTimeMillis();
+		InetAddress first=dns.resolve("rockagen.com")[0];
+		delegate.mode.set(mode);
+		// refreshes fail,the last answer is served
+		while(System.currentTimeMillis()-start<340){
+			Assert.assertEquals(first, dns.resolve("rockagen.com")[0]);
+			Thread.sleep(20);
+		}
+		Assert.assertTrue(delegate.calls.get()>2);
+		// but not past one more TTL
+		Thread.sleep(460-(System.currentTimeMillis()-start));
+		try{
+			dns.resolve("rockagen.com");
+			Assert.fail("stale answer served");
+		}catch(Exception e){
+			// asked again
+			Assert.assertTrue(failure.isInstance(e));
+		}
+	}
+	
+	@Test
+	public void testUnknownOnMiss() throws Exception{
+		FlakyResolver delegate=new FlakyResolver();
+		delegate.mode.set(2);
+		CachingDnsResolver dns=new CachingDnsResolver(delegate, 200, 1000);
+		for(int i=0;i<2;i++){
+			try{
+				dns.resolve("rockagen.com");
+				Assert.fail("unknown host served");
+			}catch(UnknownHostException e){
+				// cached failure
+			}
+		}
+		Assert.assertEquals(1, delegate.calls.get());
+	}
+	
+	@Test
+	public void testPurge() throws Exception{
+		CountingResolver delegate=new CountingResolver();
+		CachingDnsResolver dns=new CachingDnsResolver(delegate, 100, 100);
+		for(int i=0;i<10;i++){
+			dns.resolve("host"+i+".rockagen.com");
+		}
+		Assert.assertEquals(10, dns.size());
+		Thread.sleep(150);
+		// a miss purges the expired answers
+		dns.resolve("rockagen.com");
+		Assert.assertEquals(1, dns.size());
+	}
+	
+	@Test
+	public void testOverride() throws Exception{
+		CountingResolver delegate=new CountingResolver();
+		CachingDnsResolver dns=new CachingDnsResolver(delegate, 1000, 0);
+		InetAddress local=InetAddress.getByName("127.0.0.1");
+		dns.override("bad.rockagen.com", local);
+		Assert.assertEquals(local, dns.resolve("bad.rockagen.com")[0]);
+		Assert.assertEquals(0, delegate.calls.get());
+		dns.removeOverride("bad.rockagen.com");
+		Assert.assertEquals(1, dns.preResolve("a.rockagen.com", "bad.rockagen.com"));
+		Assert.assertEquals(2, delegate.calls.get());
+		dns.resolve("a.rockagen.com");
+		Assert.assertEquals(2, delegate.calls.get());
+	}
+	
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author RA
+ * @since JDK1.6
+ */
+public class CircuitBreakerTest {
+
+	@Test
+	public void testStates() throws InterruptedException{
+		CircuitBreaker cb=new CircuitBreaker(4, 4, 0.5f, 50, 2);
+		// below minimum calls
+		for(int i=0;i<3;i++){
+			Assert.assertTrue(cb.tryAcquire());
+			cb.onFailure();
+		}
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, cb.getState());
+		Assert.assertTrue(cb.tryAcquire());
+		cb.onSuccess();
+		// 3 of 4 failed
+		Assert.assertEquals(0.75f, cb.getFailureRate(), 0.001);
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, cb.getState());
+		Assert.assertTrue(cb.tryAcquire());
+		cb.onFailure();
+		Assert.assertEquals(CircuitBreaker.State.OPEN, cb.getState());
+		Assert.assertFalse(cb.tryAcquire());
+
+		Thread.sleep(60);
+		// two probes only
+		Assert.assertTrue(cb.tryAcquire());
+		Assert.assertTrue(cb.tryAcquire());
+		Assert.assertFalse(cb.tryAcquire());
+		cb.onSuccess();
+		cb.onFailure();
+		Assert.assertEquals(CircuitBreaker.State.OPEN, cb.getState());
+
+		Thread.sleep(60);
+		Assert.assertTrue(cb.tryAcquire());
+		cb.onSuccess();
+		Assert.assertTrue(cb.tryAcquire());
+		cb.onSuccess();
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, cb.getState());
+		Assert.assertEquals(0f, cb.getFailureRate(), 0.001);
+	}
+
+	@Test
+	public void testBackoff(){
+		RetryPolicy rp=new RetryPolicy(3, 100, 250, false);
+		for(int i=0;i<100;i++){
+			Assert.assertTrue(rp.backoff(0) < 100);
+			Assert.assertTrue(rp.backoff(5) < 250);
+		}
+		Assert.assertTrue(rp.isRetryable(503));
+		Assert.assertFalse(rp.isRetryable(500));
+	}
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author RA
+ * @since JDK1.6
+ */
+public class ConcurrencyLimiterTest {
+
+	private static final long MS=TimeUnit.MILLISECONDS.toNanos(1);
+
+	@Test
+	public void testAimd() throws InterruptedException{
+		ConcurrencyLimiter cl=new ConcurrencyLimiter(4, 1, 8, 0, 2.0, 0.5, 1000);
+		for(int i=0;i<4;i++){
+			Assert.assertTrue(cl.acquire(0));
+		}
+		// shed,no queue
+		Assert.assertFalse(cl.acquire(100));
+		Assert.assertEquals(4, cl.getInFlight());
+		// fast answers under load grow the limit
+		for(int i=0;i<100;i++){
+			cl.onSuccess(10*MS);
+			Assert.assertTrue(cl.acquire(0));
+		}
+		Assert.assertEquals(8, cl.getLimit());
+		// latency doubled,then drops of calls started since
+		cl.onSuccess(30*MS);
+		Assert.assertEquals(4, cl.getLimit());
+		cl.onDropped(0);
+		Assert.assertEquals(2, cl.getLimit());
+		for(int i=0;i<10;i++){
+			cl.onDropped(0);
+		}
+		Assert.assertEquals(1, cl.getLimit());
+		Assert.assertEquals(0, cl.getInFlight());
+	}
+	
+	@Test
+	public void testCutOncePerRoundTrip() throws InterruptedException{
+		ConcurrencyLimiter cl=new ConcurrencyLimiter(200, 1, 200, 0, 2.0, 0.9, 1000);
+		for(int i=0;i<51;i++){
+			Assert.assertTrue(cl.acquire(0));
+		}
+		cl.onSuccess(10*MS);
+		// one latency spike over every call in flight
+		for(int i=0;i<50;i++){
+			cl.onSuccess(100*MS);
+		}
+		Assert.assertEquals(180, cl.getLimit());
+		Assert.assertEquals(0, cl.getInFlight());
+		// a call started after the cut cuts again
+		Thread.sleep(5);
+		Assert.assertTrue(cl.acquire(0));
+		cl.onDropped(MS);
+		Assert.assertEquals(162, cl.getLimit());
+	}
+	
+	@Test
+	public void testQueue() throws InterruptedException{
+		final ConcurrencyLimiter cl=new ConcurrencyLimiter(1, 1, 1, 1, 2.0, 0.9, 1000);
+		Assert.assertTrue(cl.acquire(0));
+		Thread t=new Thread(){
+			@Override
+			public void run() {
+				try{
+					Thread.sleep(50);
+				}catch(InterruptedException e){
+					// ignore
+				}
+				cl.onIgnored();
+			}
+		};
+		t.start();
+		// queued until released
+		Assert.assertTrue(cl.acquire(2000));
+		Assert.assertFalse(cl.acquire(20));
+		cl.onIgnored();
+		t.join();
+	}
+	
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.http.Consts;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author RA
+ * @since JDK1.6
+ */
+public class FormEntityTest {
+
+	@Test
+	public void testEncode() throws IOException{
+		List<NameValuePair> params=new ArrayList<NameValuePair>();
+		params.add(new BasicNameValuePair("name", "ROCKAGEN"));
+		params.add(new BasicNameValuePair("q", "a b&c=d/中文~"));
+		params.add(new BasicNameValuePair("flag", null));
+		params.add(new BasicNameValuePair("empty", ""));
+		FormEntity entity=new FormEntity(params, Consts.UTF_8);
+		ByteArrayOutputStream out=new ByteArrayOutputStream();
+		entity.writeTo(out);
+		String form=out.toString("US-ASCII");
+		Assert.assertEquals(entity.getContentLength(), out.size());
+		Assert.assertEquals("application/x-www-form-urlencoded; charset=UTF-8", entity.getContentType().getValue());
+		Assert.assertTrue(form.startsWith("name=ROCKAGEN&q=a+b%26c%3Dd%2F%E4%B8%AD%E6%96%87%7E&flag&empty="));
+		// decodes the same
+		Assert.assertEquals(params.toString(), URLEncodedUtils.parse(form, Consts.UTF_8).toString());
+		Assert.assertEquals(form, EntityUtils.toString(entity));
+	}
+	
+	@Test
+	public void testEmptyName() throws IOException{
+		List<NameValuePair> params=new ArrayList<NameValuePair>();
+		params.add(new BasicNameValuePair("", null));
+		params.add(new BasicNameValuePair("a", "b"));
+		FormEntity entity=new FormEntity(params, Consts.UTF_8);
+		ByteArrayOutputStream out=new ByteArrayOutputStream();
+		entity.writeTo(out);
+		// the separator counts though nothing came before it
+		Assert.assertEquals("&a=b", out.toString("US-ASCII"));
+		Assert.assertEquals(entity.getContentLength(), out.size());
+	}
+	
+}
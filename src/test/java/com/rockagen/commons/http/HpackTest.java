@@ -0,0 +1,111 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author RA
+ * @since JDK1.6
+ */
+public class HpackTest {
+
+	private static byte[] hex(String s) {
+		byte[] b = new byte[s.length() / 2];
+		for (int i = 0; i < b.length; i++) {
+			b[i] = (byte) Integer.parseInt(s.substring(i * 2, i * 2 + 2), 16);
+		}
+		return b;
+	}
+
+	private static List<Header> decode(Hpack.Decoder decoder, String hex) throws IOException {
+		byte[] b = hex(hex);
+		return decoder.decode(b, 0, b.length);
+	}
+
+	@Test
+	public void testRequestsWithHuffman() throws IOException {
+		// RFC 7541 C.4,one decoder for the three requests of a connection
+		Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+		Assert.assertEquals("[:method: GET, :scheme: http, :path: /, :authority: www.example.com]",
+				decode(decoder, "828684418cf1e3c2e5f23a6ba0ab90f4ff").toString());
+		Assert.assertEquals(57, decoder.getTableSize());
+		Assert.assertEquals("[:method: GET, :scheme: http, :path: /, :authority: www.example.com, cache-control: no-cache]",
+				decode(decoder, "828684be5886a8eb10649cbf").toString());
+		Assert.assertEquals(110, decoder.getTableSize());
+		Assert.assertEquals("[:method: GET, :scheme: https, :path: /index.html, :authority: www.example.com, custom-key: custom-value]",
+				decode(decoder, "828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf").toString());
+		Assert.assertEquals(164, decoder.getTableSize());
+	}
+
+	@Test
+	public void testHuffmanString() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Hpack.writeString(out, "www.example.com");
+		// RFC 7541 C.4.1,the length octet has the Huffman bit
+		Assert.assertArrayEquals(hex("8cf1e3c2e5f23a6ba0ab90f4ff"), out.toByteArray());
+		byte[] code = hex("f1e3c2e5f23a6ba0ab90f4ff");
+		Assert.assertEquals("www.example.com", Hpack.decodeHuffman(code, 0, code.length));
+		try {
+			// padding that is not the most significant bits of EOS
+			Hpack.decodeHuffman(hex("f1e3c2e5f23a6ba0ab90f4fe"), 0, 12);
+			Assert.fail("bad padding accepted");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		List<Header> headers = new ArrayList<Header>();
+		headers.add(new BasicHeader(":method", "POST"));
+		headers.add(new BasicHeader(":scheme", "http"));
+		headers.add(new BasicHeader(":authority", "localhost:8080"));
+		headers.add(new BasicHeader(":path", "/echo?q=1"));
+		headers.add(new BasicHeader("accept-encoding", "gzip, deflate"));
+		headers.add(new BasicHeader("authorization", "Basic dXNlcjpwYXNz"));
+		headers.add(new BasicHeader("x-binary", "éÿ~{}"));
+		StringBuilder longValue = new StringBuilder();
+		for (int i = 0; i < 300; i++) {
+			longValue.append((char) ('a' + i % 26));
+		}
+		headers.add(new BasicHeader("x-long", longValue.toString()));
+		Hpack.Encoder encoder = new Hpack.Encoder();
+		Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+		for (int i = 0; i < 2; i++) {
+			byte[] block = encoder.encode(headers);
+			Assert.assertEquals(headers.toString(), decoder.decode(block, 0, block.length).toString());
+		}
+		// nothing is indexed by the encoder
+		Assert.assertEquals(0, decoder.getTableSize());
+	}
+
+	@Test(expected = IOException.class)
+	public void testTableSizeOverMax() throws IOException {
+		Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+		// dynamic table size update to 8192
+		decode(decoder, "3fe13f");
+	}
+
+}
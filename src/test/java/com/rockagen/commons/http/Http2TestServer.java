@@ -0,0 +1,407 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.Consts;
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+
+import static com.rockagen.commons.http.Http2Connection.*;
+
+/**
+ * Small h2c server of the tests,prior knowledge only.
+ * <p>
+ * Paths: <tt>/echo</tt> answers the request body (the method if there is
+ * none) and the <tt>x-test</tt> header, <tt>/slow</tt> answers after 200ms,
+ * <tt>/big?n</tt> answers n bytes, <tt>/hang</tt> answers when its stream
+ * is reset, <tt>/goaway</tt> answers and then sends GOAWAY.
+ * </p>
+ *
+ * @author RA
+ * @since JDK1.6
+ */
+class Http2TestServer {
+
+	final AtomicInteger connections = new AtomicInteger();
+
+	final AtomicInteger inFlight = new AtomicInteger();
+
+	final AtomicInteger maxInFlight = new AtomicInteger();
+
+	final AtomicInteger resets = new AtomicInteger();
+
+	private final ServerSocket serverSocket;
+
+	private final ExecutorService workers = Executors.newCachedThreadPool();
+
+	private final int maxStreams;
+
+	private volatile boolean closed;
+
+	Http2TestServer(int maxStreams) throws IOException {
+		this.maxStreams = maxStreams;
+		serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+		Thread acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (!closed) {
+					try {
+						final Socket socket = serverSocket.accept();
+						connections.incrementAndGet();
+						workers.execute(new Runnable() {
+							@Override
+							public void run() {
+								new Conn(socket).serve();
+							}
+						});
+					} catch (IOException e) {
+						// closed
+					}
+				}
+			}
+		}, "h2c-test-acceptor");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	void close() throws IOException {
+		closed = true;
+		serverSocket.close();
+		workers.shutdownNow();
+	}
+
+	private class Conn {
+
+		private final Socket socket;
+
+		private final InputStream in;
+
+		private final OutputStream out;
+
+		private final Hpack.Encoder encoder = new Hpack.Encoder();
+
+		private final Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+
+		private final Map<Integer, Req> streams = new HashMap<Integer, Req>();
+
+		// guarded by this
+		private long sendWindow = DEFAULT_WINDOW;
+
+		private int initialWindow = DEFAULT_WINDOW;
+
+		private int lastStreamId;
+
+		private boolean goaway;
+
+		Conn(Socket socket) {
+			this.socket = socket;
+			try {
+				in = new BufferedInputStream(socket.getInputStream());
+				out = new BufferedOutputStream(socket.getOutputStream());
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		void serve() {
+			try {
+				byte[] preface = new byte[PREFACE.length];
+				for (int off = 0; off < preface.length; ) {
+					int n = in.read(preface, off, preface.length - off);
+					if (n < 0) {
+						return;
+					}
+					off += n;
+				}
+				if (!Arrays.equals(PREFACE, preface)) {
+					throw new IOException("bad preface");
+				}
+				synchronized (out) {
+					writeSettings(out, false, SETTINGS_MAX_CONCURRENT_STREAMS, maxStreams);
+					out.flush();
+				}
+				byte[] header = new byte[9];
+				ByteArrayOutputStream block = null;
+				while (true) {
+					byte[] payload = readFrame(in, header, DEFAULT_FRAME_SIZE);
+					int type = typeOf(header);
+					int flags = flagsOf(header);
+					int id = streamIdOf(header);
+					if (type == HEADERS || type == CONTINUATION) {
+						if (type == HEADERS) {
+							block = new ByteArrayOutputStream();
+							int[] range = unpad(payload, flags, (flags & FLAG_PRIORITY) != 0 ? 5 : 0);
+							block.write(payload, range[0], range[1]);
+							Req req = new Req(id);
+							req.endStream = (flags & FLAG_END_STREAM) != 0;
+							synchronized (this) {
+								req.sendWindow = initialWindow;
+								streams.put(id, req);
+								lastStreamId = id;
+							}
+						} else {
+							block.write(payload, 0, payload.length);
+						}
+						if ((flags & FLAG_END_HEADERS) != 0) {
+							byte[] b = block.toByteArray();
+							Req req;
+							synchronized (this) {
+								req = streams.get(id);
+							}
+							req.headers = decoder.decode(b, 0, b.length);
+							block = null;
+							if (req.endStream) {
+								dispatch(req);
+							}
+						}
+					} else if (type == DATA) {
+						Req req;
+						synchronized (this) {
+							req = streams.get(id);
+						}
+						int[] range = unpad(payload, flags, 0);
+						synchronized (out) {
+							if (payload.length > 0) {
+								writeWindowUpdate(out, 0, payload.length);
+								if ((flags & FLAG_END_STREAM) == 0) {
+									writeWindowUpdate(out, id, payload.length);
+								}
+								out.flush();
+							}
+						}
+						if (req != null) {
+							req.body.write(payload, range[0], range[1]);
+							if ((flags & FLAG_END_STREAM) != 0) {
+								dispatch(req);
+							}
+						}
+					} else if (type == SETTINGS && (flags & FLAG_ACK) == 0) {
+						synchronized (this) {
+							for (int i = 0; i < payload.length; i += 6) {
+								int key = ((payload[i] & 0xFF) << 8) | (payload[i + 1] & 0xFF);
+								if (key == SETTINGS_INITIAL_WINDOW_SIZE) {
+									int value = readInt(payload, i + 2);
+									for (Req req : streams.values()) {
+										req.sendWindow += value - initialWindow;
+									}
+									initialWindow = value;
+								}
+							}
+							notifyAll();
+						}
+						synchronized (out) {
+							writeSettings(out, true);
+							out.flush();
+						}
+					} else if (type == WINDOW_UPDATE) {
+						int increment = readInt(payload, 0);
+						synchronized (this) {
+							if (id == 0) {
+								sendWindow += increment;
+							} else if (streams.get(id) != null) {
+								streams.get(id).sendWindow += increment;
+							}
+							notifyAll();
+						}
+					} else if (type == RST_STREAM) {
+						resets.incrementAndGet();
+						synchronized (this) {
+							Req req = streams.remove(id);
+							if (req != null) {
+								req.reset = true;
+							}
+							notifyAll();
+						}
+					} else if (type == PING && (flags & FLAG_ACK) == 0) {
+						synchronized (out) {
+							writeFrameHeader(out, payload.length, PING, FLAG_ACK, 0);
+							out.write(payload);
+							out.flush();
+						}
+					} else if (type == GOAWAY) {
+						break;
+					}
+				}
+			} catch (IOException e) {
+				// client gone
+			} finally {
+				synchronized (this) {
+					goaway = true;
+					notifyAll();
+				}
+				try {
+					socket.close();
+				} catch (IOException e) {
+					// closed
+				}
+			}
+		}
+
+		private void dispatch(final Req req) {
+			workers.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						handle(req);
+					} catch (IOException e) {
+						// stream or connection gone
+					} catch (InterruptedException e) {
+						// shut down
+					}
+				}
+			});
+		}
+
+		private void handle(Req req) throws IOException, InterruptedException {
+			String path = req.header(":path");
+			String method = req.header(":method");
+			byte[] body;
+			List<Header> headers = new ArrayList<Header>();
+			headers.add(new BasicHeader(":status", "200"));
+			headers.add(new BasicHeader("content-type", "text/plain"));
+			if (path.startsWith("/echo")) {
+				body = req.body.size() > 0 ? req.body.toByteArray() : method.getBytes(Consts.ASCII);
+				if (req.header("x-test") != null) {
+					headers.add(new BasicHeader("x-test", req.header("x-test")));
+				}
+				if (req.header("authorization") != null) {
+					headers.add(new BasicHeader("x-authorization", req.header("authorization")));
+				}
+			} else if (path.startsWith("/slow")) {
+				int now = inFlight.incrementAndGet();
+				synchronized (maxInFlight) {
+					maxInFlight.set(Math.max(maxInFlight.get(), now));
+				}
+				try {
+					Thread.sleep(200);
+				} finally {
+					inFlight.decrementAndGet();
+				}
+				body = "slow".getBytes(Consts.ASCII);
+			} else if (path.startsWith("/big")) {
+				body = new byte[Integer.parseInt(path.substring(path.indexOf('?') + 1))];
+				for (int i = 0; i < body.length; i++) {
+					body[i] = (byte) i;
+				}
+			} else if (path.startsWith("/hang")) {
+				synchronized (this) {
+					while (!req.reset && !goaway) {
+						wait();
+					}
+				}
+				return;
+			} else if (path.startsWith("/goaway")) {
+				body = "bye".getBytes(Consts.ASCII);
+			} else {
+				headers.set(0, new BasicHeader(":status", "404"));
+				body = new byte[0];
+			}
+			headers.add(new BasicHeader("content-length", Integer.toString(body.length)));
+			byte[] block = encoder.encode(headers);
+			synchronized (out) {
+				writeHeaders(out, req.id, block, body.length == 0, DEFAULT_FRAME_SIZE);
+				out.flush();
+			}
+			for (int off = 0; off < body.length; ) {
+				int n;
+				synchronized (this) {
+					while ((sendWindow <= 0 || req.sendWindow <= 0) && !req.reset && !goaway) {
+						wait();
+					}
+					if (req.reset || goaway) {
+						return;
+					}
+					n = (int) Math.min(body.length - off, Math.min(DEFAULT_FRAME_SIZE,
+							Math.min(sendWindow, req.sendWindow)));
+					sendWindow -= n;
+					req.sendWindow -= n;
+				}
+				synchronized (out) {
+					writeFrameHeader(out, n, DATA, off + n == body.length ? FLAG_END_STREAM : 0, req.id);
+					out.write(body, off, n);
+					out.flush();
+				}
+				off += n;
+			}
+			synchronized (this) {
+				streams.remove(req.id);
+			}
+			if (path.startsWith("/goaway")) {
+				synchronized (out) {
+					writeFrameHeader(out, 8, GOAWAY, 0, 0);
+					writeInt(out, lastStreamIdOf());
+					writeInt(out, NO_ERROR);
+					out.flush();
+				}
+			}
+		}
+
+		private synchronized int lastStreamIdOf() {
+			return lastStreamId;
+		}
+	}
+
+	private static class Req {
+
+		final int id;
+
+		List<Header> headers;
+
+		boolean endStream;
+
+		final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+		long sendWindow;
+
+		boolean reset;
+
+		Req(int id) {
+			this.id = id;
+		}
+
+		String header(String name) {
+			for (Header h : headers) {
+				if (name.equals(h.getName())) {
+					return h.getValue();
+				}
+			}
+			return null;
+		}
+	}
+
+}
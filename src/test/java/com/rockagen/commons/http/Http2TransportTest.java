@@ -0,0 +1,211 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.util.EntityUtils;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * @author RA
+ * @since JDK1.6
+ */
+public class Http2TransportTest {
+
+	private static Http2TestServer server;
+
+	private static String local;
+
+	@BeforeClass
+	public static void init() throws IOException {
+		server = new Http2TestServer(100);
+		local = "http://127.0.0.1:" + server.getPort();
+	}
+
+	@AfterClass
+	public static void destroy() throws IOException {
+		server.close();
+	}
+
+	@Test
+	public void testMultiplexing() throws Exception {
+		Http2Transport transport = new Http2Transport();
+		final HttpConnClient client = HttpConnClient.custom().baseUrl(local).transport(transport).build();
+		try {
+			Assert.assertEquals("GET", client.send("/echo"));
+			ExecutorService pool = Executors.newFixedThreadPool(20);
+			List<Future<String>> futures = new ArrayList<Future<String>>();
+			long start = System.currentTimeMillis();
+			for (int i = 0; i < 20; i++) {
+				futures.add(pool.submit(new Callable<String>() {
+					@Override
+					public String call() throws Exception {
+						return client.send("/slow");
+					}
+				}));
+			}
+			for (Future<String> f : futures) {
+				Assert.assertEquals("slow", f.get());
+			}
+			pool.shutdown();
+			// 20 calls of 200ms overlap on one connection
+			Assert.assertTrue(System.currentTimeMillis() - start < 20 * 200);
+			Assert.assertTrue(server.maxInFlight.get() > 1);
+			Assert.assertEquals(1, transport.getOpenedConnections());
+		} finally {
+			client.close();
+			transport.close();
+		}
+	}
+
+	@Test
+	public void testLargeBodies() throws IOException {
+		// over the default window of 65535 both ways
+		Http2Transport transport = new Http2Transport();
+		HttpConnClient client = HttpConnClient.custom().baseUrl(local).transport(transport).build();
+		try {
+			byte[] body = new byte[3 * 1024 * 1024];
+			for (int i = 0; i < body.length; i++) {
+				body[i] = (byte) (i % 251);
+			}
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			client.execute(HttpConnRequest.create(RequestMethod.POST, "/echo").body(body),
+					ResponseHandlers.toOutputStream(out));
+			Assert.assertArrayEquals(body, out.toByteArray());
+			out.reset();
+			client.execute(HttpConnRequest.get("/big?3000000"), ResponseHandlers.toOutputStream(out));
+			byte[] big = out.toByteArray();
+			Assert.assertEquals(3000000, big.length);
+			for (int i = 0; i < big.length; i++) {
+				Assert.assertEquals((byte) i, big[i]);
+			}
+		} finally {
+			client.close();
+			transport.close();
+		}
+	}
+
+	@Test
+	public void testHeaders() throws IOException {
+		Http2Transport transport = new Http2Transport();
+		try {
+			HttpGet get = new HttpGet("/echo");
+			get.addHeader("X-Test", "h2");
+			get.addHeader("Connection", "keep-alive");
+			HttpHost host = new HttpHost("127.0.0.1", server.getPort());
+			CloseableHttpResponse response = transport.execute(host, get, HttpClientContext.create(), SSLRegistry.DEFAULT_KEY);
+			try {
+				Assert.assertEquals(200, response.getStatusLine().getStatusCode());
+				Assert.assertEquals(Http2Transport.HTTP_2, response.getStatusLine().getProtocolVersion());
+				Assert.assertEquals("h2", response.getFirstHeader("x-test").getValue());
+				Assert.assertEquals("GET", EntityUtils.toString(response.getEntity()));
+			} finally {
+				response.close();
+			}
+			response = transport.execute(host, new HttpGet("/missing"), HttpClientContext.create(), SSLRegistry.DEFAULT_KEY);
+			Assert.assertEquals(404, response.getStatusLine().getStatusCode());
+			response.close();
+		} finally {
+			transport.close();
+		}
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		final Http2Transport transport = new Http2Transport();
+		try {
+			final HttpHost host = new HttpHost("127.0.0.1", server.getPort());
+			final HttpGet hang = new HttpGet("/hang");
+			int resets = server.resets.get();
+			Future<Object> f = Executors.newSingleThreadExecutor().submit(new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					return transport.execute(host, hang, HttpClientContext.create(), SSLRegistry.DEFAULT_KEY);
+				}
+			});
+			Thread.sleep(200);
+			hang.abort();
+			try {
+				f.get();
+				Assert.fail("aborted call returned");
+			} catch (ExecutionException e) {
+				Assert.assertTrue(e.getCause() instanceof IOException);
+			}
+			Thread.sleep(100);
+			Assert.assertEquals(resets + 1, server.resets.get());
+			// the connection carries on
+			CloseableHttpResponse response = transport.execute(host, new HttpGet("/echo"), HttpClientContext.create(),
+					SSLRegistry.DEFAULT_KEY);
+			Assert.assertEquals("GET", EntityUtils.toString(response.getEntity()));
+			response.close();
+			Assert.assertEquals(1, transport.getOpenedConnections());
+		} finally {
+			transport.close();
+		}
+	}
+
+	@Test
+	public void testGoaway() throws IOException {
+		Http2Transport transport = new Http2Transport();
+		HttpConnClient client = HttpConnClient.custom().baseUrl(local).transport(transport).build();
+		try {
+			Assert.assertEquals("bye", client.send("/goaway"));
+			Assert.assertEquals("GET", client.send("/echo"));
+			Assert.assertEquals(2, transport.getOpenedConnections());
+		} finally {
+			client.close();
+			transport.close();
+		}
+	}
+
+	@Test
+	public void testCredentials() throws IOException {
+		Http2Transport transport = new Http2Transport();
+		HttpConnClient client = HttpConnClient.custom().baseUrl(local).transport(transport)
+				.credentials("user", "pass").build();
+		try {
+			String auth = client.execute(HttpConnRequest.get("/echo"), new ResponseHandler<String>() {
+				@Override
+				public String handleResponse(HttpResponse response) {
+					return response.getFirstHeader("x-authorization").getValue();
+				}
+			});
+			Assert.assertEquals("Basic dXNlcjpwYXNz", auth);
+		} finally {
+			client.close();
+			transport.close();
+		}
+	}
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.util.EntityUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author RA
+ * @since JDK1.6
+ */
+public class HttpCompressionTest {
+
+	private static final String TEXT="rockagen rockagen rockagen rockagen rockagen rockagen";
+
+	@Test
+	public void testDeflate() throws IOException{
+		// zlib wrapped and raw deflate
+		for(boolean nowrap:new boolean[]{false,true}){
+			ByteArrayOutputStream bos=new ByteArrayOutputStream();
+			DeflaterOutputStream dos=new DeflaterOutputStream(bos, new Deflater(Deflater.DEFAULT_COMPRESSION, nowrap));
+			dos.write(TEXT.getBytes("UTF-8"));
+			dos.close();
+			HttpCompression stats=new HttpCompression();
+			HttpEntity entity=new DecodingEntity(new ByteArrayEntity(bos.toByteArray()), false, stats);
+			Assert.assertEquals(TEXT, EntityUtils.toString(entity, "UTF-8"));
+			Assert.assertEquals(TEXT.length(), stats.getResponseBytes());
+			Assert.assertEquals(bos.size(), stats.getResponseCompressedBytes());
+		}
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException{
+		for(String encoding:new String[]{HttpCompression.GZIP,HttpCompression.DEFLATE}){
+			HttpCompression stats=new HttpCompression(encoding, 10, true);
+			HttpEntity small=new ByteArrayEntity("small".getBytes("UTF-8"));
+			Assert.assertSame(small, stats.compress(small));
+			HttpEntity entity=stats.compress(new ByteArrayEntity(TEXT.getBytes("UTF-8")));
+			Assert.assertEquals(encoding, entity.getContentEncoding().getValue());
+			ByteArrayOutputStream bos=new ByteArrayOutputStream();
+			entity.writeTo(bos);
+			Assert.assertEquals(bos.size(), stats.getRequestCompressedBytes());
+			Assert.assertTrue(stats.getRequestRatio() > 1);
+			HttpEntity decoded=new DecodingEntity(new ByteArrayEntity(bos.toByteArray()), HttpCompression.GZIP.equals(encoding), null);
+			Assert.assertEquals(TEXT, EntityUtils.toString(decoded, "UTF-8"));
+		}
+	}
+
+}
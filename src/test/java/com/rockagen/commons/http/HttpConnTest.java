@@ -15,17 +15,61 @@
  */
 package com.rockagen.commons.http;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
+import org.apache.commons.codec.binary.Base64;
+import org.apache.http.Consts;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.junit.AfterClass;
+import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Ignore;
 import org.junit.Test;
 
 import com.rockagen.commons.util.FileUtil;
+import com.rockagen.commons.util.IOUtil;
+import com.rockagen.commons.util.JsonUtil;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
 
 /**
  * @author RA
@@ -36,6 +80,913 @@ public class HttpConnTest {
 	
 	private static Map<String,String> headers=new HashMap<String, String>();
 	
+	private static HttpServer server;
+	
+	private static String local;
+	
+	private static final AtomicInteger flaky=new AtomicInteger();
+	
+	private static final AtomicInteger etag=new AtomicInteger();
+	
+	private static final AtomicInteger hedge=new AtomicInteger();
+	
+	private static ExecutorService executor;
+	
+	@BeforeClass
+	public static void startServer() throws IOException{
+		server=HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/echo", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				byte[] in=IOUtil.toByteArray(exchange.getRequestBody());
+				byte[] out=in.length > 0 ? in : exchange.getRequestMethod().getBytes("UTF-8");
+				exchange.sendResponseHeaders(200, out.length);
+				OutputStream os=exchange.getResponseBody();
+				os.write(out);
+				os.close();
+			}
+		});
+		server.createContext("/json", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				byte[] out="{\"name\":\"ROCKAGEN\",\"age\":20}".getBytes("UTF-8");
+				exchange.getResponseHeaders().add("Content-Type", "application/json");
+				exchange.sendResponseHeaders(200, out.length);
+				OutputStream os=exchange.getResponseBody();
+				os.write(out);
+				os.close();
+			}
+		});
+		server.createContext("/header", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				String token=exchange.getRequestHeaders().getFirst("X-Token");
+				byte[] out=String.valueOf(token).getBytes("UTF-8");
+				exchange.sendResponseHeaders(200, out.length);
+				OutputStream os=exchange.getResponseBody();
+				os.write(out);
+				os.close();
+			}
+		});
+		server.createContext("/flaky", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				// fail twice then succeed
+				boolean ok=flaky.incrementAndGet()%3==0;
+				byte[] out=(ok?"ok":"unavailable").getBytes("UTF-8");
+				exchange.sendResponseHeaders(ok?200:503, out.length);
+				OutputStream os=exchange.getResponseBody();
+				os.write(out);
+				os.close();
+			}
+		});
+		server.createContext("/slow", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try{
+					Thread.sleep(300);
+				}catch(InterruptedException e){
+					Thread.currentThread().interrupt();
+				}
+				byte[] out="slow".getBytes("UTF-8");
+				exchange.sendResponseHeaders(200, out.length);
+				OutputStream os=exchange.getResponseBody();
+				os.write(out);
+				os.close();
+			}
+		});
+		server.createContext("/zip", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				// echo the body,decoded from and encoded to gzip if negotiated
+				InputStream in=exchange.getRequestBody();
+				if("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))){
+					in=new GZIPInputStream(in);
+				}
+				byte[] body=IOUtil.toByteArray(in);
+				String accept=exchange.getRequestHeaders().getFirst("Accept-Encoding");
+				if(accept!=null && accept.contains("gzip")){
+					ByteArrayOutputStream bos=new ByteArrayOutputStream();
+					GZIPOutputStream gos=new GZIPOutputStream(bos);
+					gos.write(body);
+					gos.close();
+					body=bos.toByteArray();
+					exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+				}
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream os=exchange.getResponseBody();
+				os.write(body);
+				os.close();
+			}
+		});
+		server.createContext("/etag", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				etag.incrementAndGet();
+				if("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))){
+					exchange.sendResponseHeaders(304, -1);
+					exchange.close();
+					return;
+				}
+				byte[] out="cached".getBytes("UTF-8");
+				String query=exchange.getRequestURI().getQuery();
+				exchange.getResponseHeaders().add("ETag", "\"v1\"");
+				exchange.getResponseHeaders().add("Cache-Control", "fresh".equals(query) ? "max-age=60" : "no-cache");
+				exchange.sendResponseHeaders(200, out.length);
+				OutputStream os=exchange.getResponseBody();
+				os.write(out);
+				os.close();
+			}
+		});
+		server.createContext("/whoami", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				IOUtil.toByteArray(exchange.getRequestBody());
+				String auth=exchange.getRequestHeaders().getFirst("Authorization");
+				if(auth==null){
+					exchange.getResponseHeaders().add("WWW-Authenticate", "Basic realm=\"test\"");
+					exchange.sendResponseHeaders(401, -1);
+					exchange.close();
+					return;
+				}
+				byte[] out=Base64.decodeBase64(auth.substring(6));
+				exchange.getResponseHeaders().add("Cache-Control", "max-age=60");
+				exchange.sendResponseHeaders(200, out.length);
+				OutputStream os=exchange.getResponseBody();
+				os.write(out);
+				os.close();
+			}
+		});
+		server.createContext("/drip", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				// the head at once,the body slowly
+				exchange.sendResponseHeaders(200, 0);
+				OutputStream os=exchange.getResponseBody();
+				try{
+					for(int i=0;i<3;i++){
+						os.write("drip".getBytes("UTF-8"));
+						os.flush();
+						Thread.sleep(100);
+					}
+				}catch(InterruptedException e){
+					Thread.currentThread().interrupt();
+				}
+				os.close();
+			}
+		});
+		server.createContext("/hedge", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				// every other call is late
+				if(hedge.incrementAndGet()%2==1){
+					try{
+						Thread.sleep(1000);
+					}catch(InterruptedException e){
+						Thread.currentThread().interrupt();
+					}
+				}
+				byte[] out="hedge".getBytes("UTF-8");
+				exchange.sendResponseHeaders(200, out.length);
+				OutputStream os=exchange.getResponseBody();
+				os.write(out);
+				os.close();
+			}
+		});
+		executor=Executors.newCachedThreadPool();
+		server.setExecutor(executor);
+		server.start();
+		local="http://127.0.0.1:"+server.getAddress().getPort();
+	}
+	
+	@AfterClass
+	public static void stopServer(){
+		server.stop(0);
+		executor.shutdownNow();
+	}
+	
+	@Test
+	public void testPooledEngine() throws IOException{
+		// the shared pool may keep connections of tests run before
+		Assert.assertEquals("GET", HttpConn.send(local+"/echo"));
+		int kept=HttpConn.getEngine().getTotalStats().getAvailable();
+		Assert.assertTrue(kept>=1);
+		for(int i=0;i<3;i++){
+			Assert.assertEquals("GET", HttpConn.send(local+"/echo"));
+			Assert.assertEquals("hello", HttpConn.sendBody(local+"/echo", "hello".getBytes("UTF-8")));
+		}
+		// connection released back to the pool and kept alive
+		Assert.assertEquals(0, HttpConn.getEngine().getTotalStats().getLeased());
+		Assert.assertEquals(kept, HttpConn.getEngine().getTotalStats().getAvailable());
+	}
+	
+	@Test
+	public void testResponseHandlers() throws IOException{
+		ByteArrayOutputStream out=new ByteArrayOutputStream();
+		Assert.assertEquals(Long.valueOf(5), HttpConn.sendBody(local+"/echo", "hello".getBytes("UTF-8"), RequestMethod.POST, ResponseHandlers.toOutputStream(out)));
+		Assert.assertEquals("hello", out.toString("UTF-8"));
+		
+		File file=File.createTempFile("HttpConnTest", ".json");
+		file.deleteOnExit();
+		HttpConn.send(local+"/json", ResponseHandlers.toFile(file));
+		Assert.assertEquals("{\"name\":\"ROCKAGEN\",\"age\":20}", FileUtil.readFileToString(file, "UTF-8"));
+		
+		out.reset();
+		HttpConn.send(local+"/echo", RequestMethod.DELETE, ResponseHandlers.toChannel(Channels.newChannel(out)));
+		Assert.assertEquals("DELETE", out.toString("UTF-8"));
+		
+		Map<?,?> json=HttpConn.send(local+"/json", ResponseHandlers.toJson(Map.class));
+		Assert.assertEquals("ROCKAGEN", json.get("name"));
+		Assert.assertEquals(20, json.get("age"));
+	}
+	
+	@Test
+	public void testStreamingBody() throws Exception{
+		Assert.assertEquals("stream", HttpConn.sendBody(local+"/echo", new ByteArrayInputStream("stream".getBytes("UTF-8")), -1, RequestMethod.POST));
+		Assert.assertEquals("length", HttpConn.sendBody(local+"/echo", new ByteArrayInputStream("length".getBytes("UTF-8")), 6, RequestMethod.PUT));
+		Assert.assertEquals("writer", HttpConn.sendBody(local+"/echo", new BodyWriter() {
+			@Override
+			public void writeTo(OutputStream out) throws IOException {
+				out.write("writer".getBytes("UTF-8"));
+			}
+		}, RequestMethod.POST));
+		
+		File file=File.createTempFile("HttpConnTest", ".txt");
+		file.deleteOnExit();
+		FileUtil.writeStringToFile(file, "file", "UTF-8");
+		Assert.assertEquals("file", HttpConn.sendBody(local+"/echo", file, RequestMethod.POST));
+		Assert.assertEquals("file", HttpConn.sendFileAsync(local+"/echo", file, RequestMethod.PUT, null).get(10, TimeUnit.SECONDS));
+	}
+	
+	@Test
+	public void testSendAsync() throws Exception{
+		List<Future<String>> futures=new ArrayList<Future<String>>();
+		for(int i=0;i<20;i++){
+			futures.add(HttpConn.sendAsync(local+"/echo", headers, RequestMethod.GET, null));
+			futures.add(HttpConn.sendBodyAsync(local+"/echo", ("body"+i).getBytes("UTF-8"), RequestMethod.POST, null));
+		}
+		for(int i=0;i<20;i++){
+			Assert.assertEquals("GET", futures.get(2*i).get(10, TimeUnit.SECONDS));
+			Assert.assertEquals("body"+i, futures.get(2*i+1).get(10, TimeUnit.SECONDS));
+		}
+	}
+	
+	@Test
+	public void testClient() throws IOException{
+		HttpConnClient client=HttpConnClient.custom()
+				.baseUrl(local)
+				.defaultHeader("X-Token", "default")
+				.socketTimeout(5000)
+				.maxPerRoute(5)
+				.build();
+		try{
+			Assert.assertEquals("GET", client.send("/echo"));
+			Assert.assertEquals("GET", client.send("echo"));
+			Assert.assertEquals("DELETE", client.send(local+"/echo", RequestMethod.DELETE));
+			Assert.assertEquals("body", client.sendBody("/echo", "body".getBytes("UTF-8"), RequestMethod.PUT));
+			Map<String,String> params=new HashMap<String,String>();
+			params.put("name", "ROCKAGEN");
+			Assert.assertEquals("name=ROCKAGEN", client.sendBody("/echo", params, RequestMethod.POST));
+
+			Assert.assertEquals("default", client.send("/header"));
+			Assert.assertEquals("request", client.execute(HttpConnRequest.get("/header").header("X-Token", "request").socketTimeout(1000)));
+			Map<?,?> json=client.execute(HttpConnRequest.get("/json"), ResponseHandlers.toJson(Map.class));
+			Assert.assertEquals("ROCKAGEN", json.get("name"));
+			Assert.assertEquals(0, client.getEngine().getTotalStats().getLeased());
+		}finally{
+			client.close();
+		}
+	}
+	
+	@Test
+	public void testResilience() throws IOException{
+		HttpResilience resilience=new HttpResilience(new RetryPolicy(2, 10, 50, false), 10, 10, 0.5f, 60000, 1);
+		HttpConnClient client=HttpConnClient.custom().baseUrl(local).resilience(resilience).deadline(5000).build();
+		try{
+			flaky.set(0);
+			Assert.assertEquals("ok", client.send("/flaky"));
+			Assert.assertEquals(3, flaky.get());
+			// not idempotent,no retry
+			Assert.assertEquals("unavailable", client.sendBody("/flaky", "x".getBytes("UTF-8"), RequestMethod.POST));
+			Assert.assertEquals(4, flaky.get());
+		}finally{
+			client.close();
+		}
+
+		ServerSocket ss=new ServerSocket(0);
+		String closed="http://127.0.0.1:"+ss.getLocalPort();
+		ss.close();
+		resilience=new HttpResilience(new RetryPolicy(2, 10, 50, false), 10, 2, 0.5f, 60000, 1);
+		client=HttpConnClient.custom().baseUrl(closed).resilience(resilience).build();
+		try{
+			for(int i=0;i<2;i++){
+				try{
+					client.send("/");
+					Assert.fail();
+				}catch(CircuitOpenException e){
+					break;
+				}catch(IOException e){
+					// refused
+				}
+			}
+			try{
+				client.send("/");
+				Assert.fail();
+			}catch(CircuitOpenException e){
+				Assert.assertEquals(CircuitBreaker.State.OPEN, resilience.breakerOf(HttpTarget.of(closed).getHttpHost()).getState());
+			}
+		}finally{
+			client.close();
+		}
+	}
+	
+	@Test
+	public void testMetrics() throws IOException{
+		HttpStats stats=new HttpStats();
+		HttpConnClient client=HttpConnClient.custom().baseUrl(local).metrics(stats).build();
+		try{
+			for(int i=0;i<5;i++){
+				Assert.assertEquals("hello", client.sendBody("/echo", "hello".getBytes("UTF-8"), RequestMethod.POST));
+			}
+			HttpStats.HostStats hs=stats.statsOf(HttpTarget.of(local).getHttpHost());
+			Assert.assertEquals(5, hs.getRequests());
+			Assert.assertEquals(5, hs.getStatus(2));
+			Assert.assertEquals(25, hs.getBytesSent());
+			Assert.assertEquals(25, hs.getBytesReceived());
+			Assert.assertEquals(1, hs.getConnect().getCount());
+			Assert.assertEquals(0, hs.getHandshake().getCount());
+			Map<String,Object> snapshot=stats.snapshot(client.getEngine());
+			Assert.assertTrue(JsonUtil.toJson(snapshot).contains("\"p99Micros\""));
+		}finally{
+			client.close();
+		}
+	}
+	
+	@Test
+	public void testTimeouts() throws IOException{
+		HttpConnClient client=HttpConnClient.custom()
+				.baseUrl(local)
+				.hostTimeouts(local, HttpTimeouts.of(1000, 100))
+				.build();
+		try{
+			try{
+				client.send("/slow");
+				Assert.fail();
+			}catch(SocketTimeoutException e){
+				// host timeout
+			}
+			Assert.assertEquals("slow", client.execute(HttpConnRequest.get("/slow").socketTimeout(2000)));
+			try{
+				client.execute(HttpConnRequest.get("/slow").socketTimeout(2000).deadline(100));
+				Assert.fail();
+			}catch(SocketTimeoutException e){
+				// deadline
+			}
+		}finally{
+			client.close();
+		}
+		RequestConfig base=HttpConn.getRequestConfig();
+		Assert.assertSame(base, HttpConn.getRequestConfig());
+		Assert.assertSame(base, new HttpTimeouts(HttpConn.CONNECT_TIMEOUT, -1, -1, 0).applyTo(base));
+		Assert.assertEquals(50, new HttpTimeouts(-1, -1, 50, 0).applyTo(base).getConnectionRequestTimeout());
+	}
+	
+	@Test
+	public void testTransport() throws IOException{
+		final HttpEngine engine=new HttpEngine();
+		final AtomicInteger calls=new AtomicInteger();
+		HttpTransport counting=new HttpTransport() {
+			@Override
+			public CloseableHttpResponse execute(HttpHost targetHost, HttpRequest request, HttpClientContext context, String keystore) throws IOException {
+				calls.incrementAndGet();
+				return engine.execute(targetHost, request, context, keystore);
+			}
+			@Override
+			public SSLRegistry getSSLRegistry() {
+				return engine.getSSLRegistry();
+			}
+			@Override
+			public void close() {
+				engine.close();
+			}
+		};
+		HttpConnClient client=HttpConnClient.custom().baseUrl(local).transport(counting).build();
+		try{
+			Assert.assertEquals("GET", client.send("/echo"));
+			Assert.assertEquals("PUT", client.send("/echo", RequestMethod.PUT));
+			Assert.assertEquals(2, calls.get());
+			Assert.assertNull(client.getEngine());
+		}finally{
+			client.close();
+			counting.close();
+		}
+	}
+	
+	@Test
+	public void testTransportRuntimeFailure() throws Exception{
+		final HttpEngine engine=new HttpEngine();
+		// 0 refuse,1 unchecked failure,2 pass
+		final AtomicInteger mode=new AtomicInteger();
+		HttpTransport failing=new HttpTransport() {
+			@Override
+			public CloseableHttpResponse execute(HttpHost targetHost, HttpRequest request, HttpClientContext context, String keystore) throws IOException {
+				switch(mode.get()){
+				case 0:
+					throw new IOException("refused");
+				case 1:
+					throw new IllegalStateException("Connection pool shut down");
+				default:
+					return engine.execute(targetHost, request, context, keystore);
+				}
+			}
+			@Override
+			public SSLRegistry getSSLRegistry() {
+				return engine.getSSLRegistry();
+			}
+			@Override
+			public void close() {
+				engine.close();
+			}
+		};
+		HttpResilience resilience=new HttpResilience(new RetryPolicy(0, 10, 50, false), 10, 2, 0.5f, 50, 1);
+		HttpLimits limits=new HttpLimits(2, 1, 2, 0, 0);
+		HttpConnClient client=HttpConnClient.custom().baseUrl(local).transport(failing).resilience(resilience)
+				.limits(limits).build();
+		CircuitBreaker breaker=resilience.breakerOf(HttpTarget.of(local).getHttpHost());
+		ConcurrencyLimiter limiter=limits.limiterOf(HttpTarget.of(local).getHttpHost());
+		try{
+			for(int i=0;i<2;i++){
+				try{
+					client.send("/echo");
+					Assert.fail();
+				}catch(IOException e){
+					// refused
+				}
+			}
+			Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+			Thread.sleep(100);
+			mode.set(1);
+			try{
+				client.send("/echo");
+				Assert.fail();
+			}catch(IllegalStateException e){
+				// the half open probe failed unchecked
+			}
+			Assert.assertEquals(0, limiter.getInFlight());
+			// the probe permit came back
+			mode.set(2);
+			Assert.assertEquals("GET", client.send("/echo"));
+			Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+			Assert.assertEquals(0, limiter.getInFlight());
+		}finally{
+			client.close();
+			failing.close();
+		}
+	}
+	
+	@Test
+	public void testCompression() throws IOException{
+		StringBuilder sb=new StringBuilder();
+		for(int i=0;i<500;i++){
+			sb.append("{\"name\":\"ROCKAGEN\",\"age\":").append(i).append("},");
+		}
+		String json=sb.toString();
+		HttpCompression compression=new HttpCompression(HttpCompression.GZIP, 1024, true);
+		HttpConnClient client=HttpConnClient.custom().baseUrl(local).compression(compression).build();
+		try{
+			Assert.assertEquals(json, client.sendBody("/zip", json.getBytes("UTF-8"), RequestMethod.POST));
+			Assert.assertEquals(json.length(), compression.getRequestBytes());
+			Assert.assertEquals(json.length(), compression.getResponseBytes());
+			Assert.assertTrue(compression.getRequestRatio() > 5);
+			Assert.assertTrue(compression.getResponseRatio() > 5);
+			// below threshold
+			Assert.assertEquals("small", client.sendBody("/zip", "small".getBytes("UTF-8"), RequestMethod.POST));
+			Assert.assertEquals(json.length(), compression.getRequestBytes());
+		}finally{
+			client.close();
+		}
+		// a transport that does not decode
+		final CloseableHttpClient raw=HttpClients.custom().disableContentCompression().build();
+		HttpTransport plain=new HttpTransport() {
+			@Override
+			public CloseableHttpResponse execute(HttpHost targetHost, HttpRequest request, HttpClientContext context, String keystore) throws IOException {
+				return raw.execute(targetHost, request, context);
+			}
+			@Override
+			public SSLRegistry getSSLRegistry() {
+				return SSLRegistry.getShared();
+			}
+			@Override
+			public void close() {
+				IOUtil.closeQuietly(raw);
+			}
+		};
+		compression=new HttpCompression(HttpCompression.GZIP, 1024, true);
+		client=HttpConnClient.custom().baseUrl(local).transport(plain).compression(compression).build();
+		try{
+			Assert.assertEquals(json, client.sendBody("/zip", json.getBytes("UTF-8"), RequestMethod.POST));
+			Assert.assertEquals(json.length(), compression.getResponseBytes());
+			Assert.assertTrue(compression.getResponseRatio() > 5);
+		}finally{
+			client.close();
+			plain.close();
+		}
+		// decoded by default,as before
+		Assert.assertEquals("plain", HttpConn.sendBody(local+"/zip", "plain".getBytes("UTF-8")));
+		compression=new HttpCompression(null, 0, false);
+		client=HttpConnClient.custom().baseUrl(local).compression(compression).build();
+		try{
+			Assert.assertEquals("plain", client.sendBody("/zip", "plain".getBytes("UTF-8"), RequestMethod.POST));
+			Assert.assertEquals(0, compression.getResponseBytes());
+		}finally{
+			client.close();
+		}
+	}
+	
+	@Test
+	public void testBatch() throws IOException{
+		List<HttpConnRequest> requests=new ArrayList<HttpConnRequest>();
+		for(int i=0;i<50;i++){
+			Map<String,String> params=new HashMap<String,String>();
+			params.put("id", String.valueOf(i));
+			requests.add(HttpConnRequest.post(local+"/echo").params(params));
+		}
+		requests.add(10, HttpConnRequest.get(local+"/slow"));
+		requests.add(20, HttpConnRequest.get("ftp://rockagen.com"));
+		long start=System.currentTimeMillis();
+		List<BatchResult<String>> results=HttpConn.sendAll(requests, 8);
+		Assert.assertTrue(System.currentTimeMillis()-start < 3000);
+		Assert.assertEquals(requests.size(), results.size());
+		Assert.assertEquals("slow", results.get(10).getValue());
+		Assert.assertFalse(results.get(20).isSuccess());
+		Assert.assertTrue(results.get(20).getError() instanceof IllegalArgumentException);
+		int id=0;
+		for(int i=0;i<results.size();i++){
+			if(i!=10 && i!=20){
+				Assert.assertSame(requests.get(i), results.get(i).getRequest());
+				Assert.assertEquals("id="+(id++), results.get(i).get());
+			}
+		}
+
+		HttpConnClient client=HttpConnClient.custom().baseUrl(local).build();
+		try{
+			List<BatchResult<Map>> json=client.executeAll(Arrays.asList(HttpConnRequest.get("/json"), HttpConnRequest.get("/json")),
+					ResponseHandlers.toJson(Map.class), 4, 1);
+			Assert.assertEquals("ROCKAGEN", json.get(1).get().get("name"));
+		}finally{
+			client.close();
+		}
+	}
+	
+	@Test
+	public void testBatchPerHost() throws IOException{
+		// a second host answering at once
+		HttpServer other=HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		other.createContext("/echo", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				exchange.sendResponseHeaders(200, 2);
+				OutputStream os=exchange.getResponseBody();
+				os.write("ok".getBytes("UTF-8"));
+				os.close();
+			}
+		});
+		other.start();
+		HttpConnClient client=HttpConnClient.custom().build();
+		try{
+			List<HttpConnRequest> requests=new ArrayList<HttpConnRequest>();
+			for(int i=0;i<4;i++){
+				requests.add(HttpConnRequest.get(local+"/slow"));
+			}
+			String fast="http://127.0.0.1:"+other.getAddress().getPort()+"/echo";
+			for(int i=0;i<2;i++){
+				requests.add(HttpConnRequest.get(fast));
+			}
+			// warm up both hosts
+			client.send(local+"/echo");
+			client.send(fast);
+			final long start=System.currentTimeMillis();
+			ResponseHandler<Long> doneAt=new ResponseHandler<Long>() {
+				@Override
+				public Long handleResponse(HttpResponse response) throws IOException {
+					EntityUtils.consume(response.getEntity());
+					return System.currentTimeMillis()-start;
+				}
+			};
+			List<BatchResult<Long>> results=client.executeAll(requests, doneAt, 4, 1);
+			// the slow host runs one at a time
+			Assert.assertTrue(results.get(3).get() >= 4*300);
+			for(int i=4;i<6;i++){
+				// alongside the slow host,not behind it waiting for a worker
+				Assert.assertTrue(results.get(i).get() < results.get(0).get());
+			}
+		}finally{
+			client.close();
+			other.stop(0);
+		}
+	}
+	
+	@Test
+	public void testBuffer() throws IOException{
+		BufferHandler<String> utf8=new BufferHandler<String>() {
+			@Override
+			public String handle(ByteBuffer content) throws IOException {
+				Assert.assertTrue(content.isReadOnly());
+				byte[] b=new byte[content.remaining()];
+				content.get(b);
+				return new String(b, "UTF-8");
+			}
+		};
+		ByteBufferPool pool=new ByteBufferPool(64, 4, 1024, false);
+		Assert.assertEquals("{\"name\":\"ROCKAGEN\",\"age\":20}", HttpConn.send(local+"/json", ResponseHandlers.toBuffer(pool, utf8)));
+		Assert.assertEquals(1, pool.size());
+		StringBuilder sb=new StringBuilder();
+		for(int i=0;i<100;i++){
+			sb.append("{\"name\":\"ROCKAGEN\",\"age\":").append(i).append("},");
+		}
+		String json=sb.toString();
+		HttpConnClient client=HttpConnClient.custom().baseUrl(local).build();
+		try{
+			// gzip,length unknown,grows from 64 bytes
+			for(boolean direct:new boolean[]{false,true}){
+				pool=new ByteBufferPool(64, 4, 1024, direct);
+				Assert.assertEquals(json, client.execute(HttpConnRequest.post("/zip").body(json.getBytes("UTF-8")),
+						ResponseHandlers.toBuffer(pool, utf8)));
+				// outgrown buffers are pooled,the last one is over max pooled capacity
+				Assert.assertEquals(4, pool.size());
+				Assert.assertEquals(direct, pool.acquire().isDirect());
+			}
+			Assert.assertEquals("", client.execute(HttpConnRequest.post("/zip").body(new byte[0]),
+					ResponseHandlers.toBuffer(pool, utf8)));
+		}finally{
+			client.close();
+		}
+	}
+	
+	@Test
+	public void testBufferFailure() throws IOException{
+		// fails after 100 bytes,the 16 bytes buffer has grown twice
+		InputStream broken=new InputStream() {
+			private int count;
+			@Override
+			public int read() throws IOException {
+				if(count++>=100){
+					throw new IOException("reset");
+				}
+				return 'a';
+			}
+		};
+		BasicHttpEntity entity=new BasicHttpEntity();
+		entity.setContent(broken);
+		HttpResponse response=new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+		response.setEntity(entity);
+		ByteBufferPool pool=new ByteBufferPool(16, 8, 1024, false);
+		try{
+			HttpConn.getResponse(response, pool, new BufferHandler<Integer>() {
+				@Override
+				public Integer handle(ByteBuffer content) {
+					return content.remaining();
+				}
+			});
+			Assert.fail("broken stream read");
+		}catch(IOException e){
+			Assert.assertEquals("reset", e.getMessage());
+		}
+		// every buffer went back once
+		Assert.assertEquals(4, pool.size());
+		List<ByteBuffer> idle=new ArrayList<ByteBuffer>();
+		for(int i=0;i<4;i++){
+			ByteBuffer buffer=pool.acquire();
+			for(ByteBuffer other:idle){
+				Assert.assertNotSame(other, buffer);
+			}
+			idle.add(buffer);
+		}
+	}
+	
+	@Test
+	public void testDnsResolver() throws IOException{
+		CachingDnsResolver dns=new CachingDnsResolver();
+		dns.override("api.rockagen.test", InetAddress.getByName("127.0.0.1"));
+		String url=local.replace("127.0.0.1", "api.rockagen.test");
+		HttpConnClient client=HttpConnClient.custom().baseUrl(url).dnsResolver(dns).build();
+		try{
+			Assert.assertEquals("GET", client.send("/echo"));
+		}finally{
+			client.close();
+		}
+	}
+	
+	@Test
+	public void testLimits() throws IOException{
+		HttpLimits limits=new HttpLimits(2, 1, 2, 0, 0);
+		HttpConnClient client=HttpConnClient.custom().baseUrl(local).limits(limits).build();
+		try{
+			List<HttpConnRequest> requests=new ArrayList<HttpConnRequest>();
+			for(int i=0;i<4;i++){
+				requests.add(HttpConnRequest.get("/slow"));
+			}
+			int shed=0;
+			for(BatchResult<String> result:client.executeAll(requests, 4, 4)){
+				if(result.isSuccess()){
+					Assert.assertEquals("slow", result.getValue());
+				}else{
+					Assert.assertTrue(result.getError() instanceof LimitExceededException);
+					shed++;
+				}
+			}
+			Assert.assertEquals(2, shed);
+			Assert.assertEquals(0, limits.limiterOf(new HttpHost("127.0.0.1", server.getAddress().getPort())).getInFlight());
+		}finally{
+			client.close();
+		}
+	}
+	
+	@Test
+	public void testCache() throws IOException{
+		HttpCache cache=new HttpCache();
+		HttpConnClient client=HttpConnClient.custom().baseUrl(local).cache(cache).build();
+		try{
+			etag.set(0);
+			// revalidated
+			Assert.assertEquals("cached", client.send("/etag"));
+			Assert.assertEquals("cached", client.send("/etag"));
+			Assert.assertEquals(2, etag.get());
+			Assert.assertEquals(1, cache.getMissCount());
+			Assert.assertEquals(1, cache.getRevalidationCount());
+			// fresh
+			Assert.assertEquals("cached", client.send("/etag?fresh"));
+			Assert.assertEquals("cached", client.send("/etag?fresh"));
+			Assert.assertEquals(3, etag.get());
+			Assert.assertEquals(1, cache.getHitCount());
+			Assert.assertEquals(2, cache.size());
+			// unsafe method invalidates
+			Assert.assertEquals("cached", client.sendBody("/etag?fresh", "x".getBytes("UTF-8"), RequestMethod.POST));
+			Assert.assertEquals(1, cache.size());
+			Assert.assertEquals("cached", client.send("/etag?fresh"));
+			Assert.assertEquals(5, etag.get());
+			// not cached
+			Assert.assertEquals("GET", client.send("/echo"));
+			Assert.assertEquals(2, cache.size());
+		}finally{
+			client.close();
+		}
+	}
+	
+	@Test
+	public void testCacheCredentials() throws IOException{
+		HttpCache cache=new HttpCache();
+		HttpConnClient client=HttpConnClient.custom().baseUrl(local).cache(cache).credentials("alice", "a").build();
+		try{
+			Assert.assertEquals("alice:a", client.send("/whoami"));
+			// same url,other caller
+			Assert.assertEquals("bob:b", client.execute(HttpConnRequest.get("/whoami").credentials(HttpConn.getUPC("bob", "b"))));
+			Assert.assertEquals("bob:c", client.execute(HttpConnRequest.get("/whoami").credentials(HttpConn.getUPC("bob", "c"))));
+			Assert.assertEquals(0, cache.getHitCount());
+			Assert.assertEquals("alice:a", client.send("/whoami"));
+			Assert.assertEquals("bob:b", client.execute(HttpConnRequest.get("/whoami").credentials(HttpConn.getUPC("bob", "b"))));
+			Assert.assertEquals(2, cache.getHitCount());
+			Assert.assertEquals(3, cache.size());
+			// every identity invalidated
+			client.sendBody("/whoami", "x".getBytes("UTF-8"), RequestMethod.POST);
+			Assert.assertEquals(0, cache.size());
+		}finally{
+			client.close();
+		}
+	}
+	
+	@Test
+	public void testHedging() throws IOException{
+		HedgePolicy policy=new HedgePolicy(100, 0, 0, 1);
+		HttpConnClient client=HttpConnClient.custom().baseUrl(local).hedging(policy).build();
+		try{
+			// warm up,never hedged,so the first attempt is not late on its own
+			Assert.assertEquals("POST", client.execute(HttpConnRequest.post("/echo")));
+			hedge.set(0);
+			long start=System.currentTimeMillis();
+			Assert.assertEquals("hedge", client.send("/hedge"));
+			Assert.assertTrue(System.currentTimeMillis()-start < 800);
+			Assert.assertEquals(1, policy.getHedgeCount());
+			Assert.assertEquals(1, policy.getWinCount());
+			// budget spent
+			start=System.currentTimeMillis();
+			Assert.assertEquals("hedge", client.send("/hedge"));
+			Assert.assertTrue(System.currentTimeMillis()-start >= 1000);
+			Assert.assertEquals(1, policy.getHedgeCount());
+			// POST is never hedged
+			Assert.assertEquals("POST", client.execute(HttpConnRequest.post("/echo").hedge(new HedgePolicy(0))));
+		}finally{
+			client.close();
+		}
+	}
+	
+	@Test
+	public void testHedgingHandledOnce() throws IOException{
+		HedgePolicy policy=new HedgePolicy(100, 0, 0, 1);
+		HttpConnClient client=HttpConnClient.custom().baseUrl(local).hedging(policy).build();
+		try{
+			Assert.assertEquals("POST", client.execute(HttpConnRequest.post("/echo")));
+			ByteArrayOutputStream out=new ByteArrayOutputStream();
+			final AtomicInteger handled=new AtomicInteger();
+			final ResponseHandler<Long> sink=ResponseHandlers.toOutputStream(out);
+			client.execute(HttpConnRequest.get("/drip"), new ResponseHandler<Long>() {
+				@Override
+				public Long handleResponse(HttpResponse response) throws IOException {
+					handled.incrementAndGet();
+					return sink.handleResponse(response);
+				}
+			});
+			// the head came in time,no copy though the body is late
+			Assert.assertEquals("dripdripdrip", out.toString("UTF-8"));
+			Assert.assertEquals(1, handled.get());
+			Assert.assertEquals(0, policy.getHedgeCount());
+			// the hedge wins,the late one never reaches the handler
+			hedge.set(0);
+			handled.set(0);
+			Assert.assertEquals("hedge", client.execute(HttpConnRequest.get("/hedge"), new ResponseHandler<String>() {
+				@Override
+				public String handleResponse(HttpResponse response) throws IOException {
+					handled.incrementAndGet();
+					return EntityUtils.toString(response.getEntity());
+				}
+			}));
+			Assert.assertEquals(1, policy.getWinCount());
+			Assert.assertEquals(1, handled.get());
+		}finally{
+			client.close();
+		}
+	}
+	
+	@Test
+	public void testSubmit() throws Exception{
+		HttpConnClient client=HttpConnClient.custom().baseUrl(local).build();
+		try{
+			final AtomicInteger completed=new AtomicInteger();
+			final AtomicInteger failed=new AtomicInteger();
+			final CountDownLatch done=new CountDownLatch(11);
+			FutureCallback<String> callback=new FutureCallback<String>() {
+				@Override
+				public void completed(String result) {
+					completed.incrementAndGet();
+					done.countDown();
+				}
+				@Override
+				public void failed(Exception ex) {
+					failed.incrementAndGet();
+					done.countDown();
+				}
+				@Override
+				public void cancelled() {
+				}
+			};
+			long start=System.currentTimeMillis();
+			List<Future<String>> futures=new ArrayList<Future<String>>();
+			for(int i=0;i<10;i++){
+				futures.add(client.submit(HttpConnRequest.get("/slow"), ResponseHandlers.toString("UTF-8"), callback));
+			}
+			Future<String> bad=client.submit(HttpConnRequest.get("http://"), ResponseHandlers.toString("UTF-8"), callback);
+			for(Future<String> future:futures){
+				Assert.assertEquals("slow", future.get(5, TimeUnit.SECONDS));
+			}
+			// in parallel
+			Assert.assertTrue(System.currentTimeMillis()-start < 2000);
+			try{
+				bad.get();
+				Assert.fail();
+			}catch(ExecutionException e){
+				Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+			}
+			// callbacks run after the futures complete
+			Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+			Assert.assertEquals(10, completed.get());
+			Assert.assertEquals(1, failed.get());
+			Assert.assertEquals("GET", HttpConn.submit(HttpConnRequest.get(local+"/echo"), null).get());
+		}finally{
+			client.close();
+		}
+	}
+	
+	@Test
+	public void testMultipart() throws IOException{
+		File file=File.createTempFile("HttpConnTest", ".txt");
+		file.deleteOnExit();
+		FileUtil.writeStringToFile(file, "file content", "UTF-8");
+		MultipartEntity body=new MultipartEntity("boundary", Consts.UTF_8)
+				.addText("name", "ROCKAGEN")
+				.addFile("file", file)
+				.addBytes("data", "data.bin", new byte[]{1,2,3}, null);
+		Assert.assertTrue(body.isRepeatable());
+		Assert.assertFalse(body.isChunked());
+		String echo=HttpConn.sendBody(local+"/echo", body, RequestMethod.POST);
+		Assert.assertEquals(body.getContentLength(), echo.getBytes("UTF-8").length);
+		Assert.assertTrue(echo.startsWith("--boundary\r\nContent-Disposition: form-data; name=\"name\"\r\n\r\nROCKAGEN\r\n"));
+		Assert.assertTrue(echo.contains("name=\"file\"; filename=\""+file.getName()+"\"\r\nContent-Type: application/octet-stream\r\n\r\nfile content\r\n"));
+		Assert.assertTrue(echo.endsWith("\r\n--boundary--\r\n"));
+		// unknown length,chunked
+		body=new MultipartEntity().addStream("s", "s.txt", new ByteArrayInputStream("streamed".getBytes("UTF-8")), -1, null);
+		Assert.assertTrue(body.isChunked());
+		Assert.assertTrue(HttpConn.sendBody(local+"/echo", body, RequestMethod.POST).contains("\r\n\r\nstreamed\r\n"));
+	}
 	
 	@BeforeClass
 	public static void initNvPairs(){
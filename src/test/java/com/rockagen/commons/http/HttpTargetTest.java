@@ -0,0 +1,92 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author RA
+ * @since JDK1.6
+ */
+public class HttpTargetTest {
+
+	@Test
+	public void testParse(){
+		HttpTarget ht=HttpTarget.parse("https://api.rockagen.com:8443/v1/users?id=1#top");
+		Assert.assertEquals("https", ht.getScheme());
+		Assert.assertEquals("api.rockagen.com", ht.getHost());
+		Assert.assertEquals(8443, ht.getPort());
+		Assert.assertEquals("/v1/users", ht.getPath());
+		Assert.assertEquals("id=1", ht.getQuery());
+		Assert.assertEquals("/v1/users?id=1", ht.getUri());
+		Assert.assertEquals("https://api.rockagen.com:8443", ht.getHttpHost().toURI());
+
+		ht=HttpTarget.parse("HTTPS://rockagen.com");
+		Assert.assertEquals("https", ht.getScheme());
+		Assert.assertEquals(443, ht.getPort());
+		Assert.assertEquals("/", ht.getUri());
+
+		ht=HttpTarget.parse("http://a.io?q");
+		Assert.assertEquals(80, ht.getPort());
+		Assert.assertEquals("/?q", ht.getUri());
+
+		ht=HttpTarget.parse("127.0.0.1:3128");
+		Assert.assertEquals("http", ht.getScheme());
+		Assert.assertEquals("127.0.0.1", ht.getHost());
+		Assert.assertEquals(3128, ht.getPort());
+
+		ht=HttpTarget.parse("http://user:pwd@[::1]:8080/x");
+		Assert.assertEquals("[::1]", ht.getHost());
+		Assert.assertEquals(8080, ht.getPort());
+		Assert.assertEquals("/x", ht.getUri());
+	}
+
+	@Test
+	public void testInvalid(){
+		String[] invalid={"ftp://rockagen.com/", "http:///path", "http://host:80a/", "http://host:99999", ""};
+		for(String target:invalid){
+			try{
+				HttpTarget.parse(target);
+				Assert.fail(target);
+			}catch(IllegalArgumentException e){
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testCache(){
+		HttpTarget.clearCache();
+		HttpTarget ht=HttpTarget.of("http://rockagen.com/a");
+		Assert.assertSame(ht, HttpTarget.of("http://rockagen.com/a"));
+		// one-off targets do not evict a hot one
+		for(int i=0;i<HttpTarget.CACHE_SIZE*4;i++){
+			HttpTarget.of("http://rockagen.com/?id="+i);
+			Assert.assertSame(ht, HttpTarget.of("http://rockagen.com/a"));
+		}
+		Assert.assertEquals(HttpTarget.CACHE_SIZE, HttpTarget.cacheSize());
+		// least recently used first
+		for(int i=0;i<HttpTarget.CACHE_SIZE*4;i++){
+			HttpTarget.of("http://rockagen.com/"+i);
+		}
+		Assert.assertEquals(HttpTarget.CACHE_SIZE, HttpTarget.cacheSize());
+		Assert.assertNotSame(ht, HttpTarget.of("http://rockagen.com/a"));
+		HttpTarget.clearCache();
+		Assert.assertEquals(0, HttpTarget.cacheSize());
+	}
+
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author RA
+ * @since JDK1.6
+ */
+public class LatencyHistogramTest {
+
+	@Test
+	public void testPercentile(){
+		LatencyHistogram h=new LatencyHistogram();
+		Assert.assertEquals(0, h.getPercentile(99));
+		for(int i=1;i<=1000;i++){
+			h.record(TimeUnit.MILLISECONDS.toNanos(i));
+		}
+		Assert.assertEquals(1000, h.getCount());
+		Assert.assertEquals(1000000, h.getMax());
+		Assert.assertEquals(500500, h.getMean(), 1);
+		assertNear(500000, h.getPercentile(50));
+		assertNear(990000, h.getPercentile(99));
+		Assert.assertEquals(1000000, h.getPercentile(100));
+		h.record(TimeUnit.MICROSECONDS.toNanos(3));
+		Assert.assertEquals(3, h.getPercentile(0));
+		h.reset();
+		Assert.assertEquals(0, h.getCount());
+	}
+
+	private static void assertNear(long expected, long actual){
+		Assert.assertTrue(actual+" not near "+expected, actual >= expected && actual <= expected*1.125);
+	}
+
+}
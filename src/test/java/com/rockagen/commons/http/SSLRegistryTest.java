@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.rockagen.commons.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.security.KeyStore;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.rockagen.commons.util.FileUtil;
+import com.rockagen.commons.util.MDUtil;
+
+/**
+ * @author RA
+ * @since JDK1.6
+ */
+public class SSLRegistryTest {
+	
+	private static byte[] keystore;
+	
+	@BeforeClass
+	public static void createKeystore() throws Exception{
+		KeyStore ks=KeyStore.getInstance(KeyStore.getDefaultType());
+		ks.load(null, null);
+		ByteArrayOutputStream out=new ByteArrayOutputStream();
+		ks.store(out, "changeit".toCharArray());
+		keystore=out.toByteArray();
+	}
+	
+	@Test
+	public void testRegister() throws IOException{
+		SSLRegistry registry=new SSLRegistry();
+		String key=registry.register(new ByteArrayInputStream(keystore), "changeit".toCharArray());
+		Assert.assertTrue(registry.contains(key));
+		Assert.assertEquals(key, registry.register(new ByteArrayInputStream(keystore), "changeit".toCharArray()));
+		// built once and shared
+		Assert.assertSame(registry.getSSLContext(key), registry.getSSLContext(key));
+		Assert.assertSame(registry.getSocketFactory(key), registry.getSocketFactory(key));
+		Assert.assertNotSame(registry.getSSLContext(SSLRegistry.DEFAULT_KEY), registry.getSSLContext(key));
+		Assert.assertEquals(SSLRegistry.DEFAULT_SESSION_CACHE_SIZE, registry.getSSLContext(key).getClientSessionContext().getSessionCacheSize());
+	}
+	
+	@Test
+	public void testIdentity() throws IOException{
+		String key=new SSLRegistry().register(new ByteArrayInputStream(keystore), "changeit".toCharArray());
+		// nothing of the password on its own
+		Assert.assertFalse(key.contains(MDUtil.sha1Hex("changeit")));
+		Assert.assertEquals(64, key.length());
+		// parts are not just concatenated
+		Assert.assertFalse(SSLRegistry.identity("ab".getBytes(), "c".getBytes()).equals(SSLRegistry.identity("a".getBytes(), "bc".getBytes())));
+	}
+	
+	@Test
+	public void testPreload() throws IOException{
+		File file=File.createTempFile("SSLRegistryTest", ".jks");
+		file.deleteOnExit();
+		FileUtil.writeByteArrayToFile(file, keystore);
+		SSLRegistry registry=new SSLRegistry();
+		String key=registry.preload(file, "changeit".toCharArray());
+		Assert.assertEquals(key, registry.register(new ByteArrayInputStream(keystore), "changeit".toCharArray()));
+	}
+	
+	@Test(expected=IOException.class)
+	public void testWrongPassword() throws IOException{
+		new SSLRegistry().register(new ByteArrayInputStream(keystore), "wrong".toCharArray());
+	}
+	
+	@Test
+	public void testInvalidKeystore() throws IOException{
+		SSLRegistry registry=new SSLRegistry();
+		try {
+			registry.register(new ByteArrayInputStream("not a keystore".getBytes()), "changeit".toCharArray());
+			Assert.fail();
+		} catch (IOException e) {
+			// no fallback to the default trust material
+		}
+		// a failure is not cached
+		String key=registry.register(new ByteArrayInputStream(keystore), "changeit".toCharArray());
+		Assert.assertNotSame(registry.getSSLContext(SSLRegistry.DEFAULT_KEY), registry.getSSLContext(key));
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testNotRegistered(){
+		new SSLRegistry().getSocketFactory("unknown");
+	}
+
+}
@@ -15,16 +15,29 @@
  */
 package com.rockagen.commons.util;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
+import org.junit.Assert;
 import org.junit.Ignore;
 import org.junit.Test;
 
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
  *
@@ -116,6 +129,275 @@ public class JsonUtilTest {
 		 }
 	}
 	
+	@Test
+	public void testSharedReaders(){
+		Assert.assertSame(JsonUtil.readerFor(TestVo.class), JsonUtil.readerFor(TestVo.class));
+		// one reader per type,not per TypeReference instance
+		Assert.assertSame(JsonUtil.readerFor(new TypeReference<List<TestVo>>(){}),
+				JsonUtil.readerFor(new TypeReference<List<TestVo>>(){}));
+		Assert.assertSame(JsonUtil.writerFor(TestVo.class), JsonUtil.writerFor(TestVo.class));
+		
+		TestVo vo=new TestVo("ROCKAGEN", 20, "agen@rockagen.com", new Date(0));
+		String json=JsonUtil.toJson(vo);
+		TestVo back=JsonUtil.toBean(json, TestVo.class);
+		Assert.assertEquals("ROCKAGEN", back.getName());
+		Assert.assertEquals(20, back.getAge());
+		Assert.assertEquals(new Date(0), back.getBir());
+		List<TestVo> list=JsonUtil.toBean("["+json+"]", new TypeReference<List<TestVo>>(){});
+		Assert.assertEquals("agen@rockagen.com", list.get(0).getEmail());
+		Assert.assertEquals("null", JsonUtil.toJson(null));
+	}
+	
+	@Test
+	public void testProfiles(){
+		TestVo vo=new TestVo("ROCKAGEN", 20, "agen@rockagen.com", new Date(0));
+		String compact=JsonUtil.toJson(vo, JsonUtil.Profile.COMPACT);
+		Assert.assertFalse(compact.contains("\n"));
+		Assert.assertTrue(JsonUtil.toJson(vo, JsonUtil.Profile.PRETTY).contains("\n"));
+		Assert.assertEquals(JsonUtil.toJson(vo, JsonUtil.Profile.PRETTY), JsonUtil.toJson(vo));
+		Assert.assertEquals("ROCKAGEN", JsonUtil.toBean(compact, TestVo.class, JsonUtil.Profile.COMPACT).getName());
+		
+		String loose="{name:'ROCKAGEN',age:20}";
+		Assert.assertNull(JsonUtil.toBean(loose, TestVo.class, JsonUtil.Profile.COMPACT));
+		Assert.assertEquals(20, JsonUtil.toBean(loose, TestVo.class, JsonUtil.Profile.LENIENT).getAge());
+		List<TestVo> list=JsonUtil.toBean(loose.getBytes(), new TypeReference<List<TestVo>>(){}, JsonUtil.Profile.LENIENT);
+		Assert.assertEquals("ROCKAGEN", list.get(0).getName());
+		
+		JsonUtil.setDefaultProfile(JsonUtil.Profile.COMPACT);
+		try {
+			Assert.assertEquals(compact, JsonUtil.toJson(vo));
+			Assert.assertSame(JsonUtil.getMapper(JsonUtil.Profile.COMPACT), JsonUtil.getMapper());
+		} finally {
+			JsonUtil.setDefaultProfile(JsonUtil.Profile.PRETTY);
+		}
+	}
+	
+	@Test
+	public void testToStream() throws Exception{
+		TestVo vo=new TestVo("ROCKAGEN \u6d4b\u8bd5", 20, "agen@rockagen.com", new Date(0));
+		String json=JsonUtil.toJson(vo, JsonUtil.Profile.COMPACT);
+		Assert.assertArrayEquals(json.getBytes("UTF-8"), JsonUtil.toJsonBytes(vo, JsonUtil.Profile.COMPACT));
+		Assert.assertArrayEquals("null".getBytes("UTF-8"), JsonUtil.toJsonBytes(null));
+		
+		final boolean[] closed={false};
+		ByteArrayOutputStream out=new ByteArrayOutputStream(){
+			@Override
+			public void close() throws IOException {
+				closed[0]=true;
+			}
+		};
+		JsonUtil.toJson(vo, out, JsonUtil.Profile.COMPACT);
+		Assert.assertEquals(json, out.toString("UTF-8"));
+		Assert.assertFalse(closed[0]);
+		
+		StringWriter writer=new StringWriter();
+		JsonUtil.toJson(vo, writer);
+		Assert.assertEquals(JsonUtil.toJson(vo), writer.toString());
+		
+		ByteBuffer buffer=ByteBuffer.allocate(1024);
+		buffer.put((byte) ' ');
+		int n=JsonUtil.toJson(vo, buffer, JsonUtil.Profile.COMPACT);
+		Assert.assertEquals(json.getBytes("UTF-8").length, n);
+		Assert.assertEquals(json, new String(buffer.array(), 1, n, "UTF-8"));
+		
+		ByteBuffer small=ByteBuffer.allocate(8);
+		try {
+			JsonUtil.toJson(vo, small);
+			Assert.fail();
+		} catch (IOException e) {
+			Assert.assertEquals(0, small.position());
+		}
+	}
+	
+	@Test
+	public void testStreamArray() throws Exception{
+		File file=File.createTempFile("json-array", ".json");
+		file.deleteOnExit();
+		int count=10000;
+		FileOutputStream out=new FileOutputStream(file);
+		try {
+			out.write('[');
+			for(int i=0;i<count;i++){
+				if(i>0)
+					out.write(',');
+				JsonUtil.toJson(new TestVo("ROCKAGEN "+i, i, "agen@rockagen.com", new Date(i)), out);
+			}
+			out.write(']');
+		} finally {
+			out.close();
+		}
+		
+		JsonUtil.ArrayIterator<TestVo> it=JsonUtil.streamArray(file, TestVo.class);
+		int n=0;
+		while(it.hasNext()){
+			TestVo vo=it.next();
+			Assert.assertEquals(n, vo.getAge());
+			Assert.assertEquals(new Date(n), vo.getBir());
+			n++;
+		}
+		Assert.assertEquals(count, n);
+		Assert.assertFalse(it.hasNext());
+		
+		JsonUtil.ArrayIterator<Map<String, Integer>> maps=JsonUtil.streamArray(
+				new ByteArrayInputStream("[{\"a\":1},null,{\"a\":2}]".getBytes("UTF-8")),
+				new TypeReference<Map<String, Integer>>(){});
+		Assert.assertEquals(Integer.valueOf(1), maps.next().get("a"));
+		Assert.assertNull(maps.next());
+		Assert.assertEquals(Integer.valueOf(2), maps.next().get("a"));
+		Assert.assertFalse(maps.hasNext());
 		
+		final boolean[] closed={false};
+		InputStream in=new ByteArrayInputStream("[1,2,3]".getBytes("UTF-8")){
+			@Override
+			public void close() throws IOException {
+				closed[0]=true;
+			}
+		};
+		JsonUtil.ArrayIterator<Integer> ints=JsonUtil.streamArray(in, Integer.class);
+		Assert.assertEquals(Integer.valueOf(1), ints.next());
+		ints.close();
+		Assert.assertTrue(closed[0]);
+		Assert.assertFalse(ints.hasNext());
+		
+		Assert.assertFalse(JsonUtil.streamArray(new ByteArrayInputStream("[]".getBytes("UTF-8")), Integer.class).hasNext());
+		try {
+			JsonUtil.streamArray(new ByteArrayInputStream("{}".getBytes("UTF-8")), Integer.class);
+			Assert.fail();
+		} catch (IOException e) {
+			// not an array
+		}
+	}
+	
+	@Test
+	public void testLines() throws Exception{
+		int count=20000;
+		ByteArrayOutputStream out=new ByteArrayOutputStream();
+		JsonUtil.LinesWriter writer=JsonUtil.writeLines(out);
+		try {
+			for(int i=0;i<count;i++){
+				writer.write(new TestVo("ROCKAGEN "+i, i, "agen@rockagen.com", new Date(i)));
+			}
+			// a line longer than a chunk
+			StringBuilder sb=new StringBuilder();
+			for(int i=0;i<10000;i++)
+				sb.append('x');
+			writer.write(new TestVo(sb.toString(), count, null, null));
+		} finally {
+			writer.close();
+		}
+		Assert.assertEquals(count+1, writer.getCount());
+		byte[] lines=out.toByteArray();
+		String text=new String(lines, "UTF-8");
+		Assert.assertTrue(text.startsWith("{\"name\":\"ROCKAGEN 0\","));
+		Assert.assertEquals(count+1, text.split("\n").length);
+		Assert.assertTrue(text.endsWith("}\n"));
+		
+		JsonUtil.LinesIterator<TestVo> it=JsonUtil.readLines(new ByteArrayInputStream(lines), TestVo.class);
+		int n=0;
+		while(it.hasNext()){
+			Assert.assertEquals(n++, it.next().getAge());
+		}
+		Assert.assertEquals(count+1, n);
+		
+		ExecutorService pool=Executors.newFixedThreadPool(4);
+		try {
+			it=new JsonUtil.LinesIterator<TestVo>(new ByteArrayInputStream(lines), JsonUtil.readerFor(TestVo.class),
+					pool, true, 4096);
+			n=0;
+			while(it.hasNext()){
+				TestVo vo=it.next();
+				Assert.assertEquals(n, vo.getAge());
+				if(n<count)
+					Assert.assertEquals(new Date(n), vo.getBir());
+				n++;
+			}
+			Assert.assertEquals(count+1, n);
+			
+			it=new JsonUtil.LinesIterator<TestVo>(new ByteArrayInputStream(lines), JsonUtil.readerFor(TestVo.class),
+					pool, false, 4096);
+			boolean[] seen=new boolean[count+1];
+			n=0;
+			while(it.hasNext()){
+				seen[it.next().getAge()]=true;
+				n++;
+			}
+			Assert.assertEquals(count+1, n);
+			for(boolean b : seen)
+				Assert.assertTrue(b);
+			
+			JsonUtil.LinesIterator<Map<String, Integer>> maps=JsonUtil.readLines(
+					new ByteArrayInputStream("{\"a\":1}\r\n\n  \n{\"a\":2}".getBytes("UTF-8")),
+					new TypeReference<Map<String, Integer>>(){}, pool, true);
+			Assert.assertEquals(Integer.valueOf(1), maps.next().get("a"));
+			Assert.assertEquals(Integer.valueOf(2), maps.next().get("a"));
+			Assert.assertFalse(maps.hasNext());
+			
+			it=JsonUtil.readLines(new ByteArrayInputStream("{\"age\":1}\n{bad}\n".getBytes("UTF-8")), TestVo.class,
+					pool, true);
+			try {
+				while(it.hasNext())
+					it.next();
+				Assert.fail();
+			} catch (IllegalStateException e) {
+				Assert.assertFalse(it.hasNext());
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	/**
+	 * Shared mapper against a mapper per thread,each thread of a new pool
+	 * starts cold as worker threads do
+	 */
+	@Test
+	@Ignore
+	public void benchmarkSharedMapper() throws Exception{
+		final String json=JsonUtil.toJson(new TestVo("ROCKAGEN", 20, "agen@rockagen.com", new Date()));
+		final ThreadLocal<ObjectMapper> local=new ThreadLocal<ObjectMapper>(){
+			@Override
+			protected ObjectMapper initialValue() {
+				return JsonUtil.getMapper().copy();
+			}
+		};
+		int threads=64;
+		final int calls=2000;
+		for(int round=0;round<3;round++){
+			long start=System.nanoTime();
+			run(threads, new Runnable() {
+				@Override
+				public void run() {
+					try{
+						for(int i=0;i<calls;i++){
+							local.get().readValue(json, TestVo.class);
+						}
+					}catch(Exception e){
+						throw new IllegalStateException(e);
+					}
+				}
+			});
+			long threadLocal=System.nanoTime()-start;
+			start=System.nanoTime();
+			run(threads, new Runnable() {
+				@Override
+				public void run() {
+					for(int i=0;i<calls;i++){
+						JsonUtil.toBean(json, TestVo.class);
+					}
+				}
+			});
+			long shared=System.nanoTime()-start;
+			System.out.println("thread local: "+threadLocal/1000000+"ms shared: "+shared/1000000+"ms");
+		}
+	}
+	
+	private static void run(int threads, Runnable task) throws InterruptedException{
+		ExecutorService executor=Executors.newFixedThreadPool(threads);
+		for(int i=0;i<threads;i++){
+			executor.execute(task);
+		}
+		executor.shutdown();
+		executor.awaitTermination(1, TimeUnit.MINUTES);
+	}
 
 }